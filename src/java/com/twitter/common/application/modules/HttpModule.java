@@ -47,6 +47,7 @@ import com.twitter.common.net.http.handlers.QuitHandler;
 import com.twitter.common.net.http.handlers.StringTemplateServlet.CacheTemplates;
 import com.twitter.common.net.http.handlers.ThreadStackPrinter;
 import com.twitter.common.net.http.handlers.TimeSeriesDataSource;
+import com.twitter.common.net.http.handlers.VarsDeltaHandler;
 import com.twitter.common.net.http.handlers.VarsHandler;
 import com.twitter.common.net.http.handlers.VarsJsonHandler;
 import com.twitter.common.net.http.handlers.pprof.ContentionProfileHandler;
@@ -218,6 +219,7 @@ public class HttpModule extends AbstractModule {
     Registration.registerServlet(binder(), "/threads", ThreadStackPrinter.class, false);
     Registration.registerServlet(binder(), "/vars", VarsHandler.class, false);
     Registration.registerServlet(binder(), "/vars.json", VarsJsonHandler.class, false);
+    Registration.registerServlet(binder(), "/vars.delta", VarsDeltaHandler.class, false);
 
     GraphViewer.registerResources(binder());
 
@@ -16,9 +16,15 @@
 
 package com.twitter.common.application.modules;
 
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -29,9 +35,14 @@ import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
 import com.twitter.common.base.Command;
+import com.twitter.common.metrics.MetricListener;
+import com.twitter.common.metrics.MetricPoller;
+import com.twitter.common.metrics.MetricSampler;
+import com.twitter.common.metrics.Metrics;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.JvmStats;
+import com.twitter.common.stats.MetricsStatRegistry;
 import com.twitter.common.stats.Stat;
 import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.StatRegistry;
@@ -45,10 +56,13 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * Binding module for injections related to the in-process stats system.
  *
- * This modules supports two command line arguments:
+ * This modules supports four command line arguments:
  * <ul>
  *   <li>{@code stat_sampling_interval} - Statistic value sampling interval.
  *   <li>{@code stat_retention_period} - Time for a stat to be retained in memory before expring.
+ *   <li>{@code stat_sample_metrics} - Whether to also record time series of the metrics in
+ *       {@link Metrics#root()}.
+ *   <li>{@code stat_downsampled_tiers} - Coarser resolutions to also keep time series at.
  * </ul>
  *
  * Bindings required by this module:
@@ -70,6 +84,17 @@ public class StatsModule extends AbstractModule {
   private static final Arg<Amount<Long, Time>> RETENTION_PERIOD =
       Arg.create(Amount.of(1L, Time.HOURS));
 
+  @CmdLine(name = "stat_sample_metrics",
+      help = "Whether to sample the root metric registry and record time series of its metrics.")
+  private static final Arg<Boolean> SAMPLE_METRICS = Arg.create(false);
+
+  @CmdLine(name = "stat_downsampled_tiers",
+      help = "Downsampled time series to keep in addition to the sampled ones, as resolution to "
+          + "retention period pairs such as 1mins=1days,10mins=7days.")
+  private static final Arg<Map<Amount<Long, Time>, Amount<Long, Time>>> DOWNSAMPLED_TIERS =
+      Arg.<Map<Amount<Long, Time>, Amount<Long, Time>>>create(
+          ImmutableMap.<Amount<Long, Time>, Amount<Long, Time>>of());
+
   public static Amount<Long, Time> getSamplingInterval() {
     return SAMPLING_INTERVAL.get();
   }
@@ -80,13 +105,25 @@ public class StatsModule extends AbstractModule {
     requireBinding(BuildInfo.class);
 
     // Bindings for TimeSeriesRepositoryImpl.
-    bind(StatRegistry.class).toInstance(Stats.STAT_REGISTRY);
+    if (SAMPLE_METRICS.get()) {
+      MetricSampler sampler = new MetricSampler(
+          Metrics.root(), ImmutableList.<MetricListener>of(), Metrics.root());
+      bind(MetricSampler.class).toInstance(sampler);
+      bind(StatRegistry.class).toInstance(
+          MetricsStatRegistry.attach(Stats.STAT_REGISTRY, sampler));
+      LifecycleModule.bindStartupAction(binder(), StartMetricPoller.class);
+    } else {
+      bind(StatRegistry.class).toInstance(Stats.STAT_REGISTRY);
+    }
     bind(new TypeLiteral<Amount<Long, Time>>() { })
         .annotatedWith(Names.named(TimeSeriesRepositoryImpl.SAMPLE_RETENTION_PERIOD))
         .toInstance(RETENTION_PERIOD.get());
     bind(new TypeLiteral<Amount<Long, Time>>() { })
         .annotatedWith(Names.named(TimeSeriesRepositoryImpl.SAMPLE_PERIOD))
         .toInstance(SAMPLING_INTERVAL.get());
+    bind(new TypeLiteral<Map<Amount<Long, Time>, Amount<Long, Time>>>() { })
+        .annotatedWith(Names.named(TimeSeriesRepositoryImpl.TIER_RETENTION_PERIODS))
+        .toInstance(DOWNSAMPLED_TIERS.get());
     bind(TimeSeriesRepository.class).to(TimeSeriesRepositoryImpl.class).in(Singleton.class);
 
     bind(new TypeLiteral<Supplier<Iterable<Stat<?>>>>() { }).toInstance(
@@ -130,4 +167,31 @@ public class StatsModule extends AbstractModule {
       timeSeriesRepository.start(shutdownRegistry);
     }
   }
+
+  /**
+   * Samples the root metric registry at the stat sampling interval, feeding the samples to the
+   * time series.
+   */
+  public static final class StartMetricPoller implements Command {
+    private final ShutdownRegistry shutdownRegistry;
+    private final MetricSampler sampler;
+
+    @Inject StartMetricPoller(ShutdownRegistry shutdownRegistry, MetricSampler sampler) {
+      this.shutdownRegistry = checkNotNull(shutdownRegistry);
+      this.sampler = checkNotNull(sampler);
+    }
+
+    @Override public void execute() {
+      ThreadFactory threadFactory =
+          new ThreadFactoryBuilder().setNameFormat("MetricPoller-%d").setDaemon(true).build();
+      final MetricPoller poller =
+          new MetricPoller(sampler, Executors.newSingleThreadScheduledExecutor(threadFactory));
+      poller.start(SAMPLING_INTERVAL.get());
+      shutdownRegistry.addAction(new Command() {
+        @Override public void execute() {
+          poller.stop();
+        }
+      });
+    }
+  }
 }
@@ -1,6 +1,6 @@
 package com.twitter.common.metrics;
 
-import java.util.concurrent.atomic.AtomicLong;
+import com.twitter.common.stats.StripedCounter;
 
 /**
  * Provides gauge composition to track per-event statistics, where a variable {@code value} is
@@ -17,8 +17,8 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class Events {
 
-  private final AtomicLong totalEvents;
-  private final AtomicLong totalValue;
+  private final StripedCounter totalEvents;
+  private final StripedCounter totalValue;
 
   /**
    * Creates a new event composition using custom event and value metric names.
@@ -29,17 +29,18 @@ public class Events {
    */
   public Events(String eventMetricName, String valueMetricName,
       MetricRegistry registry) {
-    totalEvents = registry.registerLong(eventMetricName);
-    totalValue = registry.registerLong(valueMetricName);
+    totalEvents = Metrics.registerCounter(registry, eventMetricName);
+    totalValue = Metrics.registerCounter(registry, valueMetricName);
   }
 
   /**
-   * Accumulates a value and increments the event counter.
+   * Accumulates a value and increments the event counter.  The two are updated independently,
+   * without locking, so a concurrent reader may see one updated before the other.
    *
    * @param value Value to accumulate.
    */
-  public synchronized void accumulate(long value) {
-    totalEvents.incrementAndGet();
-    totalValue.addAndGet(value);
+  public void accumulate(long value) {
+    totalEvents.increment();
+    totalValue.add(value);
   }
 }
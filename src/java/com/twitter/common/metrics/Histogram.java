@@ -9,6 +9,7 @@ import com.twitter.common.base.MorePreconditions;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
 import com.twitter.common.stats.ApproximateHistogram;
+import com.twitter.common.stats.LogLinearHistogram;
 import com.twitter.common.stats.Precision;
 import com.twitter.common.stats.Statistics;
 
@@ -21,6 +22,12 @@ public class Histogram {
   private static final Logger LOG = Logger.getLogger(Histogram.class.getName());
 
   private final com.twitter.common.stats.Histogram histogram;
+
+  /**
+   * Set when the histogram tracks count, sum, min and max itself, so that adding a data point
+   * does not take a lock.
+   */
+  private final LogLinearHistogram lockFreeHistogram;
   private final String name;
   private final double[] quantiles;
   private volatile long sum = 0;
@@ -47,6 +54,8 @@ public class Histogram {
 
     this.name = name;
     this.histogram = histogram;
+    this.lockFreeHistogram =
+        histogram instanceof LogLinearHistogram ? (LogLinearHistogram) histogram : null;
     this.quantiles = quantiles;
     this.stats = new Statistics();
 
@@ -77,6 +86,15 @@ public class Histogram {
     this(name, new ApproximateHistogram(maxMemory), DEFAULT_QUANTILES, registry);
   }
 
+  /**
+   * Construct a Histogram backed by a lock-free {@link LogLinearHistogram}, so that adding data
+   * points from many threads does not contend on a lock.
+   * @see #Histogram(String, Histogram, double[], MetricRegistry).
+   */
+  public Histogram(String name, LogLinearHistogram histogram, MetricRegistry registry) {
+    this(name, histogram, DEFAULT_QUANTILES, registry);
+  }
+
   /**
    * Resets the state of this Histogram. Clears all data points collected so far.
    */
@@ -88,10 +106,16 @@ public class Histogram {
   /**
    * Adds a data point.
    */
-  public synchronized void add(long n) {
-    sum += n;
-    stats.accumulate(n);
-    histogram.add(n);
+  public void add(long n) {
+    if (lockFreeHistogram != null) {
+      lockFreeHistogram.add(n);
+      return;
+    }
+    synchronized (this) {
+      sum += n;
+      stats.accumulate(n);
+      histogram.add(n);
+    }
   }
 
   /**
@@ -101,22 +125,28 @@ public class Histogram {
     MetricRegistry registry = metrics.scope(name);
     registry.register(new AbstractGauge<Long>("count") {
       @Override public Long read() {
-        return stats.populationSize();
+        return lockFreeHistogram != null ? lockFreeHistogram.getCount() : stats.populationSize();
       }
     });
     registry.register(new AbstractGauge<Long>("sum") {
       @Override public Long read() {
-        return sum;
+        return lockFreeHistogram != null ? lockFreeHistogram.getSum() : sum;
       }
     });
     registry.register(new AbstractGauge<Long>("avg") {
       @Override public Long read() {
+        if (lockFreeHistogram != null) {
+          long count = lockFreeHistogram.getCount();
+          return count == 0 ? 0L : lockFreeHistogram.getSum() / count;
+        }
         return (long) stats.mean();
       }
     });
     registry.register(new AbstractGauge<Long>("min") {
       @Override public Long read() {
-        if (stats.populationSize() == 0) {
+        if (lockFreeHistogram != null) {
+          return lockFreeHistogram.getMin();
+        } else if (stats.populationSize() == 0) {
           return 0L;
         } else {
           return stats.min();
@@ -125,7 +155,9 @@ public class Histogram {
     });
     registry.register(new AbstractGauge<Long>("max") {
       @Override public Long read() {
-        if (stats.populationSize() == 0) {
+        if (lockFreeHistogram != null) {
+          return lockFreeHistogram.getMax();
+        } else if (stats.populationSize() == 0) {
           return 0L;
         } else {
           return stats.max();
@@ -13,13 +13,25 @@ import com.twitter.common.util.Clock;
 /**
  * A sampler that associates a {@link MetricProvider} with multiple {@link MetricListener}s.
  */
-class MetricSampler implements Runnable {
+public class MetricSampler implements Runnable {
 
   private final MetricProvider metricProvier;
   private final List<MetricListener> listeners;
   private final Clock clock;
   private final Events events;
 
+  /**
+   * Creates a new metric sampler.
+   *
+   * @param metricProvider Source of metric samples.
+   * @param listeners Sample sinks.
+   * @param registry Registry to export sampling-related metrics to.
+   */
+  public MetricSampler(MetricProvider metricProvider, Iterable<MetricListener> listeners,
+      MetricRegistry registry) {
+    this(metricProvider, listeners, registry, Clock.SYSTEM_CLOCK);
+  }
+
   /**
    * Creates a new metric sampler.
    *
@@ -38,6 +50,11 @@ class MetricSampler implements Runnable {
     this.events = new Events("metric_samples", "metric_sample_delay", registry);
   }
 
+  /**
+   * Adds a listener to be fed the samples of subsequent sampling passes.
+   *
+   * @param listener Sample sink to add.
+   */
   public void addListener(MetricListener listener) {
     listeners.add(listener);
   }
@@ -1,21 +1,38 @@
 package com.twitter.common.metrics;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.UnmodifiableIterator;
+
+import com.twitter.common.stats.StripedCounter;
 
 /**
  * Root metric registry.
+ *
+ * Gauges registered through any {@link #scope(String) scope} are held here under their fully
+ * qualified names, so reading a gauge costs the same however deeply it is scoped.  Sampling reads
+ * the gauges from a flat array that is rebuilt only when gauges are registered, and returns a map
+ * that shares its key index with other samples taken between registrations.
  */
 public class Metrics implements MetricRegistry, MetricProvider {
 
   private static final Metrics ROOT = new Metrics();
 
-  private final Map<String, Gauge> metrics = Maps.newConcurrentMap();
+  // Guarded by this.
+  private final Map<String, Gauge<?>> metrics = Maps.newLinkedHashMap();
 
+  // Rebuilt on the first sample after a registration, so that registering many gauges in a row
+  // does not rebuild it for each of them.
+  private volatile GaugeSnapshot snapshot = null;
 
   @VisibleForTesting
   Metrics() {
@@ -47,8 +64,34 @@ public class Metrics implements MetricRegistry, MetricProvider {
 
   @Override
   public <T extends Number> void register(Gauge<T> gauge) {
+    register(gauge.getName(), gauge);
+  }
+
+  /**
+   * Registers a gauge under a name other than its own, so that scopes need not wrap gauges to
+   * rename them.
+   *
+   * @param name Fully qualified name of the gauge.
+   * @param gauge Gauge to register.
+   */
+  synchronized void register(String name, Gauge<?> gauge) {
     // TODO(wfarner): Define a policy for handling collisions.
-    metrics.put(gauge.getName(), gauge);
+    metrics.put(name, gauge);
+    snapshot = null;
+  }
+
+  private GaugeSnapshot getSnapshot() {
+    GaugeSnapshot current = snapshot;
+    if (current == null) {
+      synchronized (this) {
+        current = snapshot;
+        if (current == null) {
+          current = new GaugeSnapshot(metrics);
+          snapshot = current;
+        }
+      }
+    }
+    return current;
   }
 
   @Override
@@ -62,12 +105,108 @@ public class Metrics implements MetricRegistry, MetricProvider {
     return gauge;
   }
 
+  /**
+   * Creates a gauge in a registry and returns a {@link StripedCounter} that can be incremented
+   * concurrently by many threads to update the value.
+   *
+   * @param registry Registry to create the gauge in.
+   * @param name Name to associate with the gauge.
+   * @return Handle to modify the gauge value.
+   */
+  public static StripedCounter registerCounter(MetricRegistry registry, String name) {
+    final StripedCounter gauge = new StripedCounter();
+    registry.register(new AbstractGauge<Long>(name) {
+      @Override public Long read() {
+        return gauge.get();
+      }
+    });
+    return gauge;
+  }
+
   @Override
   public Map<String, Number> sample() {
-    ImmutableMap.Builder<String, Number> samples = ImmutableMap.builder();
-    for (Map.Entry<String, Gauge> metric : metrics.entrySet()) {
-      samples.put(metric.getKey(), metric.getValue().read());
+    GaugeSnapshot current = getSnapshot();
+    Number[] values = new Number[current.gauges.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = current.gauges[i].read();
+    }
+    return new Samples(current, values);
+  }
+
+  /**
+   * The registered gauges in a flat array, with an index from name to position.
+   */
+  private static class GaugeSnapshot {
+    private final String[] names;
+    private final Gauge<?>[] gauges;
+    private final ImmutableMap<String, Integer> index;
+
+    GaugeSnapshot(Map<String, Gauge<?>> metrics) {
+      names = new String[metrics.size()];
+      gauges = new Gauge<?>[metrics.size()];
+      ImmutableMap.Builder<String, Integer> indexBuilder = ImmutableMap.builder();
+      int i = 0;
+      for (Map.Entry<String, Gauge<?>> metric : metrics.entrySet()) {
+        names[i] = metric.getKey();
+        gauges[i] = metric.getValue();
+        indexBuilder.put(metric.getKey(), i);
+        i++;
+      }
+      index = indexBuilder.build();
+    }
+  }
+
+  /**
+   * An immutable map of sampled values, keyed through the index of the snapshot they were read
+   * from.
+   */
+  private static class Samples extends AbstractMap<String, Number> {
+    private final GaugeSnapshot snapshot;
+    private final Number[] values;
+
+    Samples(GaugeSnapshot snapshot, Number[] values) {
+      this.snapshot = snapshot;
+      this.values = values;
+    }
+
+    @Override public int size() {
+      return values.length;
+    }
+
+    @Override public boolean containsKey(Object key) {
+      return snapshot.index.containsKey(key);
+    }
+
+    @Override public Number get(Object key) {
+      Integer position = snapshot.index.get(key);
+      return position == null ? null : values[position];
+    }
+
+    @Override public Set<Entry<String, Number>> entrySet() {
+      return new AbstractSet<Entry<String, Number>>() {
+        @Override public int size() {
+          return values.length;
+        }
+
+        @Override public Iterator<Entry<String, Number>> iterator() {
+          return new UnmodifiableIterator<Entry<String, Number>>() {
+            private int next = 0;
+
+            @Override public boolean hasNext() {
+              return next < values.length;
+            }
+
+            @Override public Entry<String, Number> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              Entry<String, Number> entry = Maps.immutableEntry(snapshot.names[next], values[next]);
+              next++;
+              return entry;
+            }
+          };
+        }
+      };
     }
-    return samples.build();
   }
 }
@@ -9,12 +9,16 @@ import com.twitter.common.base.MorePreconditions;
 
 /**
  * A metric registry that is a 'child' of another metric registry.
+ *
+ * Nested scopes are flattened: a scope of a scope registers with the same parent as its own parent
+ * does, under a prefix that already includes every enclosing scope name.  When that parent is a
+ * {@link Metrics}, gauges are registered with it directly rather than wrapped to rename them.
  */
 public class ScopedMetrics implements MetricRegistry {
 
   @VisibleForTesting static final String SCOPE_DELIMITER = ".";
 
-  private final String name;
+  private final String prefix;
   private final MetricRegistry parentScope;
 
   /**
@@ -27,8 +31,16 @@ public class ScopedMetrics implements MetricRegistry {
    */
   @VisibleForTesting
   ScopedMetrics(String name, MetricRegistry parentScope) {
-    this.name = MorePreconditions.checkNotBlank(name);
-    this.parentScope = Preconditions.checkNotNull(parentScope);
+    String prefix = MorePreconditions.checkNotBlank(name) + SCOPE_DELIMITER;
+    Preconditions.checkNotNull(parentScope);
+    if (parentScope instanceof ScopedMetrics) {
+      ScopedMetrics parent = (ScopedMetrics) parentScope;
+      this.prefix = parent.prefix + prefix;
+      this.parentScope = parent.parentScope;
+    } else {
+      this.prefix = prefix;
+      this.parentScope = parentScope;
+    }
   }
 
   @Override
@@ -37,17 +49,21 @@ public class ScopedMetrics implements MetricRegistry {
   }
 
   private String scopeName(String metricName) {
-    return name + SCOPE_DELIMITER + metricName;
+    return prefix + metricName;
   }
 
   @Override
   public <T extends Number> void register(final Gauge<T> gauge) {
     final String scopedName = scopeName(gauge.getName());
-    parentScope.register(new AbstractGauge<T>(scopedName) {
-      @Override public T read() {
-        return gauge.read();
-      }
-    });
+    if (parentScope instanceof Metrics) {
+      ((Metrics) parentScope).register(scopedName, gauge);
+    } else {
+      parentScope.register(new AbstractGauge<T>(scopedName) {
+        @Override public T read() {
+          return gauge.read();
+        }
+      });
+    }
   }
 
   @Override
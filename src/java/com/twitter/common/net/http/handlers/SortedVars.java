@@ -0,0 +1,170 @@
+package com.twitter.common.net.http.handlers;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+
+import com.twitter.common.stats.Stat;
+
+/**
+ * The variables to render in a vars response, filtered by name prefix and ordered by name.
+ *
+ * {@link com.twitter.common.stats.Stats#getVariables()} already returns variables in name order,
+ * so sorting is skipped unless the supplied variables are out of order.  Each variable's name is
+ * fetched exactly once.
+ */
+final class SortedVars {
+
+  /**
+   * Query parameter that restricts a response to the variables whose names start with its value.
+   * It may be given more than once.
+   */
+  static final String PREFIX_PARAM = "prefix";
+
+  private static final String GZIP_ENCODING = "gzip";
+
+  private final String[] names;
+  private final Stat<?>[] stats;
+  private final int size;
+
+  private SortedVars(String[] names, Stat<?>[] stats, int size) {
+    this.names = names;
+    this.stats = stats;
+    this.size = size;
+  }
+
+  /**
+   * Indexes variables by name.
+   *
+   * @param vars Variables to index.
+   * @param prefixes Name prefixes of the variables to keep, or {@code null} to keep all of them.
+   * @return The matching variables in name order.
+   */
+  static SortedVars of(Iterable<Stat<?>> vars, @Nullable String[] prefixes) {
+    int capacity = Iterables.size(vars);
+    String[] names = new String[capacity];
+    Stat<?>[] stats = new Stat<?>[capacity];
+    int size = 0;
+    boolean sorted = true;
+    for (Stat<?> var : vars) {
+      String name = var.getName();
+      if (matches(name, prefixes)) {
+        sorted &= size == 0 || names[size - 1].compareTo(name) <= 0;
+        names[size] = name;
+        stats[size] = var;
+        size++;
+      }
+    }
+
+    if (!sorted) {
+      final String[] unsortedNames = names;
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override public int compare(Integer a, Integer b) {
+          return unsortedNames[a].compareTo(unsortedNames[b]);
+        }
+      });
+      String[] sortedNames = new String[size];
+      Stat<?>[] sortedStats = new Stat<?>[size];
+      for (int i = 0; i < size; i++) {
+        sortedNames[i] = names[order[i]];
+        sortedStats[i] = stats[order[i]];
+      }
+      names = sortedNames;
+      stats = sortedStats;
+    }
+    return new SortedVars(names, stats, size);
+  }
+
+  /**
+   * Indexes the variables selected by a request's {@link #PREFIX_PARAM} parameters.
+   *
+   * @param vars Variables to index.
+   * @param request Request for the variables.
+   * @return The matching variables in name order.
+   */
+  static SortedVars of(Iterable<Stat<?>> vars, HttpServletRequest request) {
+    return of(vars, request.getParameterValues(PREFIX_PARAM));
+  }
+
+  private static boolean matches(String name, @Nullable String[] prefixes) {
+    if (prefixes == null) {
+      return true;
+    }
+    for (String prefix : prefixes) {
+      if (name.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  int size() {
+    return size;
+  }
+
+  String getName(int index) {
+    return names[index];
+  }
+
+  Stat<?> getStat(int index) {
+    return stats[index];
+  }
+
+  /**
+   * Opens a writer for the body of a response, compressing it if the client accepts gzip.
+   *
+   * @param request The request being responded to.
+   * @param response The response to write.
+   * @param contentType Content type of the response.
+   * @return A buffered writer for the response body, which must be closed.
+   * @throws IOException If the response body could not be opened.
+   */
+  static Writer openWriter(HttpServletRequest request, HttpServletResponse response,
+      String contentType) throws IOException {
+
+    response.setCharacterEncoding(Charsets.UTF_8.name());
+    return new BufferedWriter(
+        new OutputStreamWriter(openStream(request, response, contentType), Charsets.UTF_8));
+  }
+
+  /**
+   * Opens a stream for the body of a response, compressing it if the client accepts gzip.
+   *
+   * @param request The request being responded to.
+   * @param response The response to write.
+   * @param contentType Content type of the response.
+   * @return A buffered stream for the response body, which must be closed.
+   * @throws IOException If the response body could not be opened.
+   */
+  static OutputStream openStream(HttpServletRequest request, HttpServletResponse response,
+      String contentType) throws IOException {
+
+    response.setContentType(contentType);
+    response.setStatus(HttpServletResponse.SC_OK);
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (acceptEncoding != null && Iterables.contains(
+        Splitter.on(",").trimResults().split(acceptEncoding), GZIP_ENCODING)) {
+      response.setHeader("Content-Encoding", GZIP_ENCODING);
+      return new BufferedOutputStream(new GZIPOutputStream(response.getOutputStream()));
+    }
+    return new BufferedOutputStream(response.getOutputStream());
+  }
+}
@@ -0,0 +1,197 @@
+package com.twitter.common.net.http.handlers;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.gson.stream.JsonWriter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.twitter.common.stats.Stat;
+import com.twitter.common.stats.StatChangeTracker;
+import com.twitter.common.stats.StatChangeTracker.Delta;
+import com.twitter.common.stats.Stats;
+
+/**
+ * A servlet that returns only the variables whose values changed since a client last polled.
+ *
+ * Each response carries a token, which the client passes back in the 'since' URL parameter of its
+ * next request to receive just the variables that changed in between.  A request without a token,
+ * or with a token the server does not recognize (for example because the server restarted), gets
+ * every variable, and the response is marked as full so that the client can discard what it
+ * already holds.  Variables that have gone away since the token was issued are listed as removed.
+ * Clients keep their own tokens, so any number of them can poll independently.
+ *
+ * By default the response is JSON:
+ * <pre>
+ *   {
+ *     "token": "k3x9a-42",
+ *     "full": false,
+ *     "vars": {
+ *       "var_a": 2,
+ *       "var_c": "a string value"
+ *     },
+ *     "removed": ["var_d"]
+ *   }
+ * </pre>
+ *
+ * With the URL parameter 'format=binary' the response is instead a compact binary encoding, in
+ * which unsigned varints are little-endian base 128 as in protocol buffers and strings are a varint
+ * byte length followed by UTF-8 bytes:
+ * <pre>
+ *   byte     format version (2)
+ *   string   token
+ *   byte     1 if the response is full, otherwise 0
+ *   varint   number of variables
+ *   per variable:
+ *     string   name
+ *     byte     value type: 0 integral, 1 floating point, 2 string, 3 null
+ *     value    zigzag-encoded varint, 8-byte big-endian IEEE 754 double, string, or nothing
+ *   varint   number of removed variables
+ *   per removed variable:
+ *     string   name
+ * </pre>
+ *
+ * Variables are filtered by the optional 'prefix' URL parameter, and responses are compressed if
+ * the client accepts gzip.  The handler is a singleton, since it remembers the values it last
+ * reported.
+ */
+@Singleton
+public class VarsDeltaHandler extends HttpServlet {
+
+  static final String SINCE_PARAM = "since";
+  static final String FORMAT_PARAM = "format";
+  static final String BINARY_FORMAT = "binary";
+
+  @VisibleForTesting
+  static final int BINARY_VERSION = 2;
+
+  @VisibleForTesting static final int TYPE_INTEGRAL = 0;
+  @VisibleForTesting static final int TYPE_FLOATING = 1;
+  @VisibleForTesting static final int TYPE_STRING = 2;
+  @VisibleForTesting static final int TYPE_NULL = 3;
+
+  private final Supplier<Iterable<Stat<?>>> statSupplier;
+  private final StatChangeTracker tracker;
+
+  /**
+   * Creates a new handler that will report stats from the provided supplier.
+   *
+   * @param statSupplier Stats supplier.
+   */
+  @Inject
+  public VarsDeltaHandler(Supplier<Iterable<Stat<?>>> statSupplier) {
+    this(statSupplier, new StatChangeTracker());
+  }
+
+  @VisibleForTesting
+  VarsDeltaHandler(Supplier<Iterable<Stat<?>>> statSupplier, StatChangeTracker tracker) {
+    this.statSupplier = Preconditions.checkNotNull(statSupplier);
+    this.tracker = Preconditions.checkNotNull(tracker);
+  }
+
+  @VisibleForTesting
+  Delta poll(@Nullable String[] prefixes, @Nullable String since) {
+    // The tracker sees every variable, so that one client's prefixes do not hide changes from
+    // another client polling with different prefixes.
+    Delta delta = tracker.poll(statSupplier.get(), since);
+    return prefixes == null ? delta : delta.filter(prefixes);
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+
+    Delta delta =
+        poll(req.getParameterValues(SortedVars.PREFIX_PARAM), req.getParameter(SINCE_PARAM));
+    if (BINARY_FORMAT.equals(req.getParameter(FORMAT_PARAM))) {
+      writeBinary(SortedVars.openStream(req, resp, "application/octet-stream"), delta);
+    } else {
+      writeJson(SortedVars.openWriter(req, resp, "application/json"), delta);
+    }
+  }
+
+  @VisibleForTesting
+  static void writeJson(Writer out, Delta delta) throws IOException {
+    JsonWriter json = new JsonWriter(out);
+    try {
+      json.beginObject();
+      json.name("token").value(delta.getToken());
+      json.name("full").value(delta.isFull());
+      json.name("vars").beginObject();
+      for (int i = 0; i < delta.size(); i++) {
+        json.name(delta.getName(i));
+        VarsJsonHandler.writeValue(json, delta.getValue(i));
+      }
+      json.endObject();
+      json.name("removed").beginArray();
+      for (String name : delta.getRemoved()) {
+        json.value(name);
+      }
+      json.endArray();
+      json.endObject();
+    } finally {
+      json.close();
+    }
+  }
+
+  @VisibleForTesting
+  static void writeBinary(OutputStream stream, Delta delta) throws IOException {
+    DataOutputStream out = new DataOutputStream(stream);
+    try {
+      out.writeByte(BINARY_VERSION);
+      writeString(out, delta.getToken());
+      out.writeByte(delta.isFull() ? 1 : 0);
+      writeVarint(out, delta.size());
+      for (int i = 0; i < delta.size(); i++) {
+        writeString(out, delta.getName(i));
+        Object value = delta.getValue(i);
+        if (value == null) {
+          out.writeByte(TYPE_NULL);
+        } else if (Stats.isIntegral(value)) {
+          out.writeByte(TYPE_INTEGRAL);
+          long integral = ((Number) value).longValue();
+          writeVarint(out, (integral << 1) ^ (integral >> 63));
+        } else if (value instanceof Number) {
+          out.writeByte(TYPE_FLOATING);
+          out.writeDouble(((Number) value).doubleValue());
+        } else {
+          out.writeByte(TYPE_STRING);
+          writeString(out, value.toString());
+        }
+      }
+      writeVarint(out, delta.getRemoved().size());
+      for (String name : delta.getRemoved()) {
+        writeString(out, name);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(Charsets.UTF_8);
+    writeVarint(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static void writeVarint(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+}
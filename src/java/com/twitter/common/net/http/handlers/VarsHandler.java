@@ -16,33 +16,31 @@
 
 package com.twitter.common.net.http.handlers;
 
-import java.util.Collections;
-import java.util.List;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.AbstractList;
 
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
-import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 
 import com.twitter.common.stats.Stat;
 
 /**
- * HTTP handler that prints all registered variables and their current values.
+ * HTTP handler that prints all registered variables and their current values, in name order.
+ *
+ * The response is written straight to the client as each variable is read, compressed if the
+ * client accepts gzip.  If the optional URL parameter 'prefix' is used, only variables whose names
+ * start with one of its values are printed.
  *
  * @author William Farner
  */
 public class VarsHandler extends TextResponseHandler {
 
-  private static final Function<Stat, String> VAR_PRINTER = new Function<Stat, String>() {
-    @Override public String apply(Stat stat) {
-      return stat.getName() + " " + stat.read();
-    }
-  };
-
   private final Supplier<Iterable<Stat<?>>> statSupplier;
 
   /**
@@ -57,8 +55,33 @@ public class VarsHandler extends TextResponseHandler {
 
   @Override
   public Iterable<String> getLines(HttpServletRequest request) {
-    List<String> lines = Lists.newArrayList(Iterables.transform(statSupplier.get(), VAR_PRINTER));
-    Collections.sort(lines);
-    return lines;
+    final SortedVars vars = SortedVars.of(statSupplier.get(), request);
+    return new AbstractList<String>() {
+      @Override public String get(int index) {
+        return vars.getName(index) + " " + vars.getStat(index).read();
+      }
+
+      @Override public int size() {
+        return vars.size();
+      }
+    };
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+
+    SortedVars vars = SortedVars.of(statSupplier.get(), req);
+    Writer out = SortedVars.openWriter(req, resp, "text/plain");
+    try {
+      for (int i = 0; i < vars.size(); i++) {
+        out.write(vars.getName(i));
+        out.write(' ');
+        out.write(String.valueOf(vars.getStat(i).read()));
+        out.write('\n');
+      }
+    } finally {
+      out.close();
+    }
   }
 }
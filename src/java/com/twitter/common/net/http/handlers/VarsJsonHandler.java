@@ -1,9 +1,10 @@
 package com.twitter.common.net.http.handlers;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Map;
+import java.io.StringWriter;
+import java.io.Writer;
 
+import javax.annotation.Nullable;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -12,16 +13,15 @@ import javax.servlet.http.HttpServletResponse;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
-import com.google.common.collect.Maps;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 import com.google.inject.Inject;
 
 import com.twitter.common.stats.Stat;
 
 /**
  * A servlet that returns the current value of all variables in JSON format.
- * The format returns a JSON object with string fields and typed values:
+ * The format returns a JSON object with string fields and typed values, in name order:
  * <pre>
  *   {
  *     "var_a": 1,
@@ -30,12 +30,22 @@ import com.twitter.common.stats.Stat;
  *   }
  * </pre>
  * If the optional URL parameter 'pretty' is used, the output will be pretty-printed
- * (similar to the above example).
+ * (similar to the above example).  If the optional URL parameter 'prefix' is used, only variables
+ * whose names start with one of its values are included.
+ *
+ * The response is written straight to the client as each variable is read, compressed if the
+ * client accepts gzip.  Non-finite numbers, which JSON cannot represent, are written as the strings
+ * {@code "NaN"}, {@code "Infinity"} and {@code "-Infinity"}.
  *
  * @author William Farner
  */
 public class VarsJsonHandler extends HttpServlet {
 
+  /**
+   * Serializes values that are neither numbers nor booleans.
+   */
+  private static final Gson GSON = new Gson();
+
   private final Supplier<Iterable<Stat<?>>> statSupplier;
 
   /**
@@ -50,28 +60,60 @@ public class VarsJsonHandler extends HttpServlet {
 
   @VisibleForTesting
   String getBody(boolean pretty) {
-    Map<String, Object> vars = Maps.newHashMap();
-    for (Stat<?> var : statSupplier.get()) {
-      vars.put(var.getName(), var.read());
+    StringWriter body = new StringWriter();
+    try {
+      writeBody(body, SortedVars.of(statSupplier.get(), (String[]) null), pretty);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to write to a string", e);
     }
-    return getGson(pretty).toJson(vars);
+    return body.toString();
   }
 
   @Override
   protected void doGet(HttpServletRequest req, HttpServletResponse resp)
       throws ServletException, IOException {
 
-    resp.setContentType("application/json");
-    resp.setStatus(HttpServletResponse.SC_OK);
-    PrintWriter responseBody = resp.getWriter();
+    SortedVars vars = SortedVars.of(statSupplier.get(), req);
+    writeBody(SortedVars.openWriter(req, resp, "application/json"), vars,
+        req.getParameter("pretty") != null);
+  }
+
+  private static void writeBody(Writer out, SortedVars vars, boolean pretty) throws IOException {
+    JsonWriter json = new JsonWriter(out);
     try {
-      responseBody.print(getBody(req.getParameter("pretty") != null));
+      if (pretty) {
+        json.setIndent("  ");
+      }
+      json.beginObject();
+      for (int i = 0; i < vars.size(); i++) {
+        json.name(vars.getName(i));
+        writeValue(json, vars.getStat(i).read());
+      }
+      json.endObject();
     } finally {
-      responseBody.close();
+      json.close();
     }
   }
 
-  private Gson getGson(boolean pretty) {
-    return pretty ? new GsonBuilder().setPrettyPrinting().create() : new Gson();
+  static void writeValue(JsonWriter json, @Nullable Object value) throws IOException {
+    if (value == null) {
+      json.nullValue();
+    } else if (value instanceof Number) {
+      Number number = (Number) value;
+      double doubleValue = number.doubleValue();
+      if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+        // big integers and decimals can overflow a double but are still written as numbers
+        String string = number.toString();
+        if (string.equals("NaN") || string.endsWith("Infinity")) {
+          json.value(string);
+          return;
+        }
+      }
+      json.value(number);
+    } else if (value instanceof Boolean) {
+      json.value((Boolean) value);
+    } else {
+      GSON.toJson(value, value.getClass(), json);
+    }
   }
 }
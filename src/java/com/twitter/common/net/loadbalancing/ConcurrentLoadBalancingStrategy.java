@@ -0,0 +1,16 @@
+package com.twitter.common.net.loadbalancing;
+
+/**
+ * A load balancing strategy that is safe for concurrent use.  {@link #nextBackend()} and the result
+ * callbacks may be called by any number of threads at once, and concurrently with
+ * {@link #offerBackends}, while calls to {@code offerBackends} are serialized.  Result callbacks
+ * for backends that are no longer offered must be ignored.
+ *
+ * <p>{@link LoadBalancerImpl} serializes all calls to other strategies, but calls a concurrent
+ * strategy without locking.  Implementations typically publish an immutable snapshot of the
+ * chosen backends on each offer and keep per-backend state in atomics.
+ *
+ * @param <K> Backend type.
+ */
+public interface ConcurrentLoadBalancingStrategy<K> extends LoadBalancingStrategy<K> {
+}
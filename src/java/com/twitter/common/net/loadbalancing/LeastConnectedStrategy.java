@@ -17,15 +17,18 @@
 package com.twitter.common.net.loadbalancing;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
-import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 import com.twitter.common.net.pool.ResourceExhaustedException;
 
@@ -33,141 +36,159 @@ import com.twitter.common.net.pool.ResourceExhaustedException;
  * A load balancer that attempts to direct load towards a backend that has the fewest leased
  * connections.
  *
+ * <p>Each choice compares two distinct backends picked at random and takes the one with fewer
+ * connections, so it costs the same however many backends there are.  The most connected backend
+ * is never chosen, and the least connected is chosen most often.  With two backends the choice is
+ * exact.  Ties are broken by the number of times a backend has been used since it was last
+ * offered.
+ *
+ * <p>Safe for concurrent use: each offer publishes an immutable map of the backends to their
+ * connection counts, which are atomics, and backends are chosen without locking.  Each thread
+ * picks backends with a {@link Random} of its own.
+ *
  * @author William Farner
  */
-public class LeastConnectedStrategy<S> extends StaticLoadBalancingStrategy<S> {
+public class LeastConnectedStrategy<S> extends StaticLoadBalancingStrategy<S>
+    implements ConcurrentLoadBalancingStrategy<S> {
   private static final Logger LOG = Logger.getLogger(LeastConnectedStrategy.class.getName());
 
-  // Maps from backends to the number of connections made to them.
-  private final Map<S, ConnectionStats> connections = Maps.newHashMap();
+  private static final ThreadLocal<Random> THREAD_RANDOM = new ThreadLocal<Random>() {
+    @Override protected Random initialValue() {
+      return new Random();
+    }
+  };
 
-  // Manages sorting of connection counts, with a reference back to the backend.
-  private final SortedSet<ConnectionStats> connectionStats = Sets.newTreeSet();
+  // Null unless a test supplied a random to pick backends with.
+  private final Random random;
+
+  // Maps from backends to the number of connections made to them, in the order they were offered.
+  private volatile ImmutableMap<S, ConnectionStats> connections = ImmutableMap.of();
+  private volatile List<S> backends = ImmutableList.of();
 
   /**
-   * Encapsulates a set of connection stats that allow connections to be sorted as per the least
-   * connected strategy.
+   * Creates a strategy that picks backends with a random of each calling thread.
    */
-  private class ConnectionStats implements Comparable<ConnectionStats> {
-    final S connectionKey;
-    final int connectionId;
-    int activeCount = 0; // Stores the total number of active connections.
-    long useCount = 0;  // Stores the total number times a connection has been used.
-
-    ConnectionStats(S connectionKey, int connectionId) {
-      this.connectionKey = connectionKey;
-      this.connectionId = connectionId;
-    }
-
-    @Override
-    public int compareTo(ConnectionStats other) {
-      // Sort by number of active connections first.
-      int difference = activeCount - other.activeCount;
-      if (difference != 0) {
-        return difference;
-      }
-
-      // Sub-sort by total number of times a connection has been used (this will ensure that
-      // all backends are exercised).
-      long useDifference = useCount - other.useCount;
-      if (useDifference != 0) {
-        return Long.signum(useDifference);
-      }
+  public LeastConnectedStrategy() {
+    this.random = null;
+  }
 
-      // If the above two are equal, break the tie using the connection id.
-      return connectionId - other.connectionId;
-    }
+  @VisibleForTesting
+  LeastConnectedStrategy(Random random) {
+    this.random = Preconditions.checkNotNull(random);
+  }
 
-    @Override
-    public boolean equals(Object o) {
-      // We use ConnectionStats in a sorted container and so we need to have an equals
-      // implementation consistent with compareTo, ie:
-      // (x.compareTo(y) == 0) == x.equals(y)
-      // We accomplish this directly.
-
-      @SuppressWarnings("unchecked")
-      ConnectionStats other = (ConnectionStats) o;
-      return compareTo(other) == 0;
-    }
+  /**
+   * Encapsulates the connection counts of a backend.
+   */
+  private static class ConnectionStats {
+    // Stores the total number of active connections.
+    final AtomicInteger activeCount = new AtomicInteger();
+    // Stores the total number times a connection has been used.
+    final AtomicLong useCount = new AtomicLong();
 
     @Override
     public String toString() {
-      return String.format("%d-%d", activeCount, useCount);
+      return String.format("%d-%d", activeCount.get(), useCount.get());
     }
   }
 
   @Override
   protected Collection<S> onBackendsOffered(Set<S> backends) {
-    Map<S, ConnectionStats> newConnections = Maps.newHashMapWithExpectedSize(backends.size());
-    Collection<ConnectionStats> newConnectionStats =
-        Lists.newArrayListWithCapacity(backends.size());
-
-    // Recreate all connection stats since their ordering may have changed and this is used for
-    // comparison tie breaks.
-    int backendId = 0;
+    Map<S, ConnectionStats> existingConnections = connections;
+    ImmutableMap.Builder<S, ConnectionStats> newConnections = ImmutableMap.builder();
     for (S backend : backends) {
-      ConnectionStats stats = new ConnectionStats(backend, backendId++);
-
-      // Retain the activeCount for existing backends to prevent dogpiling existing active servers
-      ConnectionStats existing = connections.get(backend);
-      if (existing != null) {
-        stats.activeCount = existing.activeCount;
+      // Retain the activeCount for existing backends to prevent dogpiling existing active servers,
+      // but restart the use counts since they are used for tie breaks among the new backends.
+      ConnectionStats stats = existingConnections.get(backend);
+      if (stats == null) {
+        stats = new ConnectionStats();
+      } else {
+        stats.useCount.set(0);
       }
-
       newConnections.put(backend, stats);
-      newConnectionStats.add(stats);
     }
+    connections = newConnections.build();
+    this.backends = connections.keySet().asList();
 
-    connections.clear();
-    connections.putAll(newConnections);
-    connectionStats.clear();
-    connectionStats.addAll(newConnectionStats);
-
-    return connections.keySet();
+    return this.backends;
   }
 
   @Override
   public S nextBackend() throws ResourceExhaustedException {
-    Preconditions.checkState(connections.size() == connectionStats.size());
-
-    if (connectionStats.isEmpty()) {
+    List<S> backends = this.backends;
+    int size = backends.size();
+    if (size == 0) {
       throw new ResourceExhaustedException("No backends.");
+    } else if (size == 1) {
+      return backends.get(0);
     }
 
-    return connectionStats.first().connectionKey;
+    // Choose two distinct backends uniformly.
+    Random random = (this.random == null) ? THREAD_RANDOM.get() : this.random;
+    int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      second++;
+    }
+
+    S firstBackend = backends.get(first);
+    S secondBackend = backends.get(second);
+    return isLessConnected(firstBackend, secondBackend) ? firstBackend : secondBackend;
+  }
+
+  private boolean isLessConnected(S backend, S other) {
+    Map<S, ConnectionStats> connections = this.connections;
+    ConnectionStats stats = connections.get(backend);
+    ConnectionStats otherStats = connections.get(other);
+    // A backend removed since it was chosen from is avoided.
+    if (otherStats == null) {
+      return true;
+    } else if (stats == null) {
+      return false;
+    }
+
+    int active = stats.activeCount.get();
+    int otherActive = otherStats.activeCount.get();
+    if (active != otherActive) {
+      return active < otherActive;
+    }
+    return stats.useCount.get() <= otherStats.useCount.get();
   }
 
   @Override
   public void addConnectResult(S backendKey, ConnectionResult result, long connectTimeNanos) {
     Preconditions.checkNotNull(backendKey);
-    Preconditions.checkState(connections.size() == connectionStats.size());
     Preconditions.checkNotNull(result);
 
     ConnectionStats stats = connections.get(backendKey);
-    Preconditions.checkNotNull(stats);
+    if (stats == null) {
+      return;
+    }
 
-    Preconditions.checkState(connectionStats.remove(stats));
     if (result == ConnectionResult.SUCCESS) {
-      stats.activeCount++;
+      stats.activeCount.incrementAndGet();
     }
-    stats.useCount++;
-    Preconditions.checkState(connectionStats.add(stats));
+    stats.useCount.incrementAndGet();
   }
 
   @Override
   public void connectionReturned(S backendKey) {
     Preconditions.checkNotNull(backendKey);
-    Preconditions.checkState(connections.size() == connectionStats.size());
 
     ConnectionStats stats = connections.get(backendKey);
-    Preconditions.checkNotNull(stats);
-
-    if (stats.activeCount > 0) {
-      Preconditions.checkState(connectionStats.remove(stats));
-      stats.activeCount--;
-      Preconditions.checkState(connectionStats.add(stats));
-    } else {
-      LOG.warning("connection stats dropped below zero, ignoring");
+    if (stats == null) {
+      return;
+    }
+
+    while (true) {
+      int active = stats.activeCount.get();
+      if (active <= 0) {
+        LOG.warning("connection stats dropped below zero, ignoring");
+        return;
+      }
+      if (stats.activeCount.compareAndSet(active, active - 1)) {
+        return;
+      }
     }
   }
 }
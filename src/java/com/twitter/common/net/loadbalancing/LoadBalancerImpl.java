@@ -35,13 +35,17 @@ import com.twitter.common.net.pool.ResourceExhaustedException;
  * {@link #requestResult(Object, RequestResult, long)}, and {@link #released(Object)} will not
  * be forwarded for unknown backends/connections.
  *
+ * Calls to a {@link ConcurrentLoadBalancingStrategy} are forwarded without locking, other than to
+ * serialize offers of backends.  Calls to other strategies are serialized.
+ *
  * @author William Farner
  */
 public class LoadBalancerImpl<K> implements LoadBalancer<K> {
 
   private final LoadBalancingStrategy<K> strategy;
+  private final boolean concurrentStrategy;
 
-  private Set<K> offeredBackends = ImmutableSet.of();
+  private volatile Set<K> offeredBackends = ImmutableSet.of();
 
   /**
    * Creates a new load balancer that will use the given strategy.
@@ -50,6 +54,7 @@ public class LoadBalancerImpl<K> implements LoadBalancer<K> {
    */
   public LoadBalancerImpl(LoadBalancingStrategy<K> strategy) {
     this.strategy = Preconditions.checkNotNull(strategy);
+    this.concurrentStrategy = strategy instanceof ConcurrentLoadBalancingStrategy;
   }
 
   @Override
@@ -64,17 +69,32 @@ public class LoadBalancerImpl<K> implements LoadBalancer<K> {
   }
 
   @Override
-  public synchronized K nextBackend() throws ResourceExhaustedException {
-    return strategy.nextBackend();
+  public K nextBackend() throws ResourceExhaustedException {
+    if (concurrentStrategy) {
+      return strategy.nextBackend();
+    }
+    synchronized (this) {
+      return strategy.nextBackend();
+    }
   }
 
   @Override
-  public synchronized void connected(K backend, long connectTimeNanos) {
+  public void connected(K backend, long connectTimeNanos) {
     Preconditions.checkNotNull(backend);
 
     if (!hasBackend(backend)) return;
 
-    strategy.addConnectResult(backend, ConnectionResult.SUCCESS, connectTimeNanos);
+    addConnectResult(backend, ConnectionResult.SUCCESS, connectTimeNanos);
+  }
+
+  private void addConnectResult(K backend, ConnectionResult result, long connectTimeNanos) {
+    if (concurrentStrategy) {
+      strategy.addConnectResult(backend, result, connectTimeNanos);
+    } else {
+      synchronized (this) {
+        strategy.addConnectResult(backend, result, connectTimeNanos);
+      }
+    }
   }
 
   private boolean hasBackend(K backend) {
@@ -82,33 +102,45 @@ public class LoadBalancerImpl<K> implements LoadBalancer<K> {
   }
 
   @Override
-  public synchronized void connectFailed(K backend, ConnectionResult result) {
+  public void connectFailed(K backend, ConnectionResult result) {
     Preconditions.checkNotNull(backend);
     Preconditions.checkNotNull(result);
     Preconditions.checkArgument(result != ConnectionResult.SUCCESS);
 
     if (!hasBackend(backend)) return;
 
-    strategy.addConnectResult(backend, result, 0);
+    addConnectResult(backend, result, 0);
   }
 
   @Override
-  public synchronized void released(K backend) {
+  public void released(K backend) {
     Preconditions.checkNotNull(backend);
 
     if (!hasBackend(backend)) return;
 
-    strategy.connectionReturned(backend);
+    if (concurrentStrategy) {
+      strategy.connectionReturned(backend);
+    } else {
+      synchronized (this) {
+        strategy.connectionReturned(backend);
+      }
+    }
   }
 
   @Override
-  public synchronized void requestResult(K backend, RequestResult result, long requestTimeNanos) {
+  public void requestResult(K backend, RequestResult result, long requestTimeNanos) {
     Preconditions.checkNotNull(backend);
     Preconditions.checkNotNull(result);
 
     if (!hasBackend(backend)) return;
 
-    strategy.addRequestResult(backend, result, requestTimeNanos);
+    if (concurrentStrategy) {
+      strategy.addRequestResult(backend, result, requestTimeNanos);
+    } else {
+      synchronized (this) {
+        strategy.addRequestResult(backend, result, requestTimeNanos);
+      }
+    }
   }
 
   /**
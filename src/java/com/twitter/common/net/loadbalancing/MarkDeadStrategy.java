@@ -16,20 +16,27 @@
 
 package com.twitter.common.net.loadbalancing;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.twitter.common.base.Closure;
 import com.twitter.common.net.pool.ResourceExhaustedException;
 import com.twitter.common.net.loadbalancing.RequestTracker.RequestResult;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
 import com.twitter.common.util.BackoffDecider;
+import com.twitter.common.util.Clock;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -39,22 +46,48 @@ import java.util.logging.Logger;
  * prevent them from being visible to the wrapped load balancer.
  * If all backends become marked as dead, they will all be unmarked.
  *
+ * <p>Each connection or request result only re-evaluates the backend it was reported for.  Dead
+ * backends are revived by checks scheduled on a timer wheel for when their backoff period ends,
+ * which run as later results arrive, so the cost of a result does not grow with the number of
+ * backends.
+ *
+ * <p>Safe for concurrent use.  Results are recorded in the backend's own {@link BackoffDecider},
+ * and checked against an immutable snapshot of the live backends without locking.  A lock is
+ * only taken when a backend moves into or out of dead state, or a revival check is due, to
+ * re-offer the live backends.  If the wrapped strategy is not a
+ * {@link ConcurrentLoadBalancingStrategy}, calls to it are serialized.
+ *
  * @author William Farner
  */
-public class MarkDeadStrategy<S> implements LoadBalancingStrategy<S> {
+public class MarkDeadStrategy<S> implements ConcurrentLoadBalancingStrategy<S> {
   private static final Logger LOG = Logger.getLogger(MarkDeadStrategy.class.getName());
 
+  private static final Amount<Long, Time> REVIVAL_TICK = Amount.of(100L, Time.MILLISECONDS);
+  private static final int REVIVAL_WHEEL_SIZE = 512;
+
   private final LoadBalancingStrategy<S> wrappedStrategy;
-  private final Map<S, BackoffDecider> targets = Maps.newHashMap();
   private final Function<S, BackoffDecider> backoffFactory;
   protected final Predicate<S> hostChecker;
+  private final Clock clock;
 
-  private Set<S> liveBackends = null;
-  private Closure<Collection<S>> onBackendsChosen = null;
+  private volatile ImmutableMap<S, BackoffDecider> targets = ImmutableMap.of();
+  private volatile ImmutableSet<S> liveBackends = ImmutableSet.of();
 
   // Flipped when we are in "forced live" mode, where all backends are considered dead and we
   // send them all traffic as a last-ditch effort.
-  private boolean forcedLive = false;
+  private volatile boolean forcedLive = false;
+
+  // The earliest time a revival check may be due.
+  private volatile long nextRevivalNs = Long.MAX_VALUE;
+
+  // Guards the fields below, and serializes changes to the live backends.
+  private final Object stateLock = new Object();
+
+  // Dead backends awaiting a revival check, and the wheel that schedules the checks.
+  private final Set<S> awaitingRevival = Sets.newHashSet();
+  private final TimerWheel<S> revivals;
+
+  private Closure<Collection<S>> onBackendsChosen = null;
 
   /**
    * Creates a mark dead strategy with a wrapped strategy, backoff decider factory
@@ -67,9 +100,19 @@ public class MarkDeadStrategy<S> implements LoadBalancingStrategy<S> {
    */
   public MarkDeadStrategy(LoadBalancingStrategy<S> wrappedStrategy,
       Function<S, BackoffDecider> backoffFactory, Predicate<S> hostChecker) {
-    this.wrappedStrategy = Preconditions.checkNotNull(wrappedStrategy);
+    this(wrappedStrategy, backoffFactory, hostChecker, Clock.SYSTEM_CLOCK);
+  }
+
+  @VisibleForTesting
+  MarkDeadStrategy(LoadBalancingStrategy<S> wrappedStrategy,
+      Function<S, BackoffDecider> backoffFactory, Predicate<S> hostChecker, Clock clock) {
+    Preconditions.checkNotNull(wrappedStrategy);
+    this.wrappedStrategy = wrappedStrategy instanceof ConcurrentLoadBalancingStrategy
+        ? wrappedStrategy : new SynchronizedStrategy<S>(wrappedStrategy);
     this.backoffFactory = Preconditions.checkNotNull(backoffFactory);
     this.hostChecker = Preconditions.checkNotNull(hostChecker);
+    this.clock = Preconditions.checkNotNull(clock);
+    this.revivals = new TimerWheel<S>(REVIVAL_TICK, REVIVAL_WHEEL_SIZE, clock.nowNanos());
   }
 
   /**
@@ -86,15 +129,19 @@ public class MarkDeadStrategy<S> implements LoadBalancingStrategy<S> {
 
   @Override
   public void offerBackends(Set<S> offeredBackends, Closure<Collection<S>> onBackendsChosen) {
-    this.onBackendsChosen = onBackendsChosen;
-    targets.keySet().retainAll(offeredBackends);
+    Map<S, BackoffDecider> existingTargets = targets;
+    ImmutableMap.Builder<S, BackoffDecider> newTargets = ImmutableMap.builder();
     for (S backend : offeredBackends) {
-      if (!targets.containsKey(backend)) {
-        targets.put(backend, backoffFactory.apply(backend));
-      }
+      BackoffDecider decider = existingTargets.get(backend);
+      newTargets.put(backend, decider == null ? backoffFactory.apply(backend) : decider);
     }
 
-    adjustBackends();
+    synchronized (stateLock) {
+      this.onBackendsChosen = onBackendsChosen;
+      targets = newTargets.build();
+      awaitingRevival.retainAll(offeredBackends);
+      adjustBackends();
+    }
   }
 
   @Override
@@ -103,9 +150,11 @@ public class MarkDeadStrategy<S> implements LoadBalancingStrategy<S> {
     Preconditions.checkNotNull(result);
 
     BackoffDecider decider = targets.get(backendKey);
-    Preconditions.checkNotNull(decider);
+    if (decider == null) {
+      return;
+    }
 
-    addResult(decider, result);
+    addResult(backendKey, decider, result);
     if (shouldNotifyFor(backendKey)) {
       wrappedStrategy.addConnectResult(backendKey, result, connectTimeNanos);
     }
@@ -127,86 +176,141 @@ public class MarkDeadStrategy<S> implements LoadBalancingStrategy<S> {
     Preconditions.checkNotNull(result);
 
     BackoffDecider decider = targets.get(requestKey);
-    Preconditions.checkNotNull(decider);
+    if (decider == null) {
+      return;
+    }
 
-    addResult(decider, result);
+    addResult(requestKey, decider, result);
     if (shouldNotifyFor(requestKey)) {
       wrappedStrategy.addRequestResult(requestKey, result, requestTimeNanos);
     }
   }
 
-  private void addResult(BackoffDecider decider, ConnectionResult result) {
+  private void addResult(S backend, BackoffDecider decider, ConnectionResult result) {
     switch (result) {
       case FAILED:
       case TIMEOUT:
-        addResult(decider, false);
+        addResult(backend, decider, false);
         break;
       case SUCCESS:
-        addResult(decider, true);
+        addResult(backend, decider, true);
         break;
       default:
         throw new UnsupportedOperationException("Unhandled result type " + result);
     }
   }
 
-  private void addResult(BackoffDecider decider, RequestTracker.RequestResult result) {
+  private void addResult(S backend, BackoffDecider decider,
+      RequestTracker.RequestResult result) {
     switch (result) {
       case FAILED:
       case TIMEOUT:
-        addResult(decider, false);
+        addResult(backend, decider, false);
         break;
       case SUCCESS:
-        addResult(decider, true);
+        addResult(backend, decider, true);
         break;
       default:
         throw new UnsupportedOperationException("Unhandled result type " + result);
     }
   }
 
-  private void addResult(BackoffDecider decider, boolean success) {
+  private void addResult(S backend, BackoffDecider decider, boolean success) {
     if (success) {
       decider.addSuccess();
     } else {
       decider.addFailure();
     }
 
-    // Check if any of the backends have moved into or out of dead state.
-    for (Map.Entry<S, BackoffDecider> entry : targets.entrySet()) {
-      boolean dead = entry.getValue().shouldBackOff();
-      boolean markedDead = !liveBackends.contains(entry.getKey());
-
-      // only check the servers that were marked dead before and see if we can
-      // connect to them, otherwise set dead to true.
-      if (markedDead && !dead) {
-        boolean alive = hostChecker.apply(entry.getKey());
-        if (!alive) {
-          entry.getValue().transitionToBackOff(0, true);
+    // A live backend that is still live, or a dead backend that is still dead and already awaiting
+    // a revival check, needs no change unless a revival check is due.
+    long now = clock.nowNanos();
+    boolean dead = decider.shouldBackOff();
+    if (!forcedLive && dead != liveBackends.contains(backend) && now < nextRevivalNs) {
+      return;
+    }
+
+    synchronized (stateLock) {
+      // Only this backend, and the dead backends whose revival checks are due, may have moved
+      // into or out of dead state.
+      boolean changed = targets.get(backend) == decider && checkState(backend, decider, dead, now);
+      for (S expired : revivals.expire(now)) {
+        if (awaitingRevival.remove(expired)) {
+          BackoffDecider expiredDecider = targets.get(expired);
+          changed |= checkState(expired, expiredDecider, expiredDecider.shouldBackOff(), now);
         }
-        dead = !alive;
       }
 
-      if (dead && !markedDead && forcedLive) {
-        // Do nothing here.  Since we have forced all backends to be live, we don't want to
-        // continually advertise the backend list to the wrapped strategy.
-      } else if (dead != markedDead || !dead && forcedLive) {
+      if (changed) {
         adjustBackends();
-        break;
+      } else {
+        updateNextRevival();
+      }
+    }
+  }
+
+  /**
+   * Checks whether a backend has moved into or out of dead state, and schedules a revival check
+   * for it if it is dead.  Must be called while holding {@code stateLock}.
+   *
+   * @return {@code true} if the live backends need to be adjusted.
+   */
+  private boolean checkState(S backend, BackoffDecider decider, boolean dead, long now) {
+    boolean markedDead = !liveBackends.contains(backend);
+
+    // only check the servers that were marked dead before and see if we can
+    // connect to them, otherwise set dead to true.
+    if (markedDead && !dead) {
+      boolean alive = hostChecker.apply(backend);
+      if (!alive) {
+        decider.transitionToBackOff(0, true);
       }
+      dead = !alive;
     }
+
+    if (dead) {
+      scheduleRevival(backend, decider, now);
+    }
+
+    if (dead && !markedDead && forcedLive) {
+      // Do nothing here.  Since we have forced all backends to be live, we don't want to
+      // continually advertise the backend list to the wrapped strategy.
+      return false;
+    }
+    return dead != markedDead || !dead && forcedLive;
+  }
+
+  private void scheduleRevival(S backend, BackoffDecider decider, long now) {
+    if (awaitingRevival.add(backend)) {
+      revivals.schedule(backend, now + decider.getBackoffRemainingNs());
+    }
+  }
+
+  private void updateNextRevival() {
+    nextRevivalNs = awaitingRevival.isEmpty() ? Long.MAX_VALUE : revivals.nextExpiryNs();
   }
 
   private boolean shouldNotifyFor(S backend) {
     return liveBackends.contains(backend);
   }
 
-  private final Predicate<S> deadTargetFilter = new Predicate<S>() {
-      @Override public boolean apply(S backend) {
-        return !targets.get(backend).shouldBackOff();
+  /**
+   * Re-offers the backends that are not backing off to the wrapped strategy.  Must be called while
+   * holding {@code stateLock}.
+   */
+  private void adjustBackends() {
+    long now = clock.nowNanos();
+    ImmutableSet.Builder<S> live = ImmutableSet.builder();
+    for (Map.Entry<S, BackoffDecider> entry : targets.entrySet()) {
+      if (entry.getValue().shouldBackOff()) {
+        scheduleRevival(entry.getKey(), entry.getValue(), now);
+      } else {
+        live.add(entry.getKey());
       }
-    };
+    }
+    updateNextRevival();
 
-  private void adjustBackends() {
-    liveBackends = Sets.newHashSet(Iterables.filter(targets.keySet(), deadTargetFilter));
+    liveBackends = live.build();
     if (liveBackends.isEmpty()) {
       liveBackends = targets.keySet();
       forcedLive = true;
@@ -221,4 +325,124 @@ public class MarkDeadStrategy<S> implements LoadBalancingStrategy<S> {
   public S nextBackend() throws ResourceExhaustedException {
     return wrappedStrategy.nextBackend();
   }
+
+  /**
+   * Serializes calls to a strategy that is not safe for concurrent use.
+   */
+  private static class SynchronizedStrategy<S> implements LoadBalancingStrategy<S> {
+    private final LoadBalancingStrategy<S> strategy;
+
+    SynchronizedStrategy(LoadBalancingStrategy<S> strategy) {
+      this.strategy = strategy;
+    }
+
+    @Override
+    public synchronized void offerBackends(Set<S> offeredBackends,
+        Closure<Collection<S>> onBackendsChosen) {
+      strategy.offerBackends(offeredBackends, onBackendsChosen);
+    }
+
+    @Override
+    public synchronized S nextBackend() throws ResourceExhaustedException {
+      return strategy.nextBackend();
+    }
+
+    @Override
+    public synchronized void addConnectResult(S key, ConnectionResult result,
+        long connectTimeNanos) {
+      strategy.addConnectResult(key, result, connectTimeNanos);
+    }
+
+    @Override
+    public synchronized void connectionReturned(S key) {
+      strategy.connectionReturned(key);
+    }
+
+    @Override
+    public synchronized void addRequestResult(S key, RequestResult result,
+        long requestTimeNanos) {
+      strategy.addRequestResult(key, result, requestTimeNanos);
+    }
+  }
+
+  /**
+   * A hashed timer wheel.  Each timer is kept in the slot for the tick it is due in, and expiring
+   * the timers only visits the slots of the ticks elapsed since the last expiry, so neither
+   * scheduling nor expiring depends on the number of timers outstanding.  Timers are due at the
+   * start of the tick their deadline falls in, so may expire up to one tick early.
+   */
+  private static class TimerWheel<K> {
+    private final long tickNs;
+    private final long startNs;
+    private final List<List<Timer<K>>> slots;
+    private long currentTick = 0;
+
+    TimerWheel(Amount<Long, Time> tick, int size, long startNs) {
+      this.tickNs = tick.as(Time.NANOSECONDS);
+      this.startNs = startNs;
+      this.slots = Lists.newArrayListWithCapacity(size);
+      for (int i = 0; i < size; i++) {
+        slots.add(Lists.<Timer<K>>newLinkedList());
+      }
+    }
+
+    /**
+     * Schedules a timer, which is due no sooner than the tick after the last expiry.
+     */
+    void schedule(K key, long deadlineNs) {
+      long tick = Math.max(tickOf(deadlineNs), currentTick + 1);
+      slots.get(slotOf(tick)).add(new Timer<K>(key, tick));
+    }
+
+    /**
+     * Returns the earliest time at which {@link #expire} may return a timer.
+     */
+    long nextExpiryNs() {
+      return startNs + (currentTick + 1) * tickNs;
+    }
+
+    /**
+     * Removes and returns the keys of the timers due by the given time.
+     */
+    List<K> expire(long nowNs) {
+      long nowTick = tickOf(nowNs);
+      if (nowTick <= currentTick) {
+        return ImmutableList.of();
+      }
+
+      List<K> expired = Lists.newArrayList();
+      // Once the wheel has turned fully, each slot only needs visiting once.
+      for (long tick = Math.max(currentTick + 1, nowTick - slots.size() + 1); tick <= nowTick;
+          tick++) {
+        Iterator<Timer<K>> timers = slots.get(slotOf(tick)).iterator();
+        while (timers.hasNext()) {
+          Timer<K> timer = timers.next();
+          if (timer.tick <= nowTick) {
+            expired.add(timer.key);
+            timers.remove();
+          }
+        }
+      }
+      currentTick = nowTick;
+      return expired;
+    }
+
+    private long tickOf(long ns) {
+      return Math.max(ns - startNs, 0) / tickNs;
+    }
+
+    private int slotOf(long tick) {
+      return (int) (tick % slots.size());
+    }
+  }
+
+  private static class Timer<K> {
+    final K key;
+    final long tick;
+
+    Timer(K key, long tick) {
+      this.key = key;
+      this.tick = tick;
+    }
+  }
 }
@@ -37,10 +37,10 @@ public class MarkDeadStrategyWithHostCheck<S> extends MarkDeadStrategy<S> {
    * LiveHostChecker implements Filter to determine whether a host is alive based on the
    * result of the most recent connection attempt to that host. It keeps a map of
    * backend -> last connection result, which gets updated every time someone tries to
-   * add to connection result.
+   * add to connection result.  Safe for concurrent use.
    */
   protected static class LiveHostChecker<S> implements Predicate<S> {
-    private final Map<S, ConnectionResult> lastConnectionResult = Maps.newHashMap();
+    private final Map<S, ConnectionResult> lastConnectionResult = Maps.newConcurrentMap();
 
     /**
      * Adds the connection result of this backend to the last connection result map.
@@ -0,0 +1,221 @@
+package com.twitter.common.net.loadbalancing;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import com.twitter.common.net.loadbalancing.RequestTracker.RequestResult;
+import com.twitter.common.net.pool.ResourceExhaustedException;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+
+/**
+ * A load balancer that picks two backends at random and sends the request to the one with the
+ * lower load, where a backend's load is its number of outstanding connections, plus one, times
+ * its peak exponentially weighted moving average request latency.
+ *
+ * <p>The latency average jumps to any request time above it, and otherwise decays toward the
+ * request times observed, so a backend is penalized as soon as it slows down and recovers
+ * gradually.  The average also decays toward zero while no requests complete, so a backend that
+ * was slow is eventually tried again.  Failed and timed out requests count as taking at least the
+ * failure penalty.  A backend with no latency samples yet is preferred while it has no
+ * outstanding connections, and avoided while it has some, so that new backends are probed without
+ * being flooded.
+ *
+ * <p>Every update is constant time, and the strategy is safe for concurrent use.  Threads choosing
+ * backends at once do not contend on a shared random seed, as each draws from its own.
+ *
+ * @param <S> Backend type.
+ */
+public class PeakEwmaStrategy<S> extends StaticLoadBalancingStrategy<S>
+    implements ConcurrentLoadBalancingStrategy<S> {
+
+  private static final Logger LOG = Logger.getLogger(PeakEwmaStrategy.class.getName());
+
+  // Load of a backend with outstanding connections but no latency samples.
+  private static final double UNMEASURED_PENALTY = Long.MAX_VALUE >> 16;
+
+  private static final ThreadLocal<Random> THREAD_RANDOM = new ThreadLocal<Random>() {
+    @Override protected Random initialValue() {
+      return new Random();
+    }
+  };
+
+  private final double decayNanos;
+  private final long failurePenaltyNanos;
+  // Supplied by tests only; otherwise each thread draws from THREAD_RANDOM.
+  @Nullable private final Random random;
+  private final Ticker ticker;
+
+  private volatile ImmutableMap<S, BackendLoad> loads = ImmutableMap.of();
+  private volatile List<S> backends = ImmutableList.of();
+
+  /**
+   * Creates a strategy whose latency averages decay over 10 seconds, with a failure penalty of
+   * 1 second.
+   */
+  public PeakEwmaStrategy() {
+    this(Amount.of(10L, Time.SECONDS), Amount.of(1L, Time.SECONDS));
+  }
+
+  /**
+   * Creates a strategy with the given latency decay and failure penalty.
+   *
+   * @param decayTime Time over which the weight of a latency sample decays to {@code 1/e}.
+   * @param failurePenalty Minimum latency recorded for a failed or timed out request.
+   */
+  public PeakEwmaStrategy(Amount<Long, Time> decayTime, Amount<Long, Time> failurePenalty) {
+    this(decayTime, failurePenalty, null, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  PeakEwmaStrategy(Amount<Long, Time> decayTime, Amount<Long, Time> failurePenalty,
+      @Nullable Random random, Ticker ticker) {
+    Preconditions.checkArgument(decayTime.getValue() > 0, "Decay time must be positive.");
+    Preconditions.checkArgument(failurePenalty.getValue() >= 0,
+        "Failure penalty must not be negative.");
+    this.decayNanos = decayTime.as(Time.NANOSECONDS);
+    this.failurePenaltyNanos = failurePenalty.as(Time.NANOSECONDS);
+    this.random = random;
+    this.ticker = Preconditions.checkNotNull(ticker);
+  }
+
+  @Override
+  protected Collection<S> onBackendsOffered(Set<S> offeredBackends) {
+    // Retain the loads of existing backends, so that their latency history is kept.
+    Map<S, BackendLoad> existingLoads = loads;
+    ImmutableMap.Builder<S, BackendLoad> newLoads = ImmutableMap.builder();
+    for (S backend : offeredBackends) {
+      BackendLoad load = existingLoads.get(backend);
+      newLoads.put(backend, load == null ? new BackendLoad() : load);
+    }
+    loads = newLoads.build();
+    backends = loads.keySet().asList();
+    return backends;
+  }
+
+  @Override
+  public S nextBackend() throws ResourceExhaustedException {
+    List<S> backends = this.backends;
+    int size = backends.size();
+    if (size == 0) {
+      throw new ResourceExhaustedException("No backends.");
+    } else if (size == 1) {
+      return backends.get(0);
+    }
+
+    // Choose two distinct backends uniformly.
+    Random random = (this.random == null) ? THREAD_RANDOM.get() : this.random;
+    int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      second++;
+    }
+
+    S firstBackend = backends.get(first);
+    S secondBackend = backends.get(second);
+    long now = ticker.read();
+    return load(firstBackend, now) <= load(secondBackend, now) ? firstBackend : secondBackend;
+  }
+
+  private double load(S backend, long now) {
+    BackendLoad load = loads.get(backend);
+    // The backend was removed since it was chosen from, so avoid it.
+    return load == null ? Double.MAX_VALUE : load.get(now);
+  }
+
+  @Override
+  public void addConnectResult(S backendKey, ConnectionResult result, long connectTimeNanos) {
+    Preconditions.checkNotNull(backendKey);
+    Preconditions.checkNotNull(result);
+
+    BackendLoad load = loads.get(backendKey);
+    if (load != null && result == ConnectionResult.SUCCESS) {
+      load.outstanding.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void connectionReturned(S backendKey) {
+    Preconditions.checkNotNull(backendKey);
+
+    BackendLoad load = loads.get(backendKey);
+    if (load == null) {
+      return;
+    }
+
+    while (true) {
+      int outstanding = load.outstanding.get();
+      if (outstanding <= 0) {
+        LOG.warning("outstanding connections dropped below zero, ignoring");
+        return;
+      }
+      if (load.outstanding.compareAndSet(outstanding, outstanding - 1)) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void addRequestResult(S requestKey, RequestResult result, long requestTimeNanos) {
+    Preconditions.checkNotNull(requestKey);
+    Preconditions.checkNotNull(result);
+
+    BackendLoad load = loads.get(requestKey);
+    if (load == null) {
+      return;
+    }
+
+    long latencyNanos = (result == RequestResult.SUCCESS)
+        ? requestTimeNanos
+        : Math.max(requestTimeNanos, failurePenaltyNanos);
+    load.observe(Math.max(latencyNanos, 0), ticker.read());
+  }
+
+  /**
+   * The outstanding connections and peak latency average of a backend.  Connection counts are
+   * atomic; latency samples are recorded under the backend's own monitor, and read without it.
+   */
+  private class BackendLoad {
+    final AtomicInteger outstanding = new AtomicInteger();
+
+    private volatile boolean measured = false;
+    private volatile double cost = 0;
+    private volatile long timestamp = 0;
+
+    synchronized void observe(long latencyNanos, long now) {
+      if (!measured || latencyNanos > cost) {
+        cost = latencyNanos;
+      } else {
+        double weight = decay(now);
+        cost = cost * weight + latencyNanos * (1 - weight);
+      }
+      timestamp = now;
+      measured = true;
+    }
+
+    double get(long now) {
+      int outstanding = this.outstanding.get();
+      if (!measured) {
+        return outstanding == 0 ? 0 : UNMEASURED_PENALTY + outstanding;
+      }
+      return cost * decay(now) * (outstanding + 1);
+    }
+
+    private double decay(long now) {
+      return Math.exp(-Math.max(now - timestamp, 0) / decayNanos);
+    }
+  }
+}
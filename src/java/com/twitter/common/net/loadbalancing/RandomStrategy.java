@@ -19,7 +19,6 @@ package com.twitter.common.net.loadbalancing;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import com.twitter.common.net.pool.ResourceExhaustedException;
 
 import java.util.Collection;
@@ -28,13 +27,15 @@ import java.util.Random;
 import java.util.Set;
 
 /**
- * A load balancer that selects a random backend each time a request is made..
+ * A load balancer that selects a random backend each time a request is made..  Safe for concurrent
+ * use.
  *
  * @author William Farner
  */
-public class RandomStrategy<S> extends StaticLoadBalancingStrategy<S> {
+public class RandomStrategy<S> extends StaticLoadBalancingStrategy<S>
+    implements ConcurrentLoadBalancingStrategy<S> {
 
-  private List<S> targets = Lists.newArrayList();
+  private volatile List<S> targets = ImmutableList.of();
   private final Random random;
 
   public RandomStrategy() {
@@ -54,6 +55,7 @@ public class RandomStrategy<S> extends StaticLoadBalancingStrategy<S> {
 
   @Override
   public S nextBackend() throws ResourceExhaustedException {
+    List<S> targets = this.targets;
     if (targets.isEmpty()) throw new ResourceExhaustedException("No backends.");
     return targets.get(random.nextInt(targets.size()));
   }
@@ -16,37 +16,40 @@
 
 package com.twitter.common.net.loadbalancing;
 
-import com.google.common.collect.Iterators;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.twitter.common.net.pool.ResourceExhaustedException;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A load balancer that distributes load by randomizing the list of available backends, and then
- * rotating through them evenly.
+ * rotating through them evenly.  Safe for concurrent use.
  *
  * @author William Farner
  */
-public class RoundRobinStrategy<S> extends StaticLoadBalancingStrategy<S> {
+public class RoundRobinStrategy<S> extends StaticLoadBalancingStrategy<S>
+    implements ConcurrentLoadBalancingStrategy<S> {
 
-  private Iterator<S> iterator = Iterators.emptyIterator();
+  private volatile List<S> targets = ImmutableList.of();
+  private final AtomicInteger position = new AtomicInteger();
 
   @Override
   protected Collection<S> onBackendsOffered(Set<S> targets) {
     List<S> newTargets = Lists.newArrayList(targets);
     Collections.shuffle(newTargets);
-    iterator = Iterators.cycle(newTargets);
-    return newTargets;
+    this.targets = ImmutableList.copyOf(newTargets);
+    return this.targets;
   }
 
   @Override
   public S nextBackend() throws ResourceExhaustedException {
-    if (!iterator.hasNext()) throw new ResourceExhaustedException("No backends available!");
-    return iterator.next();
+    List<S> targets = this.targets;
+    if (targets.isEmpty()) throw new ResourceExhaustedException("No backends available!");
+    return targets.get((position.getAndIncrement() & Integer.MAX_VALUE) % targets.size());
   }
 }
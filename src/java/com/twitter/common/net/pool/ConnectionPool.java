@@ -18,7 +18,8 @@ package com.twitter.common.net.pool;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterables;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -27,10 +28,18 @@ import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.Stats;
 import com.twitter.common.stats.StatsProvider;
+import com.twitter.common.util.Clock;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
@@ -40,12 +49,17 @@ import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
 /**
  * A generic connection pool that delegates growth policy to a {@link ConnectionFactory} and
  * connection choice to a supplied strategy.
  *
- * <p>TODO(John Sirois): implement a reaper to clean up connections that may become invalid when not in
- * use.
+ * <p>Connections are leased most recently released first, so that connections beyond the steady
+ * state demand stay idle.  A pool created with a {@link MaintenancePolicy} runs a background task
+ * that validates and evicts idle connections and creates connections ahead of demand.  Idle
+ * connections are validated with {@link Connection#isValid()} unless the pool is given a validator
+ * that checks more thoroughly, such as by probing the connection's endpoint.
  *
  * <p> TODO(John Sirois): take a ShutdownRegistry and register a close command
  *
@@ -55,19 +69,36 @@ public final class ConnectionPool<S extends Connection<?, ?>> implements ObjectP
 
   private static final Logger LOG = Logger.getLogger(ConnectionPool.class.getName());
 
+  private static final Predicate<Connection<?, ?>> IS_VALID = new Predicate<Connection<?, ?>>() {
+    @Override public boolean apply(Connection<?, ?> connection) {
+      return connection.isValid();
+    }
+  };
+
   private final Set<S> leasedConnections =
       Sets.newSetFromMap(Maps.<S, Boolean>newIdentityHashMap());
-  private final Set<S> availableConnections = Sets.newHashSet();
+  private final Deque<S> availableConnections = new ArrayDeque<S>();
   private final Lock poolLock;
   private final Condition available;
 
   private final ConnectionFactory<S> connectionFactory;
   private final Executor executor;
 
+  // Connection timestamps are only kept, guarded by poolLock, for pools with maintenance.
+  @Nullable private final MaintenancePolicy maintenancePolicy;
+  private final Predicate<? super S> validator;
+  // The maintenance executor, if the pool created it for itself and shuts it down on close.
+  @Nullable private final ScheduledExecutorService ownedMaintenanceExecutor;
+  @Nullable private final ScheduledFuture<?> maintenanceTask;
+  private final Clock clock;
+  private final Map<S, Long> createdNs = Maps.newIdentityHashMap();
+  private final Map<S, Long> idleSinceNs = Maps.newIdentityHashMap();
+
   private volatile boolean closed;
   private final AtomicLong connectionsCreated;
   private final AtomicLong connectionsDestroyed;
   private final AtomicLong connectionsReturned;
+  private final AtomicLong connectionsEvicted;
 
   /**
    * Creates a connection pool with a connection picker that selects the first item in the set of
@@ -87,26 +118,108 @@ public final class ConnectionPool<S extends Connection<?, ?>> implements ObjectP
    * @param statsProvider Stats export provider.
    */
   public ConnectionPool(ConnectionFactory<S> connectionFactory, StatsProvider statsProvider) {
-    this(Executors.newCachedThreadPool(
-        new ThreadFactoryBuilder()
-            .setNameFormat("CP-" + connectionFactory + "[%d]")
-            .setDaemon(true)
-            .build()),
-        new ReentrantLock(true), connectionFactory, statsProvider);
+    this(createExecutor(connectionFactory), new ReentrantLock(true), connectionFactory,
+        statsProvider);
+  }
+
+  /**
+   * Creates a connection pool like {@link #ConnectionPool(ConnectionFactory, StatsProvider)},
+   * that is maintained in the background according to a policy until it is closed.
+   *
+   * @param connectionFactory Factory to create and destroy connections.
+   * @param statsProvider Stats export provider.
+   * @param maintenancePolicy Sizing and eviction policy of the background maintenance.
+   */
+  public ConnectionPool(ConnectionFactory<S> connectionFactory, StatsProvider statsProvider,
+      MaintenancePolicy maintenancePolicy) {
+    this(connectionFactory, statsProvider, maintenancePolicy, IS_VALID);
+  }
+
+  /**
+   * Creates a connection pool like
+   * {@link #ConnectionPool(ConnectionFactory, StatsProvider, MaintenancePolicy)}, whose
+   * maintenance validates idle connections with {@code validator} rather than
+   * {@link Connection#isValid()}.  Validation runs on the maintenance thread with the connection
+   * out of the pool, so the validator may block, for example to probe the connection's endpoint.
+   *
+   * @param connectionFactory Factory to create and destroy connections.
+   * @param statsProvider Stats export provider.
+   * @param maintenancePolicy Sizing and eviction policy of the background maintenance.
+   * @param validator Returns {@code false} for idle connections that should be destroyed.
+   */
+  public ConnectionPool(ConnectionFactory<S> connectionFactory, StatsProvider statsProvider,
+      MaintenancePolicy maintenancePolicy, Predicate<? super S> validator) {
+    this(createExecutor(connectionFactory), new ReentrantLock(true), connectionFactory,
+        statsProvider, Preconditions.checkNotNull(maintenancePolicy), validator,
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("CP-" + connectionFactory + "-maintenance")
+                .setDaemon(true)
+                .build()),
+        true, Clock.SYSTEM_CLOCK);
+  }
+
+  /**
+   * Creates a connection pool like
+   * {@link #ConnectionPool(ConnectionFactory, StatsProvider, MaintenancePolicy, Predicate)}, whose
+   * maintenance runs on {@code maintenanceExecutor} instead of a thread of its own, so that many
+   * pools can share one maintenance thread.  Closing the pool cancels its maintenance but does not
+   * shut down the executor.
+   *
+   * @param connectionFactory Factory to create and destroy connections.
+   * @param statsProvider Stats export provider.
+   * @param maintenancePolicy Sizing and eviction policy of the background maintenance.
+   * @param validator Returns {@code false} for idle connections that should be destroyed.
+   * @param maintenanceExecutor Executor to schedule maintenance passes on.
+   */
+  public ConnectionPool(ConnectionFactory<S> connectionFactory, StatsProvider statsProvider,
+      MaintenancePolicy maintenancePolicy, Predicate<? super S> validator,
+      ScheduledExecutorService maintenanceExecutor) {
+    this(createExecutor(connectionFactory), new ReentrantLock(true), connectionFactory,
+        statsProvider, Preconditions.checkNotNull(maintenancePolicy), validator,
+        Preconditions.checkNotNull(maintenanceExecutor), false, Clock.SYSTEM_CLOCK);
   }
 
   @VisibleForTesting
   ConnectionPool(Executor executor, Lock poolLock, ConnectionFactory<S> connectionFactory,
       StatsProvider statsProvider) {
+    this(executor, poolLock, connectionFactory, statsProvider, null, IS_VALID, null,
+        Clock.SYSTEM_CLOCK);
+  }
+
+  /**
+   * Creates a connection pool that is maintained according to {@code maintenancePolicy}, if
+   * given.  Maintenance passes are scheduled on {@code maintenanceExecutor} if given, and
+   * otherwise only run by calls to {@link #maintain()}.
+   */
+  @VisibleForTesting
+  ConnectionPool(Executor executor, Lock poolLock, ConnectionFactory<S> connectionFactory,
+      StatsProvider statsProvider, @Nullable MaintenancePolicy maintenancePolicy,
+      Predicate<? super S> validator, @Nullable ScheduledExecutorService maintenanceExecutor,
+      Clock clock) {
+    this(executor, poolLock, connectionFactory, statsProvider, maintenancePolicy, validator,
+        maintenanceExecutor, false, clock);
+  }
+
+  private ConnectionPool(Executor executor, Lock poolLock, ConnectionFactory<S> connectionFactory,
+      StatsProvider statsProvider, @Nullable MaintenancePolicy maintenancePolicy,
+      Predicate<? super S> validator, @Nullable ScheduledExecutorService maintenanceExecutor,
+      boolean ownsMaintenanceExecutor, Clock clock) {
     Preconditions.checkNotNull(executor);
     Preconditions.checkNotNull(poolLock);
     Preconditions.checkNotNull(connectionFactory);
     Preconditions.checkNotNull(statsProvider);
+    Preconditions.checkNotNull(validator);
+    Preconditions.checkNotNull(clock);
 
     this.executor = executor;
     this.poolLock = poolLock;
     available = poolLock.newCondition();
     this.connectionFactory = connectionFactory;
+    this.maintenancePolicy = maintenancePolicy;
+    this.validator = validator;
+    this.ownedMaintenanceExecutor = ownsMaintenanceExecutor ? maintenanceExecutor : null;
+    this.clock = clock;
 
     String cfName = Stats.normalizeName(connectionFactory.toString());
     statsProvider.makeGauge("cp_leased_connections_" + cfName,
@@ -127,6 +240,31 @@ public final class ConnectionPool<S extends Connection<?, ?>> implements ObjectP
         statsProvider.makeCounter("cp_destroyed_connections_" + cfName);
     this.connectionsReturned =
         statsProvider.makeCounter("cp_returned_connections_" + cfName);
+    this.connectionsEvicted =
+        statsProvider.makeCounter("cp_evicted_connections_" + cfName);
+
+    if (maintenancePolicy != null && maintenanceExecutor != null) {
+      long intervalNs = maintenancePolicy.interval.as(Time.NANOSECONDS);
+      maintenanceTask = maintenanceExecutor.scheduleWithFixedDelay(new Runnable() {
+        @Override public void run() {
+          try {
+            maintain();
+          } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to maintain " + ConnectionPool.this, e);
+          }
+        }
+      }, 0, intervalNs, TimeUnit.NANOSECONDS);
+    } else {
+      maintenanceTask = null;
+    }
+  }
+
+  private static Executor createExecutor(ConnectionFactory<?> connectionFactory) {
+    return Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder()
+            .setNameFormat("CP-" + connectionFactory + "[%d]")
+            .setDaemon(true)
+            .build());
   }
 
   @Override
@@ -206,10 +344,11 @@ public final class ConnectionPool<S extends Connection<?, ?>> implements ObjectP
                                            + connection);
       }
 
-      if (!closed && !remove && connection.isValid()) {
+      if (!closed && !remove && connection.isValid() && !isExpired(connection)) {
         addConnection(connection);
         connectionsReturned.incrementAndGet();
       } else {
+        forget(connection);
         connectionFactory.destroy(connection);
         connectionsDestroyed.incrementAndGet();
       }
@@ -220,6 +359,12 @@ public final class ConnectionPool<S extends Connection<?, ?>> implements ObjectP
 
   @Override
   public void close() {
+    if (maintenanceTask != null) {
+      maintenanceTask.cancel(false);
+    }
+    if (ownedMaintenanceExecutor != null) {
+      ownedMaintenanceExecutor.shutdownNow();
+    }
     poolLock.lock();
     try {
       for (S availableConnection : availableConnections) {
@@ -308,19 +453,21 @@ public final class ConnectionPool<S extends Connection<?, ?>> implements ObjectP
   }
 
   private S getAvailableConnection() {
-    S connection = (availableConnections.size() == 1)
-        ? Iterables.getOnlyElement(availableConnections)
-        : availableConnections.iterator().next();
-    if (!availableConnections.remove(connection)) {
-      throw new IllegalArgumentException("Connection picked not in pool: " + connection);
-    }
-    return connection;
+    return availableConnections.pop();
   }
 
   private S createConnection(Amount<Long, Time> timeout) throws Exception {
     S connection = connectionFactory.create(timeout);
     if (connection != null) {
       connectionsCreated.incrementAndGet();
+      if (maintenancePolicy != null) {
+        poolLock.lock();
+        try {
+          createdNs.put(connection, clock.nowNanos());
+        } finally {
+          poolLock.unlock();
+        }
+      }
     }
     return connection;
   }
@@ -328,10 +475,134 @@ public final class ConnectionPool<S extends Connection<?, ?>> implements ObjectP
   private void addConnection(S connection) {
     poolLock.lock();
     try {
-      availableConnections.add(connection);
+      availableConnections.push(connection);
+      if (maintenancePolicy != null) {
+        idleSinceNs.put(connection, clock.nowNanos());
+      }
       available.signal();
     } finally {
       poolLock.unlock();
     }
   }
+
+  /**
+   * Runs one maintenance pass: destroys expired and excess idle connections, validates the rest
+   * and destroys those that fail, then creates connections up to the minimum idle count.  The idle
+   * connections are taken out of the pool in a single pass under the pool lock, and each is
+   * returned as soon as it is validated, so validation does not hold the pool lock.  Does nothing
+   * for a pool without maintenance.
+   */
+  @VisibleForTesting
+  void maintain() {
+    if (maintenancePolicy == null) {
+      return;
+    }
+
+    List<S> evicted = Lists.newArrayList();
+    List<S> unvalidated = Lists.newArrayList();
+    poolLock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      long now = clock.nowNanos();
+      int idle = availableConnections.size();
+      // Released connections are pushed onto the head, so the longest idle are at the tail.
+      Iterator<S> idleConnections = availableConnections.descendingIterator();
+      while (idleConnections.hasNext()) {
+        S connection = idleConnections.next();
+        boolean excess = idle > maintenancePolicy.minIdle
+            && (idle > maintenancePolicy.maxIdle
+                || now - idleSinceNs.get(connection) > maintenancePolicy.maxIdleTimeNs);
+        if (excess || isExpired(connection)) {
+          forget(connection);
+          evicted.add(connection);
+          idle--;
+        } else {
+          unvalidated.add(connection);
+        }
+      }
+      // Every idle connection is now either evicted or awaiting validation.
+      availableConnections.clear();
+    } finally {
+      poolLock.unlock();
+    }
+
+    for (S connection : unvalidated) {
+      if (!validate(connection)) {
+        evicted.add(connection);
+      }
+    }
+
+    for (S connection : evicted) {
+      connectionFactory.destroy(connection);
+      connectionsDestroyed.incrementAndGet();
+      connectionsEvicted.incrementAndGet();
+    }
+
+    int deficit;
+    poolLock.lock();
+    try {
+      deficit = maintenancePolicy.minIdle - availableConnections.size();
+    } finally {
+      poolLock.unlock();
+    }
+    for (; deficit > 0 && !closed && connectionFactory.mightCreate(); deficit--) {
+      try {
+        S connection = createConnection(maintenancePolicy.interval);
+        if (connection == null) {
+          break;
+        }
+        addConnection(connection);
+      } catch (Exception e) {
+        LOG.log(Level.WARNING, "Failed to create an idle connection for " + this, e);
+        break;
+      }
+    }
+  }
+
+  /**
+   * Validates a connection taken from the available connections, and returns it to the tail of
+   * the available connections, where it keeps its place as one of the longest idle, if it is
+   * valid and the pool is still open.
+   *
+   * @return {@code false} if the connection should be destroyed.
+   */
+  private boolean validate(S connection) {
+    boolean valid;
+    try {
+      valid = validator.apply(connection);
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Failed to validate " + connection, e);
+      valid = false;
+    }
+
+    poolLock.lock();
+    try {
+      if (valid && !closed) {
+        availableConnections.addLast(connection);
+        available.signal();
+        return true;
+      }
+      forget(connection);
+      return false;
+    } finally {
+      poolLock.unlock();
+    }
+  }
+
+  private boolean isExpired(S connection) {
+    if (maintenancePolicy == null) {
+      return false;
+    }
+    Long created = createdNs.get(connection);
+    return created != null && clock.nowNanos() - created > maintenancePolicy.maxLifetimeNs;
+  }
+
+  private void forget(S connection) {
+    if (maintenancePolicy != null) {
+      createdNs.remove(connection);
+      idleSinceNs.remove(connection);
+    }
+  }
 }
@@ -0,0 +1,472 @@
+package com.twitter.common.net.pool;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.twitter.common.base.Supplier;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.Stats;
+import com.twitter.common.stats.StatsProvider;
+import com.twitter.common.stats.StatsProvider.RequestTimer;
+import com.twitter.common.stats.StripedCounter;
+
+/**
+ * A connection pool with the same growth policy as {@link ConnectionPool}, in which leasing and
+ * releasing an available connection take no locks.
+ *
+ * <p>Available connections are kept on a lock-free stack, so the most recently released
+ * connection is leased next.  With thread affinity enabled, a thread first tries to lease the
+ * connection it last used, which avoids contending on the stack at all when each thread
+ * uses one connection at a time.  Only a thread that finds no available connection takes a lock,
+ * to wait for one to be released or created.
+ *
+ * <p>Connections are created on the pool's executor rather than by the leasing thread, with at
+ * most one creation in flight per waiting thread.  A lease fails with a
+ * {@link ResourceExhaustedException} if the pool holds no connections and a creation it waited
+ * for fails, as {@link ConnectionPool} fails a lease on an empty pool.
+ *
+ * <p>In addition to the stats exported by {@link ConnectionPool}, the pool exports request
+ * stats named {@code cp_lease_wait_<factory>}, which track the time spent by leases that had to
+ * wait for a connection as a latency histogram and count leases that timed out or failed as
+ * timeouts and errors, a counter {@code cp_immediate_leases_<factory>} of leases that found an
+ * available connection without waiting, and a counter {@code cp_affinity_hits_<factory>} of leases
+ * that were served by the connection the leasing thread last used.
+ */
+public final class LockFreeConnectionPool<S extends Connection<?, ?>> implements ObjectPool<S> {
+
+  private static final Logger LOG = Logger.getLogger(LockFreeConnectionPool.class.getName());
+
+  private static final int AVAILABLE = 0;
+  private static final int LEASED = 1;
+  private static final int REMOVED = 2;
+
+  // Weak keys make the map compare connections by identity, as ConnectionPool does for leased
+  // connections.  The entries hold the connections, so no key is collected while it is pooled.
+  private final ConcurrentMap<S, Entry<S>> entries = new MapMaker().weakKeys().makeMap();
+  private final AtomicReference<Node<S>> availableHead = new AtomicReference<Node<S>>();
+  // The entry the thread last leased or released, when thread affinity is enabled.
+  private final ThreadLocal<Entry<S>> affineEntry = new ThreadLocal<Entry<S>>();
+  private final boolean threadAffinity;
+
+  private final Lock waitLock = new ReentrantLock();
+  private final Condition available = waitLock.newCondition();
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final AtomicInteger pendingCreates = new AtomicInteger();
+  private final AtomicLong failedCreates = new AtomicLong();
+  private volatile Exception lastCreateFailure;
+
+  private final ConnectionFactory<S> connectionFactory;
+  private final Executor executor;
+  // The executor the pool created for itself, shut down on close, or null if it was supplied.
+  private final ExecutorService ownedExecutor;
+
+  private volatile boolean closed;
+  private final AtomicLong connectionsCreated;
+  private final AtomicLong connectionsDestroyed;
+  // Striped, since every release and most leases update them.
+  private final StripedCounter connectionsReturned;
+  private final StripedCounter affinityHits;
+  private final StripedCounter immediateLeases;
+  private final RequestTimer leaseWait;
+
+  /**
+   * Creates a connection pool with thread affinity, exporting statistics to stats provider
+   * {@link Stats#STATS_PROVIDER}.
+   *
+   * @param connectionFactory Factory to create and destroy connections.
+   */
+  public LockFreeConnectionPool(ConnectionFactory<S> connectionFactory) {
+    this(connectionFactory, Stats.STATS_PROVIDER, true);
+  }
+
+  /**
+   * Creates a connection pool that uses the supplied StatsProvider to register stats with.
+   *
+   * @param connectionFactory Factory to create and destroy connections.
+   * @param statsProvider Stats export provider.
+   * @param threadAffinity Whether a thread should first try to lease the connection it last used.
+   */
+  public LockFreeConnectionPool(ConnectionFactory<S> connectionFactory,
+      StatsProvider statsProvider, boolean threadAffinity) {
+    this(Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder()
+            .setNameFormat("LFCP-" + connectionFactory + "[%d]")
+            .setDaemon(true)
+            .build()),
+        true, connectionFactory, statsProvider, threadAffinity);
+  }
+
+  @VisibleForTesting
+  LockFreeConnectionPool(Executor executor, ConnectionFactory<S> connectionFactory,
+      StatsProvider statsProvider, boolean threadAffinity) {
+    this(executor, false, connectionFactory, statsProvider, threadAffinity);
+  }
+
+  private LockFreeConnectionPool(Executor executor, boolean ownsExecutor,
+      ConnectionFactory<S> connectionFactory, StatsProvider statsProvider,
+      boolean threadAffinity) {
+    this.executor = Preconditions.checkNotNull(executor);
+    this.ownedExecutor = ownsExecutor ? (ExecutorService) executor : null;
+    this.connectionFactory = Preconditions.checkNotNull(connectionFactory);
+    Preconditions.checkNotNull(statsProvider);
+    this.threadAffinity = threadAffinity;
+
+    String cfName = Stats.normalizeName(connectionFactory.toString());
+    statsProvider.makeGauge("cp_leased_connections_" + cfName,
+        new Supplier<Integer>() {
+          @Override public Integer get() {
+            return countEntries(LEASED);
+          }
+        });
+    statsProvider.makeGauge("cp_available_connections_" + cfName,
+        new Supplier<Integer>() {
+          @Override public Integer get() {
+            return countEntries(AVAILABLE);
+          }
+        });
+    this.connectionsCreated =
+        statsProvider.makeCounter("cp_created_connections_" + cfName);
+    this.connectionsDestroyed =
+        statsProvider.makeCounter("cp_destroyed_connections_" + cfName);
+    this.connectionsReturned =
+        Stats.makeStripedCounter(statsProvider, "cp_returned_connections_" + cfName);
+    this.affinityHits =
+        Stats.makeStripedCounter(statsProvider, "cp_affinity_hits_" + cfName);
+    this.immediateLeases =
+        Stats.makeStripedCounter(statsProvider, "cp_immediate_leases_" + cfName);
+    this.leaseWait = statsProvider.makeRequestTimer("cp_lease_wait_" + cfName);
+  }
+
+  @Override
+  public String toString() {
+    return "LFCP-" + connectionFactory;
+  }
+
+  @Override
+  public S get() throws ResourceExhaustedException, TimeoutException {
+    return get(NO_TIMEOUT);
+  }
+
+  @Override
+  public S get(Amount<Long, Time> timeout) throws ResourceExhaustedException, TimeoutException {
+    checkNotClosed();
+    Preconditions.checkNotNull(timeout);
+
+    // Only leases that wait are timed, so the common case costs one striped increment.
+    Entry<S> entry = tryLease();
+    if (entry != null) {
+      immediateLeases.increment();
+      return entry.connection;
+    }
+
+    long start = System.nanoTime();
+    try {
+      entry = awaitLease(timeout, start);
+    } catch (TimeoutException e) {
+      leaseWait.incTimeouts();
+      throw e;
+    } catch (ResourceExhaustedException e) {
+      leaseWait.incErrors();
+      throw e;
+    }
+    leaseWait.requestComplete((System.nanoTime() - start) / 1000);
+    return entry.connection;
+  }
+
+  /**
+   * Leases an available connection without blocking.
+   *
+   * @return The leased connection's entry, or {@code null} if no connection was available.
+   */
+  private Entry<S> tryLease() {
+    if (threadAffinity) {
+      Entry<S> entry = affineEntry.get();
+      if (entry != null && entry.compareAndSet(AVAILABLE, LEASED)) {
+        affinityHits.increment();
+        return entry;
+      }
+    }
+
+    Node<S> head;
+    while ((head = availableHead.get()) != null) {
+      if (availableHead.compareAndSet(head, head.next)) {
+        Entry<S> entry = head.entry;
+        entry.stacked.set(false);
+        // The entry may have been leased through affinity or removed since it was pushed.
+        if (entry.compareAndSet(AVAILABLE, LEASED)) {
+          if (threadAffinity) {
+            affineEntry.set(entry);
+          }
+          return entry;
+        }
+      }
+    }
+    return null;
+  }
+
+  private Entry<S> awaitLease(Amount<Long, Time> timeout, long start)
+      throws ResourceExhaustedException, TimeoutException {
+
+    long failuresBefore = failedCreates.get();
+    boolean timed = timeout.getValue() != 0;
+    long deadline = start + timeout.as(Time.NANOSECONDS);
+
+    waiters.incrementAndGet();
+    requestCreate(timeout);
+    waitLock.lock();
+    try {
+      // We wait for a returned/new connection here in loops to guard against the
+      // "spurious wakeups" that are documented can occur with Condition.await()
+      while (true) {
+        Entry<S> entry = tryLease();
+        if (entry != null) {
+          return entry;
+        }
+        if (closed) {
+          throw new ResourceExhaustedException("Connection pool closed while waiting");
+        }
+
+        if (entries.isEmpty()
+            && (pendingCreates.get() == 0 || failedCreates.get() != failuresBefore)) {
+          Exception cause = lastCreateFailure;
+          throw (cause == null)
+              ? new ResourceExhaustedException("Connection pool resources exhausted")
+              : new ResourceExhaustedException("failed to create a new connection", cause);
+        }
+
+        if (timed) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0 || !available.await(remaining, TimeUnit.NANOSECONDS)) {
+            throw new TimeoutException(
+                "timeout waiting for a connection to be released to the pool");
+          }
+        } else {
+          available.await();
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new TimeoutException("Interrupted while waiting for a connection.");
+    } finally {
+      waitLock.unlock();
+      waiters.decrementAndGet();
+    }
+  }
+
+  /**
+   * Starts creating a connection on the executor if the factory might create one and fewer
+   * creations are in flight than there are threads waiting for a connection.  Each waiting lease
+   * requests at most one creation, as each blocked {@link ConnectionPool} lease does.
+   */
+  private void requestCreate(final Amount<Long, Time> timeout) {
+    while (true) {
+      int pending = pendingCreates.get();
+      if (pending >= waiters.get() || !connectionFactory.mightCreate()) {
+        return;
+      }
+      if (pendingCreates.compareAndSet(pending, pending + 1)) {
+        break;
+      }
+    }
+
+    Runnable create = new Runnable() {
+      @Override public void run() {
+        try {
+          // The connection timeout is not needed here to honor the callers get requested
+          // timeout, but we don't want to have an infinite timeout which could exhaust a
+          // thread pool over many backgrounded create calls
+          S connection = connectionFactory.create(timeout);
+          if (connection != null) {
+            connectionsCreated.incrementAndGet();
+            addConnection(connection);
+          } else {
+            LOG.log(Level.WARNING, "Failed to create a new connection for a waiting client "
+                + "due to maximum pool size or timeout");
+            lastCreateFailure = null;
+            failedCreates.incrementAndGet();
+          }
+        } catch (Exception e) {
+          LOG.log(Level.WARNING, "Failed to create a new connection for a waiting client", e);
+          lastCreateFailure = e;
+          failedCreates.incrementAndGet();
+        } finally {
+          pendingCreates.decrementAndGet();
+          signalWaiters(true);
+        }
+      }
+    };
+    try {
+      executor.execute(create);
+    } catch (RejectedExecutionException e) {
+      // The pool was closed and shut down its executor; the waiter will see the pool closed.
+      pendingCreates.decrementAndGet();
+    }
+  }
+
+  private void addConnection(S connection) {
+    Entry<S> entry = new Entry<S>(connection);
+    entries.put(connection, entry);
+    makeAvailable(entry);
+  }
+
+  @Override
+  public void release(S connection) {
+    release(connection, false);
+  }
+
+  /**
+   * Equivalent to releasing a Connection with isValid() == false.
+   * @see ObjectPool#remove(Object)
+   */
+  @Override
+  public void remove(S connection) {
+    release(connection, true);
+  }
+
+  private void release(S connection, boolean remove) {
+    Entry<S> entry = threadAffinity ? affineEntry.get() : null;
+    if (entry == null || entry.connection != connection) {
+      entry = entries.get(connection);
+    }
+    if (entry == null || entry.get() != LEASED) {
+      throw new IllegalArgumentException("Connection not controlled by this connection pool: "
+                                         + connection);
+    }
+
+    if (!closed && !remove && connection.isValid()) {
+      if (!entry.compareAndSet(LEASED, AVAILABLE)) {
+        throw new IllegalArgumentException("Connection released concurrently: " + connection);
+      }
+      if (threadAffinity) {
+        affineEntry.set(entry);
+      }
+      makeAvailable(entry);
+      connectionsReturned.increment();
+      signalWaiters(false);
+    } else {
+      destroy(entry, LEASED);
+    }
+  }
+
+  private void makeAvailable(Entry<S> entry) {
+    pushIfAbsent(entry);
+    if (closed) {
+      // Lost a race with close, which may not have seen this entry.
+      destroy(entry, AVAILABLE);
+    }
+  }
+
+  /**
+   * Pushes an available entry onto the stack, unless it is still there from an earlier release.
+   * Each entry is on the stack at most once, so the stack does not grow with leases that are
+   * served by thread affinity.
+   */
+  private void pushIfAbsent(Entry<S> entry) {
+    if (entry.stacked.compareAndSet(false, true)) {
+      Node<S> node = new Node<S>(entry);
+      do {
+        node.next = availableHead.get();
+      } while (!availableHead.compareAndSet(node.next, node));
+    }
+  }
+
+  private void destroy(Entry<S> entry, int expectedState) {
+    if (entry.compareAndSet(expectedState, REMOVED)) {
+      entries.remove(entry.connection);
+      connectionFactory.destroy(entry.connection);
+      connectionsDestroyed.incrementAndGet();
+    }
+  }
+
+  /**
+   * Wakes threads waiting for a connection.  Releases check for waiters after making their
+   * connection available, and waiters check for available connections after registering, so a
+   * waiter either sees the connection or is signalled.
+   */
+  private void signalWaiters(boolean all) {
+    if (waiters.get() > 0) {
+      waitLock.lock();
+      try {
+        if (all) {
+          available.signalAll();
+        } else {
+          available.signal();
+        }
+      } finally {
+        waitLock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    for (Entry<S> entry : entries.values()) {
+      destroy(entry, AVAILABLE);
+    }
+    signalWaiters(true);
+    if (ownedExecutor != null) {
+      ownedExecutor.shutdown();
+    }
+  }
+
+  private void checkNotClosed() {
+    Preconditions.checkState(!closed);
+  }
+
+  private int countEntries(int state) {
+    int count = 0;
+    for (Entry<S> entry : entries.values()) {
+      if (entry.get() == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * A pooled connection, whose value is its state: {@link #AVAILABLE}, {@link #LEASED} or
+   * {@link #REMOVED}.
+   */
+  private static final class Entry<S> extends AtomicInteger {
+    private final S connection;
+    private final AtomicBoolean stacked = new AtomicBoolean();
+
+    Entry(S connection) {
+      super(AVAILABLE);
+      this.connection = connection;
+    }
+  }
+
+  /**
+   * A node of the available stack.  Nodes are never reused, so a compare-and-set of the head
+   * cannot succeed against a node that was popped and pushed again.
+   */
+  private static final class Node<S> {
+    private final Entry<S> entry;
+    private Node<S> next;
+
+    Node(Entry<S> entry) {
+      this.entry = entry;
+    }
+  }
+}
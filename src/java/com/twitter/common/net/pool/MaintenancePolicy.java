@@ -0,0 +1,122 @@
+package com.twitter.common.net.pool;
+
+import com.google.common.base.Preconditions;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+
+/**
+ * Sizing and eviction settings for the background maintenance of a {@link ConnectionPool}.
+ *
+ * <p>On each maintenance pass the pool destroys idle connections that are no longer valid or have
+ * outlived their maximum lifetime, then the idle connections beyond the maximum idle count or
+ * idle time, oldest first, keeping at least the minimum idle count.  Finally it creates
+ * connections until the minimum idle count is available, as far as the connection factory allows.
+ * Leased connections that outlive their maximum lifetime are destroyed when released.
+ */
+public final class MaintenancePolicy {
+
+  final int minIdle;
+  final int maxIdle;
+  final long maxIdleTimeNs;
+  final long maxLifetimeNs;
+  final Amount<Long, Time> interval;
+
+  private MaintenancePolicy(Builder builder) {
+    this.minIdle = builder.minIdle;
+    this.maxIdle = builder.maxIdle;
+    this.maxIdleTimeNs = asNanos(builder.maxIdleTime);
+    this.maxLifetimeNs = asNanos(builder.maxLifetime);
+    this.interval = builder.interval;
+  }
+
+  private static long asNanos(Amount<Long, Time> amount) {
+    return amount == null ? Long.MAX_VALUE : amount.as(Time.NANOSECONDS);
+  }
+
+  /**
+   * Creates a builder for a policy that, by default, keeps no connections idle, evicts none for
+   * size or age, and runs every 30 seconds.
+   *
+   * @return A new builder.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private int minIdle = 0;
+    private int maxIdle = Integer.MAX_VALUE;
+    private Amount<Long, Time> maxIdleTime = null;
+    private Amount<Long, Time> maxLifetime = null;
+    private Amount<Long, Time> interval = Amount.of(30L, Time.SECONDS);
+
+    private Builder() {
+    }
+
+    /**
+     * Sets the number of idle connections the pool creates ahead of demand, and never evicts
+     * for size or idle time.
+     *
+     * @param minIdle Minimum number of idle connections.
+     * @return A reference to the builder.
+     */
+    public Builder withMinIdle(int minIdle) {
+      this.minIdle = minIdle;
+      return this;
+    }
+
+    /**
+     * Sets the number of idle connections beyond which the pool evicts the longest idle.
+     *
+     * @param maxIdle Maximum number of idle connections.
+     * @return A reference to the builder.
+     */
+    public Builder withMaxIdle(int maxIdle) {
+      this.maxIdle = maxIdle;
+      return this;
+    }
+
+    /**
+     * Sets how long a connection may be idle before the pool evicts it.
+     *
+     * @param maxIdleTime Maximum idle time.
+     * @return A reference to the builder.
+     */
+    public Builder withMaxIdleTime(Amount<Long, Time> maxIdleTime) {
+      this.maxIdleTime = Preconditions.checkNotNull(maxIdleTime);
+      return this;
+    }
+
+    /**
+     * Sets how long after its creation a connection is destroyed, whether idle or leased.
+     *
+     * @param maxLifetime Maximum connection lifetime.
+     * @return A reference to the builder.
+     */
+    public Builder withMaxLifetime(Amount<Long, Time> maxLifetime) {
+      this.maxLifetime = Preconditions.checkNotNull(maxLifetime);
+      return this;
+    }
+
+    /**
+     * Sets the delay between maintenance passes.  The interval also bounds the time a pass
+     * waits to create each connection.
+     *
+     * @param interval Maintenance interval.
+     * @return A reference to the builder.
+     */
+    public Builder withInterval(Amount<Long, Time> interval) {
+      this.interval = Preconditions.checkNotNull(interval);
+      return this;
+    }
+
+    public MaintenancePolicy build() {
+      Preconditions.checkArgument(minIdle >= 0, "Minimum idle count must not be negative.");
+      Preconditions.checkArgument(maxIdle >= minIdle,
+          "Maximum idle count must be at least the minimum.");
+      Preconditions.checkArgument(interval.getValue() > 0, "Interval must be positive.");
+      return new MaintenancePolicy(this);
+    }
+  }
+}
@@ -22,16 +22,11 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import com.twitter.common.base.Closure;
@@ -61,11 +56,9 @@ public class MetaPool<T, E> implements ObjectPool<Connection<T, E>> {
 
   private final Command stopBackendRestorer;
 
-  private Map<E, ObjectPool<Connection<T, E>>> backends = null;
-
-  // Locks to guard mutation of the backends set.
-  private final Lock backendsReadLock;
-  private final Lock backendsWriteLock;
+  // An immutable snapshot of the backend pools, replaced while holding the monitor so that the
+  // load balancer is offered the same backends.  Leases and releases read it without locking.
+  private volatile ImmutableMap<E, ObjectPool<Connection<T, E>>> backends = ImmutableMap.of();
 
   private final Closure<Collection<E>> onBackendsChosen;
 
@@ -105,10 +98,6 @@ public class MetaPool<T, E> implements ObjectPool<Connection<T, E>> {
     this.loadBalancer = Preconditions.checkNotNull(loadBalancer);
     this.onBackendsChosen = Preconditions.checkNotNull(onBackendsChosen);
 
-    ReadWriteLock backendsLock = new ReentrantReadWriteLock(true);
-    backendsReadLock = backendsLock.readLock();
-    backendsWriteLock = backendsLock.writeLock();
-
     setBackends(backends);
 
     Preconditions.checkNotNull(restoreInterval);
@@ -121,14 +110,9 @@ public class MetaPool<T, E> implements ObjectPool<Connection<T, E>> {
    *
    * @param pools New pools to use.
    */
-  public void setBackends(Map<E, ObjectPool<Connection<T, E>>> pools) {
-    backendsWriteLock.lock();
-    try {
-      backends = Preconditions.checkNotNull(pools);
-      loadBalancer.offerBackends(pools.keySet(), onBackendsChosen);
-    } finally {
-      backendsWriteLock.unlock();
-    }
+  public synchronized void setBackends(Map<E, ObjectPool<Connection<T, E>>> pools) {
+    backends = ImmutableMap.copyOf(Preconditions.checkNotNull(pools));
+    loadBalancer.offerBackends(backends.keySet(), onBackendsChosen);
   }
 
   private Command startDeadBackendRestorer(final Amount<Long, Time> restoreInterval) {
@@ -163,35 +147,16 @@ public class MetaPool<T, E> implements ObjectPool<Connection<T, E>> {
   private static final Logger LOG = Logger.getLogger(MetaPool.class.getName());
 
   private void restoreDeadBackends(Amount<Long, Time> restoreInterval) {
-    for (E backend : snapshotBackends()) {
-      ObjectPool<Connection<T, E>> pool;
-      backendsReadLock.lock();
+    // We can lose a race if the backends change - and that's fine, we'll restore the new set of
+    // backends in the next scheduled restoration run.
+    for (Map.Entry<E, ObjectPool<Connection<T, E>>> backend : backends.entrySet()) {
       try {
-        pool = backends.get(backend);
-      } finally {
-        backendsReadLock.unlock();
+        release(get(backend.getKey(), backend.getValue(), restoreInterval));
+      } catch (TimeoutException e) {
+        LOG.warning("Backend restorer failed to revive backend: " + backend.getKey() + " -> " + e);
+      } catch (ResourceExhaustedException e) {
+        LOG.warning("Backend restorer failed to revive backend: " + backend.getKey() + " -> " + e);
       }
-
-      // We can lose a race if the backends change - and that's fine, we'll restore the new set of
-      // backends in the next scheduled restoration run.
-      if (pool != null) {
-        try {
-          release(get(backend, pool, restoreInterval));
-        } catch (TimeoutException e) {
-          LOG.warning("Backend restorer failed to revive backend: " + backend + " -> " + e);
-        } catch (ResourceExhaustedException e) {
-          LOG.warning("Backend restorer failed to revive backend: " + backend + " -> " + e);
-        }
-      }
-    }
-  }
-
-  private Iterable<E> snapshotBackends() {
-    backendsReadLock.lock();
-    try {
-      return ImmutableList.copyOf(backends.keySet());
-    } finally {
-      backendsReadLock.unlock();
     }
   }
 
@@ -204,24 +169,27 @@ public class MetaPool<T, E> implements ObjectPool<Connection<T, E>> {
   public Connection<T, E> get(Amount<Long, Time> timeout)
       throws ResourceExhaustedException, TimeoutException {
 
-    E backend;
-    ObjectPool<Connection<T, E>> pool;
-
-    backendsReadLock.lock();
-    try {
-      backend = loadBalancer.nextBackend();
-      Preconditions.checkNotNull(backend, "Load balancer gave a null backend.");
-
-      pool = backends.get(backend);
-      Preconditions.checkNotNull(backend,
+    E backend = nextBackend();
+    ObjectPool<Connection<T, E>> pool = backends.get(backend);
+    if (pool == null) {
+      // The backends changed between choosing a backend and looking up its pool.  Choose again
+      // while no change can be in progress.
+      synchronized (this) {
+        backend = nextBackend();
+        pool = backends.get(backend);
+      }
+      Preconditions.checkNotNull(pool,
           "Given backend %s not found in tracked backends: %s", backend, backends);
-    } finally {
-      backendsReadLock.unlock();
     }
 
     return get(backend, pool, timeout);
   }
 
+  private E nextBackend() throws ResourceExhaustedException {
+    return Preconditions.checkNotNull(loadBalancer.nextBackend(),
+        "Load balancer gave a null backend.");
+  }
+
   private static class ManagedConnection<T, E> implements Connection<T, E> {
     private final Connection<T, E> connection;
     private final ObjectPool<Connection<T, E>> pool;
@@ -312,32 +280,23 @@ public class MetaPool<T, E> implements ObjectPool<Connection<T, E>> {
   }
 
   private void release(Connection<T, E> connection, boolean remove) {
-    backendsWriteLock.lock();
-    try {
-
-      if (!(connection instanceof ManagedConnection)) {
-        throw new IllegalArgumentException("Connection not controlled by this connection pool: "
-                                           + connection);
-      }
-      ((ManagedConnection) connection).release(remove);
-
-      loadBalancer.released(connection.getEndpoint());
-    } finally {
-      backendsWriteLock.unlock();
+    if (!(connection instanceof ManagedConnection)) {
+      throw new IllegalArgumentException("Connection not controlled by this connection pool: "
+                                         + connection);
     }
+    ((ManagedConnection) connection).release(remove);
+
+    loadBalancer.released(connection.getEndpoint());
   }
 
   @Override
   public void close() {
     stopBackendRestorer.execute();
 
-    backendsWriteLock.lock();
-    try {
+    synchronized (this) {
       for (ObjectPool<Connection<T, E>> backend : backends.values()) {
         backend.close();
       }
-    } finally {
-      backendsWriteLock.unlock();
     }
   }
 }
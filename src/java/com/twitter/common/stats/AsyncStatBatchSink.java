@@ -0,0 +1,278 @@
+package com.twitter.common.stats;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import com.twitter.common.application.ShutdownRegistry;
+import com.twitter.common.base.Command;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.Clock;
+
+/**
+ * A sink that queues batches and writes them to another sink on a thread of its own, so that a
+ * slow or failing destination does not hold up the thread taking the snapshots.
+ *
+ * The queue is bounded; when it is full, a batch is dropped according to a {@link DropPolicy}.  A
+ * batch whose write fails is retried with exponential backoff up to a maximum number of attempts,
+ * and then dropped.  Queued batches are copies held in buffers that are recycled once written.
+ *
+ * The sink exports the following stats, named with the prefix given on construction:
+ * <ul>
+ *   <li>{@code <prefix>_queue_size} - batches waiting to be written.
+ *   <li>{@code <prefix>_queue_lag_ms} - age of the oldest waiting batch.
+ *   <li>{@code <prefix>_batches_written} - batches written.
+ *   <li>{@code <prefix>_batches_dropped} - batches dropped because the queue was full.
+ *   <li>{@code <prefix>_batches_failed} - batches dropped because every attempt to write failed.
+ *   <li>{@code <prefix>_write_retries} - failed writes that were retried.
+ * </ul>
+ */
+public class AsyncStatBatchSink implements StatBatchSink {
+
+  private static final Logger LOG = Logger.getLogger(AsyncStatBatchSink.class.getName());
+
+  /**
+   * Which batch to drop when the queue is full.
+   */
+  public enum DropPolicy {
+    /**
+     * Drop the oldest queued batch to make room, favoring fresh values.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the batch being written, preserving the queued history.
+     */
+    DROP_NEWEST
+  }
+
+  /**
+   * Maximum time {@link #stop()} waits for the writer thread to write the queued batches.
+   */
+  @VisibleForTesting
+  static final Amount<Long, Time> STOP_TIMEOUT = Amount.of(10L, Time.SECONDS);
+
+  private final StatBatchSink delegate;
+  private final DropPolicy dropPolicy;
+  private final int maxAttempts;
+  private final long retryBackoffMillis;
+  private final Clock clock;
+
+  private final BlockingQueue<StatBatch> queue;
+  private final Queue<StatBatch> freeBatches = new ConcurrentLinkedQueue<StatBatch>();
+
+  private final AtomicLong batchesWritten;
+  private final AtomicLong batchesDropped;
+  private final AtomicLong batchesFailed;
+  private final AtomicLong writeRetries;
+
+  private volatile Thread writerThread;
+
+  /**
+   * Creates a new asynchronous sink.  Batches are queued but not written until the sink is
+   * {@link #start(ShutdownRegistry) started}.
+   *
+   * @param statPrefix Prefix of the names of the stats exported by the sink.
+   * @param delegate Sink to write batches to.
+   * @param capacity Maximum number of batches queued.
+   * @param dropPolicy Which batch to drop when the queue is full.
+   * @param maxAttempts Maximum number of attempts to write each batch.
+   * @param retryBackoff Delay before the first retry of a failed write; it doubles with each retry.
+   */
+  public AsyncStatBatchSink(String statPrefix, StatBatchSink delegate, int capacity,
+      DropPolicy dropPolicy, int maxAttempts, Amount<Long, Time> retryBackoff) {
+    this(statPrefix, delegate, capacity, dropPolicy, maxAttempts, retryBackoff, Clock.SYSTEM_CLOCK);
+  }
+
+  @VisibleForTesting
+  AsyncStatBatchSink(String statPrefix, StatBatchSink delegate, int capacity,
+      DropPolicy dropPolicy, int maxAttempts, Amount<Long, Time> retryBackoff, final Clock clock) {
+    Preconditions.checkNotNull(statPrefix);
+    this.delegate = Preconditions.checkNotNull(delegate);
+    Preconditions.checkArgument(capacity > 0, "Capacity must be positive.");
+    this.dropPolicy = Preconditions.checkNotNull(dropPolicy);
+    Preconditions.checkArgument(maxAttempts > 0, "Max attempts must be positive.");
+    this.maxAttempts = maxAttempts;
+    this.retryBackoffMillis = retryBackoff.as(Time.MILLISECONDS);
+    this.clock = Preconditions.checkNotNull(clock);
+    queue = new ArrayBlockingQueue<StatBatch>(capacity);
+
+    batchesWritten = Stats.exportLong(statPrefix + "_batches_written");
+    batchesDropped = Stats.exportLong(statPrefix + "_batches_dropped");
+    batchesFailed = Stats.exportLong(statPrefix + "_batches_failed");
+    writeRetries = Stats.exportLong(statPrefix + "_write_retries");
+    Stats.export(new StatImpl<Integer>(statPrefix + "_queue_size") {
+      @Override public Integer read() {
+        return queue.size();
+      }
+    });
+    Stats.export(new StatImpl<Long>(statPrefix + "_queue_lag_ms") {
+      @Override public Long read() {
+        StatBatch oldest = queue.peek();
+        if (oldest == null) {
+          return 0L;
+        }
+        return Math.max(0L, clock.nowMillis() - oldest.getTimestampMillis());
+      }
+    });
+  }
+
+  /**
+   * Queues a copy of a batch to be written, dropping a batch if the queue is full.
+   *
+   * @param batch Batch to write.
+   */
+  @Override
+  public void write(StatBatch batch) {
+    StatBatch copy = freeBatches.poll();
+    if (copy == null) {
+      copy = new StatBatch(batch.size());
+    }
+    copy.copyFrom(batch);
+
+    if (queue.offer(copy)) {
+      return;
+    }
+    batchesDropped.incrementAndGet();
+    if (dropPolicy == DropPolicy.DROP_OLDEST) {
+      StatBatch oldest = queue.poll();
+      if (oldest != null) {
+        freeBatches.offer(oldest);
+      }
+      if (queue.offer(copy)) {
+        return;
+      }
+      // Lost a race with another writer; drop this batch as well.
+      batchesDropped.incrementAndGet();
+    }
+    freeBatches.offer(copy);
+  }
+
+  /**
+   * Starts writing queued batches on a daemon thread.  On shutdown, the batches still queued are
+   * written before the thread exits.
+   *
+   * @param shutdownRegistry Shutdown hook registry to allow the sink to drain its queue.
+   */
+  public synchronized void start(ShutdownRegistry shutdownRegistry) {
+    Preconditions.checkState(writerThread == null, "Sink already started.");
+    Thread thread = new Thread(new Runnable() {
+      @Override public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+          StatBatch batch;
+          try {
+            batch = queue.take();
+          } catch (InterruptedException e) {
+            break;
+          }
+          writeAndRecycle(batch);
+        }
+        // Stopping.  The remaining batches are written here rather than by the thread calling
+        // stop(), so that the delegate is never written to by two threads at once.
+        writeRemaining();
+      }
+    }, "AsyncStatBatchSink");
+    thread.setDaemon(true);
+    thread.start();
+    writerThread = thread;
+
+    shutdownRegistry.addAction(new Command() {
+      @Override public void execute() {
+        stop();
+      }
+    });
+  }
+
+  /**
+   * Stops the writer thread, which first writes any batches still queued without retrying failed
+   * writes.  Waits up to {@link #STOP_TIMEOUT} for it to finish; batches it has not written by then
+   * are abandoned to it.  If the sink was never started, the queued batches are written on the
+   * calling thread.
+   */
+  public void stop() {
+    Thread thread;
+    synchronized (this) {
+      thread = writerThread;
+      writerThread = null;
+    }
+    if (thread == null) {
+      writeRemaining();
+      return;
+    }
+    thread.interrupt();
+    try {
+      thread.join(STOP_TIMEOUT.as(Time.MILLISECONDS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      LOG.warning("Stat batch writer did not finish within " + STOP_TIMEOUT + ", "
+          + queue.size() + " batches still queued.");
+    }
+  }
+
+  /**
+   * Writes the batches queued so far on the calling thread, retrying failed writes.
+   */
+  @VisibleForTesting
+  void drain() {
+    StatBatch batch;
+    while ((batch = queue.poll()) != null) {
+      writeAndRecycle(batch);
+    }
+  }
+
+  private void writeRemaining() {
+    StatBatch batch;
+    while ((batch = queue.poll()) != null) {
+      if (!writeOnce(batch)) {
+        batchesFailed.incrementAndGet();
+      }
+      freeBatches.offer(batch);
+    }
+  }
+
+  private void writeAndRecycle(StatBatch batch) {
+    try {
+      for (int attempt = 1; !writeOnce(batch); attempt++) {
+        if (attempt >= maxAttempts) {
+          batchesFailed.incrementAndGet();
+          return;
+        }
+        writeRetries.incrementAndGet();
+        try {
+          clock.waitFor(retryBackoffMillis << Math.min(attempt - 1, 20));
+        } catch (InterruptedException e) {
+          // Stopping; give up on this batch rather than delay the rest of the queue.
+          Thread.currentThread().interrupt();
+          batchesFailed.incrementAndGet();
+          return;
+        }
+      }
+    } finally {
+      freeBatches.offer(batch);
+    }
+  }
+
+  private boolean writeOnce(StatBatch batch) {
+    try {
+      delegate.write(batch);
+      batchesWritten.incrementAndGet();
+      return true;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to write stat batch", e);
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Failed to write stat batch", e);
+    }
+    return false;
+  }
+}
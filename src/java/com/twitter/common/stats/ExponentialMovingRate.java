@@ -0,0 +1,181 @@
+package com.twitter.common.stats;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+
+/**
+ * Function to compute an exponentially weighted moving per-second rate of a value, in the manner
+ * of the Unix load average.
+ *
+ * Each sample computes the rate of change since the previous sample and moves the average toward
+ * it by a fraction that depends on how long ago the previous sample was, relative to the window:
+ * after one window, the weight of a past rate has decayed to {@code 1/e} of what it was.  Unlike
+ * {@link Rate}, the state is constant in size regardless of the window, and irregular sampling
+ * intervals are weighted correctly.
+ *
+ * The first sample only records the value, and the second initializes the average to the rate
+ * between the two.
+ */
+public class ExponentialMovingRate<T extends Number> extends SampledStat<Double> {
+
+  /**
+   * The windows of the conventional 1, 5 and 15 minute load averages.
+   */
+  public static final List<Amount<Long, Time>> STANDARD_WINDOWS = ImmutableList.of(
+      Amount.of(1L, Time.MINUTES),
+      Amount.of(5L, Time.MINUTES),
+      Amount.of(15L, Time.MINUTES));
+
+  private static final double NANOS_PER_SEC = Amount.of(1L, Time.SECONDS).as(Time.NANOSECONDS);
+
+  private final Supplier<T> inputAccessor;
+  private final Ticker ticker;
+  private final double windowNanos;
+
+  // Guarded by this.
+  private int samples = 0;
+  private long lastTimestamp;
+  private double lastValue;
+  private double rate;
+
+  private ExponentialMovingRate(String name, Supplier<T> inputAccessor,
+      Amount<Long, Time> window, Ticker ticker) {
+    super(name, 0d);
+
+    this.inputAccessor = Preconditions.checkNotNull(inputAccessor);
+    this.ticker = Preconditions.checkNotNull(ticker);
+    Preconditions.checkArgument(window.getValue() > 0, "Window must be positive!");
+    this.windowNanos = window.as(Time.NANOSECONDS);
+  }
+
+  public static <T extends Number> Builder<T> of(Stat<T> input) {
+    return new Builder<T>(input);
+  }
+
+  public static Builder<AtomicInteger> of(String name, AtomicInteger input) {
+    return new Builder<AtomicInteger>(name, input);
+  }
+
+  public static Builder<AtomicLong> of(String name, AtomicLong input) {
+    return new Builder<AtomicLong>(name, input);
+  }
+
+  public static Builder<StripedCounter> of(String name, StripedCounter input) {
+    return new Builder<StripedCounter>(name, input);
+  }
+
+  /**
+   * Creates rates of a stat over each of the {@link #STANDARD_WINDOWS}, with the default names.
+   *
+   * @param input Stat to compute the rates of.
+   * @param <T> The type of the stat.
+   * @return The 1, 5 and 15 minute rates of {@code input}.
+   */
+  public static <T extends Number> List<ExponentialMovingRate<T>> ofStandardWindows(
+      Stat<T> input) {
+    ImmutableList.Builder<ExponentialMovingRate<T>> rates = ImmutableList.builder();
+    for (Amount<Long, Time> window : STANDARD_WINDOWS) {
+      rates.add(of(input).withWindow(window).build());
+    }
+    return rates.build();
+  }
+
+  @Override
+  public synchronized Double doSample() {
+    double newValue = inputAccessor.get().doubleValue();
+    long newTimestamp = ticker.read();
+
+    if (samples == 0) {
+      samples++;
+    } else {
+      long dt = newTimestamp - lastTimestamp;
+      if (dt <= 0) {
+        // Keep the previous reading, so that the change is counted once time has passed.
+        return rate;
+      }
+      double instantRate = NANOS_PER_SEC * (newValue - lastValue) / dt;
+      if (samples == 1) {
+        rate = instantRate;
+        samples++;
+      } else {
+        rate += (1 - Math.exp(-dt / windowNanos)) * (instantRate - rate);
+      }
+    }
+    lastTimestamp = newTimestamp;
+    lastValue = newValue;
+
+    return rate;
+  }
+
+  public static class Builder<T extends Number> {
+
+    private String name;
+    private final String inputName;
+    private Amount<Long, Time> window = STANDARD_WINDOWS.get(0);
+    private final Supplier<T> inputAccessor;
+    private Ticker ticker = Ticker.systemTicker();
+
+    Builder(String name, final T input) {
+      this.name = name;
+      this.inputName = null;
+      inputAccessor = Suppliers.ofInstance(input);
+    }
+
+    Builder(final Stat<T> input) {
+      Stats.export(input);
+      this.inputName = input.getName();
+      inputAccessor = new Supplier<T>() {
+        @Override public T get() { return input.read(); }
+      };
+    }
+
+    /**
+     * Sets the name of the rate.  For a rate of a stat, the name defaults to the stat's name with
+     * a suffix for the window, such as {@code requests_per_sec_5mins}.
+     *
+     * @param name Name of the rate.
+     * @return This builder.
+     */
+    public Builder<T> withName(String name) {
+      this.name = name;
+      return this;
+    }
+
+    /**
+     * Sets the time over which the weight of a past rate decays to {@code 1/e}.  Defaults to one
+     * minute.
+     *
+     * @param window Decay window.
+     * @return This builder.
+     */
+    public Builder<T> withWindow(Amount<Long, Time> window) {
+      this.window = Preconditions.checkNotNull(window);
+      return this;
+    }
+
+    @VisibleForTesting
+    Builder<T> withTicker(Ticker ticker) {
+      this.ticker = ticker;
+      return this;
+    }
+
+    public ExponentialMovingRate<T> build() {
+      String rateName = name;
+      if (rateName == null) {
+        rateName = inputName + "_per_sec_" + window.getValue() + window.getUnit();
+      }
+      return new ExponentialMovingRate<T>(rateName, inputAccessor, window, ticker);
+    }
+  }
+}
@@ -0,0 +1,459 @@
+package com.twitter.common.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Lock-free Histogram with log-linear buckets, in the style of HdrHistogram.
+ *
+ * Values are bucketed by magnitude: every power of two range [2^e, 2^(e+1)) is split into
+ * 2^significantBits equally sized buckets, and magnitudes below 2^significantBits are counted
+ * exactly.  A quantile is therefore reported within a relative error of 2^-significantBits of the
+ * true value, whatever the range of the values recorded, and negative values are bucketed the same
+ * way by magnitude.  Buckets are allocated a power of two range at a time, as values first fall
+ * into the range.
+ *
+ * Recording a value is a handful of uncontended atomic increments: counts are kept in stripes, and
+ * once threads collide on a stripe, more stripes are added (up to the number of processors) so that
+ * threads spread across them.  Quantiles are computed from a {@link Snapshot} that sums the
+ * stripes; snapshots of histograms with the same precision can be merged, and serialized to merge
+ * them across processes.
+ */
+public final class LogLinearHistogram implements Histogram {
+  private static final int DEFAULT_SIGNIFICANT_BITS = 7;
+  private static final int MAX_SIGNIFICANT_BITS = 16;
+  private static final int MAX_STRIPES =
+      Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+  private final int significantBits;
+  private final int numRows;
+  private volatile Stripe[] stripes;
+  private final AtomicBoolean growing = new AtomicBoolean();
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+  /**
+   * Constructor with default precision, about 1% relative error.
+   */
+  public LogLinearHistogram() {
+    this(DEFAULT_SIGNIFICANT_BITS);
+  }
+
+  /**
+   * Constructor with a relative error bound.
+   *
+   * @param maxRelativeError the maximum relative error tolerated for a quantile, in (0, 1).
+   */
+  public LogLinearHistogram(double maxRelativeError) {
+    this(significantBits(maxRelativeError));
+  }
+
+  private LogLinearHistogram(int significantBits) {
+    this.significantBits = significantBits;
+    this.numRows = numRows(significantBits);
+    clear();
+  }
+
+  @Override
+  public void add(long x) {
+    // bounds first, so that a snapshot counting x also covers it
+    updateMin(x);
+    updateMax(x);
+
+    Stripe[] current = stripes;
+    Stripe stripe = current[stripeIndex(current.length)];
+    long count = stripe.count.get();
+    if (!stripe.count.compareAndSet(count, count + 1)) {
+      // another thread is recording into this stripe; spread threads over more stripes
+      stripe.count.incrementAndGet();
+      grow(current);
+    }
+    stripe.sum.addAndGet(x);
+
+    long magnitude = magnitude(x);
+    stripe.increment(x < 0 ? numRows + row(magnitude) : row(magnitude), column(magnitude));
+  }
+
+  /**
+   * Clears the histogram.  Values recorded concurrently with a clear may or may not be counted.
+   */
+  @Override
+  public void clear() {
+    stripes = new Stripe[] { new Stripe() };
+    min.set(Long.MAX_VALUE);
+    max.set(Long.MIN_VALUE);
+  }
+
+  @Override
+  public long[] getQuantiles(double[] quantiles) {
+    return snapshot().getQuantiles(quantiles);
+  }
+
+  /**
+   * @return the number of values recorded.
+   */
+  public long getCount() {
+    long count = 0;
+    for (Stripe stripe : stripes) {
+      count += stripe.count.get();
+    }
+    return count;
+  }
+
+  /**
+   * @return the sum of the values recorded.
+   */
+  public long getSum() {
+    long sum = 0;
+    for (Stripe stripe : stripes) {
+      sum += stripe.sum.get();
+    }
+    return sum;
+  }
+
+  /**
+   * @return the smallest value recorded, or 0 if the histogram is empty.
+   */
+  public long getMin() {
+    long m = min.get();
+    return m == Long.MAX_VALUE && max.get() == Long.MIN_VALUE ? 0L : m;
+  }
+
+  /**
+   * @return the largest value recorded, or 0 if the histogram is empty.
+   */
+  public long getMax() {
+    long m = max.get();
+    return m == Long.MIN_VALUE && min.get() == Long.MAX_VALUE ? 0L : m;
+  }
+
+  /**
+   * Sums the stripes into a point in time view of the histogram.  Values recorded concurrently may
+   * be counted in some of the snapshot's statistics but not others.
+   *
+   * @return a snapshot of the histogram.
+   */
+  public Snapshot snapshot() {
+    long[][] rows = new long[2 * numRows][];
+    long count = 0;
+    long sum = 0;
+    for (Stripe stripe : stripes) {
+      count += stripe.count.get();
+      sum += stripe.sum.get();
+      for (int r = 0; r < rows.length; r++) {
+        AtomicLongArray row = stripe.rows.get(r);
+        if (row != null) {
+          if (rows[r] == null) {
+            rows[r] = new long[row.length()];
+          }
+          for (int c = 0; c < row.length(); c++) {
+            rows[r][c] += row.get(c);
+          }
+        }
+      }
+    }
+    return new Snapshot(significantBits, rows, count, sum, getMin(), getMax());
+  }
+
+  private void grow(Stripe[] current) {
+    if (current.length >= MAX_STRIPES || !growing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      if (stripes == current) {
+        Stripe[] grown = new Stripe[current.length * 2];
+        System.arraycopy(current, 0, grown, 0, current.length);
+        for (int i = current.length; i < grown.length; i++) {
+          grown[i] = new Stripe();
+        }
+        stripes = grown;
+      }
+    } finally {
+      growing.set(false);
+    }
+  }
+
+  private static int stripeIndex(int numStripes) {
+    long id = Thread.currentThread().getId();
+    // mix the bits, since thread ids are mostly sequential
+    id *= 0x9E3779B97F4A7C15L;
+    return (int) (id >>> 32) & (numStripes - 1);
+  }
+
+  private int row(long magnitude) {
+    if (magnitude < 1L << significantBits) {
+      return 0;
+    }
+    return 64 - Long.numberOfLeadingZeros(magnitude) - significantBits;
+  }
+
+  private int column(long magnitude) {
+    if (magnitude < 1L << significantBits) {
+      return (int) magnitude;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(magnitude) - significantBits;
+    return (int) (magnitude >>> shift) - (1 << significantBits);
+  }
+
+  private void updateMin(long x) {
+    long m = min.get();
+    while (x < m && !min.compareAndSet(m, x)) {
+      m = min.get();
+    }
+  }
+
+  private void updateMax(long x) {
+    long m = max.get();
+    while (x > m && !max.compareAndSet(m, x)) {
+      m = max.get();
+    }
+  }
+
+  private static long magnitude(long x) {
+    return x == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(x);
+  }
+
+  private static int numRows(int significantBits) {
+    return 64 - significantBits;
+  }
+
+  private static int significantBits(double maxRelativeError) {
+    Preconditions.checkArgument(maxRelativeError > 0 && maxRelativeError < 1,
+        "maxRelativeError must be in (0, 1)");
+    int bits = (int) Math.ceil(Math.log(1 / maxRelativeError) / Math.log(2));
+    return Math.max(1, Math.min(MAX_SIGNIFICANT_BITS, bits));
+  }
+
+  /**
+   * Counts for one stripe.  Rows {@code [0, numRows)} count positive values and rows
+   * {@code [numRows, 2 * numRows)} negative ones; row {@code r} of each sign covers the magnitudes
+   * {@code [2^(r - 1 + significantBits), 2^(r + significantBits))}, except row 0, which covers
+   * every magnitude below {@code 2^significantBits}.
+   */
+  private final class Stripe {
+    private final AtomicReferenceArray<AtomicLongArray> rows =
+        new AtomicReferenceArray<AtomicLongArray>(2 * numRows);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    void increment(int r, int c) {
+      AtomicLongArray row = rows.get(r);
+      if (row == null) {
+        rows.compareAndSet(r, null, new AtomicLongArray(1 << significantBits));
+        row = rows.get(r);
+      }
+      row.incrementAndGet(c);
+    }
+  }
+
+  /**
+   * Immutable bucket counts and statistics of a {@link LogLinearHistogram}.
+   */
+  public static final class Snapshot {
+    private final int significantBits;
+    private final long[][] rows;
+    private final long count;
+    private final long sum;
+    private final long min;
+    private final long max;
+
+    private Snapshot(int significantBits, long[][] rows, long count, long sum, long min,
+        long max) {
+      this.significantBits = significantBits;
+      this.rows = rows;
+      this.count = count;
+      this.sum = sum;
+      this.min = min;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getSum() {
+      return sum;
+    }
+
+    public long getMin() {
+      return min;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    /**
+     * Return the quantiles of the snapshot, each within the histogram's relative error of the
+     * true value.
+     *
+     * @param quantiles the list of quantiles that you want to compute
+     */
+    public long[] getQuantiles(double[] quantiles) {
+      long[] output = new long[quantiles.length];
+      if (count == 0) {
+        return output;
+      }
+      for (int i = 0; i < quantiles.length; i++) {
+        output[i] = getQuantile(quantiles[i]);
+      }
+      return output;
+    }
+
+    private long getQuantile(double quantile) {
+      // the extremes are tracked exactly
+      if (quantile <= 0) {
+        return min;
+      } else if (quantile >= 1) {
+        return max;
+      }
+
+      long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+      int numRows = numRows(significantBits);
+      long seen = 0;
+
+      // negative values, from the largest magnitude down
+      for (int r = numRows - 1; r >= 0; r--) {
+        long[] row = rows[numRows + r];
+        for (int c = row == null ? -1 : row.length - 1; c >= 0; c--) {
+          seen += row[c];
+          if (seen >= rank) {
+            return clamp(-midpoint(r, c));
+          }
+        }
+      }
+      for (int r = 0; r < numRows; r++) {
+        long[] row = rows[r];
+        for (int c = 0; row != null && c < row.length; c++) {
+          seen += row[c];
+          if (seen >= rank) {
+            return clamp(midpoint(r, c));
+          }
+        }
+      }
+      return max;
+    }
+
+    private long midpoint(int r, int c) {
+      if (r == 0) {
+        return c;
+      }
+      long width = 1L << (r - 1);
+      long lower = ((long) c + (1 << significantBits)) << (r - 1);
+      return lower + (width - 1) / 2;
+    }
+
+    private long clamp(long x) {
+      return Math.max(min, Math.min(max, x));
+    }
+
+    /**
+     * Merges this snapshot with another, such as one from another thread or process.
+     *
+     * @param other snapshot of a histogram with the same precision.
+     * @return a snapshot counting the values of both.
+     */
+    public Snapshot merge(Snapshot other) {
+      Preconditions.checkArgument(significantBits == other.significantBits,
+          "Cannot merge histograms of different precision");
+
+      long[][] merged = new long[rows.length][];
+      for (int r = 0; r < rows.length; r++) {
+        if (rows[r] != null || other.rows[r] != null) {
+          merged[r] = new long[1 << significantBits];
+          for (int c = 0; c < merged[r].length; c++) {
+            merged[r][c] = (rows[r] == null ? 0 : rows[r][c])
+                + (other.rows[r] == null ? 0 : other.rows[r][c]);
+          }
+        }
+      }
+
+      long mergedMin;
+      long mergedMax;
+      if (count == 0) {
+        mergedMin = other.min;
+        mergedMax = other.max;
+      } else if (other.count == 0) {
+        mergedMin = min;
+        mergedMax = max;
+      } else {
+        mergedMin = Math.min(min, other.min);
+        mergedMax = Math.max(max, other.max);
+      }
+      return new Snapshot(significantBits, merged, count + other.count, sum + other.sum,
+          mergedMin, mergedMax);
+    }
+
+    /**
+     * Writes the snapshot in a compact form that only includes non-empty buckets.
+     *
+     * @param out the output to write to.
+     * @throws IOException if the snapshot could not be written.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+      int buckets = 0;
+      for (long[] row : rows) {
+        for (int c = 0; row != null && c < row.length; c++) {
+          if (row[c] != 0) {
+            buckets++;
+          }
+        }
+      }
+
+      out.writeByte(significantBits);
+      out.writeLong(count);
+      out.writeLong(sum);
+      out.writeLong(min);
+      out.writeLong(max);
+      out.writeInt(buckets);
+      for (int r = 0; r < rows.length; r++) {
+        for (int c = 0; rows[r] != null && c < rows[r].length; c++) {
+          if (rows[r][c] != 0) {
+            out.writeInt((r << significantBits) + c);
+            out.writeLong(rows[r][c]);
+          }
+        }
+      }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in the input to read from.
+     * @return the snapshot read.
+     * @throws IOException if the snapshot could not be read.
+     */
+    public static Snapshot readFrom(DataInput in) throws IOException {
+      int significantBits = in.readByte();
+      if (significantBits < 1 || significantBits > MAX_SIGNIFICANT_BITS) {
+        throw new IOException("Invalid histogram precision: " + significantBits);
+      }
+      long count = in.readLong();
+      long sum = in.readLong();
+      long min = in.readLong();
+      long max = in.readLong();
+
+      long[][] rows = new long[2 * numRows(significantBits)][];
+      int buckets = in.readInt();
+      for (int i = 0; i < buckets; i++) {
+        int bucket = in.readInt();
+        int r = bucket >>> significantBits;
+        if (bucket < 0 || r >= rows.length) {
+          throw new IOException("Invalid histogram bucket: " + bucket);
+        }
+        if (rows[r] == null) {
+          rows[r] = new long[1 << significantBits];
+        }
+        rows[r][bucket & ((1 << significantBits) - 1)] = in.readLong();
+      }
+      return new Snapshot(significantBits, rows, count, sum, min, max);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package com.twitter.common.stats;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+import com.twitter.common.metrics.MetricListener;
+import com.twitter.common.metrics.MetricSampler;
+
+/**
+ * A stat registry that presents the stats of another registry together with the latest samples of
+ * a {@link com.twitter.common.metrics.MetricRegistry}, so that a {@link TimeSeriesRepository} can
+ * record both.
+ *
+ * The registry listens for metric samples rather than reading gauges itself: attached to a
+ * {@link MetricSampler} with {@link #attach(StatRegistry, MetricSampler)}, it makes each sampling
+ * pass feed the metric listeners and the time series alike, without the gauges being read a second
+ * time.  A metric's stat reads as the value from the most recent pass.  The stats module does this
+ * for the root metric registry when started with {@code -stat_sample_metrics}.
+ *
+ * {@link #getStats()} returns the same iterable until either the wrapped registry's stats or the
+ * set of sampled metrics changes, so consumers that cache per-stat state keyed on it, such as
+ * {@link TimeSeriesRepositoryImpl}, only rebuild that state when stats are added.
+ */
+public class MetricsStatRegistry implements StatRegistry, MetricListener {
+
+  private final StatRegistry statRegistry;
+
+  // Guarded by this.
+  private List<MetricStat> metricStats = ImmutableList.of();
+  private Iterable<RecordingStat<? extends Number>> registeredStats;
+  private Iterable<RecordingStat<? extends Number>> combinedStats;
+
+  /**
+   * Creates a registry that combines the stats of another registry with sampled metrics.
+   *
+   * @param statRegistry Registry of the stats to present alongside the metrics.
+   */
+  public MetricsStatRegistry(StatRegistry statRegistry) {
+    this.statRegistry = Preconditions.checkNotNull(statRegistry);
+  }
+
+  /**
+   * Creates a registry that combines the stats of another registry with the metrics sampled by a
+   * sampler, and registers it as a listener of the sampler.
+   *
+   * @param statRegistry Registry of the stats to present alongside the metrics.
+   * @param sampler Sampler whose samples the registry should present.
+   * @return The registry, which presents no metrics until the sampler's next pass.
+   */
+  public static MetricsStatRegistry attach(StatRegistry statRegistry, MetricSampler sampler) {
+    MetricsStatRegistry registry = new MetricsStatRegistry(statRegistry);
+    sampler.addListener(registry);
+    return registry;
+  }
+
+  @Override
+  public synchronized void updateStats(Map<String, Number> samples) {
+    if (!updateInPlace(samples)) {
+      ImmutableList.Builder<MetricStat> stats = ImmutableList.builder();
+      for (Map.Entry<String, Number> sample : samples.entrySet()) {
+        stats.add(new MetricStat(sample.getKey(), sample.getValue()));
+      }
+      metricStats = stats.build();
+      combinedStats = null;
+    }
+  }
+
+  /**
+   * Updates the values of the existing metric stats, if the samples are of the same metrics in
+   * the same order.  Metric registries that keep the same names between samples make this a
+   * reference comparison per metric.
+   */
+  private boolean updateInPlace(Map<String, Number> samples) {
+    if (samples.size() != metricStats.size()) {
+      return false;
+    }
+    Iterator<MetricStat> stats = metricStats.iterator();
+    for (Map.Entry<String, Number> sample : samples.entrySet()) {
+      MetricStat stat = stats.next();
+      String name = sample.getKey();
+      if (name != stat.getName() && !name.equals(stat.getName())) {
+        return false;
+      }
+      stat.value = sample.getValue();
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized Iterable<RecordingStat<? extends Number>> getStats() {
+    Iterable<RecordingStat<? extends Number>> stats = statRegistry.getStats();
+    if (combinedStats == null || stats != registeredStats) {
+      registeredStats = stats;
+      combinedStats = ImmutableList.copyOf(
+          Iterables.<RecordingStat<? extends Number>>concat(stats, metricStats));
+    }
+    return combinedStats;
+  }
+
+  private static class MetricStat extends StatImpl<Number> implements RecordingStat<Number> {
+    private volatile Number value;
+
+    MetricStat(String name, Number value) {
+      super(name);
+      this.value = value;
+    }
+
+    @Override public Number read() {
+      return value;
+    }
+
+    @Override public Number sample() {
+      return value;
+    }
+  }
+}
@@ -16,13 +16,13 @@
 
 package com.twitter.common.stats;
 
-import java.util.concurrent.LinkedBlockingDeque;
-
 import com.google.common.base.Preconditions;
 
 /**
  * Function to compute the moving average of a time series.
  *
+ * The window is kept in a primitive ring buffer, so sampling does not allocate.
+ *
  * @author William Farner
  */
 public class MovingAverage<T extends Number> extends SampledStat<Double> {
@@ -30,7 +30,10 @@ public class MovingAverage<T extends Number> extends SampledStat<Double> {
   private static final int DEFAULT_WINDOW = 10;
   private final Stat<T> input;
 
-  private final LinkedBlockingDeque<T> samples;
+  // Ring buffer of the most recent samples, guarded by this.
+  private final double[] samples;
+  private int next = 0;
+  private int count = 0;
   private double sampleSum = 0;
 
   private MovingAverage(String name, Stat<T> input, int windowSize) {
@@ -38,7 +41,7 @@ public class MovingAverage<T extends Number> extends SampledStat<Double> {
     Preconditions.checkArgument(windowSize > 1);
 
     this.input = Preconditions.checkNotNull(input);
-    this.samples = new LinkedBlockingDeque<T>(windowSize);
+    this.samples = new double[windowSize];
     Stats.export(input);
   }
 
@@ -56,16 +59,19 @@ public class MovingAverage<T extends Number> extends SampledStat<Double> {
   }
 
   @Override
-  public Double doSample() {
-    T sample = input.read();
+  public synchronized Double doSample() {
+    double sample = input.read().doubleValue();
 
-    if (samples.remainingCapacity() == 0) {
-      sampleSum -= samples.removeLast().doubleValue();
+    if (count == samples.length) {
+      sampleSum -= samples[next];
+    } else {
+      count++;
     }
 
-    samples.addFirst(sample);
-    sampleSum += sample.doubleValue();
+    samples[next] = sample;
+    next = (next + 1) % samples.length;
+    sampleSum += sample;
 
-    return sampleSum / samples.size();
+    return sampleSum / count;
   }
 }
@@ -20,8 +20,6 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 
-import java.util.concurrent.LinkedBlockingDeque;
-
 import com.twitter.common.base.MorePreconditions;
 
 
@@ -30,13 +28,17 @@ import com.twitter.common.base.MorePreconditions;
  *
  * If you use this class with a counter, you can get the cumulation of counts in a sliding window.
  *
- * One sample period is the time in between doSample() calls.
+ * One sample period is the time in between doSample() calls.  The deltas are kept in a primitive
+ * ring buffer, so sampling does not allocate.
  *
  * @author Feng Zhuge
  */
 public class MovingWindowDelta<T extends Number> extends SampledStat<Long> {
   private static final int DEFAULT_WINDOW_SIZE = 60;
-  private final LinkedBlockingDeque<Long> deltaSeries;
+  // Ring buffer of the deltas of the most recent sample periods, guarded by this.
+  private final long[] deltaSeries;
+  private int next = 0;
+  private int count = 0;
   private final Supplier<T> inputAccessor;
   long sumDelta = 0l;
   long lastInput = 0l;
@@ -48,7 +50,7 @@ public class MovingWindowDelta<T extends Number> extends SampledStat<Long> {
     Preconditions.checkNotNull(inputAccessor);
     MorePreconditions.checkNotBlank(name);
 
-    deltaSeries = new LinkedBlockingDeque<Long>(windowSize);
+    deltaSeries = new long[windowSize];
     this.inputAccessor = inputAccessor;
 
     Stats.export(this);
@@ -81,17 +83,20 @@ public class MovingWindowDelta<T extends Number> extends SampledStat<Long> {
   }
 
   @Override
-  public Long doSample() {
+  public synchronized Long doSample() {
     long lastDelta = 0l;
-    if (deltaSeries.remainingCapacity() == 0) {
-      lastDelta = deltaSeries.removeFirst();
+    if (count == deltaSeries.length) {
+      lastDelta = deltaSeries[next];
+    } else {
+      count++;
     }
 
     long newInput = inputAccessor.get().longValue();
     long newDelta = newInput - lastInput;
     lastInput = newInput;
 
-    deltaSeries.addLast(newDelta);
+    deltaSeries[next] = newDelta;
+    next = (next + 1) % deltaSeries.length;
 
     sumDelta += newDelta - lastDelta;
 
@@ -16,9 +16,11 @@
 
 package com.twitter.common.stats;
 
+import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.common.base.Function;
@@ -29,6 +31,7 @@ import com.twitter.common.base.Closure;
 import com.twitter.common.base.Command;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.util.Clock;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -36,6 +39,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * Stat exporter that extracts numeric {@link Stat}s from the {@link Stats} system, and exports them
  * via a caller-defined sink.
  *
+ * An exporter writing to a {@link StatBatchSink} snapshots the stats into a reused
+ * {@link StatBatch} rather than a map, and a failure to write a batch is logged rather than
+ * cancelling subsequent exports.  To keep a slow sink from delaying the snapshots, wrap it in an
+ * {@link AsyncStatBatchSink}.
+ *
  * @author William Farner
  */
 public class NumericStatExporter {
@@ -44,9 +52,9 @@ public class NumericStatExporter {
 
   private final ScheduledExecutorService executor;
   private final Amount<Long, Time> exportInterval;
-  private final Closure<Map<String, ? extends Number>> exportSink;
 
   private final Runnable exporter;
+  private final Runnable finalExporter;
 
   /**
    * Creates a new numeric stat exporter that will export to the specified sink.
@@ -55,19 +63,47 @@ public class NumericStatExporter {
    * @param executor Executor to handle export thread.
    * @param exportInterval Export period.
    */
-  public NumericStatExporter(final Closure<Map<String, ? extends Number>> exportSink,
+  public NumericStatExporter(Closure<Map<String, ? extends Number>> exportSink,
       ScheduledExecutorService executor, Amount<Long, Time> exportInterval) {
-    checkNotNull(exportSink);
+    this(executor, exportInterval,
+        new MapExporter(checkNotNull(exportSink), READ_STAT),
+        new MapExporter(exportSink, SAMPLE_AND_READ_STAT));
+  }
+
+  /**
+   * Creates a new numeric stat exporter that will export batches to the specified sink.
+   *
+   * @param exportSink Consumes batches of stats.
+   * @param executor Executor to handle export thread.
+   * @param exportInterval Export period.
+   */
+  public NumericStatExporter(StatBatchSink exportSink, ScheduledExecutorService executor,
+      Amount<Long, Time> exportInterval) {
+    this(exportSink, executor, exportInterval, Clock.SYSTEM_CLOCK);
+  }
+
+  /**
+   * Creates a new numeric stat exporter that will export batches to the specified sink,
+   * timestamped by the given clock.
+   *
+   * @param exportSink Consumes batches of stats.
+   * @param executor Executor to handle export thread.
+   * @param exportInterval Export period.
+   * @param clock Clock to timestamp batches with.
+   */
+  public NumericStatExporter(StatBatchSink exportSink, ScheduledExecutorService executor,
+      Amount<Long, Time> exportInterval, Clock clock) {
+    this(executor, exportInterval,
+        new BatchExporter(checkNotNull(exportSink), false, checkNotNull(clock)),
+        new BatchExporter(exportSink, true, clock));
+  }
+
+  private NumericStatExporter(ScheduledExecutorService executor,
+      Amount<Long, Time> exportInterval, Runnable exporter, Runnable finalExporter) {
     this.executor = checkNotNull(executor);
     this.exportInterval = checkNotNull(exportInterval);
-    this.exportSink = exportSink;
-
-    exporter = new Runnable() {
-      @Override public void run() {
-          exportSink.execute(Maps.transformValues(
-            Maps.uniqueIndex(Stats.getNumericVariables(), GET_NAME), READ_STAT));
-      }
-    };
+    this.exporter = exporter;
+    this.finalExporter = finalExporter;
   }
 
   /**
@@ -82,8 +118,7 @@ public class NumericStatExporter {
     shutdownRegistry.addAction(new Command() {
       @Override public void execute() {
         stop();
-        exportSink.execute(Maps.transformValues(
-            Maps.uniqueIndex(Stats.getNumericVariables(), GET_NAME), SAMPLE_AND_READ_STAT));
+        finalExporter.run();
       }
     });
   }
@@ -125,4 +160,57 @@ public class NumericStatExporter {
           return stat.sample();
         }
       };
+
+  /**
+   * Exports the numeric stats as a map of stat name to value.
+   */
+  private static class MapExporter implements Runnable {
+    private final Closure<Map<String, ? extends Number>> sink;
+    private final Function<? super RecordingStat<? extends Number>, Number> read;
+
+    MapExporter(Closure<Map<String, ? extends Number>> sink,
+        Function<? super RecordingStat<? extends Number>, Number> read) {
+      this.sink = sink;
+      this.read = read;
+    }
+
+    @Override public void run() {
+      sink.execute(Maps.transformValues(
+          Maps.uniqueIndex(Stats.getNumericVariables(), GET_NAME), read));
+    }
+  }
+
+  /**
+   * Snapshots the numeric stats into a batch that is reused across exports.
+   */
+  private static class BatchExporter implements Runnable {
+    private final StatBatchSink sink;
+    private final boolean sample;
+    private final Clock clock;
+    private final StatBatch batch = new StatBatch(0);
+
+    BatchExporter(StatBatchSink sink, boolean sample, Clock clock) {
+      this.sink = sink;
+      this.sample = sample;
+      this.clock = clock;
+    }
+
+    @Override public void run() {
+      try {
+        batch.reset(clock.nowMillis());
+        for (RecordingStat<? extends Number> stat : Stats.getNumericVariables()) {
+          Number value = sample ? stat.sample() : stat.read();
+          if (value != null) {
+            batch.add(stat.getName(), value);
+          }
+        }
+        sink.write(batch);
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Failed to export stats", e);
+      } catch (RuntimeException e) {
+        // An exception escaping a scheduled task would cancel all subsequent exports.
+        LOG.log(Level.WARNING, "Failed to export stats", e);
+      }
+    }
+  }
 }
@@ -19,17 +19,15 @@ package com.twitter.common.stats;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Ordering;
 
 import com.twitter.common.base.MorePreconditions;
 import com.twitter.common.util.Sampler;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.annotation.Nullable;
 
@@ -41,6 +39,12 @@ import javax.annotation.Nullable;
  * Percentiles are calculated based on the K most recent sampling windows, where each sampling
  * window has the recorded events for a sampling period.
  *
+ * Recording an event is a lock-free write into a ring buffer of primitive values, so recorders
+ * never contend with each other on a lock, nor with the sampling of the percentiles.  Once per
+ * sampling period, the first percentile variable sampled drains the ring into a new sampling
+ * window, sorts the values of all windows and computes every tracked percentile in one pass;
+ * the other percentile variables read the results.
+ *
  * @author William Farner
  */
 public class Percentile<T extends Number & Comparable<T>> {
@@ -52,10 +56,11 @@ public class Percentile<T extends Number & Comparable<T>> {
 
   private final Map<Double, SampledStat<Double>> statsByPercentile;
   @VisibleForTesting
-  final LinkedList<T> samples = Lists.newLinkedList();
+  final SampleBuffer samples = new SampleBuffer();
 
-  private final LinkedBlockingDeque<ArrayList<T>> sampleQueue;
-  private final ArrayList<T> allSamples = new ArrayList<T>();
+  private final LinkedBlockingDeque<double[]> sampleQueue;
+  private final double[] percentiles;
+  private volatile double[] percentileValues;
 
   /**
    * Creates a new percentile tracker.
@@ -102,8 +107,10 @@ public class Percentile<T extends Number & Comparable<T>> {
     Preconditions.checkArgument(percentiles.length > 0, "Must specify at least one percentile.");
 
     this.sampler = sampler;
+    this.percentiles = percentiles.clone();
+    percentileValues = new double[percentiles.length];
 
-    sampleQueue = new LinkedBlockingDeque<ArrayList<T>>(numSampleWindows);
+    sampleQueue = new LinkedBlockingDeque<double[]>(numSampleWindows);
 
     ImmutableMap.Builder<Double, SampledStat<Double>> builder =
         new ImmutableMap.Builder<Double, SampledStat<Double>>();
@@ -113,7 +120,7 @@ public class Percentile<T extends Number & Comparable<T>> {
       String statName = String.format("%s_%s_percentile", name, percentiles[i])
           .replace('.', '_');
 
-      SampledStat<Double> stat = new PercentileVar(statName, percentiles[i], sortFirst);
+      SampledStat<Double> stat = new PercentileVar(statName, i, sortFirst);
       Stats.export(stat);
       builder.put(percentiles[i], stat);
     }
@@ -142,60 +149,123 @@ public class Percentile<T extends Number & Comparable<T>> {
    */
   public void record(T value) {
     if (sampler == null || sampler.select()) {
-      synchronized (samples) {
-        samples.addLast(value);
+      samples.add(value.doubleValue());
+    }
+  }
+
+  /**
+   * Starts a new sampling window with the values recorded since the last one, and recomputes
+   * every percentile over the retained windows.
+   */
+  private synchronized void computePercentiles() {
+    if (sampleQueue.remainingCapacity() == 0) {
+      sampleQueue.removeFirst();
+    }
+    sampleQueue.addLast(samples.drain());
+
+    int size = 0;
+    for (double[] window : sampleQueue) {
+      size += window.length;
+    }
+    double[] allSamples = new double[size];
+    int offset = 0;
+    for (double[] window : sampleQueue) {
+      System.arraycopy(window, 0, allSamples, offset, window.length);
+      offset += window.length;
+    }
+    Arrays.sort(allSamples);
+
+    double[] values = new double[percentiles.length];
+    for (int i = 0; i < percentiles.length; i++) {
+      values[i] = select(allSamples, percentiles[i]);
+    }
+    percentileValues = values;
+  }
+
+  private static double select(double[] sortedSamples, double percentile) {
+    if (sortedSamples.length == 0) {
+      return 0d;
+    }
+
+    int maxIndex = sortedSamples.length - 1;
+    double selectIndex = maxIndex * percentile / 100;
+    selectIndex = selectIndex < 0d ? 0d : selectIndex;
+    selectIndex = selectIndex > maxIndex ? maxIndex : selectIndex;
+
+    int indexLeft = (int) selectIndex;
+    if (indexLeft == maxIndex) {
+      return sortedSamples[indexLeft];
+    }
 
-        while (samples.size() > MAX_BUFFER_SIZE) samples.removeFirst();
+    double residue = selectIndex - indexLeft;
+    return sortedSamples[indexLeft] * (1 - residue) + sortedSamples[indexLeft + 1] * residue;
+  }
+
+  /**
+   * Ring buffer of the most recent {@link #MAX_BUFFER_SIZE} values recorded since the last drain.
+   * Recorders claim a slot with an atomic increment and publish the value with a per-slot stamp,
+   * so a drain skips slots that are still being written or that have already been overwritten.
+   */
+  @VisibleForTesting
+  static final class SampleBuffer {
+    private static final int CAPACITY = Integer.highestOneBit(MAX_BUFFER_SIZE) << 1;
+
+    private final AtomicLongArray values = new AtomicLongArray(CAPACITY);
+    private final AtomicLongArray stamps = new AtomicLongArray(CAPACITY);
+    private final AtomicLong next = new AtomicLong();
+    private volatile long drained = 0;
+
+    void add(double value) {
+      long sequence = next.getAndIncrement();
+      int index = (int) sequence & (CAPACITY - 1);
+      values.lazySet(index, Double.doubleToRawLongBits(value));
+      stamps.set(index, sequence + 1);
+    }
+
+    int size() {
+      return (int) Math.min(next.get() - drained, MAX_BUFFER_SIZE);
+    }
+
+    boolean isEmpty() {
+      return size() == 0;
+    }
+
+    /**
+     * Removes the values recorded since the last drain, keeping only the most recent
+     * {@link #MAX_BUFFER_SIZE}.  Must not be called concurrently with itself.
+     */
+    double[] drain() {
+      long end = next.get();
+      long start = Math.max(drained, end - MAX_BUFFER_SIZE);
+      double[] drainedValues = new double[(int) (end - start)];
+      int size = 0;
+      for (long sequence = start; sequence < end; sequence++) {
+        int index = (int) sequence & (CAPACITY - 1);
+        if (stamps.get(index) == sequence + 1) {
+          drainedValues[size++] = Double.longBitsToDouble(values.get(index));
+        }
       }
+      drained = end;
+      return size == drainedValues.length ? drainedValues : Arrays.copyOf(drainedValues, size);
     }
   }
 
   private class PercentileVar extends SampledStat<Double> {
-    private final double percentile;
+    private final int index;
     private final boolean sortFirst;
 
-    PercentileVar(String name, double percentile, boolean sortFirst) {
+    PercentileVar(String name, int index, boolean sortFirst) {
       super(name, 0d);
-      this.percentile = percentile;
+      this.index = index;
       this.sortFirst = sortFirst;
     }
 
     @Override
     public Double doSample() {
-      synchronized (samples) {
-        if (sortFirst) {
-          if (sampleQueue.remainingCapacity() == 0) {
-            sampleQueue.removeFirst();
-          }
-          sampleQueue.addLast(new ArrayList<T>(samples));
-          samples.clear();
-
-          allSamples.clear();
-          for (ArrayList<T> sample : sampleQueue) {
-            allSamples.addAll(sample);
-          }
-
-          Collections.sort(allSamples, Ordering.<T>natural());
-        }
-
-        if (allSamples.isEmpty()) {
-          return 0d;
-        }
-
-        int maxIndex = allSamples.size() - 1;
-        double selectIndex = maxIndex * percentile / 100;
-        selectIndex = selectIndex < 0d ? 0d : selectIndex;
-        selectIndex = selectIndex > maxIndex ? maxIndex : selectIndex;
-
-        int indexLeft = (int) selectIndex;
-        if (indexLeft == maxIndex) {
-          return allSamples.get(indexLeft).doubleValue();
-        }
-
-        double residue = selectIndex - indexLeft;
-        return allSamples.get(indexLeft).doubleValue() * (1 - residue) +
-            allSamples.get(indexLeft + 1).doubleValue() * residue;
+      if (sortFirst) {
+        computePercentiles();
       }
+      return percentileValues[index];
     }
   }
 }
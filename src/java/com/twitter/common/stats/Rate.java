@@ -22,18 +22,19 @@ import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.base.Ticker;
 
-import com.twitter.common.collections.Pair;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.util.Clock;
 
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Function to compute a windowed per-second rate of a value.
  *
+ * The window is kept in primitive ring buffers, so sampling does not allocate.  For a rate that
+ * decays smoothly rather than over a fixed window, see {@link ExponentialMovingRate}.
+ *
  * @author William Farner
  */
 public class Rate<T extends Number> extends SampledStat<Double> {
@@ -46,7 +47,11 @@ public class Rate<T extends Number> extends SampledStat<Double> {
   private final Ticker ticker;
   private final double scaleFactor;
 
-  private final LinkedBlockingDeque<Pair<Long, Double>> samples;
+  // Ring buffers of the timestamps and values of the most recent samples, guarded by this.
+  private final long[] timestamps;
+  private final double[] values;
+  private int next = 0;
+  private int count = 0;
 
   private Rate(String name, Supplier<T> inputAccessor, int windowSize, double scaleFactor,
       Ticker ticker) {
@@ -54,7 +59,9 @@ public class Rate<T extends Number> extends SampledStat<Double> {
 
     this.inputAccessor = Preconditions.checkNotNull(inputAccessor);
     this.ticker = Preconditions.checkNotNull(ticker);
-    samples = new LinkedBlockingDeque<Pair<Long, Double>>(windowSize);
+    Preconditions.checkArgument(windowSize > 0, "Window size must be positive!");
+    timestamps = new long[windowSize];
+    values = new double[windowSize];
     Preconditions.checkArgument(scaleFactor != 0, "Scale factor must be non-zero!");
     this.scaleFactor = scaleFactor;
   }
@@ -71,22 +78,29 @@ public class Rate<T extends Number> extends SampledStat<Double> {
     return new Builder<AtomicLong>(name, input);
   }
 
+  public static Builder<StripedCounter> of(String name, StripedCounter input) {
+    return new Builder<StripedCounter>(name, input);
+  }
+
   @Override
-  public Double doSample() {
-    T newSample = inputAccessor.get();
+  public synchronized Double doSample() {
+    double newSample = inputAccessor.get().doubleValue();
     long newTimestamp = ticker.read();
 
     double rate = 0;
-    if (!samples.isEmpty()) {
-      Pair<Long, Double> oldestSample = samples.peekLast();
+    if (count > 0) {
+      // Until the window fills, the oldest sample is the first one written.
+      int oldest = count < values.length ? 0 : next;
 
-      double dy = newSample.doubleValue() - oldestSample.getSecond();
-      double dt = newTimestamp - oldestSample.getFirst();
+      double dy = newSample - values[oldest];
+      double dt = newTimestamp - timestamps[oldest];
       rate = dt == 0 ? 0 : (NANOS_PER_SEC * scaleFactor * dy) / dt;
     }
 
-    if (samples.remainingCapacity() == 0) samples.removeLast();
-    samples.addFirst(Pair.of(newTimestamp, newSample.doubleValue()));
+    timestamps[next] = newTimestamp;
+    values[next] = newSample;
+    next = (next + 1) % values.length;
+    count = Math.min(count + 1, values.length);
 
     return rate;
   }
@@ -35,9 +35,9 @@ public class RequestStats implements RequestTimer {
   private final SlidingStats requests;
   private final Percentile<Long> percentile;
 
-  private final AtomicLong errors;
-  private final AtomicLong reconnects;
-  private final AtomicLong timeouts;
+  private final StripedCounter errors;
+  private final StripedCounter reconnects;
+  private final StripedCounter timeouts;
 
   /**
    * Creates a new request statistics object, using the default percentiles and sampling rate.
@@ -57,14 +57,14 @@ public class RequestStats implements RequestTimer {
   public RequestStats(String name, @Nullable Percentile<Long> percentile) {
     requests = new SlidingStats(name + "_requests", "micros");
     this.percentile = percentile;
-    errors = Stats.exportLong(name + "_errors");
-    reconnects = Stats.exportLong(name + "_reconnects");
-    timeouts = Stats.exportLong(name + "_timeouts");
-    Rate<AtomicLong> requestsPerSec =
-        Rate.of(name + "_requests_per_sec", requests.getEventCounter()).build();
+    errors = Stats.exportCounter(name + "_errors");
+    reconnects = Stats.exportCounter(name + "_reconnects");
+    timeouts = Stats.exportCounter(name + "_timeouts");
+    Rate<StripedCounter> requestsPerSec =
+        Rate.of(name + "_requests_per_sec", requests.getStripedEventCounter()).build();
     Stats.export(Ratio.of(name + "_error_rate",
         Rate.of(name + "_errors_per_sec", errors).build(), requestsPerSec));
-    Rate<AtomicLong> timeoutsPerSec = Rate.of(name + "_timeouts_per_sec", timeouts).build();
+    Rate<StripedCounter> timeoutsPerSec = Rate.of(name + "_timeouts_per_sec", timeouts).build();
     Stats.export(timeoutsPerSec);
     Stats.export(Ratio.of(name + "_timeout_rate", timeoutsPerSec, requestsPerSec));
   }
@@ -73,15 +73,45 @@ public class RequestStats implements RequestTimer {
     return requests;
   }
 
+  /**
+   * @deprecated Use {@link #getStripedErrorCounter()}.  Handing out the error count as an
+   *     {@link AtomicLong} permanently stops striping it, so every thread recording requests
+   *     contends on that one AtomicLong from then on.
+   */
+  @Deprecated
   public AtomicLong getErrorCounter() {
-    return errors;
+    return errors.asAtomicLong();
   }
 
+  /**
+   * @deprecated Use {@link #getStripedReconnectCounter()}.  Handing out the reconnect count as an
+   *     {@link AtomicLong} permanently stops striping it, so every thread recording requests
+   *     contends on that one AtomicLong from then on.
+   */
+  @Deprecated
   public AtomicLong getReconnectCounter() {
-    return reconnects;
+    return reconnects.asAtomicLong();
   }
 
+  /**
+   * @deprecated Use {@link #getStripedTimeoutCounter()}.  Handing out the timeout count as an
+   *     {@link AtomicLong} permanently stops striping it, so every thread recording requests
+   *     contends on that one AtomicLong from then on.
+   */
+  @Deprecated
   public AtomicLong getTimeoutCounter() {
+    return timeouts.asAtomicLong();
+  }
+
+  public StripedCounter getStripedErrorCounter() {
+    return errors;
+  }
+
+  public StripedCounter getStripedReconnectCounter() {
+    return reconnects;
+  }
+
+  public StripedCounter getStripedTimeoutCounter() {
     return timeouts;
   }
 
@@ -104,7 +134,7 @@ public class RequestStats implements RequestTimer {
    */
   public void incErrors() {
     requestComplete(0);
-    errors.incrementAndGet();
+    errors.increment();
   }
 
   /**
@@ -114,21 +144,21 @@ public class RequestStats implements RequestTimer {
    */
   public void incErrors(long latencyMicros) {
     requestComplete(latencyMicros);
-    errors.incrementAndGet();
+    errors.increment();
   }
 
   /**
    * Accumulates the reconnect counter.
    */
   public void incReconnects() {
-    reconnects.incrementAndGet();
+    reconnects.increment();
   }
 
   /**
    * Accumulates the timtout counter.
    */
   public void incTimeouts() {
-    timeouts.incrementAndGet();
+    timeouts.increment();
   }
 
   public long getErrorCount() {
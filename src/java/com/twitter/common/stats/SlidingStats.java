@@ -30,8 +30,8 @@ public class SlidingStats {
 
   private static final int DEFAULT_WINDOW_SIZE = 1;
 
-  private final AtomicLong total;
-  private final AtomicLong events;
+  private final StripedCounter total;
+  private final StripedCounter events;
   private final Stat<Double> perEventLatency;
 
   /**
@@ -56,18 +56,38 @@ public class SlidingStats {
 
     String totalDisplay = name + "_" + totalUnitDisplay + "_total";
     String eventDisplay = name + "_events";
-    total = Stats.exportLong(totalDisplay);
-    events = Stats.exportLong(eventDisplay);
+    total = Stats.exportCounter(totalDisplay);
+    events = Stats.exportCounter(eventDisplay);
     perEventLatency = Stats.export(Ratio.of(name + "_" + totalUnitDisplay + "_per_event",
         Rate.of(totalDisplay + "_per_sec", total).withWindowSize(windowSize).build(),
         Rate.of(eventDisplay + "_per_sec", events).withWindowSize(windowSize).build()));
   }
 
+  /**
+   * @deprecated Use {@link #getStripedTotalCounter()}.  Handing out the total as an
+   *     {@link AtomicLong} permanently stops striping it, so every thread accumulating events
+   *     contends on that one AtomicLong from then on.
+   */
+  @Deprecated
   public AtomicLong getTotalCounter() {
-    return total;
+    return total.asAtomicLong();
   }
 
+  /**
+   * @deprecated Use {@link #getStripedEventCounter()}.  Handing out the event count as an
+   *     {@link AtomicLong} permanently stops striping it, so every thread accumulating events
+   *     contends on that one AtomicLong from then on.
+   */
+  @Deprecated
   public AtomicLong getEventCounter() {
+    return events.asAtomicLong();
+  }
+
+  public StripedCounter getStripedTotalCounter() {
+    return total;
+  }
+
+  public StripedCounter getStripedEventCounter() {
     return events;
   }
 
@@ -82,11 +102,14 @@ public class SlidingStats {
    * TODO(William Farner): Implement a wrapper to SlidingStats that expects to accumulate time, and can
    *    convert between time units.
    *
+   * The total and the event count are updated independently, without locking, so a concurrent
+   * reader may see one updated before the other.
+   *
    * @param value The value to accumulate.
    */
-  public synchronized void accumulate(long value) {
-    total.addAndGet(value);
-    events.incrementAndGet();
+  public void accumulate(long value) {
+    total.add(value);
+    events.increment();
   }
 
   @Override
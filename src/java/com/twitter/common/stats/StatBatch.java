@@ -0,0 +1,191 @@
+package com.twitter.common.stats;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A reusable snapshot of numeric stat values taken at a single instant.
+ *
+ * Values are held in primitive arrays that grow as needed and are kept across
+ * {@link #reset(long)}s, so that snapshotting the same stats repeatedly does not allocate.  A value
+ * is held as a {@code long} if it was given as an integral type and as a {@code double} otherwise.
+ *
+ * A batch is not thread-safe.
+ */
+public final class StatBatch {
+
+  /**
+   * Version byte that starts the binary encoding.
+   */
+  public static final int BINARY_VERSION = 1;
+
+  private long timestampMillis;
+  private int size;
+  private String[] names;
+  private long[] longs;
+  private double[] doubles;
+  private boolean[] integral;
+
+  /**
+   * Creates an empty batch.
+   *
+   * @param initialCapacity Number of values the batch can hold before growing.
+   */
+  public StatBatch(int initialCapacity) {
+    Preconditions.checkArgument(initialCapacity >= 0, "Capacity must not be negative.");
+    names = new String[initialCapacity];
+    longs = new long[initialCapacity];
+    doubles = new double[initialCapacity];
+    integral = new boolean[initialCapacity];
+  }
+
+  /**
+   * Empties the batch, retaining its buffers, and starts a snapshot at a new instant.
+   *
+   * @param timestampMillis Time of the snapshot.
+   */
+  public void reset(long timestampMillis) {
+    this.timestampMillis = timestampMillis;
+    Arrays.fill(names, 0, size, null);
+    size = 0;
+  }
+
+  /**
+   * Adds a value to the batch.
+   *
+   * @param name Name of the stat.
+   * @param value Value of the stat.
+   */
+  public void add(String name, Number value) {
+    ensureCapacity(size + 1);
+    names[size] = Preconditions.checkNotNull(name);
+    if (Stats.isIntegral(value)) {
+      longs[size] = value.longValue();
+      integral[size] = true;
+    } else {
+      doubles[size] = value.doubleValue();
+      integral[size] = false;
+    }
+    size++;
+  }
+
+  /**
+   * Replaces the contents of this batch with a copy of another batch.
+   *
+   * @param other Batch to copy.
+   */
+  public void copyFrom(StatBatch other) {
+    reset(other.timestampMillis);
+    ensureCapacity(other.size);
+    System.arraycopy(other.names, 0, names, 0, other.size);
+    System.arraycopy(other.longs, 0, longs, 0, other.size);
+    System.arraycopy(other.doubles, 0, doubles, 0, other.size);
+    System.arraycopy(other.integral, 0, integral, 0, other.size);
+    size = other.size;
+  }
+
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public String getName(int index) {
+    return names[checkIndex(index)];
+  }
+
+  /**
+   * Returns whether a value is integral, in which case {@link #getLong(int)} holds it exactly.
+   *
+   * @param index Index of the value.
+   * @return {@code true} if the value was given as an integral type.
+   */
+  public boolean isIntegral(int index) {
+    return integral[checkIndex(index)];
+  }
+
+  public long getLong(int index) {
+    return integral[checkIndex(index)] ? longs[index] : (long) doubles[index];
+  }
+
+  public double getDouble(int index) {
+    return integral[checkIndex(index)] ? (double) longs[index] : doubles[index];
+  }
+
+  /**
+   * Boxes a value, as a {@link Long} if it is integral and a {@link Double} otherwise.
+   *
+   * @param index Index of the value.
+   * @return The value.
+   */
+  public Number getNumber(int index) {
+    return integral[checkIndex(index)] ? (Number) longs[index] : (Number) doubles[index];
+  }
+
+  /**
+   * Writes the batch as lines of the form {@code name value timestamp_secs}, as accepted by
+   * Graphite's plaintext protocol.
+   *
+   * @param out Destination of the lines.
+   * @throws IOException If the lines could not be written.
+   */
+  public void writeLines(Writer out) throws IOException {
+    String timestamp = Long.toString(timestampMillis / 1000);
+    for (int i = 0; i < size; i++) {
+      out.write(names[i]);
+      out.write(' ');
+      out.write(integral[i] ? Long.toString(longs[i]) : Double.toString(doubles[i]));
+      out.write(' ');
+      out.write(timestamp);
+      out.write('\n');
+    }
+  }
+
+  /**
+   * Writes the batch in a compact binary encoding: a version byte, the timestamp as an 8-byte
+   * big-endian long, the number of values as an int, and for each value its name in modified
+   * UTF-8, a type byte that is 0 for integral values and 1 otherwise, and the value as an 8-byte
+   * big-endian long or IEEE 754 double.
+   *
+   * @param stream Destination of the encoded batch.
+   * @throws IOException If the batch could not be written.
+   */
+  public void writeBinary(OutputStream stream) throws IOException {
+    DataOutputStream out = new DataOutputStream(stream);
+    out.writeByte(BINARY_VERSION);
+    out.writeLong(timestampMillis);
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      out.writeUTF(names[i]);
+      if (integral[i]) {
+        out.writeByte(0);
+        out.writeLong(longs[i]);
+      } else {
+        out.writeByte(1);
+        out.writeDouble(doubles[i]);
+      }
+    }
+    out.flush();
+  }
+
+  private int checkIndex(int index) {
+    return Preconditions.checkElementIndex(index, size);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > names.length) {
+      int newCapacity = Math.max(capacity, names.length * 2);
+      names = Arrays.copyOf(names, newCapacity);
+      longs = Arrays.copyOf(longs, newCapacity);
+      doubles = Arrays.copyOf(doubles, newCapacity);
+      integral = Arrays.copyOf(integral, newCapacity);
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package com.twitter.common.stats;
+
+import java.io.IOException;
+
+/**
+ * A destination for snapshots of numeric stats, as exported by {@link NumericStatExporter}.
+ */
+public interface StatBatchSink {
+
+  /**
+   * Writes a batch.  The batch is reused once this call returns, so implementations that hold on
+   * to it must copy it with {@link StatBatch#copyFrom(StatBatch)}.
+   *
+   * @param batch Batch to write.
+   * @throws IOException If the batch could not be written.
+   */
+  void write(StatBatch batch) throws IOException;
+}
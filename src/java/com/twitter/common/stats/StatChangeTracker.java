@@ -0,0 +1,327 @@
+package com.twitter.common.stats;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Tracks which stats changed value between reads, so that readers can fetch only the stats that
+ * changed since they last read them.
+ *
+ * Every {@link #poll(Iterable, String)} reads the stats it is given and stamps each stat whose
+ * value differs from the previous read with a new generation.  The poll returns the stats stamped
+ * after the generation in the caller's token, along with a token for the current generation to pass
+ * to the next poll.  Readers keep their own tokens, so any number of them can poll independently.
+ *
+ * Each stat keeps its own last value and generation, guarded by its own lock, so polls do not
+ * serialize on the tracker: concurrent polls only contend on the stats they read at the same time.
+ * A change found by a poll while a newer poll is running is stamped after every running poll, so
+ * that none of their tokens can skip it.
+ *
+ * A stat missing from a poll is reported as removed to readers whose tokens predate its removal.
+ * Removal markers are kept for a fixed number of polls, after which the stat is forgotten and
+ * older tokens get a full snapshot, so the tracker does not grow with every stat ever seen.
+ *
+ * Tokens carry an epoch chosen when the tracker is created, so a token issued by a different
+ * tracker, such as one from before the process restarted, gets a full snapshot rather than a
+ * delta.
+ */
+public class StatChangeTracker {
+
+  /**
+   * Number of polls a removed stat is reported as removed for.  Tokens older than that get a full
+   * snapshot instead.
+   */
+  @VisibleForTesting
+  static final int REMOVAL_GENERATIONS = 1000;
+
+  private final String epoch;
+  private final ConcurrentMap<String, Entry> entries = Maps.newConcurrentMap();
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * Removal markers in the order they were set, and the generation of the most recent one that
+   * has been dropped.  Markers are dropped under the queue's lock, which is only held to drop
+   * expired markers and check the caller's token against them.
+   */
+  private final Queue<Removal> removals = new ConcurrentLinkedQueue<Removal>();
+  private volatile long forgottenThrough = 0;
+
+  /**
+   * Creates a tracker with a random epoch.
+   */
+  public StatChangeTracker() {
+    this(new Random().nextInt(Integer.MAX_VALUE));
+  }
+
+  @VisibleForTesting
+  StatChangeTracker(int epoch) {
+    this.epoch = Integer.toString(epoch, Character.MAX_RADIX);
+  }
+
+  /**
+   * Reads stats and returns those that changed since a token was issued.
+   *
+   * @param stats The stats to read.
+   * @param token A token from a previous poll, or {@code null} to fetch every stat.
+   * @return The stats that changed since {@code token} was issued, or all stats if the token is
+   *     {@code null} or was not issued by this tracker.
+   */
+  public Delta poll(Iterable<? extends Stat<?>> stats, @Nullable String token) {
+    long current = generation.incrementAndGet();
+    long since;
+    synchronized (removals) {
+      forgetRemovals(current - REMOVAL_GENERATIONS);
+      since = parseToken(token, current);
+    }
+
+    List<String> names = Lists.newArrayList();
+    List<Object> values = Lists.newArrayList();
+    for (Stat<?> stat : stats) {
+      String name = stat.getName();
+      Entry entry = entries.get(name);
+      if (entry == null) {
+        Entry added = new Entry();
+        entry = entries.putIfAbsent(name, added);
+        if (entry == null) {
+          entry = added;
+        }
+      }
+      synchronized (entry) {
+        entry.read(stat, current);
+        if (since < 0 || entry.changed > since) {
+          names.add(name);
+          values.add(entry.value);
+        }
+      }
+    }
+
+    List<String> removed = Lists.newArrayList();
+    for (Map.Entry<String, Entry> named : entries.entrySet()) {
+      Entry entry = named.getValue();
+      synchronized (entry) {
+        if (entry.seen < current && !entry.removed) {
+          // Absent from this read: keep a marker so that readers learn the stat is gone.
+          entry.value = null;
+          entry.removed = true;
+          entry.changed = stamp(current);
+          removals.add(new Removal(named.getKey(), entry, entry.changed));
+        }
+        if (entry.removed && since >= 0 && entry.changed > since) {
+          removed.add(named.getKey());
+        }
+      }
+    }
+
+    if (since >= 0 && since < forgottenThrough) {
+      // A newer poll dropped a marker this token had not seen, possibly before it was collected.
+      return poll(stats, null);
+    }
+    Collections.sort(removed);
+    return new Delta(epoch + "-" + current, since < 0, names, values, removed);
+  }
+
+  /**
+   * Stamps a change found by the poll of generation {@code current}.  If a newer poll has started,
+   * it may already have passed the stat, so the change is stamped after every poll started so far.
+   */
+  private long stamp(long current) {
+    long latest = generation.get();
+    return latest == current ? current : latest + 1;
+  }
+
+  /**
+   * Drops the removal markers set at or before a generation.  Must be called while holding the
+   * lock of {@code removals}.
+   */
+  private void forgetRemovals(long through) {
+    Removal removal = removals.peek();
+    while (removal != null && removal.changed <= through) {
+      removals.poll();
+      synchronized (removal.entry) {
+        // a stat that came back since is no longer a marker
+        if (removal.entry.removed && removal.entry.changed == removal.changed) {
+          forgottenThrough = Math.max(forgottenThrough, removal.changed);
+          entries.remove(removal.name, removal.entry);
+        }
+      }
+      removal = removals.peek();
+    }
+  }
+
+  /**
+   * Copies mutable numbers, which would otherwise always compare equal to their previous read.
+   */
+  @Nullable
+  private static Object snapshot(@Nullable Object value) {
+    if (value instanceof AtomicLong || value instanceof StripedCounter) {
+      return ((Number) value).longValue();
+    } else if (value instanceof AtomicInteger) {
+      return ((Number) value).intValue();
+    }
+    return value;
+  }
+
+  /**
+   * Returns the generation a token was issued at, or -1 if it was not issued by this tracker.
+   */
+  private long parseToken(@Nullable String token, long current) {
+    if (token == null) {
+      return -1;
+    }
+    int separator = token.indexOf('-');
+    if (separator < 0 || !epoch.equals(token.substring(0, separator))) {
+      return -1;
+    }
+    try {
+      long since = Long.parseLong(token.substring(separator + 1));
+      // A reader that has not polled since a removal marker was dropped must start over.
+      return since >= forgottenThrough && since < current ? since : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * The last value read of a stat and the generation it changed at, guarded by the entry's lock.
+   */
+  private class Entry {
+    private Object value;
+    private long changed = -1;
+    private long seen = 0;
+    private boolean removed = false;
+
+    /**
+     * Reads the stat, stamping the entry if its value changed.  The stat is read while holding the
+     * entry's lock, so that the value kept is always the latest one read.
+     */
+    void read(Stat<?> stat, long current) {
+      Object read = snapshot(stat.read());
+      if (changed < 0 || removed || !Objects.equal(value, read)) {
+        value = read;
+        removed = false;
+        changed = stamp(current);
+      }
+      seen = Math.max(seen, current);
+    }
+  }
+
+  private static class Removal {
+    private final String name;
+    private final Entry entry;
+    private final long changed;
+
+    Removal(String name, Entry entry, long changed) {
+      this.name = name;
+      this.entry = entry;
+      this.changed = changed;
+    }
+  }
+
+  /**
+   * The stats returned by a poll, in the order they were read.
+   */
+  public static class Delta {
+    private final String token;
+    private final boolean full;
+    private final List<String> names;
+    private final List<Object> values;
+    private final List<String> removed;
+
+    Delta(String token, boolean full, List<String> names, List<Object> values,
+        List<String> removed) {
+      this.token = token;
+      this.full = full;
+      this.names = names;
+      this.values = values;
+      this.removed = removed;
+    }
+
+    /**
+     * Returns the token to pass to the next poll.
+     *
+     * @return The token for this poll.
+     */
+    public String getToken() {
+      return token;
+    }
+
+    /**
+     * Returns whether the delta holds every stat, because the poll had no usable token.
+     *
+     * @return {@code true} if this is a full snapshot.
+     */
+    public boolean isFull() {
+      return full;
+    }
+
+    public int size() {
+      return names.size();
+    }
+
+    public String getName(int index) {
+      return names.get(index);
+    }
+
+    @Nullable
+    public Object getValue(int index) {
+      return values.get(index);
+    }
+
+    /**
+     * Returns the names of stats that were no longer present at some poll since the token was
+     * issued and have not come back.  Always empty for a full snapshot.
+     *
+     * @return The names of removed stats.
+     */
+    public List<String> getRemoved() {
+      return Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * Narrows the delta to stats whose names start with one of a set of prefixes.
+     *
+     * @param prefixes Name prefixes of the stats to keep.
+     * @return A delta with the same token, holding only the matching stats.
+     */
+    public Delta filter(String... prefixes) {
+      List<String> filteredNames = Lists.newArrayList();
+      List<Object> filteredValues = Lists.newArrayList();
+      for (int i = 0; i < names.size(); i++) {
+        if (matches(names.get(i), prefixes)) {
+          filteredNames.add(names.get(i));
+          filteredValues.add(values.get(i));
+        }
+      }
+      List<String> filteredRemoved = Lists.newArrayList();
+      for (String name : removed) {
+        if (matches(name, prefixes)) {
+          filteredRemoved.add(name);
+        }
+      }
+      return new Delta(token, full, filteredNames, filteredValues, filteredRemoved);
+    }
+
+    private static boolean matches(String name, String... prefixes) {
+      for (String prefix : prefixes) {
+        if (name.startsWith(prefix)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -21,6 +21,7 @@ import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -28,12 +29,13 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
+
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.MapMaker;
 import com.google.common.util.concurrent.AtomicDouble;
 
 import com.twitter.common.base.MorePreconditions;
@@ -51,7 +53,9 @@ public class Stats {
   private static final Logger LOG = Logger.getLogger(Stats.class.getName());
   private static final Pattern NOT_NAME_CHAR = Pattern.compile("[^A-Za-z0-9_]");
 
-  private static final ConcurrentMap<String, Stat<?>> VAR_MAP = new MapMaker().makeMap();
+  // Sorted, so that variables can be listed in name order without sorting them on every request.
+  private static final ConcurrentMap<String, Stat<?>> VAR_MAP =
+      new ConcurrentSkipListMap<String, Stat<?>>();
 
   // Store stats in the order they were registered, so that derived variables are
   // sampled after their inputs.
@@ -61,6 +65,12 @@ public class Stats {
   private static final Cache<String, RecordingStat<? extends Number>> NUMERIC_STATS =
       CacheBuilder.newBuilder().build();
 
+  // Bumped whenever ORDERED_NUMERIC_STATS changes, so that an unchanged snapshot of it can be
+  // handed out again rather than copied.
+  private static final AtomicLong NUMERIC_STATS_GENERATION = new AtomicLong();
+  private static volatile NumericStatsSnapshot numericStatsSnapshot =
+      new NumericStatsSnapshot(0, ImmutableList.<RecordingStat<? extends Number>>of());
+
   public static String normalizeName(String name) {
     return NOT_NAME_CHAR.matcher(name).replaceAll("_");
   }
@@ -130,6 +140,7 @@ public class Stats {
 
   /**
    * A {@link StatRegistry} that provides stats registered with the global {@link Stat}s repository.
+   * The same iterable is returned until another numeric stat is exported.
    */
   public static final StatRegistry STAT_REGISTRY = new StatRegistry() {
     @Override public Iterable<RecordingStat<? extends Number>> getStats() {
@@ -155,6 +166,7 @@ public class Stats {
       try {
         exportStaticInternal(name, stat);
         ORDERED_NUMERIC_STATS.add(stat);
+        NUMERIC_STATS_GENERATION.incrementAndGet();
         return stat;
       } finally {
         called.set(true);
@@ -286,6 +298,40 @@ public class Stats {
     return export(name, new AtomicLong(initialValue));
   }
 
+  /**
+   * Creates and exports a {@link StripedCounter}.  Prefer this over {@link #exportLong(String)}
+   * for counters that many threads update concurrently.
+   *
+   * @param name The name to export the stat with.
+   * @return A reference to the {@link StripedCounter} created.
+   */
+  public static StripedCounter exportCounter(String name) {
+    final StripedCounter counter = new StripedCounter();
+    export(new StatImpl<Long>(name) {
+      @Override public Long read() { return counter.get(); }
+    });
+    return counter;
+  }
+
+  /**
+   * Creates a {@link StripedCounter} and exports it as a gauge through a {@link StatsProvider}.
+   * Prefer this over {@link StatsProvider#makeCounter(String)} for counters that many threads
+   * update concurrently.
+   *
+   * @param statsProvider The provider to export the stat through.
+   * @param name The name to export the stat with.
+   * @return A reference to the {@link StripedCounter} created.
+   */
+  public static StripedCounter makeStripedCounter(StatsProvider statsProvider, String name) {
+    final StripedCounter counter = new StripedCounter();
+    statsProvider.makeGauge(name, new Supplier<Long>() {
+      @Override public Long get() {
+        return counter.get();
+      }
+    });
+    return counter;
+  }
+
   /**
    * Exports an {@link AtomicDouble}, which will be included in time series tracking.
    *
@@ -385,14 +431,21 @@ public class Stats {
   /**
    * Fetches all registered stat.
    *
-   * @return An iterable of all registered stats.
+   * @return An iterable of all registered stats, in name order.
    */
   public static Iterable<Stat<?>> getVariables() {
     return ImmutableList.copyOf(VAR_MAP.values());
   }
 
   static Iterable<RecordingStat<? extends Number>> getNumericVariables() {
-    return ImmutableList.copyOf(ORDERED_NUMERIC_STATS);
+    long generation = NUMERIC_STATS_GENERATION.get();
+    NumericStatsSnapshot snapshot = numericStatsSnapshot;
+    if (snapshot.generation != generation) {
+      // Stats exported while copying bump the generation again, so they are not missed.
+      snapshot = new NumericStatsSnapshot(generation, ImmutableList.copyOf(ORDERED_NUMERIC_STATS));
+      numericStatsSnapshot = snapshot;
+    }
+    return snapshot.stats;
   }
 
   @VisibleForTesting
@@ -400,6 +453,7 @@ public class Stats {
     VAR_MAP.clear();
     ORDERED_NUMERIC_STATS.clear();
     NUMERIC_STATS.invalidateAll();
+    NUMERIC_STATS_GENERATION.incrementAndGet();
   }
 
   public static <T> Stat<T> getVariable(String name) {
@@ -408,4 +462,31 @@ public class Stats {
     Stat<T> stat = (Stat<T>) VAR_MAP.get(name);
     return stat;
   }
+
+  /**
+   * Checks whether a stat value holds a whole number, and so can be read exactly with
+   * {@link Number#longValue()} rather than as a double.
+   *
+   * @param value A stat value, possibly {@code null}.
+   * @return {@code true} if the value is an integral number type.
+   */
+  public static boolean isIntegral(@Nullable Object value) {
+    return value instanceof Long
+        || value instanceof Integer
+        || value instanceof Short
+        || value instanceof Byte
+        || value instanceof AtomicLong
+        || value instanceof AtomicInteger
+        || value instanceof StripedCounter;
+  }
+
+  private static class NumericStatsSnapshot {
+    private final long generation;
+    private final ImmutableList<RecordingStat<? extends Number>> stats;
+
+    NumericStatsSnapshot(long generation, ImmutableList<RecordingStat<? extends Number>> stats) {
+      this.generation = generation;
+      this.stats = stats;
+    }
+  }
 }
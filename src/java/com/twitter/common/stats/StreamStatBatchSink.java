@@ -0,0 +1,279 @@
+package com.twitter.common.stats;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.twitter.common.base.ExceptionalSupplier;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+
+/**
+ * A sink that encodes batches onto an output stream, such as a file or a socket.
+ *
+ * The stream is opened on the first write.  If a write fails, the stream is closed and the next
+ * write opens a new one, so that a sink writing to a socket reconnects after the connection drops.
+ */
+public class StreamStatBatchSink implements StatBatchSink {
+
+  private static final Logger LOG = Logger.getLogger(StreamStatBatchSink.class.getName());
+
+  /**
+   * Encoding of the batches written to the stream.
+   */
+  public enum Format {
+    /**
+     * Lines as written by {@link StatBatch#writeLines(Writer)}.
+     */
+    LINES,
+
+    /**
+     * The binary encoding written by {@link StatBatch#writeBinary(OutputStream)}.
+     */
+    BINARY
+  }
+
+  /**
+   * Connect timeout of sockets created by {@link #toSocket(InetSocketAddress, Format)}.
+   */
+  public static final Amount<Long, Time> DEFAULT_CONNECT_TIMEOUT = Amount.of(5L, Time.SECONDS);
+
+  /**
+   * Write timeout of sockets created by {@link #toSocket(InetSocketAddress, Format)}.
+   */
+  public static final Amount<Long, Time> DEFAULT_WRITE_TIMEOUT = Amount.of(10L, Time.SECONDS);
+
+  private final ExceptionalSupplier<OutputStream, IOException> streamSupplier;
+  private final Format format;
+
+  private OutputStream stream;
+  private Writer writer;
+
+  /**
+   * Creates a sink that writes to the streams from a supplier.
+   *
+   * @param streamSupplier Opens a new stream to write to.
+   * @param format Encoding of the batches.
+   */
+  public StreamStatBatchSink(ExceptionalSupplier<OutputStream, IOException> streamSupplier,
+      Format format) {
+    this.streamSupplier = Preconditions.checkNotNull(streamSupplier);
+    this.format = Preconditions.checkNotNull(format);
+  }
+
+  /**
+   * Creates a sink that appends to a file.
+   *
+   * @param file File to append to.
+   * @param format Encoding of the batches.
+   * @return A sink writing to {@code file}.
+   */
+  public static StreamStatBatchSink toFile(final File file, Format format) {
+    Preconditions.checkNotNull(file);
+    return new StreamStatBatchSink(new ExceptionalSupplier<OutputStream, IOException>() {
+      @Override public OutputStream get() throws IOException {
+        return new FileOutputStream(file, true);
+      }
+    }, format);
+  }
+
+  /**
+   * Creates a sink that writes to a TCP connection, reconnecting after failed writes, with the
+   * default connect and write timeouts.
+   *
+   * @param address Address to connect to.
+   * @param format Encoding of the batches.
+   * @return A sink writing to {@code address}.
+   */
+  public static StreamStatBatchSink toSocket(InetSocketAddress address, Format format) {
+    return toSocket(address, format, DEFAULT_CONNECT_TIMEOUT, DEFAULT_WRITE_TIMEOUT);
+  }
+
+  /**
+   * Creates a sink that writes to a TCP connection, reconnecting after failed writes.
+   *
+   * A write that does not complete within the write timeout, for example because the receiver
+   * stopped reading, closes the connection and fails, so that a stalled receiver cannot block
+   * the writing thread indefinitely.
+   *
+   * @param address Address to connect to.
+   * @param format Encoding of the batches.
+   * @param connectTimeout Maximum time to wait for a connection to be established.
+   * @param writeTimeout Maximum time a single write to the connection may block.
+   * @return A sink writing to {@code address}.
+   */
+  public static StreamStatBatchSink toSocket(final InetSocketAddress address, Format format,
+      Amount<Long, Time> connectTimeout, Amount<Long, Time> writeTimeout) {
+    Preconditions.checkNotNull(address);
+    final int connectTimeoutMillis = connectTimeout.as(Time.MILLISECONDS).intValue();
+    Preconditions.checkArgument(connectTimeoutMillis > 0, "Connect timeout must be positive.");
+    final long writeTimeoutMillis = writeTimeout.as(Time.MILLISECONDS);
+    Preconditions.checkArgument(writeTimeoutMillis > 0, "Write timeout must be positive.");
+    return new StreamStatBatchSink(new ExceptionalSupplier<OutputStream, IOException>() {
+      @Override public OutputStream get() throws IOException {
+        Socket socket = new Socket();
+        try {
+          socket.connect(address, connectTimeoutMillis);
+          return new TimedOutputStream(socket, writeTimeoutMillis);
+        } catch (IOException e) {
+          socket.close();
+          throw e;
+        }
+      }
+    }, format);
+  }
+
+  @Override
+  public synchronized void write(StatBatch batch) throws IOException {
+    if (stream == null) {
+      stream = new BufferedOutputStream(streamSupplier.get());
+      writer = new OutputStreamWriter(stream, Charsets.UTF_8);
+    }
+    try {
+      if (format == Format.LINES) {
+        batch.writeLines(writer);
+        writer.flush();
+      } else {
+        batch.writeBinary(stream);
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Closes the current stream, if one is open.  A subsequent write opens a new stream.
+   */
+  public synchronized void close() {
+    if (stream != null) {
+      try {
+        stream.close();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Failed to close stat stream", e);
+      }
+      stream = null;
+      writer = null;
+    }
+  }
+
+  /**
+   * Socket streams block without limit when the receiver stops reading, so this stream closes the
+   * socket if a write takes longer than the timeout, which fails the blocked write.
+   *
+   * Rather than scheduling a timeout for every write, each stream has a single watchdog that
+   * checks the write in progress a few times per timeout period, so a stalled write fails within
+   * one and a quarter timeouts.  The watchdog is cancelled when the stream is closed.
+   */
+  private static class TimedOutputStream extends FilterOutputStream {
+    private final Socket socket;
+    private final long timeoutMillis;
+    private final ScheduledFuture<?> watchdog;
+    private volatile long writeStartNanos;
+    private volatile boolean writing = false;
+    private volatile boolean timedOut = false;
+
+    TimedOutputStream(final Socket socket, long timeoutMillis) throws IOException {
+      super(socket.getOutputStream());
+      this.socket = socket;
+      this.timeoutMillis = timeoutMillis;
+      final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      long checkMillis = Math.max(1, timeoutMillis / 4);
+      watchdog = WriteTimer.TIMER.scheduleWithFixedDelay(new Runnable() {
+        @Override public void run() {
+          if (writing && System.nanoTime() - writeStartNanos > timeoutNanos) {
+            timedOut = true;
+            try {
+              socket.close();
+            } catch (IOException e) {
+              LOG.log(Level.WARNING, "Failed to close timed out stat socket", e);
+            }
+          }
+        }
+      }, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override public void write(int b) throws IOException {
+      startWrite();
+      try {
+        out.write(b);
+      } catch (IOException e) {
+        throw translate(e);
+      } finally {
+        writing = false;
+      }
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      startWrite();
+      try {
+        out.write(b, off, len);
+      } catch (IOException e) {
+        throw translate(e);
+      } finally {
+        writing = false;
+      }
+    }
+
+    @Override public void flush() throws IOException {
+      startWrite();
+      try {
+        out.flush();
+      } catch (IOException e) {
+        throw translate(e);
+      } finally {
+        writing = false;
+      }
+    }
+
+    @Override public void close() throws IOException {
+      watchdog.cancel(false);
+      socket.close();
+    }
+
+    private void startWrite() {
+      // set before the flag, so the watchdog never sees this write with the previous start time
+      writeStartNanos = System.nanoTime();
+      writing = true;
+    }
+
+    private IOException translate(IOException e) {
+      if (!timedOut) {
+        return e;
+      }
+      IOException timeout =
+          new SocketTimeoutException("Write did not complete within " + timeoutMillis + " ms");
+      timeout.initCause(e);
+      return timeout;
+    }
+  }
+
+  /**
+   * Holds the timer thread, so that it is only started once a socket sink is used.
+   */
+  private static class WriteTimer {
+    static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("StreamStatBatchSink-WriteTimer")
+            .build());
+  }
+}
@@ -0,0 +1,190 @@
+package com.twitter.common.stats;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for values updated by many threads, in the style of {@code LongAdder}.
+ *
+ * Updates go to a single base value until two threads collide on it; from then on, each thread
+ * adds to one of a set of cells chosen by its thread id, with cells spaced a cache line apart so
+ * that threads on different cores do not invalidate each other's cache lines.  {@link #get()} sums
+ * the base and the cells, so it is exact when the counter is quiescent and otherwise reflects some,
+ * but not necessarily all, concurrent updates.
+ *
+ * Unlike an {@link AtomicLong}, there is no atomic read-modify-write: {@link #add(long)} does not
+ * return the new sum, and {@link #set(long)} is not atomic with respect to concurrent updates.
+ */
+public class StripedCounter extends Number {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Cells are 16 longs, 128 bytes, apart: enough to keep them on separate cache lines, including
+   * with adjacent line prefetching.
+   */
+  private static final int CELL_SPACING = 16;
+  private static final int NUM_CELLS =
+      Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+  private final AtomicLong base;
+  private transient volatile AtomicLongArray cells;
+  private volatile boolean unstriped = false;
+
+  /**
+   * Creates a counter with an initial value of 0.
+   */
+  public StripedCounter() {
+    this(0);
+  }
+
+  /**
+   * Creates a counter with an initial value.
+   *
+   * @param initialValue The initial value of the counter.
+   */
+  public StripedCounter(long initialValue) {
+    base = new AtomicLong(initialValue);
+  }
+
+  /**
+   * Adds to the counter.
+   *
+   * @param delta The value to add.
+   */
+  public void add(long delta) {
+    if (unstriped) {
+      base.addAndGet(delta);
+      return;
+    }
+    AtomicLongArray current = cells;
+    if (current == null) {
+      long value = base.get();
+      if (base.compareAndSet(value, value + delta)) {
+        return;
+      }
+      // contended: stripe from now on
+      current = cells();
+    }
+    current.getAndAdd(cellIndex(), delta);
+  }
+
+  /**
+   * Adds one to the counter.
+   */
+  public void increment() {
+    add(1);
+  }
+
+  /**
+   * Adds negative one to the counter.
+   */
+  public void decrement() {
+    add(-1);
+  }
+
+  /**
+   * Returns the sum of all updates to the counter.
+   *
+   * @return The current value of the counter.
+   */
+  public long get() {
+    long sum = base.get();
+    AtomicLongArray current = cells;
+    if (current != null) {
+      for (int i = 0; i < current.length(); i += CELL_SPACING) {
+        sum += current.get(i);
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Sets the counter to a value.  Updates made concurrently with this call may be lost.
+   *
+   * @param newValue The new value of the counter.
+   */
+  public void set(long newValue) {
+    AtomicLongArray current = cells;
+    if (current != null) {
+      for (int i = 0; i < current.length(); i += CELL_SPACING) {
+        current.set(i, 0);
+      }
+    }
+    base.set(newValue);
+  }
+
+  /**
+   * Stops striping and returns the {@link AtomicLong} that all later updates go to, for classes
+   * whose API handed out their counters as AtomicLongs before they were striped.  Updates made
+   * through the returned AtomicLong are reflected by {@link #get()}.  Updates racing with this
+   * call may be reflected by {@link #get()} but not by the returned AtomicLong.
+   *
+   * <p>The counter never stripes again, so it is as contended as a plain AtomicLong from then on.
+   * An AtomicLong cannot instead be a view of the cells, since its methods are final.
+   *
+   * @return The AtomicLong backing this counter from now on.
+   */
+  synchronized AtomicLong asAtomicLong() {
+    if (!unstriped) {
+      unstriped = true;
+      AtomicLongArray current = cells;
+      if (current != null) {
+        for (int i = 0; i < current.length(); i += CELL_SPACING) {
+          base.addAndGet(current.getAndSet(i, 0));
+        }
+      }
+    }
+    return base;
+  }
+
+  @Override
+  public int intValue() {
+    return (int) get();
+  }
+
+  @Override
+  public long longValue() {
+    return get();
+  }
+
+  @Override
+  public float floatValue() {
+    return (float) get();
+  }
+
+  @Override
+  public double doubleValue() {
+    return (double) get();
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(get());
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    // the cells are not serialized, so fold them into the serialized base
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("base", new AtomicLong(get()));
+    fields.put("unstriped", unstriped);
+    out.writeFields();
+  }
+
+  private AtomicLongArray cells() {
+    synchronized (this) {
+      if (cells == null) {
+        cells = new AtomicLongArray(NUM_CELLS * CELL_SPACING);
+      }
+      return cells;
+    }
+  }
+
+  private static int cellIndex() {
+    long id = Thread.currentThread().getId();
+    // mix the bits, since thread ids are mostly sequential
+    id *= 0x9E3779B97F4A7C15L;
+    return ((int) (id >>> 32) & (NUM_CELLS - 1)) * CELL_SPACING;
+  }
+}
@@ -16,27 +16,38 @@
 
 package com.twitter.common.stats;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
 import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.base.Command;
-import com.twitter.common.collections.BoundedQueue;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.util.Clock;
@@ -46,6 +57,12 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * A simple in-memory repository for exported variables.
  *
+ * Samples are kept in a columnar {@link TimeSeriesStore}, one primitive ring per series.  In
+ * addition to the samples taken every sample period, the repository can keep downsampled tiers at
+ * coarser resolutions, such as 1 minute for a day and 10 minutes for a week; each point in a tier
+ * is the mean of the samples taken over its resolution.  Tiers are available through
+ * {@link #getDownsampled(Amount)}.
+ *
  * @author John Sirois
  */
 public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
@@ -64,21 +81,71 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
   public static final String SAMPLE_RETENTION_PERIOD =
       "com.twitter.common.stats.TimeSeriesRepositoryImpl.SAMPLE_RETENTION_PERIOD";
 
+  /**
+   * {@literal @Named} binding key for the downsampled tiers, as resolution to retention period.
+   */
+  public static final String TIER_RETENTION_PERIODS =
+      "com.twitter.common.stats.TimeSeriesRepositoryImpl.TIER_RETENTION_PERIODS";
+
+  /**
+   * Stats that take longer than this to sample are sampled in parallel from then on.
+   */
+  @VisibleForTesting
+  static final Amount<Long, Time> SLOW_STAT_THRESHOLD = Amount.of(10L, Time.MILLISECONDS);
+
   private final SlidingStats scrapeDuration = new SlidingStats("variable_scrape", "micros");
+  private final AtomicLong scrapeTimeouts = Stats.exportLong("variable_scrape_timeouts");
+
+  private final TimeSeriesStore samples;
+  private final List<Tier> tiers;
+
+  /**
+   * The slots of the stats in {@link #registeredStats}, by name and in order.  Both are only
+   * accessed by the sampler.
+   */
+  private final Map<String, Slot> slotsByName = Maps.newHashMap();
+  private Slot[] slots = new Slot[0];
+  private Iterable<RecordingStat<? extends Number>> registeredStats;
+  private long sampleCount = 0;
 
-  // We store TimeSeriesImpl, which allows us to add samples.
-  private final LoadingCache<String, TimeSeriesImpl> timeSeries;
-  private final BoundedQueue<Number> timestamps;
+  private final ExecutorService slowStatSampler;
+  private final long slowStatThresholdNanos;
+  private final long slowStatTimeoutNanos;
 
   private final StatRegistry statRegistry;
   private final Amount<Long, Time> samplePeriod;
-  private final int retainedSampleLimit;
 
+  /**
+   * Creates a repository without downsampled tiers.
+   *
+   * @param statRegistry Registry of the stats to sample.
+   * @param samplePeriod Period between samples.
+   * @param retentionPeriod Period to retain samples for.
+   */
+  public TimeSeriesRepositoryImpl(
+      StatRegistry statRegistry,
+      Amount<Long, Time> samplePeriod,
+      Amount<Long, Time> retentionPeriod) {
+    this(statRegistry, samplePeriod, retentionPeriod,
+        ImmutableMap.<Amount<Long, Time>, Amount<Long, Time>>of());
+  }
+
+  /**
+   * Creates a repository with downsampled tiers.  A tier is ignored unless its resolution is a
+   * whole multiple of the sample period and at least twice as long.
+   *
+   * @param statRegistry Registry of the stats to sample.
+   * @param samplePeriod Period between samples.
+   * @param retentionPeriod Period to retain samples for.
+   * @param tierRetentionPeriods Resolution to retention period of each downsampled tier.
+   */
   @Inject
   public TimeSeriesRepositoryImpl(
       StatRegistry statRegistry,
       @Named(SAMPLE_PERIOD) Amount<Long, Time> samplePeriod,
-      @Named(SAMPLE_RETENTION_PERIOD) final Amount<Long, Time> retentionPeriod) {
+      @Named(SAMPLE_RETENTION_PERIOD) Amount<Long, Time> retentionPeriod,
+      @Named(TIER_RETENTION_PERIODS)
+          Map<Amount<Long, Time>, Amount<Long, Time>> tierRetentionPeriods) {
     this.statRegistry = checkNotNull(statRegistry);
     this.samplePeriod = checkNotNull(samplePeriod);
     Preconditions.checkArgument(samplePeriod.getValue() > 0, "Sample period must be positive.");
@@ -86,28 +153,38 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
     Preconditions.checkArgument(retentionPeriod.getValue() > 0,
         "Sample retention period must be positive.");
 
-    retainedSampleLimit = (int) (retentionPeriod.as(Time.SECONDS) / samplePeriod.as(Time.SECONDS));
+    int retainedSampleLimit = retainedSamples(retentionPeriod, samplePeriod);
     Preconditions.checkArgument(retainedSampleLimit > 0,
         "Sample retention period must be greater than sample period.");
+    samples = new TimeSeriesStore(retainedSampleLimit);
+
+    ImmutableList.Builder<Tier> tiersBuilder = ImmutableList.builder();
+    for (Map.Entry<Amount<Long, Time>, Amount<Long, Time>> tier
+        : ImmutableSortedMap.copyOf(tierRetentionPeriods).entrySet()) {
+      long samplesPerPoint = retainedSamples(tier.getKey(), samplePeriod);
+      if (samplesPerPoint < 2
+          || tier.getKey().as(Time.MILLISECONDS) % samplePeriod.as(Time.MILLISECONDS) != 0) {
+        LOG.info("Ignoring time series tier with resolution " + tier.getKey()
+            + ": it must be a whole multiple of the sample period " + samplePeriod
+            + " and at least twice as long");
+        continue;
+      }
+      int retainedPoints = retainedSamples(tier.getValue(), tier.getKey());
+      Preconditions.checkArgument(retainedPoints > 0,
+          "Tier retention period must be greater than its resolution.");
+      tiersBuilder.add(new Tier(tier.getKey(), (int) samplesPerPoint, retainedPoints));
+    }
+    tiers = tiersBuilder.build();
 
-    timeSeries = CacheBuilder.newBuilder().build(
-        new CacheLoader<String, TimeSeriesImpl>() {
-          @Override public TimeSeriesImpl load(final String name) {
-            TimeSeriesImpl timeSeries = new TimeSeriesImpl(name);
-
-            // Backfill so we have data for pre-accumulated timestamps.
-            int numTimestamps = timestamps.size();
-            if (numTimestamps != 0) {
-              for (int i = 1; i < numTimestamps; i++) {
-                timeSeries.addSample(0L);
-              }
-            }
-
-            return timeSeries;
-          }
-        });
+    slowStatSampler = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+        .setNameFormat("VariableSampler-slow-%d").setDaemon(true).build());
+    slowStatThresholdNanos = SLOW_STAT_THRESHOLD.as(Time.NANOSECONDS);
+    // Slow stats must not hold up the next sample.
+    slowStatTimeoutNanos = samplePeriod.as(Time.NANOSECONDS) / 2;
+  }
 
-    timestamps = new BoundedQueue<Number>(retainedSampleLimit);
+  private static int retainedSamples(Amount<Long, Time> retention, Amount<Long, Time> period) {
+    return (int) (retention.as(Time.MILLISECONDS) / period.as(Time.MILLISECONDS));
   }
 
   /**
@@ -143,58 +220,295 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
       public void execute() throws RuntimeException {
         shouldSample.set(false);
         executor.shutdown();
+        slowStatSampler.shutdownNow();
         LOG.info("Variable sampler shut down");
       }
     });
   }
 
+  /**
+   * Samples every registered stat.  Stats are sampled in the order they were registered, so that
+   * derived stats are sampled after their inputs, except for stats that were slow to sample before;
+   * those are sampled in parallel, and if one does not finish in time its previous value is
+   * recorded again.  A stat whose read timed out keeps its previous value, without being waited
+   * on, until that read completes.
+   */
   @VisibleForTesting
-  synchronized void runSampler(Clock clock) {
-    timestamps.add(clock.nowMillis());
+  synchronized void runSampler(final Clock clock) {
+    long nowMillis = clock.nowMillis();
+    samples.addTimestamp(nowMillis);
 
     long startNanos = clock.nowNanos();
-    for (RecordingStat<? extends Number> var : statRegistry.getStats()) {
-      timeSeries.getUnchecked(var.getName()).addSample(var.sample());
+    List<Slot> slowSlots = Lists.newArrayList();
+    Iterable<RecordingStat<? extends Number>> stats = statRegistry.getStats();
+    if (stats == registeredStats) {
+      for (Slot slot : slots) {
+        sample(slot, clock, slowSlots);
+      }
+    } else {
+      List<Slot> refreshed = Lists.newArrayList();
+      Set<String> names = Sets.newHashSet();
+      for (RecordingStat<? extends Number> stat : stats) {
+        Slot slot = slotFor(stat);
+        refreshed.add(slot);
+        names.add(slot.name);
+        sample(slot, clock, slowSlots);
+      }
+      slots = refreshed.toArray(new Slot[refreshed.size()]);
+      registeredStats = stats;
+      // Stats that are no longer registered stop getting tier points.
+      slotsByName.keySet().retainAll(names);
+    }
+
+    long deadlineNanos = startNanos + slowStatTimeoutNanos;
+    for (Slot slot : slowSlots) {
+      slot.await(deadlineNanos - clock.nowNanos());
+    }
+
+    sampleCount++;
+    for (int t = 0; t < tiers.size(); t++) {
+      Tier tier = tiers.get(t);
+      if (sampleCount % tier.samplesPerPoint == 0) {
+        tier.points.addTimestamp(nowMillis);
+        for (Slot slot : slots) {
+          slot.flush(t, tier);
+        }
+      }
     }
     scrapeDuration.accumulate(
         Amount.of(clock.nowNanos() - startNanos, Time.NANOSECONDS).as(Time.MICROSECONDS));
   }
 
+  private void sample(Slot slot, Clock clock, List<Slot> slowSlots) {
+    if (slot.slow) {
+      if (slot.isHung()) {
+        // Waiting again on a read that already timed out would only delay the rest of the pass.
+        scrapeTimeouts.incrementAndGet();
+        slot.record(slot.lastValue);
+        return;
+      }
+      slot.submit(clock);
+      slowSlots.add(slot);
+      return;
+    }
+
+    long startNanos = clock.nowNanos();
+    slot.record(slot.stat.sample());
+    long sampleNanos = clock.nowNanos() - startNanos;
+    if (sampleNanos > slowStatThresholdNanos) {
+      slot.slow = true;
+      LOG.warning("Stat " + slot.name + " took "
+          + Amount.of(sampleNanos, Time.NANOSECONDS).as(Time.MILLISECONDS)
+          + " ms to sample, sampling it in parallel from now on");
+    }
+  }
+
+  private Slot slotFor(RecordingStat<? extends Number> stat) {
+    String name = stat.getName();
+    Slot slot = slotsByName.get(name);
+    if (slot == null || slot.stat != stat) {
+      slot = new Slot(stat, name, slot);
+      slotsByName.put(name, slot);
+    }
+    return slot;
+  }
+
+  /**
+   * Checks whether a read of a stat timed out and has not completed since.
+   *
+   * @param name Name of the stat.
+   * @return {@code true} if the stat is hung.
+   */
+  @VisibleForTesting
+  synchronized boolean isHung(String name) {
+    Slot slot = slotsByName.get(name);
+    return slot != null && slot.isHung();
+  }
+
+  /**
+   * Fetches the names of the stats that are sampled in parallel because they were slow to sample.
+   *
+   * @return The names of slow stats.
+   */
+  public synchronized Set<String> getSlowStats() {
+    ImmutableSet.Builder<String> slowStats = ImmutableSet.builder();
+    for (Slot slot : slots) {
+      if (slot.slow) {
+        slowStats.add(slot.name);
+      }
+    }
+    return slowStats.build();
+  }
+
   @Override
-  public synchronized Set<String> getAvailableSeries() {
-    return ImmutableSet.copyOf(timeSeries.asMap().keySet());
+  public Set<String> getAvailableSeries() {
+    return samples.getNames();
   }
 
   @Override
-  public synchronized TimeSeries get(String name) {
-    if (!timeSeries.asMap().containsKey(name)) return null;
-    return timeSeries.getUnchecked(name);
+  public TimeSeries get(String name) {
+    return samples.get(name);
   }
 
   @Override
-  public synchronized Iterable<Number> getTimestamps() {
-    return Iterables.unmodifiableIterable(timestamps);
+  public Iterable<Number> getTimestamps() {
+    return samples.getTimestamps();
   }
 
-  private class TimeSeriesImpl implements TimeSeries {
-    private final String name;
-    private final BoundedQueue<Number> samples;
+  /**
+   * Fetches a downsampled tier of the repository.  The tier is sampled along with this repository,
+   * so its {@link TimeSeriesRepository#start(ShutdownRegistry)} does nothing.
+   *
+   * @param resolution Resolution of the tier.
+   * @return The tier with the given resolution, or {@code null} if there is no such tier.
+   */
+  public TimeSeriesRepository getDownsampled(Amount<Long, Time> resolution) {
+    for (Tier tier : tiers) {
+      if (tier.resolution.equals(resolution)) {
+        return tier;
+      }
+    }
+    return null;
+  }
 
-    TimeSeriesImpl(String name) {
+  /**
+   * Fetches the resolutions of the downsampled tiers, finest first.
+   *
+   * @return The tier resolutions.
+   */
+  public List<Amount<Long, Time>> getDownsampledResolutions() {
+    ImmutableList.Builder<Amount<Long, Time>> resolutions = ImmutableList.builder();
+    for (Tier tier : tiers) {
+      resolutions.add(tier.resolution);
+    }
+    return resolutions.build();
+  }
+
+  /**
+   * A registered stat, along with the series it is recorded to and its sampling state.
+   */
+  private class Slot {
+    private final RecordingStat<? extends Number> stat;
+    private final String name;
+    private final TimeSeriesStore.Series series;
+    private final TimeSeriesStore.Series[] tierSeries;
+
+    /**
+     * Running sums of the samples towards the next point of each tier, indexed like
+     * {@link #tiers}.
+     */
+    private final double[] tierSums;
+
+    private boolean slow = false;
+    private Number lastValue = 0L;
+    private Future<Number> pending;
+    private boolean timedOut = false;
+    private volatile long sampleNanos;
+
+    Slot(RecordingStat<? extends Number> stat, String name, Slot replaced) {
+      this.stat = stat;
       this.name = name;
-      samples = new BoundedQueue<Number>(retainedSampleLimit);
+      series = samples.series(name);
+      if (replaced == null) {
+        tierSeries = new TimeSeriesStore.Series[tiers.size()];
+        tierSums = new double[tiers.size()];
+      } else {
+        // A stat re-exported under the same name continues the same series.
+        tierSeries = replaced.tierSeries;
+        tierSums = replaced.tierSums;
+      }
+    }
+
+    void record(Number value) {
+      lastValue = value;
+      series.record(value);
+      double doubleValue = value.doubleValue();
+      for (int t = 0; t < tierSums.length; t++) {
+        tierSums[t] += doubleValue;
+      }
+    }
+
+    /**
+     * A stat is hung while a read of it that timed out is still running.  It is not waited on
+     * again until that read completes.
+     */
+    boolean isHung() {
+      return timedOut && !pending.isDone();
+    }
+
+    void submit(final Clock clock) {
+      // A sample still running from an earlier pass is waited on instead of piling up another.
+      if (pending == null) {
+        pending = slowStatSampler.submit(new Callable<Number>() {
+          @Override public Number call() {
+            long startNanos = clock.nowNanos();
+            try {
+              return stat.sample();
+            } finally {
+              sampleNanos = clock.nowNanos() - startNanos;
+            }
+          }
+        });
+      }
+    }
+
+    void await(long timeoutNanos) {
+      Number value = lastValue;
+      try {
+        value = pending.get(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+        pending = null;
+        timedOut = false;
+        if (sampleNanos <= slowStatThresholdNanos) {
+          slow = false;
+        }
+      } catch (TimeoutException e) {
+        timedOut = true;
+        scrapeTimeouts.incrementAndGet();
+        LOG.warning("Timed out sampling stat " + name + ", recording its previous value");
+      } catch (ExecutionException e) {
+        pending = null;
+        timedOut = false;
+        LOG.log(Level.WARNING, "Failed to sample stat " + name, e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      record(value);
+    }
+
+    void flush(int t, Tier tier) {
+      if (tierSeries[t] == null) {
+        tierSeries[t] = tier.points.series(name);
+      }
+      tierSeries[t].record(tierSums[t] / tier.samplesPerPoint);
+      tierSums[t] = 0;
+    }
+  }
+
+  private static class Tier implements TimeSeriesRepository {
+    private final Amount<Long, Time> resolution;
+    private final int samplesPerPoint;
+    private final TimeSeriesStore points;
+
+    Tier(Amount<Long, Time> resolution, int samplesPerPoint, int retainedPoints) {
+      this.resolution = resolution;
+      this.samplesPerPoint = samplesPerPoint;
+      points = new TimeSeriesStore(retainedPoints);
+    }
+
+    @Override public void start(ShutdownRegistry shutdownRegistry) {
+      // Points are added by the repository that owns the tier.
     }
 
-    @Override public String getName() {
-      return name;
+    @Override public Set<String> getAvailableSeries() {
+      return points.getNames();
     }
 
-    void addSample(Number value) {
-      samples.add(value);
+    @Override public TimeSeries get(String name) {
+      return points.get(name);
     }
 
-    @Override public Iterable<Number> getSamples() {
-      return Iterables.unmodifiableIterable(samples);
+    @Override public Iterable<Number> getTimestamps() {
+      return points.getTimestamps();
     }
   }
 }
@@ -0,0 +1,251 @@
+package com.twitter.common.stats;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Longs;
+
+/**
+ * A columnar, fixed-capacity store of time series that are all sampled at the same instants.
+ *
+ * The sample timestamps are kept once, in a ring shared by every series, and each series keeps its
+ * values in a primitive ring of its own, indexed the same way.  A series holds {@code long} values
+ * until it is given a sample that is not integral, at which point it switches to {@code double}s.
+ * Samples are only boxed when they are read.
+ *
+ * A series that was not recorded at some of the retained timestamps, because it was created after
+ * them or was not sampled, reads as 0 at those timestamps.
+ */
+class TimeSeriesStore {
+
+  private final int capacity;
+  private final long[] timestamps;
+  private final Map<String, Column> columns = Maps.newHashMap();
+
+  /**
+   * The number of timestamps added so far; the current sample index is one less than this.
+   */
+  private long count = 0;
+
+  /**
+   * Creates a store that retains a fixed number of samples per series.
+   *
+   * @param capacity Maximum number of samples retained; older samples are overwritten.
+   */
+  TimeSeriesStore(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "Capacity must be positive.");
+    this.capacity = capacity;
+    timestamps = new long[capacity];
+  }
+
+  /**
+   * Starts a new sample, which subsequent calls to {@link Series#record(Number)} fill in.
+   *
+   * @param timestampMillis Time of the sample.
+   */
+  synchronized void addTimestamp(long timestampMillis) {
+    timestamps[slot(count)] = timestampMillis;
+    count++;
+  }
+
+  /**
+   * Fetches a series to record to, creating it if it is new.  Holding on to the series avoids
+   * looking it up by name for every sample.
+   *
+   * @param name Name of the series.
+   * @return The series.
+   */
+  synchronized Series series(String name) {
+    Column column = columns.get(name);
+    if (column == null) {
+      column = new Column(name, Math.max(0, count - 1));
+      columns.put(name, column);
+    }
+    return column;
+  }
+
+  /**
+   * Fetches the names of all series in the store.
+   *
+   * @return The series names.
+   */
+  synchronized Set<String> getNames() {
+    return ImmutableSet.copyOf(columns.keySet());
+  }
+
+  /**
+   * Fetches a series by name.
+   *
+   * @param name Name of the series.
+   * @return The series, or {@code null} if nothing has been recorded for it.
+   */
+  synchronized TimeSeries get(String name) {
+    return columns.get(name);
+  }
+
+  /**
+   * Gets the retained timestamps, oldest first.  The iterable reads the store each time it is
+   * iterated.
+   *
+   * @return The sample timestamps.
+   */
+  Iterable<Number> getTimestamps() {
+    return new Iterable<Number>() {
+      @Override public Iterator<Number> iterator() {
+        long[] copy;
+        synchronized (TimeSeriesStore.this) {
+          long first = firstRetained();
+          copy = new long[(int) (count - first)];
+          for (long i = first; i < count; i++) {
+            copy[(int) (i - first)] = timestamps[slot(i)];
+          }
+        }
+        return asNumbers(Longs.asList(copy)).iterator();
+      }
+    };
+  }
+
+  private long currentIndex() {
+    Preconditions.checkState(count > 0, "No timestamp has been added.");
+    return count - 1;
+  }
+
+  private long firstRetained() {
+    return Math.max(0, count - capacity);
+  }
+
+  private int slot(long index) {
+    return (int) (index % capacity);
+  }
+
+  private static List<Number> asNumbers(List<? extends Number> values) {
+    return Collections.<Number>unmodifiableList(values);
+  }
+
+  /**
+   * A series that samples can be recorded to.
+   */
+  interface Series extends TimeSeries {
+
+    /**
+     * Records the value of the series for the current sample.
+     *
+     * @param value Value of the series at the current sample.
+     */
+    void record(Number value);
+
+    /**
+     * Records a floating point value of the series for the current sample.
+     *
+     * @param value Value of the series at the current sample.
+     */
+    void record(double value);
+  }
+
+  /**
+   * The values of a single series, guarded by the store's lock.
+   */
+  private class Column implements Series {
+    private final String name;
+    private long[] longs;
+    private double[] doubles;
+
+    /**
+     * The index after the last sample recorded in this column.
+     */
+    private long written;
+
+    Column(String name, long firstIndex) {
+      this.name = name;
+      longs = new long[capacity];
+      // Slots for earlier samples have never been written, so they already read as 0.
+      written = firstIndex;
+    }
+
+    @Override public void record(Number value) {
+      if (Stats.isIntegral(value)) {
+        record(value.longValue());
+      } else {
+        record(value.doubleValue());
+      }
+    }
+
+    private void record(long value) {
+      synchronized (TimeSeriesStore.this) {
+        long index = currentIndex();
+        clearSkipped(index);
+        if (longs != null) {
+          longs[slot(index)] = value;
+        } else {
+          doubles[slot(index)] = value;
+        }
+        written = index + 1;
+      }
+    }
+
+    @Override public void record(double value) {
+      synchronized (TimeSeriesStore.this) {
+        long index = currentIndex();
+        clearSkipped(index);
+        if (longs != null) {
+          doubles = new double[capacity];
+          for (int i = 0; i < capacity; i++) {
+            doubles[i] = longs[i];
+          }
+          longs = null;
+        }
+        doubles[slot(index)] = value;
+        written = index + 1;
+      }
+    }
+
+    /**
+     * Zeroes samples that were skipped since the last one recorded, as their slots hold values
+     * from a previous lap of the ring.
+     */
+    private void clearSkipped(long index) {
+      for (long i = Math.max(written, index - capacity + 1); i < index; i++) {
+        if (longs != null) {
+          longs[slot(i)] = 0;
+        } else {
+          doubles[slot(i)] = 0;
+        }
+      }
+    }
+
+    @Override public String getName() {
+      return name;
+    }
+
+    @Override public Iterable<Number> getSamples() {
+      return new Iterable<Number>() {
+        @Override public Iterator<Number> iterator() {
+          synchronized (TimeSeriesStore.this) {
+            long first = firstRetained();
+            int length = (int) (count - first);
+            if (longs != null) {
+              long[] copy = new long[length];
+              for (long i = first; i < written; i++) {
+                copy[(int) (i - first)] = longs[slot(i)];
+              }
+              return asNumbers(Longs.asList(copy)).iterator();
+            } else {
+              double[] copy = new double[length];
+              for (long i = first; i < written; i++) {
+                copy[(int) (i - first)] = doubles[slot(i)];
+              }
+              return asNumbers(Doubles.asList(copy)).iterator();
+            }
+          }
+        }
+      };
+    }
+  }
+}
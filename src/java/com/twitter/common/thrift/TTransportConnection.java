@@ -17,11 +17,18 @@
 package com.twitter.common.thrift;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.twitter.common.net.pool.Connection;
 import com.twitter.common.net.pool.ConnectionPool;
 import org.apache.thrift.transport.TTransport;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import javax.annotation.Nullable;
 
 /**
  * A {@link ConnectionPool} compatible thrift connection that can work with any valid thrift
@@ -31,12 +38,43 @@ import java.net.InetSocketAddress;
  */
 public class TTransportConnection implements Connection<TTransport, InetSocketAddress> {
 
+  /**
+   * Validates connections with {@link #isAlive()} if they are {@code TTransportConnection}s, and
+   * with {@link Connection#isValid()} otherwise.  Suitable as the validator of a maintained
+   * {@link ConnectionPool}.
+   */
+  public static final Predicate<Connection<TTransport, InetSocketAddress>> IS_ALIVE =
+      new Predicate<Connection<TTransport, InetSocketAddress>>() {
+        @Override public boolean apply(Connection<TTransport, InetSocketAddress> connection) {
+          return connection instanceof TTransportConnection
+              ? ((TTransportConnection) connection).isAlive()
+              : connection.isValid();
+        }
+      };
+
+  private static final int PROBE_TIMEOUT_MS = 1;
+
   private final TTransport transport;
   private final InetSocketAddress endpoint;
+  @Nullable private final Socket socket;
 
   public TTransportConnection(TTransport transport, InetSocketAddress endpoint) {
+    this(transport, endpoint, null);
+  }
+
+  /**
+   * Creates a connection whose liveness can be probed through the socket underlying its
+   * transport.
+   *
+   * @param transport The connection's transport.
+   * @param endpoint The endpoint the transport is connected to.
+   * @param socket The socket underlying {@code transport}, if known.
+   */
+  public TTransportConnection(TTransport transport, InetSocketAddress endpoint,
+      @Nullable Socket socket) {
     this.transport = Preconditions.checkNotNull(transport);
     this.endpoint = Preconditions.checkNotNull(endpoint);
+    this.socket = socket;
   }
 
   /**
@@ -51,6 +89,50 @@ public class TTransportConnection implements Connection<TTransport, InetSocketAd
     return transport.isOpen();
   }
 
+  /**
+   * Checks that the transport is open and, if the underlying socket is known, that the endpoint
+   * has not closed the connection.  The check briefly reads from the socket, so it must only be
+   * made on an idle connection: a connection with unread data is reported dead, since the data
+   * would otherwise be read as the reply to the next request.
+   *
+   * @return {@code true} if the connection can be used for another request.
+   */
+  public boolean isAlive() {
+    if (!isValid()) {
+      return false;
+    }
+    if (socket == null) {
+      return true;
+    }
+    if (socket.isClosed() || !socket.isConnected() || socket.isInputShutdown()) {
+      return false;
+    }
+
+    int timeoutMs;
+    try {
+      timeoutMs = socket.getSoTimeout();
+      socket.setSoTimeout(PROBE_TIMEOUT_MS);
+    } catch (SocketException e) {
+      return false;
+    }
+    try {
+      // Either end of stream, or unsolicited data.
+      socket.getInputStream().read();
+      return false;
+    } catch (SocketTimeoutException e) {
+      // Nothing to read, and the connection is open.
+      return true;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      try {
+        socket.setSoTimeout(timeoutMs);
+      } catch (SocketException e) {
+        // The read will have failed as well.
+      }
+    }
+  }
+
   @Override
   public TTransport get() {
     return transport;
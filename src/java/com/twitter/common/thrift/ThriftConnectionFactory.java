@@ -35,11 +35,13 @@ import org.apache.thrift.transport.TTransportException;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.Nullable;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
@@ -284,13 +286,37 @@ public class ThriftConnectionFactory
     }
 
     Connection<TTransport, InetSocketAddress> connection =
-        new TTransportConnection(transport, endpoint);
+        new TTransportConnection(transport, endpoint, getSocket(transport));
     postCreateCallback.execute(connection);
     activeConnections.add(connection);
     lastActiveConnectionsSize = activeConnections.size();
     return connection;
   }
 
+  @Nullable
+  private static Socket getSocket(TTransport transport) {
+    if (transport instanceof TSocket) {
+      return ((TSocket) transport).getSocket();
+    } else if (transport instanceof SocketFramedTransport) {
+      return ((SocketFramedTransport) transport).socket.getSocket();
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * A framed transport that keeps its socket, which {@link TFramedTransport} does not expose, so
+   * that the connection's liveness can be probed.
+   */
+  private static class SocketFramedTransport extends TFramedTransport {
+    private final TSocket socket;
+
+    SocketFramedTransport(TSocket socket) {
+      super(socket);
+      this.socket = socket;
+    }
+  }
+
   private boolean willCreateSafe() {
     return activeConnections.size() < maxConnections;
   }
@@ -321,7 +347,7 @@ public class ThriftConnectionFactory
           setSocketTimeout(socket);
           return socket;
         case FRAMED:
-          TFramedTransport transport = new TFramedTransport(socket);
+          TFramedTransport transport = new SocketFramedTransport(socket);
           transport.open();
           setSocketTimeout(socket);
           return transport;
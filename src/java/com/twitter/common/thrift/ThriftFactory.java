@@ -23,8 +23,10 @@ import java.net.InetSocketAddress;
 import java.util.Collection;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -63,6 +65,7 @@ import com.twitter.common.net.pool.Connection;
 import com.twitter.common.net.pool.ConnectionPool;
 import com.twitter.common.net.pool.DynamicHostSet;
 import com.twitter.common.net.pool.DynamicPool;
+import com.twitter.common.net.pool.MaintenancePolicy;
 import com.twitter.common.net.pool.MetaPool;
 import com.twitter.common.net.pool.ObjectPool;
 import com.twitter.common.quantity.Amount;
@@ -125,6 +128,9 @@ public class ThriftFactory<T> {
   private Optional<String> endpointName = Optional.absent();
   private String serviceName;
   private boolean sslTransport;
+  private MaintenancePolicy maintenancePolicy;
+  // Shared by the pools of every endpoint, created with the first maintained pool if not given.
+  private ScheduledExecutorService maintenanceExecutor;
 
   public static <T> ThriftFactory<T> create(Class<T> serviceInterface) {
     return new ThriftFactory<T>(serviceInterface);
@@ -380,8 +386,23 @@ public class ThriftFactory<T> {
         backend, maxConnectionsPerEndpoint, TransportType.get(framedTransport, nonblocking),
         socketTimeout, postCreateCallback, sslTransport);
 
+    if (maintenancePolicy == null) {
+      return new ConnectionPool<Connection<TTransport, InetSocketAddress>>(connectionFactory,
+          statsProvider);
+    }
     return new ConnectionPool<Connection<TTransport, InetSocketAddress>>(connectionFactory,
-        statsProvider);
+        statsProvider, maintenancePolicy, TTransportConnection.IS_ALIVE, getMaintenanceExecutor());
+  }
+
+  private synchronized ScheduledExecutorService getMaintenanceExecutor() {
+    if (maintenanceExecutor == null) {
+      maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("ThriftFactory-" + serviceName + "-maintenance")
+              .setDaemon(true)
+              .build());
+    }
+    return maintenanceExecutor;
   }
 
   @VisibleForTesting
@@ -409,6 +430,39 @@ public class ThriftFactory<T> {
     return this;
   }
 
+  /**
+   * Specifies that the connection pool of each endpoint should be maintained in the background
+   * according to a policy, evicting idle connections that are stale or whose endpoint closed them,
+   * and creating connections ahead of demand.  Idle connections are checked with
+   * {@link TTransportConnection#isAlive()}.  By default pools are not maintained.  The pools
+   * share a single maintenance thread, started when the first maintained pool is created.
+   *
+   * @param maintenancePolicy Sizing and eviction policy of the connection pools.
+   * @return A reference to the factory.
+   */
+  public ThriftFactory<T> withMaintenancePolicy(MaintenancePolicy maintenancePolicy) {
+    this.maintenancePolicy = Preconditions.checkNotNull(maintenancePolicy);
+
+    return this;
+  }
+
+  /**
+   * Like {@link #withMaintenancePolicy(MaintenancePolicy)}, but runs the maintenance of the
+   * connection pools on {@code maintenanceExecutor}, which may be shared with other factories.
+   * The executor is not shut down when the pools are closed.
+   *
+   * @param maintenancePolicy Sizing and eviction policy of the connection pools.
+   * @param maintenanceExecutor Executor to schedule maintenance passes on.
+   * @return A reference to the factory.
+   */
+  public ThriftFactory<T> withMaintenancePolicy(MaintenancePolicy maintenancePolicy,
+      ScheduledExecutorService maintenanceExecutor) {
+    this.maintenancePolicy = Preconditions.checkNotNull(maintenancePolicy);
+    this.maintenanceExecutor = Preconditions.checkNotNull(maintenanceExecutor);
+
+    return this;
+  }
+
   /**
    * Specifies the interval at which dead endpoint connections should be checked and revived.
    *
@@ -231,6 +231,18 @@ public class BackoffDecider {
     return preventRequest;
   }
 
+  /**
+   * Returns the time remaining until this decider's backoff period expires.  Unlike
+   * {@link #shouldBackOff()}, this does not transition the decider out of an expired state.
+   *
+   * @return the remaining backoff time in nanoseconds, or zero if the decider is not in its
+   *     backoff period.
+   */
+  public synchronized long getBackoffRemainingNs() {
+    return stateMachine.getState() == State.BACKOFF
+        ? Math.max(stateMachine.getStateRemainingNs(), 0) : 0;
+  }
+
   private boolean allOthersBackingOff() {
     // Search for another decider that is not backing off.
     for (BackoffDecider decider : deciderGroup) {
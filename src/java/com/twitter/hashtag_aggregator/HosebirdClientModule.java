@@ -1,10 +1,9 @@
 package com.twitter.hashtag_aggregator;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 
-import com.google.common.collect.ImmutableList;
 import com.google.inject.Exposed;
 import com.google.inject.PrivateModule;
 import com.google.inject.Provides;
@@ -13,27 +12,18 @@ import com.google.inject.Singleton;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
 import com.twitter.common.args.constraints.Positive;
+import com.twitter.common.args.constraints.Range;
 import com.twitter.common.stats.SampledStat;
 import com.twitter.common.stats.Stats;
 import com.twitter.hbc.core.Client;
-import com.twitter.hbc.twitter4j.Twitter4jStatusClient;
-
-import twitter4j.StatusListener;
 
 /**
- * Guice binding Module for the hashtag aggregator.
- *
- * Required bindings:
- *
- * <ul>
- *   <li>{@link Client}</li>
- * </ul>
+ * Guice binding Module for the queue that a hosebird {@link Client} delivers raw messages to.
  *
  * Exposed bindings:
  *
  * <ul>
  *   <li>{@code BlockingQueue&lt;String&gt;}</li>
- *   <li>{@link Twitter4jStatusClient}</li>
  * </ul>
  */
 public class HosebirdClientModule extends PrivateModule {
@@ -41,16 +31,41 @@ public class HosebirdClientModule extends PrivateModule {
   @Positive
   private static final Arg<Integer> MSG_QUEUE_DEPTH = Arg.create(100000);
 
+  /**
+   * Implementations of the message queue.
+   */
+  public enum MsgQueueType {
+    /** {@link LinkedBlockingQueue}, which allocates a node per message. */
+    LINKED,
+    /** {@link ArrayBlockingQueue}, which is preallocated but takes a single lock. */
+    ARRAY,
+    /**
+     * {@link RingBufferQueue}, which is preallocated and lock-free unless empty or full, but only
+     * supports a single producer.
+     */
+    RING
+  }
+
+  @CmdLine(name = "msg_queue_type", help = "Implementation of the message queue.")
+  private static final Arg<MsgQueueType> MSG_QUEUE_TYPE = Arg.create(MsgQueueType.LINKED);
+
+  @CmdLine(name = "msg_queue_stats_sample_percent",
+      help = "Percent of message queue operations whose latency and fill level are recorded.")
+  @Range(lower = 0, upper = 100)
+  private static final Arg<Float> MSG_QUEUE_STATS_SAMPLE_PERCENT = Arg.create(1f);
+
   @Override
   protected void configure() {
-    requireBinding(Client.class);
+    // everything is bound by the provider methods below
   }
 
   @Provides
   @Exposed
   @Singleton
   BlockingQueue<String> providesMsgQueue() {
-    final BlockingQueue<String> queue = new LinkedBlockingQueue<String>(MSG_QUEUE_DEPTH.get());
+    final BlockingQueue<String> queue = new InstrumentedBlockingQueue<String>("msg_queue",
+        createMsgQueue(MSG_QUEUE_TYPE.get(), MSG_QUEUE_DEPTH.get()),
+        MSG_QUEUE_STATS_SAMPLE_PERCENT.get());
     Stats.export(new SampledStat<Integer>("msg_queue_depth", 0) {
       @Override public Integer doSample() {
         return queue.size();
@@ -60,15 +75,14 @@ public class HosebirdClientModule extends PrivateModule {
     return queue;
   }
 
-  @Provides
-  @Exposed
-  @Singleton
-  Twitter4jStatusClient providesTwitter4jClient(
-      Client client,
-      BlockingQueue<String> msgQueue,
-      StatusListener statusListener,
-      ExecutorService executorService) {
-    return new Twitter4jStatusClient(client, msgQueue, ImmutableList.of(statusListener),
-        executorService);
+  private static BlockingQueue<String> createMsgQueue(MsgQueueType type, int depth) {
+    switch (type) {
+      case ARRAY:
+        return new ArrayBlockingQueue<String>(depth);
+      case RING:
+        return new RingBufferQueue<String>(depth);
+      default:
+        return new LinkedBlockingQueue<String>(depth);
+    }
   }
 }
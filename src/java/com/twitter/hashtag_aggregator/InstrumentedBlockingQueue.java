@@ -0,0 +1,147 @@
+package com.twitter.hashtag_aggregator;
+
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ForwardingBlockingQueue;
+
+import com.twitter.common.stats.Percentile;
+import com.twitter.common.util.Sampler;
+
+/**
+ * {@link BlockingQueue} decorator that exports how long enqueueing and dequeueing take, including
+ * time spent blocked on a full or empty queue, and how full the queue is as elements are
+ * enqueued.
+ *
+ * <p>For a queue named {@code name}, the exported percentiles are
+ * {@code <name>_enqueue_nanos}, {@code <name>_dequeue_nanos} and {@code <name>_fill_percent}.
+ *
+ * @param <E> the type of elements held in this queue.
+ */
+class InstrumentedBlockingQueue<E> extends ForwardingBlockingQueue<E> {
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  private final BlockingQueue<E> delegate;
+  private final int capacity;
+  private final Sampler sampler;
+  private final Percentile<Long> enqueueNanos;
+  private final Percentile<Long> dequeueNanos;
+  private final Percentile<Integer> fillPercent;
+
+  /**
+   * Instruments a queue.
+   *
+   * @param name prefix of the exported stats.
+   * @param delegate queue to instrument; must be empty.
+   * @param samplePercent percent of operations to record [0, 100].
+   */
+  InstrumentedBlockingQueue(String name, BlockingQueue<E> delegate, float samplePercent) {
+    this.delegate = Preconditions.checkNotNull(delegate);
+    Preconditions.checkArgument(delegate.isEmpty(), "delegate must be empty!");
+    capacity = delegate.remainingCapacity();
+
+    // sampled here rather than by the trackers, so that unsampled operations are not timed
+    sampler = new Sampler(samplePercent);
+    enqueueNanos = new Percentile<Long>(name + "_enqueue_nanos", null, PERCENTILES);
+    dequeueNanos = new Percentile<Long>(name + "_dequeue_nanos", null, PERCENTILES);
+    fillPercent = new Percentile<Integer>(name + "_fill_percent", null, PERCENTILES);
+  }
+
+  @Override
+  protected BlockingQueue<E> delegate() {
+    return delegate;
+  }
+
+  @Override
+  public boolean offer(E e) {
+    long start = startTiming();
+    boolean offered = delegate.offer(e);
+    enqueued(start);
+    return offered;
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+    long start = startTiming();
+    boolean offered = delegate.offer(e, timeout, unit);
+    enqueued(start);
+    return offered;
+  }
+
+  @Override
+  public boolean add(E e) {
+    long start = startTiming();
+    boolean added = delegate.add(e);
+    enqueued(start);
+    return added;
+  }
+
+  @Override
+  public void put(E e) throws InterruptedException {
+    long start = startTiming();
+    delegate.put(e);
+    enqueued(start);
+  }
+
+  @Override
+  public E poll() {
+    long start = startTiming();
+    E e = delegate.poll();
+    dequeued(start);
+    return e;
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long start = startTiming();
+    E e = delegate.poll(timeout, unit);
+    dequeued(start);
+    return e;
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    long start = startTiming();
+    E e = delegate.take();
+    dequeued(start);
+    return e;
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    long start = startTiming();
+    int drained = delegate.drainTo(c);
+    dequeued(start);
+    return drained;
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    long start = startTiming();
+    int drained = delegate.drainTo(c, maxElements);
+    dequeued(start);
+    return drained;
+  }
+
+  /**
+   * Returns the start time of a sampled operation, or -1 if the operation is not sampled.
+   */
+  private long startTiming() {
+    return sampler.select() ? System.nanoTime() : -1;
+  }
+
+  private void enqueued(long startNanos) {
+    if (startNanos != -1) {
+      enqueueNanos.record(System.nanoTime() - startNanos);
+      fillPercent.record(capacity == 0 ? 100 : (int) (100L * delegate.size() / capacity));
+    }
+  }
+
+  private void dequeued(long startNanos) {
+    if (startNanos != -1) {
+      dequeueNanos.record(System.nanoTime() - startNanos);
+    }
+  }
+}
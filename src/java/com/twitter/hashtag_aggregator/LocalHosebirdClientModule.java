@@ -12,6 +12,8 @@ import com.google.inject.TypeLiteral;
 
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
+import com.twitter.common.args.constraints.NotNegative;
+import com.twitter.common.args.constraints.Positive;
 import com.twitter.hbc.core.Client;
 
 /**
@@ -32,9 +34,17 @@ import com.twitter.hbc.core.Client;
 public class LocalHosebirdClientModule extends AbstractModule {
   private final File snapshotFile;
 
-  @CmdLine(name = "snapshot_replay_tps", help = "velocity for snapshot replay in tweets per sec.")
+  @CmdLine(name = "snapshot_replay_tps",
+      help = "velocity for snapshot replay in tweets per sec, or 0 to replay as fast as possible.")
+  @NotNegative
   private static final Arg<Integer> SNAPSHOT_REPLAY_TPS = Arg.create(1000);
 
+  @CmdLine(name = "snapshot_replay_batch_size",
+      help = "number of tweets decompressed ahead of replay at a time.")
+  @Positive
+  private static final Arg<Integer> SNAPSHOT_REPLAY_BATCH_SIZE =
+      Arg.create(ReplaySnapshotClient.DEFAULT_BATCH_SIZE);
+
   public LocalHosebirdClientModule(File snapshotFile) {
     this.snapshotFile = snapshotFile;
   }
@@ -47,6 +57,7 @@ public class LocalHosebirdClientModule extends AbstractModule {
   @Provides
   @Singleton
   Client providesClient(BlockingQueue<String> msgQueue) {
-    return new ReplaySnapshotClient(snapshotFile, SNAPSHOT_REPLAY_TPS.get(), msgQueue);
+    return new ReplaySnapshotClient(snapshotFile, SNAPSHOT_REPLAY_TPS.get(),
+        SNAPSHOT_REPLAY_BATCH_SIZE.get(), msgQueue);
   }
 }
@@ -17,27 +17,26 @@ import com.twitter.common.application.modules.StatsModule;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
 import com.twitter.common.args.constraints.Exists;
-import com.twitter.common.args.constraints.Positive;
 import com.twitter.common.base.Command;
 import com.twitter.common.webassets.bootstrap.BootstrapModule;
 import com.twitter.common.webassets.jquery.JQueryModule;
 import com.twitter.hashtag_aggregator.api.ApiModule;
 import com.twitter.hashtag_aggregator.model.ModelModule;
+import com.twitter.hashtag_aggregator.model.StatusPipeline;
 import com.twitter.hashtag_aggregator.text.TextModule;
-import com.twitter.hbc.twitter4j.Twitter4jStatusClient;
+import com.twitter.hbc.core.Client;
 
 public class Main extends AbstractApplication {
 
-  @CmdLine(name = "num_model_updater_threads", help = "Number of model updater threads to spawn.")
-  @Positive
-  private static final Arg<Integer> NUM_MODEL_UPDATER_THREADS = Arg.create(1);
-
   @CmdLine(name = "replay_snapshot_file", help = "If set, replay from snapshot file.")
   @Exists
   private static final Arg<File> REPLAY_SNAPSHOT_FILE = Arg.create();
 
   @Inject
-  private Twitter4jStatusClient twitter4jClient;
+  private Client client;
+
+  @Inject
+  private StatusPipeline statusPipeline;
 
   @Inject
   private Lifecycle lifecycle;
@@ -53,7 +52,7 @@ public class Main extends AbstractApplication {
         new HttpModule(),
         new TextModule(),
         new HosebirdClientModule(),
-        new ModelModule(NUM_MODEL_UPDATER_THREADS.get()),
+        new ModelModule(),
         new ApiModule(),
         new BootstrapModule(),
         new JQueryModule()
@@ -70,20 +69,18 @@ public class Main extends AbstractApplication {
 
   @Override
   public void run() {
-    twitter4jClient.connect();
-
-    for (int i = 0; i < NUM_MODEL_UPDATER_THREADS.get(); i++) {
-      twitter4jClient.process();
-    }
+    client.connect();
+    statusPipeline.start();
 
     shutdownRegistry.addAction(new Command() {
       @Override public void execute() throws RuntimeException {
-        twitter4jClient.stop();
+        client.stop();
+        statusPipeline.stop();
       }
     });
 
     if (REPLAY_SNAPSHOT_FILE.hasAppliedValue()) {
-      while (!twitter4jClient.isDone()) {
+      while (!client.isDone()) {
         try {
           Thread.sleep(1000);
         } catch (InterruptedException e) {
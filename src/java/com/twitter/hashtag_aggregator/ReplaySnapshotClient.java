@@ -1,16 +1,26 @@
 package com.twitter.hashtag_aggregator;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import com.twitter.common.stats.Rate;
+import com.twitter.common.stats.Stats;
+import com.twitter.common.util.Clock;
 import com.twitter.hbc.SitestreamController;
 import com.twitter.hbc.core.Client;
 import com.twitter.hbc.core.StatsReporter;
@@ -18,34 +28,78 @@ import com.twitter.hbc.core.endpoint.StreamingEndpoint;
 
 /**
  * Hosebird {@link Client} that replays a local snapshot file.
+ *
+ * <p>Replay runs in two stages: a decompressor thread inflates the gzipped snapshot through large
+ * buffers and splits it into batches of lines, and an emitter thread paces those lines into the
+ * message queue with a {@link TokenBucket}, so replay rates from 1 to millions of tweets per
+ * second are held on average.  With a replay rate of 0, tweets are emitted as fast as the message
+ * queue accepts them.  Tweets are never dropped; a full message queue blocks replay.
  */
 public class ReplaySnapshotClient implements Client {
   private static final Logger LOG = Logger.getLogger(ReplaySnapshotClient.class.getName());
 
+  /**
+   * Default number of tweets handed from the decompressor to the emitter at a time.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 1024;
+
+  private static final int READ_BUFFER_BYTES = 1 << 20;
+  private static final int BATCHES_IN_FLIGHT = 4;
+
+  /**
+   * Marks the end of the snapshot in {@code batches}.
+   */
+  private static final String[] END_OF_SNAPSHOT = new String[0];
+
   private final File snapshotFile;
-  private final int delayMillis;
+  private final int replayTPS;
+  private final int batchSize;
   private final BlockingQueue<String> msgQueue;
-  private final ReplayClientBase replayClientBase;
-  private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+  private final BlockingQueue<String[]> batches =
+      new ArrayBlockingQueue<String[]>(BATCHES_IN_FLIGHT);
+  private final ExecutorService executorService = Executors.newFixedThreadPool(2);
+  private final AtomicLong tweetsReplayed = Stats.exportLong("replay_tweets");
   private volatile boolean isDone = false;
 
   /**
    * Constructs a ReplaySnapshotClient.
    *
    * @param snapshotFile snapshot file to replay.
-   * @param replayTPS velocity of replay in tweets per second.
+   * @param replayTPS velocity of replay in tweets per second, or 0 to replay as fast as possible.
    * @param msgQueue hosebird message queue that will be populated.
    */
   public ReplaySnapshotClient(File snapshotFile, int replayTPS,  BlockingQueue<String> msgQueue) {
-    this.snapshotFile = snapshotFile;
-    delayMillis = 1000 / replayTPS;
-    this.msgQueue = msgQueue;
-    replayClientBase = new ReplayClientBase();
+    this(snapshotFile, replayTPS, DEFAULT_BATCH_SIZE, msgQueue);
+  }
+
+  /**
+   * Constructs a ReplaySnapshotClient.
+   *
+   * @param snapshotFile snapshot file to replay.
+   * @param replayTPS velocity of replay in tweets per second, or 0 to replay as fast as possible.
+   * @param batchSize number of tweets handed from the decompressor to the emitter at a time.
+   * @param msgQueue hosebird message queue that will be populated.
+   */
+  public ReplaySnapshotClient(
+      File snapshotFile,
+      int replayTPS,
+      int batchSize,
+      BlockingQueue<String> msgQueue) {
+
+    Preconditions.checkArgument(replayTPS >= 0, "replayTPS must not be negative!");
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive!");
+
+    this.snapshotFile = Preconditions.checkNotNull(snapshotFile);
+    this.replayTPS = replayTPS;
+    this.batchSize = batchSize;
+    this.msgQueue = Preconditions.checkNotNull(msgQueue);
+    Stats.export(Rate.of("replay_tweets_per_sec", tweetsReplayed).build());
   }
 
   @Override
   public void connect() {
-    executorService.execute(replayClientBase);
+    executorService.execute(new Decompressor());
+    executorService.execute(new Emitter());
   }
 
   @Override
@@ -55,7 +109,7 @@ public class ReplaySnapshotClient implements Client {
 
   @Override
   public void stop() {
-    executorService.shutdown();
+    executorService.shutdownNow();
   }
 
   @Override
@@ -88,25 +142,136 @@ public class ReplaySnapshotClient implements Client {
     throw new UnsupportedOperationException();
   }
 
-  class ReplayClientBase implements Runnable {
+  /**
+   * Inflates the snapshot and splits it into batches of lines for the {@link Emitter}.
+   */
+  class Decompressor implements Runnable {
+    private String[] batch = new String[batchSize];
+    private int batchLength = 0;
+
     public void run() {
       LOG.info("Started replaying snapshot file: " + snapshotFile);
 
+      InputStream in = null;
       try {
-        BufferedReader br = new BufferedReader(new InputStreamReader(
-            new GZIPInputStream(new FileInputStream(snapshotFile))));
-        String line;
-        while ((line = br.readLine()) != null) {
-          msgQueue.offer(line);
+        // assigned stream by stream, so that the file is closed if the gzip header is unreadable
+        in = new FileInputStream(snapshotFile);
+        in = new GZIPInputStream(
+            Channels.newInputStream(((FileInputStream) in).getChannel()), READ_BUFFER_BYTES);
+        splitLines(in);
+      } catch (IOException e) {
+        LOG.severe("Caught IOException consuming next tweet: " + e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        if (in != null) {
           try {
-            Thread.sleep(delayMillis);
-          } catch (InterruptedException e) {
-            LOG.severe("Interrupted while waiting for next tweet!");
-            Thread.currentThread().interrupt();
+            in.close();
+          } catch (IOException e) {
+            LOG.warning("Failed to close snapshot file " + snapshotFile + ": " + e.getMessage());
           }
         }
-      } catch (IOException e) {
-        LOG.severe("Caught IOException consuming next tweet: " + e.getMessage());
+      }
+
+      try {
+        if (batchLength > 0) {
+          batches.put(Arrays.copyOf(batch, batchLength));
+        }
+        batches.put(END_OF_SNAPSHOT);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void splitLines(InputStream in) throws IOException, InterruptedException {
+      byte[] buffer = new byte[READ_BUFFER_BYTES];
+
+      // holds the start of a line that spans reads
+      byte[] partial = new byte[4096];
+      int partialLength = 0;
+
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        int start = 0;
+        for (int i = 0; i < read; i++) {
+          if (buffer[i] == '\n') {
+            if (partialLength == 0) {
+              addLine(buffer, start, i - start);
+            } else {
+              partial = append(partial, partialLength, buffer, start, i - start);
+              addLine(partial, 0, partialLength + i - start);
+              partialLength = 0;
+            }
+            start = i + 1;
+          }
+        }
+        partial = append(partial, partialLength, buffer, start, read - start);
+        partialLength += read - start;
+      }
+      if (partialLength > 0) {
+        addLine(partial, 0, partialLength);
+      }
+    }
+
+    private byte[] append(byte[] dest, int destLength, byte[] src, int offset, int length) {
+      byte[] result = dest;
+      if (destLength + length > dest.length) {
+        result = Arrays.copyOf(dest, Math.max(dest.length * 2, destLength + length));
+      }
+      System.arraycopy(src, offset, result, destLength, length);
+      return result;
+    }
+
+    private void addLine(byte[] bytes, int offset, int length) throws InterruptedException {
+      // drop the carriage return of a CRLF line ending, as BufferedReader.readLine() would
+      int lineLength = length > 0 && bytes[offset + length - 1] == '\r' ? length - 1 : length;
+      batch[batchLength++] = new String(bytes, offset, lineLength, Charsets.UTF_8);
+      if (batchLength == batch.length) {
+        batches.put(batch);
+        batch = new String[batchSize];
+        batchLength = 0;
+      }
+    }
+  }
+
+  /**
+   * Paces batches of tweets from the {@link Decompressor} into the message queue.
+   */
+  class Emitter implements Runnable {
+    public void run() {
+      // let up to 100ms worth of tweets catch up after a stall, but at least a batch
+      TokenBucket tokenBucket = replayTPS > 0
+          ? new TokenBucket(replayTPS, Math.max(batchSize, replayTPS / 10), Clock.SYSTEM_CLOCK)
+          : null;
+      long startNanos = System.nanoTime();
+      long replayed = 0;
+
+      try {
+        String[] batch;
+        while ((batch = batches.take()) != END_OF_SNAPSHOT) {
+          for (String line : batch) {
+            if (tokenBucket != null) {
+              long waitNanos = tokenBucket.acquire(1);
+              if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+                if (Thread.interrupted()) {
+                  throw new InterruptedException();
+                }
+              }
+            }
+            msgQueue.put(line);
+          }
+          replayed += batch.length;
+          tweetsReplayed.addAndGet(batch.length);
+        }
+
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+        LOG.info(String.format("Finished replaying %d tweets in %d ms (%.0f tweets/sec)",
+            replayed, elapsedNanos / 1000000, replayed * 1e9 / elapsedNanos));
+      } catch (InterruptedException e) {
+        LOG.severe("Interrupted while waiting for next tweet!");
+        Thread.currentThread().interrupt();
       } finally {
         isDone = true;
       }
@@ -0,0 +1,297 @@
+package com.twitter.hashtag_aggregator;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+/**
+ * Bounded {@link BlockingQueue} backed by a preallocated ring buffer, for a single producer
+ * thread feeding any number of consumer threads.
+ *
+ * <p>Each slot carries a sequence number that tells consumers whether the slot holds the element
+ * for a given position and tells the producer whether the slot has been released since, so the
+ * producer never contends with consumers and consumers only contend with each other on a single
+ * CAS.  {@link #drainTo(Collection, int)} claims a whole run of elements with one CAS, and
+ * enqueueing does not allocate.  Threads only block, on a lock, once the queue is empty or full.
+ *
+ * <p>Insertion operations must only ever be called from one thread at a time.  Iteration is
+ * weakly consistent and removal of arbitrary elements is not supported.
+ *
+ * @param <E> the type of elements held in this queue.
+ */
+class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+  private final int capacity;
+  private final int mask;
+
+  /**
+   * The slot for position {@code p} is at index {@code p & mask}.  Its sequence number is
+   * {@code p} while the slot is free for the producer to write position {@code p}, {@code p + 1}
+   * once position {@code p} is published, and {@code p + capacity} once a consumer has taken it.
+   */
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+
+  /**
+   * Next position to take; claimed by consumers with a CAS.
+   */
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * Next position to put; only written by the producer.
+   */
+  private volatile long tail = 0;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final AtomicInteger waitingConsumers = new AtomicInteger();
+  private final AtomicInteger waitingProducers = new AtomicInteger();
+
+  /**
+   * Creates a ring buffer queue.
+   *
+   * @param minCapacity minimum capacity of the queue, rounded up to a power of two.
+   */
+  RingBufferQueue(int minCapacity) {
+    Preconditions.checkArgument(minCapacity > 0, "minCapacity must be positive!");
+    Preconditions.checkArgument(minCapacity <= 1 << 30, "minCapacity is too large!");
+
+    // at least 2, so that a published slot is never mistaken for a released one
+    int size = 2;
+    while (size < minCapacity) {
+      size <<= 1;
+    }
+    capacity = size;
+    mask = size - 1;
+
+    elements = new AtomicReferenceArray<E>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  @Override
+  public boolean offer(E e) {
+    Preconditions.checkNotNull(e);
+
+    long position = tail;
+    int index = (int) position & mask;
+    if (sequences.get(index) != position) {
+      // the consumer of the previous lap has not released the slot yet
+      return false;
+    }
+    elements.lazySet(index, e);
+    sequences.set(index, position + 1);
+    tail = position + 1;
+
+    if (waitingConsumers.get() > 0) {
+      signal(notEmpty);
+    }
+    return true;
+  }
+
+  @Override
+  public void put(E e) throws InterruptedException {
+    if (offer(e)) {
+      return;
+    }
+
+    lock.lockInterruptibly();
+    waitingProducers.incrementAndGet();
+    try {
+      while (!offer(e)) {
+        notFull.await();
+      }
+    } finally {
+      waitingProducers.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+    if (offer(e)) {
+      return true;
+    }
+
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    waitingProducers.incrementAndGet();
+    try {
+      while (!offer(e)) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = notFull.awaitNanos(nanos);
+      }
+      return true;
+    } finally {
+      waitingProducers.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public E poll() {
+    while (true) {
+      long position = head.get();
+      int index = (int) position & mask;
+      long sequence = sequences.get(index);
+      if (sequence < position + 1) {
+        return null;
+      }
+      if (sequence == position + 1 && head.compareAndSet(position, position + 1)) {
+        E e = release(position);
+        if (waitingProducers.get() > 0) {
+          signal(notFull);
+        }
+        return e;
+      }
+      // another consumer took this position first
+    }
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    E e = poll();
+    if (e != null) {
+      return e;
+    }
+
+    lock.lockInterruptibly();
+    waitingConsumers.incrementAndGet();
+    try {
+      while ((e = poll()) == null) {
+        notEmpty.await();
+      }
+      return e;
+    } finally {
+      waitingConsumers.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    E e = poll();
+    if (e != null) {
+      return e;
+    }
+
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    waitingConsumers.incrementAndGet();
+    try {
+      while ((e = poll()) == null) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return e;
+    } finally {
+      waitingConsumers.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public E peek() {
+    long position = head.get();
+    int index = (int) position & mask;
+    return sequences.get(index) == position + 1 ? elements.get(index) : null;
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    Preconditions.checkNotNull(c);
+    Preconditions.checkArgument(c != this, "Cannot drain a queue into itself");
+
+    while (true) {
+      long position = head.get();
+      int n = 0;
+      while (n < maxElements && n < capacity
+          && sequences.get((int) (position + n) & mask) == position + n + 1) {
+        n++;
+      }
+      if (n == 0) {
+        return 0;
+      }
+      if (head.compareAndSet(position, position + n)) {
+        for (int i = 0; i < n; i++) {
+          c.add(release(position + i));
+        }
+        if (waitingProducers.get() > 0) {
+          signal(notFull);
+        }
+        return n;
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    // read head first, so that a concurrent take cannot make the difference negative
+    long position = head.get();
+    long size = tail - position;
+    return (int) Math.max(0, Math.min(size, capacity));
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return capacity - size();
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    List<E> snapshot = Lists.newArrayList();
+    long end = tail;
+    for (long position = head.get(); position < end; position++) {
+      int index = (int) position & mask;
+      E e = elements.get(index);
+      if (e != null && sequences.get(index) == position + 1) {
+        snapshot.add(e);
+      }
+    }
+    return Iterators.unmodifiableIterator(snapshot.iterator());
+  }
+
+  /**
+   * Reads a claimed position and releases its slot to the producer.
+   */
+  private E release(long position) {
+    int index = (int) position & mask;
+    E e = elements.get(index);
+    elements.lazySet(index, null);
+    sequences.set(index, position + capacity);
+    return e;
+  }
+
+  private void signal(Condition condition) {
+    lock.lock();
+    try {
+      condition.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.twitter.hashtag_aggregator;
+
+import com.google.common.base.Preconditions;
+
+import com.twitter.common.util.Clock;
+
+/**
+ * Token bucket that paces events to a fixed rate with nanosecond resolution.
+ *
+ * <p>Tokens are issued against absolute deadlines rather than fixed sleeps, so a caller that
+ * oversleeps catches up on its next acquisitions and the long-run rate holds even when the
+ * requested interval between events is far below the resolution of the sleep it uses.  Tokens
+ * left unclaimed while the caller is idle or blocked accumulate up to {@code maxBurst}.
+ *
+ * <p>Not thread-safe.
+ */
+class TokenBucket {
+  private final Clock clock;
+  private final double nanosPerToken;
+  private final double maxBurstNanos;
+  private final long startNanos;
+
+  /**
+   * Time, in nanos since {@code startNanos}, at which the next token becomes available.
+   */
+  private double nextTokenNanos = 0;
+
+  /**
+   * Creates a token bucket.
+   *
+   * @param tokensPerSecond rate at which tokens are issued.
+   * @param maxBurst max number of tokens that may accumulate while unclaimed.
+   * @param clock clock to pace against.
+   */
+  TokenBucket(double tokensPerSecond, int maxBurst, Clock clock) {
+    Preconditions.checkArgument(tokensPerSecond > 0, "tokensPerSecond must be positive!");
+    Preconditions.checkArgument(maxBurst >= 0, "maxBurst must not be negative!");
+
+    this.clock = Preconditions.checkNotNull(clock);
+    nanosPerToken = 1e9 / tokensPerSecond;
+    maxBurstNanos = maxBurst * nanosPerToken;
+    startNanos = clock.nowNanos();
+  }
+
+  /**
+   * Claims {@code tokens} tokens.
+   *
+   * @param tokens number of tokens to claim.
+   * @return nanos the caller must wait before proceeding, or 0 to proceed immediately.
+   */
+  long acquire(int tokens) {
+    double now = clock.nowNanos() - startNanos;
+    nextTokenNanos = Math.max(nextTokenNanos, now - maxBurstNanos);
+    double waitNanos = nextTokenNanos - now;
+    nextTokenNanos += tokens * nanosPerToken;
+    return waitNanos > 0 ? (long) Math.ceil(waitNanos) : 0;
+  }
+}
@@ -1,16 +1,22 @@
 package com.twitter.hashtag_aggregator.api;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
 
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 
 import com.twitter.hashtag_aggregator.model.Model;
+import com.twitter.hashtag_aggregator.model.TrendModel;
 
 /**
  * REST API for the hashtag aggregator.
@@ -19,10 +25,12 @@ import com.twitter.hashtag_aggregator.model.Model;
 @Produces("application/json; charset=UTF-8")
 public class Api {
   private final Model model;
+  private final TrendModel trendModel;
 
   @Inject
-  Api(Model model) {
+  Api(Model model, TrendModel trendModel) {
     this.model = model;
+    this.trendModel = trendModel;
   }
 
   @GET
@@ -30,4 +38,32 @@ public class Api {
   public List<Model.Hashtag> model(@DefaultValue("100") @QueryParam("count") int count) {
     return model.query(count);
   }
+
+  /**
+   * Returns the top trending Hashtags in every window, keyed by window name.
+   */
+  @GET
+  @Path("/trends.json")
+  public Map<String, List<TrendModel.Trend>> trends(
+      @DefaultValue("100") @QueryParam("count") int count) {
+    Map<String, List<TrendModel.Trend>> trends = Maps.newLinkedHashMap();
+    for (String window : trendModel.windows()) {
+      trends.put(window, trendModel.query(window, count));
+    }
+    return trends;
+  }
+
+  /**
+   * Returns the top trending Hashtags in one window, such as {@code 15m}.
+   */
+  @GET
+  @Path("/trends/{window}.json")
+  public List<TrendModel.Trend> trends(
+      @PathParam("window") String window,
+      @DefaultValue("100") @QueryParam("count") int count) {
+    if (!trendModel.windows().contains(window)) {
+      throw new WebApplicationException(Response.Status.NOT_FOUND);
+    }
+    return trendModel.query(window, count);
+  }
 }
@@ -0,0 +1,107 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * {@link HashtagDictionary} that holds at most a fixed number of Hashtags, for models whose memory
+ * must not grow with the number of distinct Hashtags observed.
+ *
+ * <p>The id of a Hashtag is a hash of its text rather than a dense index, so a Hashtag keeps its
+ * id however long ago it was last seen, at the cost of distinct Hashtags occasionally sharing one.
+ * The text of each Hashtag is kept in a direct-mapped table slot chosen by its id, and is
+ * forgotten once a Hashtag mapping to the same slot is seen; {@link #getHashtag(int)} then
+ * returns {@code null}.  Every sighting of a Hashtag records its text again, so the text of
+ * frequently seen Hashtags stays resolvable.
+ */
+class BoundedHashtagDictionary extends HashtagDictionary {
+
+  /**
+   * Immutable, so an Entry read from the table without synchronization is always fully
+   * initialized.
+   */
+  private static class Entry {
+    private final String hashtag;
+    private final int id;
+
+    Entry(String hashtag, int id) {
+      this.hashtag = hashtag;
+      this.id = id;
+    }
+  }
+
+  /**
+   * Slots are written and read without synchronization; a stale read only costs an extra
+   * allocation in {@link #getId(CharSequence, int, int)}, or a {@code null} from
+   * {@link #getHashtag(int)} for a Hashtag that was just seen.
+   */
+  private final Entry[] table;
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * Creates a dictionary that holds the text of up to {@code maxHashtags} Hashtags.
+   *
+   * @param maxHashtags number of table slots, rounded up to a power of two.
+   */
+  BoundedHashtagDictionary(int maxHashtags) {
+    // the dense tables of the base dictionary are never used
+    super(1);
+    Preconditions.checkArgument(maxHashtags > 0, "maxHashtags must be positive!");
+    Preconditions.checkArgument(maxHashtags <= 1 << 30, "maxHashtags is too large!");
+
+    int capacity = Integer.highestOneBit(maxHashtags);
+    table = new Entry[capacity < maxHashtags ? capacity << 1 : capacity];
+  }
+
+  @Override
+  int getId(CharSequence text, int offset, int length) {
+    int id = hash(text, offset, length);
+    int slot = id & (table.length - 1);
+    Entry entry = table[slot];
+    if (entry == null || entry.id != id || !matches(entry.hashtag, text, offset, length)) {
+      if (entry == null) {
+        size.incrementAndGet();
+      }
+      table[slot] = new Entry(text.subSequence(offset, offset + length).toString(), id);
+    }
+    return id;
+  }
+
+  @Override
+  String getHashtag(int id) {
+    Entry entry = table[id & (table.length - 1)];
+    return entry != null && entry.id == id ? entry.hashtag : null;
+  }
+
+  /**
+   * Returns the number of table slots in use, which is at most the capacity of the dictionary.
+   *
+   * @return the number of Hashtags whose text the dictionary holds.
+   */
+  @Override
+  int size() {
+    return size.get();
+  }
+
+  /**
+   * FNV-1a over the characters of the Hashtag, finished with the MurmurHash3 avalanche so that
+   * the low bits used to pick a slot depend on every character.
+   *
+   * @return a non-negative hash, so that it can serve as a key of {@link CountMinSketch}.
+   */
+  private static int hash(CharSequence text, int offset, int length) {
+    Preconditions.checkPositionIndexes(offset, offset + length, text.length());
+    int h = 0x811c9dc5;
+    for (int i = offset; i < offset + length; i++) {
+      h ^= text.charAt(i);
+      h *= 0x01000193;
+    }
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h & Integer.MAX_VALUE;
+  }
+}
@@ -0,0 +1,26 @@
+package com.twitter.hashtag_aggregator.model;
+
+/**
+ * A {@link Model} whose state can be checkpointed as the Tweets in its sliding window and rebuilt
+ * by reporting them again.
+ */
+interface CheckpointableModel extends Model {
+
+  /**
+   * Returns a copy of the Tweets in the sliding window, oldest first, each tagged with its
+   * sequence number.
+   *
+   * @return copy of the window.
+   */
+  TweetRing copyWindow();
+
+  /**
+   * Reports a Tweet from a copy of the window taken by {@link #copyWindow()}, preserving its
+   * position in the window.
+   *
+   * @param sequence sequence number of the Tweet in the copied window.
+   * @param hashtagCounts packed (Hashtag id, count) pairs.
+   * @param length number of ints of {@code hashtagCounts} in use.
+   */
+  void restore(long sequence, int[] hashtagCounts, int length);
+}
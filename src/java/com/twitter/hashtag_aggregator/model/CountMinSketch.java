@@ -0,0 +1,104 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Count-Min sketch over int keys, supporting decrements as long as no key's count is driven
+ * below zero.
+ *
+ * <p>A sketch {@code width} counters wide and {@code depth} rows deep never underestimates a
+ * count, and overestimates it by at most {@code e / width} times the sum of all counts with
+ * probability at least {@code 1 - e^-depth}.  {@link #withErrorBounds(double, double)} sizes a
+ * sketch from the desired bounds.
+ *
+ * <p>Not thread-safe; callers must synchronize all access.
+ */
+class CountMinSketch {
+  /**
+   * Mersenne prime 2^31 - 1, the modulus of the row hash functions.
+   */
+  private static final long PRIME = Integer.MAX_VALUE;
+
+  private final int width;
+  private final int[][] counters;
+
+  /**
+   * Coefficients of the pairwise independent hash {@code ((a * key + b) mod PRIME) mod width} used
+   * by each row.
+   */
+  private final long[] a;
+  private final long[] b;
+
+  /**
+   * Creates a sketch whose estimates exceed the true count by at most {@code epsilon} times the
+   * sum of all counts, with probability at least {@code 1 - delta}.
+   *
+   * @param epsilon relative error bound, in (0, 1).
+   * @param delta probability of exceeding the error bound, in (0, 1).
+   * @return a new sketch.
+   */
+  static CountMinSketch withErrorBounds(double epsilon, double delta) {
+    Preconditions.checkArgument(epsilon > 0 && epsilon < 1, "epsilon must be in (0, 1)!");
+    Preconditions.checkArgument(delta > 0 && delta < 1, "delta must be in (0, 1)!");
+
+    double width = Math.ceil(Math.E / epsilon);
+    Preconditions.checkArgument(width <= Integer.MAX_VALUE, "epsilon is too small!");
+    return new CountMinSketch((int) width, (int) Math.ceil(Math.log(1 / delta)), new Random());
+  }
+
+  CountMinSketch(int width, int depth, Random random) {
+    Preconditions.checkArgument(width > 0, "width must be positive!");
+    Preconditions.checkArgument(depth > 0, "depth must be positive!");
+
+    this.width = width;
+    counters = new int[depth][width];
+    a = new long[depth];
+    b = new long[depth];
+    for (int i = 0; i < depth; i++) {
+      a[i] = 1 + random.nextInt(Integer.MAX_VALUE - 1);
+      b[i] = random.nextInt(Integer.MAX_VALUE);
+    }
+  }
+
+  int width() {
+    return width;
+  }
+
+  int depth() {
+    return counters.length;
+  }
+
+  /**
+   * Adds {@code delta} to the count of {@code key}; a negative {@code delta} removes occurrences
+   * previously added.
+   *
+   * @param key non-negative key.
+   * @param delta amount to add.
+   */
+  void add(int key, int delta) {
+    for (int i = 0; i < counters.length; i++) {
+      counters[i][column(i, key)] += delta;
+    }
+  }
+
+  /**
+   * Estimates the count of {@code key}.
+   *
+   * @param key non-negative key.
+   * @return an estimate no lower than the true count.
+   */
+  int estimate(int key) {
+    int min = Integer.MAX_VALUE;
+    for (int i = 0; i < counters.length; i++) {
+      min = Math.min(min, counters[i][column(i, key)]);
+    }
+    return min;
+  }
+
+  private int column(int row, int key) {
+    // a, b and key are all below 2^31, so the product cannot overflow a long
+    return (int) (((a[row] * key + b[row]) % PRIME) % width);
+  }
+}
@@ -0,0 +1,190 @@
+package com.twitter.hashtag_aggregator.model;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Assigns dense int ids to Hashtags, so that the rest of the ingest path can count them without
+ * allocating.
+ *
+ * <p>Looking up a Hashtag that already has an id reads the hash table without locking and without
+ * materializing a String; only the first sighting of a Hashtag takes a lock and allocates.  Ids
+ * are never reclaimed, so the dictionary grows with the number of distinct Hashtags observed;
+ * {@link BoundedHashtagDictionary} trades dense ids for fixed memory.
+ */
+class HashtagDictionary {
+  private static final int INITIAL_CAPACITY = 1 << 14;
+
+  /**
+   * Immutable once constructed, so an Entry read from a table without synchronization is always
+   * fully initialized.
+   */
+  private static class Entry {
+    private final String hashtag;
+    private final int hash;
+    private final int id;
+
+    Entry(String hashtag, int hash, int id) {
+      this.hashtag = hashtag;
+      this.hash = hash;
+      this.id = id;
+    }
+  }
+
+  /**
+   * Open-addressed hash table with linear probing; its length is always a power of two.  Readers
+   * that miss fall back to a locked lookup, so a stale view of the table is harmless.
+   */
+  private volatile Entry[] table;
+
+  /**
+   * Maps ids to Entries.
+   */
+  private volatile Entry[] entries;
+
+  private int size = 0;
+
+  HashtagDictionary() {
+    this(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Creates a dictionary whose tables start out with room for {@code initialCapacity} ids.
+   *
+   * @param initialCapacity initial table size; a power of two.
+   */
+  HashtagDictionary(int initialCapacity) {
+    Preconditions.checkArgument(Integer.bitCount(initialCapacity) == 1,
+        "initialCapacity must be a power of two!");
+    table = new Entry[initialCapacity];
+    entries = new Entry[initialCapacity];
+  }
+
+  /**
+   * Returns the id for the Hashtag spanning {@code length} characters of {@code text} starting at
+   * {@code offset}, assigning a new id if the Hashtag has not been seen before.
+   *
+   * @param text character sequence containing the Hashtag.
+   * @param offset index of the first character of the Hashtag.
+   * @param length number of characters in the Hashtag.
+   * @return the id of the Hashtag.
+   */
+  int getId(CharSequence text, int offset, int length) {
+    int hash = hash(text, offset, length);
+    int id = find(table, hash, text, offset, length);
+    return id != -1 ? id : add(hash, text, offset, length);
+  }
+
+  /**
+   * Returns the id for the given Hashtag, assigning a new id if it has not been seen before.
+   *
+   * @param hashtag Hashtag to look up.
+   * @return the id of the Hashtag.
+   */
+  int getId(String hashtag) {
+    return getId(hashtag, 0, hashtag.length());
+  }
+
+  /**
+   * Returns the Hashtag with the given id.
+   *
+   * @param id an id previously returned by this dictionary.
+   * @return the Hashtag, or {@code null} if a bounded dictionary no longer holds it.
+   */
+  String getHashtag(int id) {
+    Entry[] entriesById = entries;
+    Entry entry = id < entriesById.length ? entriesById[id] : null;
+    if (entry == null) {
+      // the id was assigned after our view of the entries was published
+      synchronized (this) {
+        entry = entries[id];
+      }
+    }
+    return entry.hashtag;
+  }
+
+  /**
+   * Returns the number of ids assigned so far.
+   *
+   * @return the number of distinct Hashtags in the dictionary.
+   */
+  synchronized int size() {
+    return size;
+  }
+
+  private synchronized int add(int hash, CharSequence text, int offset, int length) {
+    int id = find(table, hash, text, offset, length);
+    if (id != -1) {
+      return id;
+    }
+
+    id = size++;
+    Entry entry = new Entry(text.subSequence(offset, offset + length).toString(), hash, id);
+
+    if (id == entries.length) {
+      Entry[] grown = new Entry[entries.length * 2];
+      System.arraycopy(entries, 0, grown, 0, entries.length);
+      entries = grown;
+    }
+    entries[id] = entry;
+
+    // keep the load factor at or below 1/2
+    Entry[] current = table;
+    if (size * 2 > current.length) {
+      Entry[] grown = new Entry[current.length * 2];
+      for (Entry existing : current) {
+        if (existing != null) {
+          insert(grown, existing);
+        }
+      }
+      insert(grown, entry);
+      table = grown;
+    } else {
+      insert(current, entry);
+    }
+    return id;
+  }
+
+  private static void insert(Entry[] table, Entry entry) {
+    int mask = table.length - 1;
+    int i = entry.hash & mask;
+    while (table[i] != null) {
+      i = (i + 1) & mask;
+    }
+    table[i] = entry;
+  }
+
+  private static int find(Entry[] table, int hash, CharSequence text, int offset, int length) {
+    int mask = table.length - 1;
+    int i = hash & mask;
+    Entry entry;
+    while ((entry = table[i]) != null) {
+      if (entry.hash == hash && matches(entry.hashtag, text, offset, length)) {
+        return entry.id;
+      }
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+
+  static boolean matches(String hashtag, CharSequence text, int offset, int length) {
+    if (hashtag.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (hashtag.charAt(i) != text.charAt(offset + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hash(CharSequence text, int offset, int length) {
+    Preconditions.checkPositionIndexes(offset, offset + length, text.length());
+    int h = 0;
+    for (int i = offset; i < offset + length; i++) {
+      h = 31 * h + text.charAt(i);
+    }
+    // spread the bits, since the table index only uses the low ones
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,131 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Approximate {@link Model} implementation that finds the top {@link Hashtag}s within a sliding
+ * window of recent tweets using memory independent of how many distinct Hashtags pass through the
+ * window, as long as Hashtag ids come from a {@link BoundedHashtagDictionary}.
+ *
+ * <p>Window counts for every Hashtag are kept in a {@link CountMinSketch}, which Tweets are added
+ * to as they enter the window and removed from as they leave it.  A bounded set of
+ * {@code maxHashtags} candidates, in the style of Space-Saving, holds the Hashtags with the highest
+ * estimates; a Hashtag outside the set only displaces the lowest candidate once its estimate is
+ * strictly higher, so the long tail of Hashtags seen once or twice does not churn the set.
+ *
+ * <p>With a sketch built for relative error {@code epsilon} and failure probability
+ * {@code delta}, a reported count is never lower than the Hashtag's true window count, and with
+ * probability at least {@code 1 - delta} exceeds it by at most {@code epsilon} times the total
+ * number of Hashtag occurrences in the window at the time the Hashtag was last reported or
+ * expired.  Hashtags that share an id in the dictionary share a count, which only adds to the
+ * overestimate.  A Hashtag whose text the dictionary has forgotten is counted in the sketch but
+ * only becomes a candidate on a later sighting, once its text is recorded again.
+ */
+class HeavyHittersModelImpl implements CheckpointableModel {
+  private final HashtagDictionary dictionary;
+  private final CountMinSketch sketch;
+
+  /**
+   * Maintains the candidate Hashtags, counted by their sketch estimates.
+   */
+  private final TopHashtags candidates;
+
+  /**
+   * Circular buffer of Tweets observed; used to remove Hashtags from the sketch as Tweets exit the
+   * sliding window.
+   */
+  private final TweetRing tweets;
+  private final int windowSize;
+  private long nextSequence = 0;
+
+  HeavyHittersModelImpl(
+      HashtagDictionary dictionary,
+      int maxHashtags,
+      int windowSize,
+      double epsilon,
+      double delta) {
+
+    this(dictionary, maxHashtags, windowSize, CountMinSketch.withErrorBounds(epsilon, delta));
+  }
+
+  HeavyHittersModelImpl(
+      HashtagDictionary dictionary,
+      int maxHashtags,
+      int windowSize,
+      CountMinSketch sketch) {
+
+    Preconditions.checkArgument(maxHashtags > 0, "maxHashtags must be positive!");
+    Preconditions.checkArgument(windowSize > 0, "windowSize must be positive!");
+
+    this.dictionary = Preconditions.checkNotNull(dictionary);
+    this.sketch = Preconditions.checkNotNull(sketch);
+    candidates = new TopHashtags(dictionary, maxHashtags);
+    tweets = new TweetRing(windowSize);
+    this.windowSize = windowSize;
+  }
+
+  @Override
+  public void report(Map<String, Integer> hashtagToCountMap) {
+    int[] hashtagCounts = SlidingWindowModelImpl.toHashtagCounts(dictionary, hashtagToCountMap);
+    report(hashtagCounts, hashtagCounts.length);
+  }
+
+  @Override
+  public synchronized void report(int[] hashtagCounts, int length) {
+    report(nextSequence, hashtagCounts, length);
+  }
+
+  @Override
+  public synchronized void report(int[] hashtagCounts, int length, int numTweets) {
+    Preconditions.checkArgument(numTweets > 0, "numTweets must be positive!");
+    // the batch is tagged with the sequence number of its last Tweet
+    report(nextSequence + numTweets - 1, hashtagCounts, length);
+  }
+
+  private synchronized void report(long sequence, int[] hashtagCounts, int length) {
+
+    /**
+     * Remove Tweets exiting the sliding window, if any, from the sketch.
+     */
+    while (!tweets.isEmpty()
+        && (tweets.sequence(0) <= sequence - windowSize || tweets.isFull())) {
+      int[] exitingTweet = tweets.hashtagCounts(0);
+      for (int i = 0; i < tweets.length(0); i += 2) {
+        int id = exitingTweet[i];
+        sketch.add(id, -exitingTweet[i + 1]);
+        candidates.update(id, sketch.estimate(id));
+      }
+      tweets.removeOldest();
+    }
+
+    /**
+     * Add the current Tweet entering the sliding window to the sketch, and offer its Hashtags as
+     * candidates.
+     */
+    for (int i = 0; i < length; i += 2) {
+      int id = hashtagCounts[i];
+      sketch.add(id, hashtagCounts[i + 1]);
+      candidates.offer(id, sketch.estimate(id));
+    }
+    tweets.add(sequence, hashtagCounts, length);
+    nextSequence = Math.max(nextSequence, sequence + 1);
+  }
+
+  @Override
+  public synchronized List<Hashtag> query(int n) {
+    return candidates.query(n);
+  }
+
+  @Override
+  public synchronized TweetRing copyWindow() {
+    return tweets.copy();
+  }
+
+  @Override
+  public void restore(long sequence, int[] hashtagCounts, int length) {
+    report(sequence, hashtagCounts, length);
+  }
+}
@@ -15,6 +15,29 @@ public interface Model {
    */
   void report(Map<String, Integer> hashtagToCountMap);
 
+  /**
+   * Reports to the Model that one or more Hashtags has been observed in a tweet, without boxing.
+   * The Model copies what it needs, so the caller may reuse {@code hashtagCounts} afterwards.
+   *
+   * @param hashtagCounts (Hashtag id, count) pairs packed into consecutive ints, with ids assigned
+   *     by the {@link HashtagDictionary} the Model was created with.
+   * @param length number of ints of {@code hashtagCounts} in use; twice the number of Hashtags.
+   */
+  void report(int[] hashtagCounts, int length);
+
+  /**
+   * Reports to the Model the combined Hashtag counts of a batch of consecutive tweets, as packed
+   * by {@link #report(int[], int)}.  Each Hashtag is counted once for the whole batch, and the
+   * batch enters and leaves the Model's window as a unit; a Model windowed by number of tweets
+   * keeps the batch until the last of its {@code numTweets} tweets would have left the window.
+   *
+   * @param hashtagCounts (Hashtag id, count) pairs packed into consecutive ints, summed over the
+   *     tweets of the batch.
+   * @param length number of ints of {@code hashtagCounts} in use.
+   * @param numTweets number of tweets in the batch; must be positive.
+   */
+  void report(int[] hashtagCounts, int length, int numTweets);
+
   /**
    * Queries the Model for the top-n Hashtags.
    *
@@ -0,0 +1,240 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * Saves the state of a {@link CheckpointableModel}, along with the {@link HashtagDictionary} its
+ * Tweets refer to, to a memory-mapped file, and restores it on startup so that a restarted
+ * process serves a full sliding window right away instead of refilling it from the stream.
+ *
+ * <p>The checkpoint holds the Hashtags the window refers to, numbered densely in order of first
+ * use, followed by the Tweets in the sliding window, oldest first, as packed (saved Hashtag id,
+ * count) pairs:
+ *
+ * <pre>
+ *   int magic, int version,
+ *   int numHashtags, (int utf8Length, byte[utf8Length] hashtag){numHashtags},
+ *   int numTweets, (long sequence, int length, int[length] hashtagCounts){numTweets}
+ * </pre>
+ *
+ * <p>Checkpoints are written to a temporary file next to the target and renamed over it once
+ * forced to disk, so a crash mid-save leaves the previous checkpoint intact.  Only the Tweets in
+ * the window are saved, so Hashtags whose count has dropped to zero are not tracked after a
+ * restore.  Restoring looks each saved Hashtag up in the dictionary again, so the ids in the
+ * restored model need not match the saved ones.  A Hashtag that a
+ * {@link BoundedHashtagDictionary} no longer resolves by the time of a save is left out of it.
+ */
+class ModelCheckpoint {
+  private static final Logger LOG = Logger.getLogger(ModelCheckpoint.class.getName());
+
+  private static final int MAGIC = 0x48544147;
+  private static final int VERSION = 1;
+
+  private static final int UNSAVED = -1;
+  private static final int FORGOTTEN = -2;
+
+  private final File file;
+  private final HashtagDictionary dictionary;
+  private final CheckpointableModel model;
+
+  /**
+   * Creates a checkpoint of a model.
+   *
+   * @param file file to save the checkpoint to and restore it from.
+   * @param dictionary dictionary the model resolves Hashtag ids with.
+   * @param model model to checkpoint.
+   */
+  ModelCheckpoint(File file, HashtagDictionary dictionary, CheckpointableModel model) {
+    this.file = Preconditions.checkNotNull(file);
+    this.dictionary = Preconditions.checkNotNull(dictionary);
+    this.model = Preconditions.checkNotNull(model);
+  }
+
+  /**
+   * Saves the current state of the model, replacing any previous checkpoint.
+   *
+   * @throws IOException if the checkpoint could not be written.
+   */
+  void save() throws IOException {
+    TweetRing window = model.copyWindow();
+
+    // Only the Hashtags the window refers to are saved, renumbered densely in order of first use,
+    // so the checkpoint does not grow with every Hashtag the dictionary has ever seen.
+    Int2IntOpenHashMap savedIds = new Int2IntOpenHashMap();
+    savedIds.defaultReturnValue(UNSAVED);
+    List<byte[]> hashtags = Lists.newArrayList();
+    TweetRing saved = new TweetRing(Math.max(window.size(), 1));
+    TweetHashtags tweet = new TweetHashtags(dictionary);
+    int forgotten = 0;
+    long size = 4 + 4 + 4 + 4;
+    for (int i = 0; i < window.size(); i++) {
+      tweet.clear();
+      int[] hashtagCounts = window.hashtagCounts(i);
+      for (int j = 0; j < window.length(i); j += 2) {
+        int id = hashtagCounts[j];
+        int savedId = savedIds.get(id);
+        if (savedId == UNSAVED) {
+          String hashtag = dictionary.getHashtag(id);
+          if (hashtag == null) {
+            savedId = FORGOTTEN;
+          } else {
+            savedId = hashtags.size();
+            hashtags.add(hashtag.getBytes(Charsets.UTF_8));
+            size += 4 + hashtags.get(savedId).length;
+          }
+          savedIds.put(id, savedId);
+        }
+        if (savedId == FORGOTTEN) {
+          // a bounded dictionary may have given the id to another Hashtag since
+          forgotten++;
+        } else {
+          tweet.add(savedId, hashtagCounts[j + 1]);
+        }
+      }
+      saved.add(window.sequence(i), tweet.hashtagCounts(), tweet.length());
+      size += 8 + 4 + 4L * tweet.length();
+    }
+    Preconditions.checkState(size <= Integer.MAX_VALUE, "checkpoint is too large to map");
+    if (forgotten > 0) {
+      LOG.info("Dropped " + forgotten + " hashtags the dictionary no longer resolves from " + file);
+    }
+
+    File tmp = new File(file.getPath() + ".tmp");
+    RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+    try {
+      out.setLength(size);
+      MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      buffer.putInt(MAGIC);
+      buffer.putInt(VERSION);
+
+      buffer.putInt(hashtags.size());
+      for (byte[] hashtag : hashtags) {
+        buffer.putInt(hashtag.length);
+        buffer.put(hashtag);
+      }
+
+      buffer.putInt(saved.size());
+      for (int i = 0; i < saved.size(); i++) {
+        int[] hashtagCounts = saved.hashtagCounts(i);
+        int length = saved.length(i);
+        buffer.putLong(saved.sequence(i));
+        buffer.putInt(length);
+        for (int j = 0; j < length; j++) {
+          buffer.putInt(hashtagCounts[j]);
+        }
+      }
+      buffer.force();
+    } finally {
+      out.close();
+    }
+
+    if (!tmp.renameTo(file)) {
+      throw new IOException("Failed to rename " + tmp + " to " + file);
+    }
+  }
+
+  /**
+   * Restores the model from the last saved checkpoint, if any.  Should be called before anything
+   * is reported to the model.  The whole checkpoint is read and checked before the dictionary or
+   * the model are touched, so a checkpoint that cannot be restored leaves both as they were.
+   *
+   * @return {@code true} if a checkpoint was restored, {@code false} if there was none.
+   * @throws IOException if the checkpoint could not be read or is corrupt.
+   */
+  boolean restore() throws IOException {
+    if (!file.exists()) {
+      return false;
+    }
+
+    String[] hashtags;
+    TweetRing window;
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      MappedByteBuffer buffer =
+          in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Not a model checkpoint: " + file);
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported model checkpoint version " + version + ": " + file);
+      }
+
+      hashtags = new String[readSize(buffer, 4)];
+      for (int i = 0; i < hashtags.length; i++) {
+        byte[] hashtag = new byte[readSize(buffer, 1)];
+        buffer.get(hashtag);
+        hashtags[i] = new String(hashtag, Charsets.UTF_8);
+      }
+
+      int numTweets = readSize(buffer, 8 + 4);
+      window = new TweetRing(Math.max(numTweets, 1));
+      int[] hashtagCounts = new int[16];
+      for (int i = 0; i < numTweets; i++) {
+        long sequence = buffer.getLong();
+        int length = readSize(buffer, 4);
+        if (length % 2 != 0) {
+          throw new IOException("Corrupt tweet in model checkpoint: " + file);
+        }
+        if (hashtagCounts.length < length) {
+          hashtagCounts = new int[length];
+        }
+        for (int j = 0; j < length; j += 2) {
+          hashtagCounts[j] = buffer.getInt();
+          hashtagCounts[j + 1] = buffer.getInt();
+          if (hashtagCounts[j] < 0 || hashtagCounts[j] >= hashtags.length) {
+            throw new IOException("Unknown hashtag id in model checkpoint: " + file);
+          }
+        }
+        window.add(sequence, hashtagCounts, length);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated model checkpoint: " + file, e);
+    } finally {
+      in.close();
+    }
+
+    // the checkpoint is sound; map the saved ids to ids in the dictionary and rebuild the window
+    int[] ids = new int[hashtags.length];
+    for (int i = 0; i < hashtags.length; i++) {
+      ids[i] = dictionary.getId(hashtags[i]);
+    }
+    for (int i = 0; i < window.size(); i++) {
+      int[] hashtagCounts = window.hashtagCounts(i);
+      for (int j = 0; j < window.length(i); j += 2) {
+        hashtagCounts[j] = ids[hashtagCounts[j]];
+      }
+      model.restore(window.sequence(i), hashtagCounts, window.length(i));
+    }
+    LOG.info("Restored " + window.size() + " tweets and " + hashtags.length + " hashtags from "
+        + file);
+    return true;
+  }
+
+  /**
+   * Reads the number of elements that follow in a checkpoint, each at least {@code minBytes} long.
+   *
+   * @throws IOException if the elements cannot all fit in the rest of the checkpoint.
+   */
+  private int readSize(ByteBuffer buffer, int minBytes) throws IOException {
+    int size = buffer.getInt();
+    if (size < 0 || size > buffer.remaining() / minBytes) {
+      throw new IOException("Corrupt size in model checkpoint: " + file);
+    }
+    return size;
+  }
+}
@@ -1,29 +1,67 @@
 package com.twitter.hashtag_aggregator.model;
 
-import java.util.concurrent.ExecutorService;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
+import com.google.inject.Key;
+import com.google.inject.Provider;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
 
+import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
+import com.twitter.common.args.constraints.NotNegative;
 import com.twitter.common.args.constraints.Positive;
-
-import twitter4j.StatusListener;
+import com.twitter.common.args.constraints.Range;
+import com.twitter.common.base.Command;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.Clock;
+import com.twitter.hashtag_aggregator.text.Extractor;
 
 /**
- * Guice binding Module for {@link SlidingWindowModelImpl}.
+ * Guice binding Module for {@link SlidingWindowModelImpl}, or {@link ShardedModelImpl} when more
+ * than one model shard is requested, or {@link TimeWindowModelImpl} when the sliding window is
+ * configured as a duration, or {@link HeavyHittersModelImpl} when approximate counts are
+ * requested, in which case Hashtag ids come from a {@link BoundedHashtagDictionary}.  Unless
+ * disabled, queries are served from a periodically published {@link SnapshotModel} snapshot.
+ * If a checkpoint file is configured, the model is restored from it on startup and periodically
+ * checkpointed to it through {@link ModelCheckpoint}.
+ * Reported Tweets also feed a {@link TrendingModel} that tracks top Hashtags over several
+ * wall-clock windows.
+ *
+ * Required bindings:
+ *
+ * <ul>
+ *   <li>{@link ShutdownRegistry}</li>
+ *   <li>{@code BlockingQueue&lt;String&gt;}</li>
+ *   <li>{@link Extractor}</li>
+ * </ul>
  *
  * Provided bindings:
  *
  * <ul>
  *   <li>{@link Model}</li>
- *   <li>{@link ExecutorService}</li>
+ *   <li>{@link TrendModel}</li>
+ *   <li>{@link HashtagDictionary}</li>
+ *   <li>{@link StatusPipeline}</li>
  * </ul>
  */
 public class ModelModule extends AbstractModule {
+  private static final Logger LOG = Logger.getLogger(ModelModule.class.getName());
 
   @CmdLine(name = "max_hashtags", help = "Max number of hashtags to track.")
   @Positive
@@ -33,26 +71,277 @@ public class ModelModule extends AbstractModule {
   @Positive
   private static final Arg<Integer> SLIDING_WINDOW_SIZE = Arg.create(18000);
 
-  private final int numModelUpdaterThreads;
+  @CmdLine(name = "sliding_window_duration",
+      help = "If set, track hashtags over this much wall-clock time instead of a number of tweets.")
+  private static final Arg<Amount<Long, Time>> SLIDING_WINDOW_DURATION = Arg.create();
 
-  public ModelModule(int numModelUpdaterThreads) {
-    this.numModelUpdaterThreads = numModelUpdaterThreads;
-  }
+  @CmdLine(name = "sliding_window_bucket",
+      help = "Granularity at which a wall-clock sliding window expires hashtags.")
+  private static final Arg<Amount<Long, Time>> SLIDING_WINDOW_BUCKET =
+      Arg.create(Amount.of(1L, Time.SECONDS));
+
+  @CmdLine(name = "model_shards",
+      help = "Number of independently locked model shards that ingest tweets in parallel. "
+          + "Each shard has room for max_hashtags hashtags, so memory grows with the shard count.")
+  @Positive
+  private static final Arg<Integer> MODEL_SHARDS = Arg.create(1);
+
+  @CmdLine(name = "approximate_counts",
+      help = "Count hashtags with a Count-Min sketch in memory independent of hashtag cardinality.")
+  private static final Arg<Boolean> APPROXIMATE_COUNTS = Arg.create(false);
+
+  @CmdLine(name = "approximate_dictionary_size",
+      help = "Number of hashtags whose text is remembered when counting approximately.")
+  @Positive
+  private static final Arg<Integer> APPROXIMATE_DICTIONARY_SIZE = Arg.create(1 << 16);
+
+  @CmdLine(name = "sketch_error",
+      help = "Max overcount of an approximate count, as a fraction of hashtags in the window.")
+  @Range(lower = 0.000001, upper = 0.5)
+  private static final Arg<Double> SKETCH_ERROR = Arg.create(0.0001);
+
+  @CmdLine(name = "sketch_error_probability",
+      help = "Probability that an approximate count exceeds the sketch_error bound.")
+  @Range(lower = 0.000001, upper = 0.5)
+  private static final Arg<Double> SKETCH_ERROR_PROBABILITY = Arg.create(0.01);
+
+  @CmdLine(name = "model_snapshot_size",
+      help = "Number of top hashtags published for lock-free queries, or 0 to query the model.")
+  @NotNegative
+  private static final Arg<Integer> MODEL_SNAPSHOT_SIZE = Arg.create(100);
+
+  @CmdLine(name = "model_snapshot_updates",
+      help = "Number of tweets reported between publications of the top hashtags snapshot.")
+  @Positive
+  private static final Arg<Integer> MODEL_SNAPSHOT_UPDATES = Arg.create(1000);
+
+  @CmdLine(name = "model_snapshot_max_age",
+      help = "Max age of the top hashtags snapshot before a report or query republishes it.")
+  private static final Arg<Amount<Long, Time>> MODEL_SNAPSHOT_MAX_AGE =
+      Arg.create(Amount.of(1L, Time.SECONDS));
+
+  @CmdLine(name = "parse_threads", help = "Number of threads parsing raw statuses.")
+  @Positive
+  private static final Arg<Integer> PARSE_THREADS = Arg.create(1);
+
+  @CmdLine(name = "extract_threads", help = "Number of threads extracting hashtags from tweets.")
+  @Positive
+  private static final Arg<Integer> EXTRACT_THREADS =
+      Arg.create(Runtime.getRuntime().availableProcessors());
+
+  /**
+   * @deprecated Use {@code extract_threads}.  Model updater threads used to parse, extract and
+   * count each tweet; extracting hashtags is now the stage that scales across threads.
+   */
+  @Deprecated
+  @CmdLine(name = "num_model_updater_threads",
+      help = "Deprecated alias of extract_threads, used unless extract_threads is set.")
+  @Positive
+  private static final Arg<Integer> NUM_MODEL_UPDATER_THREADS = Arg.create(1);
+
+  @CmdLine(name = "aggregate_threads", help = "Number of threads reporting tweets to the model.")
+  @Positive
+  private static final Arg<Integer> AGGREGATE_THREADS = Arg.create(1);
+
+  @CmdLine(name = "pipeline_batch_size",
+      help = "Max number of tweets handed between status pipeline stages at a time.")
+  @Positive
+  private static final Arg<Integer> PIPELINE_BATCH_SIZE = Arg.create(256);
+
+  @CmdLine(name = "pipeline_queue_depth",
+      help = "Max number of batches waiting for each status pipeline stage.")
+  @Positive
+  private static final Arg<Integer> PIPELINE_QUEUE_DEPTH = Arg.create(64);
+
+  @CmdLine(name = "model_checkpoint_file",
+      help = "If set, restore the model from this file on startup and checkpoint it periodically.")
+  private static final Arg<File> MODEL_CHECKPOINT_FILE = Arg.create();
+
+  @CmdLine(name = "model_checkpoint_interval", help = "Interval between model checkpoints.")
+  private static final Arg<Amount<Long, Time>> MODEL_CHECKPOINT_INTERVAL =
+      Arg.create(Amount.of(1L, Time.MINUTES));
+
+  @CmdLine(name = "trend_windows",
+      help = "Wall-clock windows to track trending hashtags over, shortest first; may be empty.")
+  private static final Arg<List<Amount<Long, Time>>> TREND_WINDOWS =
+      Arg.<List<Amount<Long, Time>>>create(ImmutableList.of(
+          Amount.of(1L, Time.MINUTES), Amount.of(15L, Time.MINUTES), Amount.of(1L, Time.HOURS)));
+
+  @CmdLine(name = "trend_bucket",
+      help = "Granularity at which trend windows expire hashtags; shared by every window.")
+  private static final Arg<Amount<Long, Time>> TREND_BUCKET =
+      Arg.create(Amount.of(5L, Time.SECONDS));
+
+  @CmdLine(name = "trend_shards",
+      help = "Number of independently locked trend shards that count tweets in parallel, "
+          + "or 0 for as many as model_shards.")
+  @NotNegative
+  private static final Arg<Integer> TREND_SHARDS = Arg.create(0);
 
   @Override
   protected void configure() {
-    bind(StatusListener.class).to(ModelUpdater.class).in(Singleton.class);
+    requireBinding(Key.get(new TypeLiteral<BlockingQueue<String>>() { }));
+    requireBinding(Extractor.class);
   }
 
   @Provides
   @Singleton
-  Model providesModel() {
-    return new SlidingWindowModelImpl(MAX_HASHTAGS.get(), SLIDING_WINDOW_SIZE.get());
+  HashtagDictionary providesHashtagDictionary() {
+    if (APPROXIMATE_COUNTS.get()) {
+      return new BoundedHashtagDictionary(APPROXIMATE_DICTIONARY_SIZE.get());
+    }
+    return new HashtagDictionary();
   }
 
   @Provides
   @Singleton
-  ExecutorService providesExecutorService() {
-    return Executors.newFixedThreadPool(numModelUpdaterThreads);
+  TrendingModel providesTrendingModel(
+      HashtagDictionary dictionary,
+      ShutdownRegistry shutdownRegistry) {
+    Model model = createModel(dictionary);
+    if (MODEL_CHECKPOINT_FILE.hasAppliedValue()) {
+      Preconditions.checkArgument(model instanceof CheckpointableModel,
+          "model_checkpoint_file is not supported with sliding_window_duration");
+      ModelCheckpoint checkpoint = new ModelCheckpoint(
+          MODEL_CHECKPOINT_FILE.get(), dictionary, (CheckpointableModel) model);
+      restore(checkpoint, MODEL_CHECKPOINT_FILE.get());
+      scheduleCheckpoints(checkpoint, shutdownRegistry);
+    }
+    return new TrendingModel(model, dictionary, MAX_HASHTAGS.get(), TREND_WINDOWS.get(),
+        TREND_BUCKET.get(), Clock.SYSTEM_CLOCK,
+        TREND_SHARDS.get() > 0 ? TREND_SHARDS.get() : MODEL_SHARDS.get());
+  }
+
+  @Provides
+  @Singleton
+  Model providesModel(TrendingModel model, ShutdownRegistry shutdownRegistry) {
+    if (MODEL_SNAPSHOT_SIZE.get() == 0) {
+      return model;
+    }
+    SnapshotModel snapshotModel = new SnapshotModel(model, MODEL_SNAPSHOT_SIZE.get(),
+        MODEL_SNAPSHOT_UPDATES.get(), MODEL_SNAPSHOT_MAX_AGE.get(), Clock.SYSTEM_CLOCK);
+    scheduleSnapshots(snapshotModel, shutdownRegistry);
+    return snapshotModel;
+  }
+
+  /**
+   * Republishes the snapshot of an idle model once it is too old, so that queries never have to.
+   */
+  private void scheduleSnapshots(
+      final SnapshotModel snapshotModel, ShutdownRegistry shutdownRegistry) {
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ModelSnapshot-%d").build());
+    long intervalMillis = Math.max(MODEL_SNAPSHOT_MAX_AGE.get().as(Time.MILLISECONDS), 1);
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override public void run() {
+        try {
+          snapshotModel.publishIfStale();
+        } catch (RuntimeException e) {
+          LOG.log(Level.WARNING, "Failed to publish model snapshot", e);
+        }
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+    shutdownRegistry.addAction(new Command() {
+      @Override public void execute() {
+        executor.shutdownNow();
+      }
+    });
+  }
+
+  @Provides
+  @Singleton
+  TrendModel providesTrendModel(TrendingModel model) {
+    return model;
+  }
+
+  /**
+   * Restores a model from its checkpoint.  A checkpoint that cannot be restored leaves the model
+   * and dictionary empty, and is moved aside so that the next save does not overwrite it.
+   */
+  private void restore(ModelCheckpoint checkpoint, File file) {
+    try {
+      checkpoint.restore();
+    } catch (IOException e) {
+      File unreadable = new File(file.getPath() + ".unreadable");
+      LOG.log(Level.WARNING, "Failed to restore model from " + file + ", starting empty", e);
+      if (file.renameTo(unreadable)) {
+        LOG.warning("Moved unreadable model checkpoint to " + unreadable);
+      } else {
+        LOG.warning("Failed to move unreadable model checkpoint to " + unreadable);
+      }
+    }
+  }
+
+  private void scheduleCheckpoints(
+      final ModelCheckpoint checkpoint, ShutdownRegistry shutdownRegistry) {
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ModelCheckpoint-%d").build());
+    long intervalMillis = MODEL_CHECKPOINT_INTERVAL.get().as(Time.MILLISECONDS);
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override public void run() {
+        try {
+          checkpoint.save();
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Failed to checkpoint model", e);
+        } catch (RuntimeException e) {
+          LOG.log(Level.WARNING, "Failed to checkpoint model", e);
+        }
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+    // registered before the status pipeline is started, so it runs after the pipeline is stopped
+    shutdownRegistry.addAction(new Command() {
+      @Override public void execute() {
+        executor.shutdownNow();
+        try {
+          checkpoint.save();
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Failed to checkpoint model on shutdown", e);
+        }
+      }
+    });
+  }
+
+  private Model createModel(HashtagDictionary dictionary) {
+    if (APPROXIMATE_COUNTS.get()) {
+      Preconditions.checkArgument(MODEL_SHARDS.get() == 1,
+          "model_shards is not supported with approximate_counts");
+      Preconditions.checkArgument(!SLIDING_WINDOW_DURATION.hasAppliedValue(),
+          "sliding_window_duration is not supported with approximate_counts");
+      return new HeavyHittersModelImpl(dictionary, MAX_HASHTAGS.get(), SLIDING_WINDOW_SIZE.get(),
+          SKETCH_ERROR.get(), SKETCH_ERROR_PROBABILITY.get());
+    }
+    if (SLIDING_WINDOW_DURATION.hasAppliedValue()) {
+      Preconditions.checkArgument(MODEL_SHARDS.get() == 1,
+          "model_shards is not supported with sliding_window_duration");
+      return new TimeWindowModelImpl(dictionary, MAX_HASHTAGS.get(),
+          SLIDING_WINDOW_DURATION.get(), SLIDING_WINDOW_BUCKET.get(), Clock.SYSTEM_CLOCK);
+    }
+    if (MODEL_SHARDS.get() > 1) {
+      return new ShardedModelImpl(
+          dictionary, MAX_HASHTAGS.get(), SLIDING_WINDOW_SIZE.get(), MODEL_SHARDS.get());
+    }
+    return new SlidingWindowModelImpl(dictionary, MAX_HASHTAGS.get(), SLIDING_WINDOW_SIZE.get());
+  }
+
+  @Provides
+  @Singleton
+  StatusPipeline providesStatusPipeline(
+      BlockingQueue<String> msgQueue,
+      Model model,
+      HashtagDictionary dictionary,
+      Provider<Extractor> extractorProvider) {
+    return new StatusPipeline(msgQueue, model, dictionary, extractorProvider,
+        PARSE_THREADS.get(), getExtractThreads(), AGGREGATE_THREADS.get(),
+        PIPELINE_BATCH_SIZE.get(), PIPELINE_QUEUE_DEPTH.get());
+  }
+
+  private static int getExtractThreads() {
+    if (NUM_MODEL_UPDATER_THREADS.hasAppliedValue() && !EXTRACT_THREADS.hasAppliedValue()) {
+      LOG.warning("num_model_updater_threads is deprecated, use extract_threads instead");
+      return NUM_MODEL_UPDATER_THREADS.get();
+    }
+    return EXTRACT_THREADS.get();
   }
 }
@@ -0,0 +1,235 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+
+/**
+ * {@link Model} implementation that hash-partitions Hashtags across independently locked
+ * {@link SlidingWindowModelImpl} shards, so that Tweets can be ingested by several threads in
+ * parallel.
+ *
+ * <p>Every reported Tweet is assigned a global sequence number, and each shard only stores the
+ * part of the Tweet whose Hashtag ids map to it, tagged with that sequence number.  The shards
+ * expire Tweets by sequence number, so each shard covers the same sliding window of
+ * {@code windowSize} Tweets as a single {@link SlidingWindowModelImpl} would.  Each shard has
+ * room for {@code maxHashtags} Hashtags, so however unevenly Hashtags hash across the shards, no
+ * shard evicts while the single-lock model would not, and counts are exactly those of the
+ * single-lock model until it starts evicting.  The shards together use up to {@code numShards}
+ * times the memory of the single-lock model for Hashtag counts.
+ *
+ * <p>Queries advance every shard to the current sequence number and merge the per-shard top-n
+ * lists, trimmed to {@code maxHashtags}.
+ */
+class ShardedModelImpl implements CheckpointableModel {
+
+  /**
+   * Orders Hashtags the same way as {@link TopHashtags.HashtagImpl}: highest count
+   * first, with ties broken in lexical order.
+   */
+  private static final Comparator<Hashtag> QUERY_ORDER = new Comparator<Hashtag>() {
+    @Override public int compare(Hashtag h1, Hashtag h2) {
+      int i = Double.compare(h2.getCount(), h1.getCount());
+      if (i == 0) {
+        return h1.getHashtag().compareTo(h2.getHashtag());
+      }
+      return i;
+    }
+  };
+
+  private final HashtagDictionary dictionary;
+  private final int maxHashtags;
+  private final SlidingWindowModelImpl[] shards;
+  private final AtomicLong nextSequence = new AtomicLong();
+
+  /**
+   * Per-thread scratch space for splitting Tweets up by shard.
+   */
+  private final ThreadLocal<TweetHashtags[]> partitions = new ThreadLocal<TweetHashtags[]>() {
+    @Override protected TweetHashtags[] initialValue() {
+      TweetHashtags[] tweetPartitions = new TweetHashtags[shards.length];
+      for (int i = 0; i < shards.length; i++) {
+        tweetPartitions[i] = new TweetHashtags(dictionary);
+      }
+      return tweetPartitions;
+    }
+  };
+
+  ShardedModelImpl(int maxHashtags, int windowSize, int numShards) {
+    this(new HashtagDictionary(), maxHashtags, windowSize, numShards);
+  }
+
+  ShardedModelImpl(HashtagDictionary dictionary, int maxHashtags, int windowSize, int numShards) {
+    Preconditions.checkArgument(maxHashtags > 0, "maxHashtags must be positive!");
+    Preconditions.checkArgument(windowSize > 0, "windowSize must be positive!");
+    Preconditions.checkArgument(numShards > 0, "numShards must be positive!");
+
+    this.dictionary = Preconditions.checkNotNull(dictionary);
+    this.maxHashtags = maxHashtags;
+    shards = new SlidingWindowModelImpl[numShards];
+    for (int i = 0; i < numShards; i++) {
+      shards[i] = new SlidingWindowModelImpl(dictionary, maxHashtags, windowSize);
+    }
+  }
+
+  @Override
+  public void report(Map<String, Integer> hashtagToCountMap) {
+    int[] hashtagCounts = SlidingWindowModelImpl.toHashtagCounts(dictionary, hashtagToCountMap);
+    report(hashtagCounts, hashtagCounts.length);
+  }
+
+  @Override
+  public void report(int[] hashtagCounts, int length) {
+    report(nextSequence.getAndIncrement(), hashtagCounts, length);
+  }
+
+  @Override
+  public void report(int[] hashtagCounts, int length, int numTweets) {
+    Preconditions.checkArgument(numTweets > 0, "numTweets must be positive!");
+    // the batch is tagged with the sequence number of its last Tweet
+    report(nextSequence.getAndAdd(numTweets) + numTweets - 1, hashtagCounts, length);
+  }
+
+  private void report(long sequence, int[] hashtagCounts, int length) {
+    if (length == 0) {
+      // nothing to count; shards catch up with the sequence on their next report or query
+      return;
+    }
+
+    if (length == 2) {
+      // the common case: no need to split the Tweet up
+      shards[shardOf(hashtagCounts[0])].report(sequence, hashtagCounts, length);
+      return;
+    }
+
+    TweetHashtags[] tweetPartitions = partitions.get();
+    for (int i = 0; i < length; i += 2) {
+      tweetPartitions[shardOf(hashtagCounts[i])].add(hashtagCounts[i], hashtagCounts[i + 1]);
+    }
+
+    for (int i = 0; i < shards.length; i++) {
+      TweetHashtags partition = tweetPartitions[i];
+      if (partition.length() > 0) {
+        shards[i].report(sequence, partition.hashtagCounts(), partition.length());
+        partition.clear();
+      }
+    }
+  }
+
+  @Override
+  public List<Hashtag> query(int n) {
+    long sequence = nextSequence.get();
+    // together the shards may hold more Hashtags than the single-lock model could
+    n = Math.min(n, maxHashtags);
+
+    /**
+     * Each shard contributes at most its own top-n.
+     */
+    List<List<Hashtag>> shardTops = Lists.newArrayListWithCapacity(shards.length);
+    for (SlidingWindowModelImpl shard : shards) {
+      shard.advance(sequence);
+      shardTops.add(shard.query(n));
+    }
+    return mergeTop(shardTops, n);
+  }
+
+  /**
+   * Merges per-shard top lists, each in descending order, into the overall top-n.
+   *
+   * @param shardTops top Hashtags of each shard, in query order.
+   * @param n number of top Hashtags to retrieve.
+   * @return List of top-n Hashtags, in query order.
+   */
+  static <H extends Hashtag> List<H> mergeTop(List<List<H>> shardTops, int n) {
+    PriorityQueue<PeekingIterator<H>> heads = new PriorityQueue<PeekingIterator<H>>(
+        Math.max(shardTops.size(), 1),
+        new Comparator<PeekingIterator<H>>() {
+          @Override public int compare(PeekingIterator<H> i1, PeekingIterator<H> i2) {
+            return QUERY_ORDER.compare(i1.peek(), i2.peek());
+          }
+        });
+    for (List<H> shardTop : shardTops) {
+      if (!shardTop.isEmpty()) {
+        heads.add(Iterators.peekingIterator(shardTop.iterator()));
+      }
+    }
+
+    /**
+     * k-way merge of the per-shard lists.
+     */
+    ImmutableList.Builder<H> builder = ImmutableList.builder();
+    for (int i = 0; i < n && !heads.isEmpty(); i++) {
+      PeekingIterator<H> head = heads.poll();
+      builder.add(head.next());
+      if (head.hasNext()) {
+        heads.add(head);
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public TweetRing copyWindow() {
+    long sequence = nextSequence.get();
+    TweetRing[] shardWindows = new TweetRing[shards.length];
+    int capacity = 1;
+    for (int i = 0; i < shards.length; i++) {
+      shards[i].advance(sequence);
+      shardWindows[i] = shards[i].copyWindow();
+      capacity += shardWindows[i].size();
+    }
+
+    /**
+     * Each shard holds the part of a Tweet that maps to it, so merge the shard windows by
+     * sequence number to reassemble whole Tweets.
+     */
+    TweetRing window = new TweetRing(capacity);
+    TweetHashtags tweet = new TweetHashtags(dictionary);
+    int[] next = new int[shards.length];
+    while (true) {
+      long oldest = Long.MAX_VALUE;
+      for (int i = 0; i < shards.length; i++) {
+        if (next[i] < shardWindows[i].size()) {
+          oldest = Math.min(oldest, shardWindows[i].sequence(next[i]));
+        }
+      }
+      if (oldest == Long.MAX_VALUE) {
+        return window;
+      }
+
+      tweet.clear();
+      for (int i = 0; i < shards.length; i++) {
+        if (next[i] < shardWindows[i].size() && shardWindows[i].sequence(next[i]) == oldest) {
+          int[] hashtagCounts = shardWindows[i].hashtagCounts(next[i]);
+          for (int j = 0; j < shardWindows[i].length(next[i]); j += 2) {
+            tweet.add(hashtagCounts[j], hashtagCounts[j + 1]);
+          }
+          next[i]++;
+        }
+      }
+      window.add(oldest, tweet.hashtagCounts(), tweet.length());
+    }
+  }
+
+  @Override
+  public void restore(long sequence, int[] hashtagCounts, int length) {
+    long next;
+    do {
+      next = nextSequence.get();
+    } while (next <= sequence && !nextSequence.compareAndSet(next, sequence + 1));
+    report(sequence, hashtagCounts, length);
+  }
+
+  private int shardOf(int id) {
+    // ids are assigned densely, so they spread evenly across shards as they are
+    return id % shards.length;
+  }
+}
@@ -1,266 +1,174 @@
 package com.twitter.hashtag_aggregator.model;
 
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Interner;
-import com.google.common.collect.Interners;
-
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
-import it.unimi.dsi.fastutil.ints.IntSet;
-import it.unimi.dsi.fastutil.objects.ObjectHeapIndirectPriorityQueue;
-import it.unimi.dsi.fastutil.objects.Reference2IntMap;
-import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 
 /**
  * Streaming {@link Model} implementation that maintains the top {@link Hashtag}s observed within
  * a sliding window of recent tweets.
+ *
+ * <p>Hashtags are tracked by their {@link HashtagDictionary} id, and each Tweet in the window is
+ * stored as packed (Hashtag id, count) pairs in a reused int array, so reporting a Tweet through
+ * {@link #report(int[], int)} does not allocate once the window has filled.  A batch reported
+ * through {@link #report(int[], int, int)} is stored as a single entry tagged with the sequence
+ * number of its last Tweet.
+ *
+ * <p>A reported Tweet's Hashtags are counted before the Tweets it pushes out of the window are
+ * expired, so a Hashtag of an exiting Tweet still counts when choosing which Hashtag to evict for
+ * a new one.  Once the model is full, it may therefore evict a Hashtag that only the entering
+ * Tweet's window would have retained.
  */
-class SlidingWindowModelImpl implements Model {
-  private final Interner<String> interner = Interners.newStrongInterner();
+class SlidingWindowModelImpl implements CheckpointableModel {
+  private final HashtagDictionary dictionary;
 
   /**
    * Maintains top Hashtag counts.
    */
-  private final HashtagImpl[] hashtags;
-  private int nextHashtag = 0;
-  private final Reference2IntMap<String> hashtagLookup;
+  private final TopHashtags topHashtags;
 
   /**
    * Circular buffer of Tweets observed; used to decrement Hashtag counts as Tweets exit the
-   * sliding window.  {@code nextTweet} points to the index of the next Tweet to exit the window,
-   * and it is also the index where the next Tweet entering the window will be stored.
-   */
-  private final Tweet[] tweets;
-  private int nextTweet = 0;
-
-  /**
-   * Hashtag at the top of the {@code minHeap} will be the first to be evicted once we hit
-   * {@code maxHashtags}.
-   */
-  private final Heap<HashtagImpl> minHeap;
-
-  /**
-   * Hashtags sorted in descending order of frequency.
-   */
-  private final Heap<HashtagImpl> maxHeap;
-
-  /**
-   * Snapshot of {@code maxHeap} used to satisfy queries.
+   * sliding window.
    */
-  private final Heap<HashtagImpl> queryHeap;
+  private final TweetRing tweets;
+  private final int windowSize;
+  private long nextSequence = 0;
 
   SlidingWindowModelImpl(int maxHashtags, int windowSize) {
+    this(new HashtagDictionary(), maxHashtags, windowSize);
+  }
+
+  SlidingWindowModelImpl(HashtagDictionary dictionary, int maxHashtags, int windowSize) {
     Preconditions.checkArgument(maxHashtags > 0, "maxHashtags must be positive!");
     Preconditions.checkArgument(windowSize > 0, "windowSize must be positive!");
 
-    hashtags = new HashtagImpl[maxHashtags];
-    hashtagLookup = new Reference2IntOpenHashMap(maxHashtags);
-    hashtagLookup.defaultReturnValue(-1);
+    this.dictionary = Preconditions.checkNotNull(dictionary);
+    topHashtags = new TopHashtags(dictionary, maxHashtags);
 
-    tweets = new Tweet[windowSize];
+    tweets = new TweetRing(windowSize);
+    this.windowSize = windowSize;
+  }
 
-    minHeap = new Heap(hashtags, HashtagImpl.EVICTION_COMPARATOR);
-    maxHeap = new Heap(hashtags);
-    queryHeap = new Heap(hashtags);
+  @Override
+  public void report(Map<String, Integer> hashtagToCountMap) {
+    int[] hashtagCounts = toHashtagCounts(dictionary, hashtagToCountMap);
+    synchronized (this) {
+      report(nextSequence, hashtagCounts, hashtagCounts.length);
+    }
   }
 
   @Override
-  public synchronized void report(Map<String, Integer> hashtagToCountMap) {
+  public synchronized void report(int[] hashtagCounts, int length) {
+    report(nextSequence, hashtagCounts, length);
+  }
 
-    /**
-     * Keep track of Hashtag indices that need to be updated.
-     */
-    IntSet dirtyHashtags = new IntOpenHashSet();
+  @Override
+  public synchronized void report(int[] hashtagCounts, int length, int numTweets) {
+    Preconditions.checkArgument(numTweets > 0, "numTweets must be positive!");
+    // the batch is tagged with the sequence number of its last Tweet
+    report(nextSequence + numTweets - 1, hashtagCounts, length);
+  }
 
-    /**
-     * Decrement Hashtag counts for the Tweet exiting the sliding window, if any.
-     */
-    Tweet exitingTweet = tweets[nextTweet];
-    if (exitingTweet != null) {
-      // decrement counts for Hashtags still in the Model
-      for (Entry<String, Integer> entry : exitingTweet.getCounts().entrySet()) {
-        String hashtag = interner.intern(entry.getKey());
-        int index = hashtagLookup.getInt(hashtag);
-        if (index != -1) {
-          hashtags[index].decrement(entry.getValue());
-          dirtyHashtags.add(index);
-        }
-      }
+  /**
+   * Packs a Hashtag count map into (Hashtag id, count) pairs.
+   *
+   * @param dictionary dictionary to resolve Hashtag ids with.
+   * @param hashtagToCountMap maps Hashtag to number of times it occurred in a tweet.
+   * @return packed (Hashtag id, count) pairs.
+   */
+  static int[] toHashtagCounts(HashtagDictionary dictionary,
+      Map<String, Integer> hashtagToCountMap) {
+    int[] hashtagCounts = new int[hashtagToCountMap.size() * 2];
+    int i = 0;
+    for (Entry<String, Integer> entry : hashtagToCountMap.entrySet()) {
+      hashtagCounts[i++] = dictionary.getId(entry.getKey());
+      hashtagCounts[i++] = entry.getValue();
     }
+    return hashtagCounts;
+  }
 
-    /**
-     * Save counts for the current Tweet entering the sliding window.
-     */
-    tweets[nextTweet] = new Tweet(hashtagToCountMap);
+  /**
+   * Reports a Tweet tagged with an externally assigned sequence number.  The sliding window
+   * covers the {@code windowSize} most recent sequence numbers, so Tweets reported with sequence
+   * number {@code sequence - windowSize} or lower exit the window when this one enters it.
+   * Sequence numbers should be reported in increasing order.  Tweets exit the window in the order
+   * they were reported, so a Tweet reported out of order is not expired by its own sequence
+   * number: it exits together with the Tweet reported before it, or earlier if the window is full
+   * and it is the oldest Tweet reported.
+   *
+   * @param sequence sequence number of the Tweet.
+   * @param hashtagCounts packed (Hashtag id, count) pairs.
+   * @param length number of ints of {@code hashtagCounts} in use.
+   */
+  synchronized void report(long sequence, int[] hashtagCounts, int length) {
 
     /**
-     * Increment {@code nextTweet} circularly.
+     * Increment counts for Hashtags in the current Tweet.  Tweets exiting the sliding window are
+     * only expired afterwards, so that their Hashtags still count when choosing which Hashtag to
+     * evict for a new one.
      */
-    nextTweet++;
-    if (nextTweet == tweets.length) {
-      nextTweet = 0;
+    for (int i = 0; i < length; i += 2) {
+      topHashtags.increment(hashtagCounts[i], hashtagCounts[i + 1]);
     }
 
     /**
-     * Increment counts for Hashtags in the current Tweet.
+     * Decrement Hashtag counts for Tweets exiting the sliding window, if any.
      */
-    for (Entry<String, Integer> entry : hashtagToCountMap.entrySet()) {
-      String hashtag = interner.intern(entry.getKey());
-      int count = entry.getValue();
-      int index = hashtagLookup.getInt(hashtag);
-
-      if (index == -1) {
-        // interned hashtag String is not already in the Model
-        if (nextHashtag < hashtags.length) {
-          // there is space in the Model, so simply add it
-          index = nextHashtag++;
-
-          hashtags[index] = new HashtagImpl(hashtag, count);
-          hashtagLookup.put(hashtag, index);
-
-          minHeap.enqueue(index);
-          maxHeap.enqueue(index);
-        } else {
-          // there is no room in the Model, so evict the Hashtag with the lowest count
-          index = minHeap.dequeue();
-
-          // in case this index has been updated
-          dirtyHashtags.remove(index);
-
-          hashtags[index] = new HashtagImpl(hashtag, count);
-          hashtagLookup.put(hashtag, index);
-
-          minHeap.enqueue(index);
-          maxHeap.changed(index);
-        }
-      } else {
-        // interned term String is already present in the Model; so simply update weight
-        hashtags[index].increment(count);
-        dirtyHashtags.add(index);
-      }
+    expire(sequence - windowSize + 1);
+    if (tweets.isFull()) {
+      // only possible for out of order sequences; make room by exiting the oldest Tweet early
+      exitTweet();
     }
 
     /**
-     * Update dirty Hashtags.
+     * Save counts for the current Tweet entering the sliding window.
      */
-    for (int index : dirtyHashtags) {
-      minHeap.changed(index);
-      maxHeap.changed(index);
-    }
+    tweets.add(sequence, hashtagCounts, length);
+    nextSequence = Math.max(nextSequence, sequence + 1);
   }
 
-  @Override
-  public List<Hashtag> query(int requested) {
-    int n = requested > nextHashtag ? nextHashtag : requested;
-
-    synchronized (this) {
-      maxHeap.copyInto(queryHeap);
-    }
-
-    ImmutableList.Builder<Hashtag> builder = ImmutableList.builder();
-    for (int i = 0; i < n; i++) {
-      builder.add(new HashtagImpl(hashtags[queryHeap.dequeue()]));
-    }
-    return builder.build();
+  /**
+   * Advances the sliding window to end just before {@code nextSequence} without reporting a Tweet,
+   * so that Tweets reported with sequence number {@code nextSequence - windowSize} or lower no
+   * longer count towards query results.
+   *
+   * @param nextSequence sequence number the next reported Tweet will carry.
+   */
+  synchronized void advance(long nextSequence) {
+    expire(nextSequence - windowSize);
+    this.nextSequence = Math.max(this.nextSequence, nextSequence);
   }
 
-  static class HashtagImpl implements Hashtag, Comparable<HashtagImpl> {
-    static final Comparator<HashtagImpl> EVICTION_COMPARATOR = new Comparator<HashtagImpl>() {
-      @Override public int compare(HashtagImpl h1, HashtagImpl h2) {
-        // lowest count first, with ties broken in reverse lexical order
-        int i = Double.compare(h1.count, h2.count);
-        if (i == 0) {
-          return h1.hashtag.compareTo(h2.hashtag);
-        }
-        return i;
-      }
-    };
-
-    private final String hashtag;
-    private int count;
-
-    HashtagImpl(String hashtag, int count) {
-      this.hashtag = hashtag;
-      this.count = count;
-    }
-
-    HashtagImpl(Hashtag copy) {
-      this.hashtag = copy.getHashtag();
-      this.count = copy.getCount();
-    }
-
-    @Override
-    public String getHashtag() {
-      return hashtag;
-    }
-
-    @Override
-    public int getCount() {
-      return count;
-    }
-
-    void decrement(int n) {
-      count -= n;
-      if (count < 0) {
-        count = 0;
-      }
-    }
-
-    void increment(int n) {
-      count += n;
-    }
-
-    @Override
-    public int compareTo(HashtagImpl h) {
-      // highest count first, with ties broken in lexical order
-      int i = Double.compare(h.getCount(), count);
-      if (i == 0) {
-        return hashtag.compareTo(h.getHashtag());
-      }
-      return i;
+  private void expire(long firstRetainedSequence) {
+    while (!tweets.isEmpty() && tweets.sequence(0) < firstRetainedSequence) {
+      exitTweet();
     }
   }
 
-  static class Tweet {
-    private final Map<String, Integer> hashtagToCountMap;
-
-    Tweet(Map<String, Integer> hashtagToCountMap) {
-      this.hashtagToCountMap = ImmutableMap.copyOf(hashtagToCountMap);
-    }
-
-    Map<String, Integer> getCounts() {
-      return hashtagToCountMap;
+  private void exitTweet() {
+    // decrement counts for Hashtags still in the Model
+    int[] exitingTweet = tweets.hashtagCounts(0);
+    for (int i = 0; i < tweets.length(0); i += 2) {
+      topHashtags.decrement(exitingTweet[i], exitingTweet[i + 1]);
     }
+    tweets.removeOldest();
   }
 
-  /**
-   * Heap that can be copied.
-   */
-  private static class Heap<T> extends ObjectHeapIndirectPriorityQueue<T> {
-
-    Heap(T[] refArray) {
-      super(refArray);
-    }
+  @Override
+  public synchronized List<Hashtag> query(int n) {
+    return topHashtags.query(n);
+  }
 
-    Heap(T[] refArray, Comparator<T> c) {
-      super(refArray, c);
-    }
+  @Override
+  public synchronized TweetRing copyWindow() {
+    return tweets.copy();
+  }
 
-    /**
-     * Copies the inversion and heap arrays into the provided Heap.
-     *
-     * @param dest destination Heap into which to copy the arrays.
-     */
-    void copyInto(Heap<T> dest) {
-      System.arraycopy(inv, 0, dest.inv, 0, inv.length);
-      System.arraycopy(heap, 0, dest.heap, 0, heap.length);
-      dest.size = size;
-    }
+  @Override
+  public void restore(long sequence, int[] hashtagCounts, int length) {
+    report(sequence, hashtagCounts, length);
   }
 }
@@ -0,0 +1,132 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.Clock;
+
+/**
+ * {@link Model} decorator that serves queries from an immutable snapshot of the top
+ * {@code snapshotSize} {@link Hashtag}s, so that frequent polling does not contend with ingest for
+ * the lock of the underlying Model.
+ *
+ * <p>The snapshot is republished by whichever thread reports the {@code updatesPerSnapshot}th
+ * Tweet since the last snapshot, or by the first report once {@code maxSnapshotAge} has passed
+ * since it.  Queries never republish, since that would take the lock of the underlying Model;
+ * to age out an idle window, {@link #publishIfStale()} should be called periodically.  A query
+ * for at most {@code snapshotSize} Hashtags is a volatile read of the snapshot and returns a
+ * consistent view of the Model as of the last publication; larger queries fall through to the
+ * underlying Model.
+ */
+class SnapshotModel implements Model {
+  private final Model delegate;
+  private final int snapshotSize;
+  private final long updatesPerSnapshot;
+  private final long maxSnapshotAgeNanos;
+  private final Clock clock;
+
+  private final AtomicLong updates = new AtomicLong();
+  private final AtomicBoolean publishing = new AtomicBoolean();
+  private volatile long snapshotNanos;
+  private volatile ImmutableList<Hashtag> snapshot;
+
+  SnapshotModel(
+      Model delegate,
+      int snapshotSize,
+      long updatesPerSnapshot,
+      Amount<Long, Time> maxSnapshotAge,
+      Clock clock) {
+
+    Preconditions.checkArgument(snapshotSize > 0, "snapshotSize must be positive!");
+    Preconditions.checkArgument(updatesPerSnapshot > 0, "updatesPerSnapshot must be positive!");
+    Preconditions.checkArgument(maxSnapshotAge.getValue() >= 0,
+        "maxSnapshotAge must not be negative!");
+
+    this.delegate = Preconditions.checkNotNull(delegate);
+    this.snapshotSize = snapshotSize;
+    this.updatesPerSnapshot = updatesPerSnapshot;
+    this.maxSnapshotAgeNanos = maxSnapshotAge.as(Time.NANOSECONDS);
+    this.clock = Preconditions.checkNotNull(clock);
+    publish();
+  }
+
+  @Override
+  public void report(Map<String, Integer> hashtagToCountMap) {
+    delegate.report(hashtagToCountMap);
+    onUpdate();
+  }
+
+  @Override
+  public void report(int[] hashtagCounts, int length) {
+    delegate.report(hashtagCounts, length);
+    onUpdate();
+  }
+
+  @Override
+  public void report(int[] hashtagCounts, int length, int numTweets) {
+    delegate.report(hashtagCounts, length, numTweets);
+    onUpdate(numTweets);
+  }
+
+  @Override
+  public List<Hashtag> query(int n) {
+    if (n > snapshotSize) {
+      return delegate.query(n);
+    }
+    ImmutableList<Hashtag> current = snapshot;
+    return n >= current.size() ? current : current.subList(0, Math.max(n, 0));
+  }
+
+  private void onUpdate() {
+    onUpdate(1);
+  }
+
+  private void onUpdate(int numTweets) {
+    long after = updates.addAndGet(numTweets);
+    // a batch may step over the multiple of updatesPerSnapshot rather than land on it
+    if (after / updatesPerSnapshot != (after - numTweets) / updatesPerSnapshot || isStale()) {
+      tryPublish();
+    }
+  }
+
+  /**
+   * Republishes the snapshot if it is older than {@code maxSnapshotAge}, so that an idle window
+   * still ages out.  Meant to be called periodically from outside the query path.
+   */
+  void publishIfStale() {
+    if (isStale()) {
+      tryPublish();
+    }
+  }
+
+  private boolean isStale() {
+    return clock.nowNanos() - snapshotNanos >= maxSnapshotAgeNanos;
+  }
+
+  /**
+   * Publishes a new snapshot unless another thread is already doing so, in which case its
+   * snapshot will be at least as fresh as ours would have been.
+   */
+  private void tryPublish() {
+    if (publishing.compareAndSet(false, true)) {
+      try {
+        publish();
+      } finally {
+        publishing.set(false);
+      }
+    }
+  }
+
+  private void publish() {
+    long now = clock.nowNanos();
+    snapshot = ImmutableList.copyOf(delegate.query(snapshotSize));
+    snapshotNanos = now;
+  }
+}
@@ -0,0 +1,326 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.inject.Provider;
+
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
+import com.twitter.common.args.constraints.NotNegative;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.PipelineStats;
+import com.twitter.common.stats.Stats;
+import com.twitter.hashtag_aggregator.text.Extractor;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * Processes raw statuses from the hosebird message queue in three stages, each with its own
+ * worker threads and linked to the next by a bounded queue of batches:
+ *
+ * <ol>
+ *   <li>parse: drains batches of raw JSON messages and pulls out the text of each status, skipping
+ *   deletion notices and other non-status messages;</li>
+ *   <li>extract: tokenizes the text and resolves Hashtag ids, the most expensive stage;</li>
+ *   <li>aggregate: sums the Hashtag counts of each batch and reports them to the {@link Model} in
+ *   one call.</li>
+ * </ol>
+ *
+ * <p>Each batch enters and leaves the {@link Model}'s window as a unit, so window boundaries are
+ * accurate to within a batch.  Batches from different extract workers may reach the aggregate
+ * stage out of order, so Tweets can enter the sliding window a few batches away from their
+ * position in the stream.
+ *
+ * <p>Per-stage timings, including the time batches wait in the handoff queues, are exported
+ * through {@link PipelineStats} as {@code status_pipeline_<stage>_*}.
+ */
+public class StatusPipeline {
+  private static final Logger LOG = Logger.getLogger(StatusPipeline.class.getName());
+
+  @CmdLine(name = "tweet_log_interval", help = "Log every Nth tweet; or 0 to disable")
+  @NotNegative
+  private static final Arg<Integer> TWEET_LOG_INTERVAL = Arg.create(0);
+
+  private static final String PARSE = "parse";
+  private static final String EXTRACT_QUEUE = "extract_queue";
+  private static final String EXTRACT = "extract";
+  private static final String AGGREGATE_QUEUE = "aggregate_queue";
+  private static final String AGGREGATE = "aggregate";
+
+  private static final PipelineStats STATS = new PipelineStats("status_pipeline",
+      ImmutableSet.of(PARSE, EXTRACT_QUEUE, EXTRACT, AGGREGATE_QUEUE, AGGREGATE),
+      Time.MICROSECONDS);
+
+  private final BlockingQueue<String> msgQueue;
+  private final Model model;
+  private final HashtagDictionary dictionary;
+  private final Provider<Extractor> extractorProvider;
+  private final int parseThreads;
+  private final int extractThreads;
+  private final int aggregateThreads;
+  private final int batchSize;
+
+  private final BlockingQueue<TweetBatch> extractQueue;
+  private final BlockingQueue<TweetBatch> aggregateQueue;
+  private final ExecutorService executorService;
+
+  private final JsonFactory jsonFactory = new JsonFactory();
+  private final AtomicLong tweetsConsumed = Stats.exportLong("tweets_consumed");
+  private final AtomicLong parseErrors = Stats.exportLong("status_parse_errors");
+
+  /**
+   * Creates a pipeline; workers are not started until {@link #start()}.
+   *
+   * @param msgQueue hosebird message queue to consume raw statuses from.
+   * @param model model to report Tweets to.
+   * @param dictionary dictionary to resolve Hashtag ids with.
+   * @param extractorProvider provides an {@link Extractor} for each extract worker.
+   * @param parseThreads number of parse workers.
+   * @param extractThreads number of extract workers.
+   * @param aggregateThreads number of aggregate workers.
+   * @param batchSize max number of messages per batch.
+   * @param queueDepth max number of batches waiting for each of the extract and aggregate stages.
+   */
+  StatusPipeline(
+      BlockingQueue<String> msgQueue,
+      Model model,
+      HashtagDictionary dictionary,
+      Provider<Extractor> extractorProvider,
+      int parseThreads,
+      int extractThreads,
+      int aggregateThreads,
+      int batchSize,
+      int queueDepth) {
+
+    Preconditions.checkArgument(parseThreads > 0, "parseThreads must be positive!");
+    Preconditions.checkArgument(extractThreads > 0, "extractThreads must be positive!");
+    Preconditions.checkArgument(aggregateThreads > 0, "aggregateThreads must be positive!");
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive!");
+    Preconditions.checkArgument(queueDepth > 0, "queueDepth must be positive!");
+
+    this.msgQueue = Preconditions.checkNotNull(msgQueue);
+    this.model = Preconditions.checkNotNull(model);
+    this.dictionary = Preconditions.checkNotNull(dictionary);
+    this.extractorProvider = Preconditions.checkNotNull(extractorProvider);
+    this.parseThreads = parseThreads;
+    this.extractThreads = extractThreads;
+    this.aggregateThreads = aggregateThreads;
+    this.batchSize = batchSize;
+
+    extractQueue = new ArrayBlockingQueue<TweetBatch>(queueDepth);
+    aggregateQueue = new ArrayBlockingQueue<TweetBatch>(queueDepth);
+    executorService =
+        Executors.newFixedThreadPool(parseThreads + extractThreads + aggregateThreads);
+  }
+
+  /**
+   * Starts the workers of every stage.
+   */
+  public void start() {
+    for (int i = 0; i < parseThreads; i++) {
+      executorService.execute(new ParseWorker());
+    }
+    for (int i = 0; i < extractThreads; i++) {
+      executorService.execute(new ExtractWorker());
+    }
+    for (int i = 0; i < aggregateThreads; i++) {
+      executorService.execute(new AggregateWorker());
+    }
+  }
+
+  /**
+   * Interrupts the workers of every stage; batches in flight are discarded.
+   */
+  public void stop() {
+    executorService.shutdownNow();
+  }
+
+  /**
+   * Returns the text of a raw status message.
+   *
+   * @param message raw JSON message from the stream.
+   * @return the text of the status, or {@code null} if the message is not a status.
+   * @throws IOException if the message is not valid JSON.
+   */
+  String parseText(String message) throws IOException {
+    JsonParser parser = jsonFactory.createParser(message);
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("text".equals(field) && value == JsonToken.VALUE_STRING) {
+          return parser.getText();
+        }
+        // skips nested statuses, such as the original of a retweet, as a whole
+        parser.skipChildren();
+      }
+      return null;
+    } finally {
+      parser.close();
+    }
+  }
+
+  /**
+   * Tweets flowing through the pipeline together.  The texts are filled in by the parse stage and
+   * the packed (Hashtag id, count) pairs of every Tweet, back to back, by the extract stage.
+   */
+  private static class TweetBatch {
+    private final PipelineStats.Snapshot snapshot;
+    private String[] texts;
+    private int size = 0;
+    private int[] hashtagCounts;
+    private int length = 0;
+
+    TweetBatch(PipelineStats.Snapshot snapshot, int capacity) {
+      this.snapshot = snapshot;
+      texts = new String[capacity];
+    }
+
+    void addText(String text) {
+      texts[size++] = text;
+    }
+
+    void extract(Extractor extractor, TweetHashtags hashtags) {
+      hashtagCounts = new int[size * 2];
+      for (int i = 0; i < size; i++) {
+        hashtags.clear();
+        extractor.extractHashtags(texts[i], hashtags);
+        if (length + hashtags.length() > hashtagCounts.length) {
+          int[] grown = new int[Math.max(hashtagCounts.length * 2, length + hashtags.length())];
+          System.arraycopy(hashtagCounts, 0, grown, 0, length);
+          hashtagCounts = grown;
+        }
+        System.arraycopy(hashtags.hashtagCounts(), 0, hashtagCounts, length, hashtags.length());
+        length += hashtags.length();
+      }
+      // the texts are no longer needed
+      texts = null;
+    }
+  }
+
+  /**
+   * Runs one stage of the pipeline until interrupted.
+   */
+  private abstract static class Worker implements Runnable {
+    @Override
+    public void run() {
+      while (!Thread.currentThread().isInterrupted()) {
+        try {
+          process();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+          LOG.log(Level.SEVERE, "Failed to process batch of statuses", e);
+        }
+      }
+    }
+
+    abstract void process() throws InterruptedException;
+  }
+
+  private class ParseWorker extends Worker {
+    private final List<String> messages = Lists.newArrayList();
+
+    @Override
+    void process() throws InterruptedException {
+      messages.clear();
+      messages.add(msgQueue.take());
+      msgQueue.drainTo(messages, batchSize - 1);
+
+      PipelineStats.Snapshot snapshot = STATS.newSnapshot();
+      snapshot.start(PARSE);
+      TweetBatch batch = new TweetBatch(snapshot, messages.size());
+      for (String message : messages) {
+        String text;
+        try {
+          text = parseText(message);
+        } catch (IOException e) {
+          parseErrors.incrementAndGet();
+          continue;
+        }
+        if (text != null) {
+          log(tweetsConsumed.incrementAndGet(), text);
+          batch.addText(text);
+        }
+      }
+
+      if (batch.size > 0) {
+        snapshot.start(EXTRACT_QUEUE);
+        extractQueue.put(batch);
+      }
+    }
+
+    private void log(long count, String text) {
+      int interval = TWEET_LOG_INTERVAL.get();
+      if (interval > 0 && count % interval == 0) {
+        LOG.info("Tweet [" + count + "]: " + text);
+      }
+    }
+  }
+
+  private class ExtractWorker extends Worker {
+    /**
+     * Extractors are stateful, so each worker gets its own.
+     */
+    private final Extractor extractor = extractorProvider.get();
+    private final TweetHashtags hashtags = new TweetHashtags(dictionary);
+
+    @Override
+    void process() throws InterruptedException {
+      TweetBatch batch = extractQueue.take();
+      batch.snapshot.start(EXTRACT);
+      batch.extract(extractor, hashtags);
+      batch.snapshot.start(AGGREGATE_QUEUE);
+      aggregateQueue.put(batch);
+    }
+  }
+
+  private class AggregateWorker extends Worker {
+    /**
+     * Sums the counts of each Hashtag across a batch, so that the Model is updated once per
+     * Hashtag and locked once per batch rather than once per Tweet.
+     */
+    private final Int2IntOpenHashMap batchCounts = new Int2IntOpenHashMap();
+    private int[] hashtagCounts = new int[16];
+
+    @Override
+    void process() throws InterruptedException {
+      TweetBatch batch = aggregateQueue.take();
+      batch.snapshot.start(AGGREGATE);
+      batchCounts.clear();
+      for (int i = 0; i < batch.length; i += 2) {
+        batchCounts.addTo(batch.hashtagCounts[i], batch.hashtagCounts[i + 1]);
+      }
+
+      int length = batchCounts.size() * 2;
+      if (hashtagCounts.length < length) {
+        hashtagCounts = new int[length];
+      }
+      int i = 0;
+      for (Int2IntMap.Entry entry : batchCounts.int2IntEntrySet()) {
+        hashtagCounts[i++] = entry.getIntKey();
+        hashtagCounts[i++] = entry.getIntValue();
+      }
+      model.report(hashtagCounts, length, batch.size);
+      batch.snapshot.end();
+    }
+  }
+}
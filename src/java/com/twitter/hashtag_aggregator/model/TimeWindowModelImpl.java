@@ -0,0 +1,149 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.Clock;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * Streaming {@link Model} implementation that maintains the top {@link Hashtag}s observed within
+ * a sliding window of wall-clock time, such as the last 5 minutes at 1 second granularity.
+ *
+ * <p>Time is divided into buckets of {@code bucketLength}, and the window covers the most recent
+ * {@code windowLength / bucketLength} (rounded up) of them, including the bucket in progress.
+ * Each bucket only keeps the per-Hashtag count deltas reported while it was current, so a bucket
+ * leaving the window is expired in time proportional to the number of distinct Hashtags in it,
+ * regardless of how many Tweets it saw.  Counts are maintained incrementally, so queries never
+ * rescan buckets.
+ */
+class TimeWindowModelImpl implements Model {
+  private final HashtagDictionary dictionary;
+  private final Clock clock;
+
+  /**
+   * Maintains top Hashtag counts.
+   */
+  private final TopHashtags topHashtags;
+
+  /**
+   * Ring of per-bucket Hashtag id to count deltas; bucket {@code b} is stored at index
+   * {@code b % buckets.length}.
+   */
+  private final Int2IntOpenHashMap[] buckets;
+  private final long bucketNanos;
+  private final long startNanos;
+
+  /**
+   * Number of the bucket in progress, counted in {@code bucketNanos} intervals since
+   * {@code startNanos}.
+   */
+  private long currentBucket = 0;
+
+  TimeWindowModelImpl(
+      HashtagDictionary dictionary,
+      int maxHashtags,
+      Amount<Long, Time> windowLength,
+      Amount<Long, Time> bucketLength,
+      Clock clock) {
+
+    Preconditions.checkArgument(windowLength.getValue() > 0, "windowLength must be positive!");
+    Preconditions.checkArgument(bucketLength.getValue() > 0, "bucketLength must be positive!");
+
+    this.dictionary = Preconditions.checkNotNull(dictionary);
+    this.clock = Preconditions.checkNotNull(clock);
+    topHashtags = new TopHashtags(dictionary, maxHashtags);
+
+    bucketNanos = bucketLength.as(Time.NANOSECONDS);
+    long windowNanos = windowLength.as(Time.NANOSECONDS);
+    Preconditions.checkArgument(bucketNanos <= windowNanos,
+        "bucketLength must not exceed windowLength!");
+    long numBuckets = (windowNanos + bucketNanos - 1) / bucketNanos;
+    Preconditions.checkArgument(numBuckets <= Integer.MAX_VALUE, "Too many buckets in window!");
+
+    buckets = new Int2IntOpenHashMap[(int) numBuckets];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new Int2IntOpenHashMap();
+    }
+    startNanos = clock.nowNanos();
+  }
+
+  @Override
+  public void report(Map<String, Integer> hashtagToCountMap) {
+    int[] hashtagCounts = SlidingWindowModelImpl.toHashtagCounts(dictionary, hashtagToCountMap);
+    report(hashtagCounts, hashtagCounts.length);
+  }
+
+  @Override
+  public void report(int[] hashtagCounts, int length, int numTweets) {
+    // buckets are wall-clock time, so the number of Tweets does not matter
+    report(hashtagCounts, length);
+  }
+
+  @Override
+  public void report(int[] hashtagCounts, int length) {
+    long now = clock.nowNanos();
+    synchronized (this) {
+      advance(now);
+      Int2IntOpenHashMap bucket = buckets[slotOf(currentBucket)];
+      for (int i = 0; i < length; i += 2) {
+        int id = hashtagCounts[i];
+        int count = hashtagCounts[i + 1];
+        bucket.addTo(id, count);
+        topHashtags.increment(id, count);
+      }
+    }
+  }
+
+  @Override
+  public List<Hashtag> query(int n) {
+    long now = clock.nowNanos();
+    synchronized (this) {
+      advance(now);
+      return topHashtags.query(n);
+    }
+  }
+
+  /**
+   * Expires every bucket that has left the window as of {@code nowNanos}.
+   */
+  private void advance(long nowNanos) {
+    long bucket = bucketOf(nowNanos);
+    if (bucket <= currentBucket) {
+      // still in the current bucket, or the clock stepped backwards
+      return;
+    }
+
+    // once a whole window has elapsed every bucket needs expiring, but each only once
+    long firstExpired = Math.max(currentBucket + 1, bucket - buckets.length + 1);
+    for (long b = firstExpired; b <= bucket; b++) {
+      expire(buckets[slotOf(b)]);
+    }
+    currentBucket = bucket;
+  }
+
+  private void expire(Int2IntOpenHashMap bucket) {
+    if (bucket.isEmpty()) {
+      return;
+    }
+    for (Int2IntMap.Entry entry : bucket.int2IntEntrySet()) {
+      topHashtags.decrement(entry.getIntKey(), entry.getIntValue());
+    }
+    // clearing keeps the table allocated for reuse by a later bucket
+    bucket.clear();
+  }
+
+  private long bucketOf(long nanos) {
+    return (nanos - startNanos) / bucketNanos;
+  }
+
+  private int slotOf(long bucket) {
+    return (int) (bucket % buckets.length);
+  }
+}
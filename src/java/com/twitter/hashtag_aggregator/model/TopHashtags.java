@@ -0,0 +1,286 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import com.twitter.hashtag_aggregator.model.Model.Hashtag;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectHeapIndirectPriorityQueue;
+
+/**
+ * Counts for at most {@code maxHashtags} Hashtags, kept in heap order so that both the top
+ * Hashtags and the Hashtag to evict next can be found cheaply.  Windowed {@link Model}
+ * implementations increment counts as Hashtags enter their window and decrement them as Hashtags
+ * leave it.
+ *
+ * <p>Not thread-safe; callers must synchronize all access.
+ */
+class TopHashtags {
+  private final HashtagDictionary dictionary;
+
+  /**
+   * Maintains top Hashtag counts.
+   */
+  private final HashtagImpl[] hashtags;
+  private int nextHashtag = 0;
+
+  /**
+   * Maps Hashtag ids to their index in {@code hashtags}.
+   */
+  private final Int2IntMap hashtagLookup;
+
+  /**
+   * Hashtag at the top of the {@code minHeap} will be the first to be evicted once we hit
+   * {@code maxHashtags}.
+   */
+  private final Heap<HashtagImpl> minHeap;
+
+  /**
+   * Hashtags sorted in descending order of frequency.
+   */
+  private final Heap<HashtagImpl> maxHeap;
+
+  /**
+   * Snapshot of {@code maxHeap} used to satisfy queries.
+   */
+  private final Heap<HashtagImpl> queryHeap;
+
+  TopHashtags(HashtagDictionary dictionary, int maxHashtags) {
+    Preconditions.checkArgument(maxHashtags > 0, "maxHashtags must be positive!");
+
+    this.dictionary = Preconditions.checkNotNull(dictionary);
+
+    hashtags = new HashtagImpl[maxHashtags];
+    hashtagLookup = new Int2IntOpenHashMap(maxHashtags);
+    hashtagLookup.defaultReturnValue(-1);
+
+    minHeap = new Heap(hashtags, HashtagImpl.EVICTION_COMPARATOR);
+    maxHeap = new Heap(hashtags);
+    queryHeap = new Heap(hashtags);
+  }
+
+  /**
+   * Adds {@code count} occurrences of a Hashtag, evicting the Hashtag with the lowest count if the
+   * Hashtag is not already tracked and there is no room for it.  A Hashtag that is not tracked
+   * and whose text a {@link BoundedHashtagDictionary} no longer holds is skipped.
+   *
+   * @param id id of the Hashtag.
+   * @param count number of occurrences to add.
+   */
+  void increment(int id, int count) {
+    int index = hashtagLookup.get(id);
+
+    if (index == -1) {
+      // hashtag is not already in the Model
+      String hashtag = dictionary.getHashtag(id);
+      if (hashtag == null) {
+        // forgotten by a bounded dictionary; the next sighting of the hashtag records it again
+        return;
+      }
+
+      if (nextHashtag < hashtags.length) {
+        // there is space in the Model, so simply add it
+        index = nextHashtag++;
+
+        hashtags[index] = new HashtagImpl(id, hashtag, count);
+        hashtagLookup.put(id, index);
+
+        minHeap.enqueue(index);
+        maxHeap.enqueue(index);
+      } else {
+        // there is no room in the Model, so evict the Hashtag with the lowest count
+        index = minHeap.dequeue();
+        hashtagLookup.remove(hashtags[index].getId());
+
+        hashtags[index].reset(id, hashtag, count);
+        hashtagLookup.put(id, index);
+
+        minHeap.enqueue(index);
+        maxHeap.changed(index);
+      }
+    } else {
+      // hashtag is already present in the Model; so simply update weight
+      hashtags[index].increment(count);
+      updateHeaps(index);
+    }
+  }
+
+  /**
+   * Removes {@code count} occurrences of a Hashtag, if it is still tracked.
+   *
+   * @param id id of the Hashtag.
+   * @param count number of occurrences to remove.
+   */
+  void decrement(int id, int count) {
+    int index = hashtagLookup.get(id);
+    if (index != -1) {
+      hashtags[index].decrement(count);
+      updateHeaps(index);
+    }
+  }
+
+  /**
+   * Replaces the count of a Hashtag, if it is still tracked.
+   *
+   * @param id id of the Hashtag.
+   * @param count new count of the Hashtag.
+   * @return {@code true} if the Hashtag is tracked.
+   */
+  boolean update(int id, int count) {
+    int index = hashtagLookup.get(id);
+    if (index == -1) {
+      return false;
+    }
+    hashtags[index].setCount(count);
+    updateHeaps(index);
+    return true;
+  }
+
+  /**
+   * Replaces the count of a Hashtag if it is tracked, and otherwise starts tracking it if there is
+   * room or if {@code count} exceeds the lowest tracked count, which is evicted to make room.
+   * Unlike {@link #increment(int, int)}, a Hashtag that cannot beat the lowest tracked count never
+   * displaces it.
+   *
+   * @param id id of the Hashtag.
+   * @param count count of the Hashtag.
+   */
+  void offer(int id, int count) {
+    if (update(id, count)) {
+      return;
+    }
+    if (nextHashtag < hashtags.length || count > hashtags[minHeap.first()].getCount()) {
+      increment(id, count);
+    }
+  }
+
+  /**
+   * Restores heap order after the count of a single Hashtag changed.  The heaps can only repair
+   * one changed element at a time, so this must be called after every count update.
+   */
+  private void updateHeaps(int index) {
+    minHeap.changed(index);
+    maxHeap.changed(index);
+  }
+
+  /**
+   * Retrieves copies of the top-n Hashtags.
+   *
+   * @param requested number of top Hashtags to retrieve.
+   * @return List of top-n Hashtags, in descending order.
+   */
+  List<Hashtag> query(int requested) {
+    int n = requested > nextHashtag ? nextHashtag : requested;
+
+    maxHeap.copyInto(queryHeap);
+
+    ImmutableList.Builder<Hashtag> builder = ImmutableList.builder();
+    for (int i = 0; i < n; i++) {
+      builder.add(new HashtagImpl(hashtags[queryHeap.dequeue()]));
+    }
+    return builder.build();
+  }
+
+  static class HashtagImpl implements Hashtag, Comparable<HashtagImpl> {
+    static final Comparator<HashtagImpl> EVICTION_COMPARATOR = new Comparator<HashtagImpl>() {
+      @Override public int compare(HashtagImpl h1, HashtagImpl h2) {
+        // lowest count first, with ties broken in reverse lexical order
+        int i = Double.compare(h1.count, h2.count);
+        if (i == 0) {
+          return h1.hashtag.compareTo(h2.hashtag);
+        }
+        return i;
+      }
+    };
+
+    private int id;
+    private String hashtag;
+    private int count;
+
+    HashtagImpl(int id, String hashtag, int count) {
+      reset(id, hashtag, count);
+    }
+
+    HashtagImpl(HashtagImpl copy) {
+      this(copy.id, copy.hashtag, copy.count);
+    }
+
+    /**
+     * Reuses this instance for a different Hashtag.
+     */
+    void reset(int id, String hashtag, int count) {
+      this.id = id;
+      this.hashtag = hashtag;
+      this.count = count;
+    }
+
+    int getId() {
+      return id;
+    }
+
+    @Override
+    public String getHashtag() {
+      return hashtag;
+    }
+
+    @Override
+    public int getCount() {
+      return count;
+    }
+
+    void decrement(int n) {
+      count -= n;
+      if (count < 0) {
+        count = 0;
+      }
+    }
+
+    void increment(int n) {
+      count += n;
+    }
+
+    void setCount(int n) {
+      count = n < 0 ? 0 : n;
+    }
+
+    @Override
+    public int compareTo(HashtagImpl h) {
+      // highest count first, with ties broken in lexical order
+      int i = Double.compare(h.getCount(), count);
+      if (i == 0) {
+        return hashtag.compareTo(h.getHashtag());
+      }
+      return i;
+    }
+  }
+
+  /**
+   * Heap that can be copied.
+   */
+  private static class Heap<T> extends ObjectHeapIndirectPriorityQueue<T> {
+
+    Heap(T[] refArray) {
+      super(refArray);
+    }
+
+    Heap(T[] refArray, Comparator<T> c) {
+      super(refArray, c);
+    }
+
+    /**
+     * Copies the inversion and heap arrays into the provided Heap.
+     *
+     * @param dest destination Heap into which to copy the arrays.
+     */
+    void copyInto(Heap<T> dest) {
+      System.arraycopy(inv, 0, dest.inv, 0, inv.length);
+      System.arraycopy(heap, 0, dest.heap, 0, heap.length);
+      dest.size = size;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.List;
+
+/**
+ * Keeps track of top Hashtags over several wall-clock windows at once, along with how fast their
+ * counts are changing.
+ */
+public interface TrendModel {
+
+  /**
+   * Retrieves the names of the windows tracked, such as {@code 15m}, from shortest to longest.
+   *
+   * @return names of the windows tracked.
+   */
+  List<String> windows();
+
+  /**
+   * Queries a window for its top-n Hashtags.
+   *
+   * @param window name of the window, as returned by {@link #windows()}.
+   * @param n number of top Hashtags to retrieve.
+   * @return List of top-n Hashtags in the window, in descending order of count.
+   * @throws IllegalArgumentException if the window is not tracked.
+   */
+  List<Trend> query(String window, int n);
+
+  /**
+   * A Hashtag, its count over a window, and how that count is changing from one window to the
+   * next.
+   */
+  interface Trend extends Model.Hashtag {
+
+    /**
+     * Retrieves the change in count from the previous window to the current one.
+     *
+     * @return count over the current window less the count over the previous window.
+     */
+    int getVelocity();
+
+    /**
+     * Retrieves the change in velocity from the previous window to the current one.
+     *
+     * @return velocity over the current window less the velocity over the previous window.
+     */
+    int getAcceleration();
+  }
+}
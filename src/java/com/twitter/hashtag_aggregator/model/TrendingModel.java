@@ -0,0 +1,421 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.Clock;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * {@link Model} decorator that additionally tracks top Hashtags over several wall-clock windows,
+ * such as the last 1, 15 and 60 minutes, from the same stream of reported Tweets.
+ *
+ * <p>Time is divided into buckets of {@code bucketLength} shared by every window.  Like
+ * {@link TimeWindowModelImpl}, each bucket only keeps the per-Hashtag count deltas reported while
+ * it was current, and a window of {@code k} buckets maintains its counts incrementally as buckets
+ * enter and leave it.  To score trends, each window also keeps exact per-Hashtag counts for the
+ * {@code k} buckets before it (the previous window) and the {@code k} buckets before those (the
+ * prior window), so the ring holds three times as many buckets as the longest window.  Velocity
+ * is the change in count from the previous window to the current one and acceleration the change
+ * in velocity, both computed on query for the returned Hashtags only.
+ *
+ * <p>Like {@link ShardedModelImpl}, Hashtags are hash-partitioned across independently locked
+ * shards, each with its own ring of buckets and room for {@code maxHashtags} Hashtags per window,
+ * so that several threads can report Tweets in parallel.  A Hashtag's counts all live in one
+ * shard, so its velocity and acceleration are exact; queries merge the per-shard top-n lists.
+ *
+ * <p>Queries through the {@link Model} interface fall through to the decorated Model.  With no
+ * windows, reports go straight through as well.
+ */
+class TrendingModel implements Model, TrendModel {
+  private final Model delegate;
+  private final HashtagDictionary dictionary;
+  private final Clock clock;
+
+  private final List<String> windowNames;
+  private final int maxHashtags;
+  private final Shard[] shards;
+
+  /**
+   * Per-thread scratch space for splitting Tweets up by shard.
+   */
+  private final ThreadLocal<TweetHashtags[]> partitions = new ThreadLocal<TweetHashtags[]>() {
+    @Override protected TweetHashtags[] initialValue() {
+      TweetHashtags[] tweetPartitions = new TweetHashtags[shards.length];
+      for (int i = 0; i < shards.length; i++) {
+        tweetPartitions[i] = new TweetHashtags(dictionary);
+      }
+      return tweetPartitions;
+    }
+  };
+
+  /**
+   * Counts for one window: current counts in a {@link TopHashtags}, and exact counts for the two
+   * windows before it.
+   */
+  private static class Window {
+    private final int numBuckets;
+    private final TopHashtags current;
+    private final Int2IntOpenHashMap previous = new Int2IntOpenHashMap();
+    private final Int2IntOpenHashMap prior = new Int2IntOpenHashMap();
+
+    Window(int numBuckets, TopHashtags current) {
+      this.numBuckets = numBuckets;
+      this.current = current;
+    }
+  }
+
+  /**
+   * Decorates a model with trend tracking in a single shard.
+   *
+   * @param delegate model to decorate.
+   * @param dictionary dictionary to resolve Hashtag ids with.
+   * @param maxHashtags max number of Hashtags to track per window.
+   * @param windowLengths lengths of the windows to track.
+   * @param bucketLength granularity at which windows expire Hashtags.
+   * @param clock clock to bucket reported Tweets by.
+   */
+  TrendingModel(
+      Model delegate,
+      HashtagDictionary dictionary,
+      int maxHashtags,
+      List<Amount<Long, Time>> windowLengths,
+      Amount<Long, Time> bucketLength,
+      Clock clock) {
+
+    this(delegate, dictionary, maxHashtags, windowLengths, bucketLength, clock, 1);
+  }
+
+  /**
+   * Decorates a model with trend tracking.
+   *
+   * @param delegate model to decorate.
+   * @param dictionary dictionary to resolve Hashtag ids with.
+   * @param maxHashtags max number of Hashtags to track per window.
+   * @param windowLengths lengths of the windows to track.
+   * @param bucketLength granularity at which windows expire Hashtags.
+   * @param clock clock to bucket reported Tweets by.
+   * @param numShards number of independently locked shards to partition Hashtags across.
+   */
+  TrendingModel(
+      Model delegate,
+      HashtagDictionary dictionary,
+      int maxHashtags,
+      List<Amount<Long, Time>> windowLengths,
+      Amount<Long, Time> bucketLength,
+      Clock clock,
+      int numShards) {
+
+    Preconditions.checkArgument(maxHashtags > 0, "maxHashtags must be positive!");
+    Preconditions.checkArgument(bucketLength.getValue() > 0, "bucketLength must be positive!");
+    Preconditions.checkArgument(numShards > 0, "numShards must be positive!");
+
+    this.delegate = Preconditions.checkNotNull(delegate);
+    this.dictionary = Preconditions.checkNotNull(dictionary);
+    this.clock = Preconditions.checkNotNull(clock);
+    this.maxHashtags = maxHashtags;
+    long bucketNanos = bucketLength.as(Time.NANOSECONDS);
+
+    int[] windowBuckets = new int[windowLengths.size()];
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    for (int i = 0; i < windowBuckets.length; i++) {
+      Amount<Long, Time> windowLength = windowLengths.get(i);
+      long windowNanos = windowLength.as(Time.NANOSECONDS);
+      Preconditions.checkArgument(windowNanos >= bucketNanos,
+          "bucketLength must not exceed any window length!");
+      Preconditions.checkArgument(i == 0 || windowNanos > windowLengths.get(i - 1)
+          .as(Time.NANOSECONDS), "windowLengths must be in increasing order!");
+      long numBuckets = (windowNanos + bucketNanos - 1) / bucketNanos;
+      Preconditions.checkArgument(numBuckets * 3 <= Integer.MAX_VALUE, "Too many buckets!");
+
+      windowBuckets[i] = (int) numBuckets;
+      names.add(windowName(windowLength));
+    }
+    windowNames = names.build();
+
+    long startNanos = clock.nowNanos();
+    shards = new Shard[numShards];
+    for (int i = 0; i < numShards; i++) {
+      shards[i] = new Shard(dictionary, maxHashtags, windowBuckets, bucketNanos, startNanos);
+    }
+  }
+
+  /**
+   * Names a window by its length, such as {@code 1m} or {@code 15m}.
+   */
+  private static String windowName(Amount<Long, Time> windowLength) {
+    String unit;
+    switch (windowLength.getUnit()) {
+      case SECONDS:
+        unit = "s";
+        break;
+      case MINUTES:
+        unit = "m";
+        break;
+      case HOURS:
+        unit = "h";
+        break;
+      case DAYS:
+        unit = "d";
+        break;
+      default:
+        unit = windowLength.getUnit().toString();
+    }
+    return windowLength.getValue() + unit;
+  }
+
+  @Override
+  public void report(Map<String, Integer> hashtagToCountMap) {
+    int[] hashtagCounts = SlidingWindowModelImpl.toHashtagCounts(dictionary, hashtagToCountMap);
+    report(hashtagCounts, hashtagCounts.length);
+  }
+
+  @Override
+  public void report(int[] hashtagCounts, int length) {
+    delegate.report(hashtagCounts, length);
+    count(hashtagCounts, length);
+  }
+
+  @Override
+  public void report(int[] hashtagCounts, int length, int numTweets) {
+    delegate.report(hashtagCounts, length, numTweets);
+    count(hashtagCounts, length);
+  }
+
+  /**
+   * Adds Hashtag counts to the bucket in progress and to the current counts of every window, in
+   * the shard of each Hashtag.
+   */
+  private void count(int[] hashtagCounts, int length) {
+    if (windowNames.isEmpty() || length == 0) {
+      return;
+    }
+
+    long now = clock.nowNanos();
+    if (shards.length == 1) {
+      shards[0].count(now, hashtagCounts, length);
+      return;
+    }
+
+    TweetHashtags[] tweetPartitions = partitions.get();
+    for (int i = 0; i < length; i += 2) {
+      tweetPartitions[shardOf(hashtagCounts[i])].add(hashtagCounts[i], hashtagCounts[i + 1]);
+    }
+
+    for (int i = 0; i < shards.length; i++) {
+      TweetHashtags partition = tweetPartitions[i];
+      if (partition.length() > 0) {
+        shards[i].count(now, partition.hashtagCounts(), partition.length());
+        partition.clear();
+      }
+    }
+  }
+
+  @Override
+  public List<Hashtag> query(int n) {
+    return delegate.query(n);
+  }
+
+  @Override
+  public List<String> windows() {
+    return windowNames;
+  }
+
+  @Override
+  public List<Trend> query(String windowName, int n) {
+    int window = windowNames.indexOf(windowName);
+    Preconditions.checkArgument(window >= 0, "Unknown window: " + windowName);
+
+    long now = clock.nowNanos();
+    if (shards.length == 1) {
+      return shards[0].query(now, window, n);
+    }
+
+    // together the shards may hold more Hashtags than a single shard could
+    n = Math.min(n, maxHashtags);
+    List<List<Trend>> shardTops = Lists.newArrayListWithCapacity(shards.length);
+    for (Shard shard : shards) {
+      shardTops.add(shard.query(now, window, n));
+    }
+    return ShardedModelImpl.mergeTop(shardTops, n);
+  }
+
+  private int shardOf(int id) {
+    // ids are either assigned densely or hashed, so they spread evenly across shards as they are
+    return id % shards.length;
+  }
+
+  /**
+   * The buckets and window counts of the Hashtags in one shard, guarded by the shard's monitor.
+   */
+  private static class Shard {
+    private final Window[] windows;
+
+    /**
+     * Ring of per-bucket Hashtag id to count deltas; bucket {@code b} is stored at index
+     * {@code b % buckets.length}.
+     */
+    private final Int2IntOpenHashMap[] buckets;
+    private final long bucketNanos;
+    private final long startNanos;
+
+    /**
+     * Number of the bucket in progress, counted in {@code bucketNanos} intervals since
+     * {@code startNanos}.
+     */
+    private long currentBucket = 0;
+
+    Shard(HashtagDictionary dictionary, int maxHashtags, int[] windowBuckets, long bucketNanos,
+        long startNanos) {
+      windows = new Window[windowBuckets.length];
+      int maxBuckets = 0;
+      for (int i = 0; i < windows.length; i++) {
+        windows[i] = new Window(windowBuckets[i], new TopHashtags(dictionary, maxHashtags));
+        maxBuckets = windowBuckets[i];
+      }
+
+      buckets = new Int2IntOpenHashMap[maxBuckets * 3];
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new Int2IntOpenHashMap();
+      }
+      this.bucketNanos = bucketNanos;
+      this.startNanos = startNanos;
+    }
+
+    synchronized void count(long nowNanos, int[] hashtagCounts, int length) {
+      advance(nowNanos);
+      Int2IntOpenHashMap bucket = buckets[slotOf(currentBucket)];
+      for (int i = 0; i < length; i += 2) {
+        int id = hashtagCounts[i];
+        int count = hashtagCounts[i + 1];
+        bucket.addTo(id, count);
+        for (Window window : windows) {
+          window.current.increment(id, count);
+        }
+      }
+    }
+
+    synchronized List<Trend> query(long nowNanos, int windowIndex, int n) {
+      advance(nowNanos);
+      Window window = windows[windowIndex];
+      ImmutableList.Builder<Trend> builder = ImmutableList.builder();
+      for (Hashtag hashtag : window.current.query(n)) {
+        int id = ((TopHashtags.HashtagImpl) hashtag).getId();
+        int velocity = hashtag.getCount() - window.previous.get(id);
+        int previousVelocity = window.previous.get(id) - window.prior.get(id);
+        builder.add(new TrendImpl(
+            hashtag.getHashtag(), hashtag.getCount(), velocity, velocity - previousVelocity));
+      }
+      return builder.build();
+    }
+
+    /**
+     * Moves every bucket that has left a window as of {@code nowNanos} on to the window before it.
+     */
+    private void advance(long nowNanos) {
+      long bucket = (nowNanos - startNanos) / bucketNanos;
+
+      // once the whole ring has turned over every bucket has left every window, but each only once
+      long last = Math.min(bucket, currentBucket + buckets.length);
+      for (long b = currentBucket + 1; b <= last; b++) {
+        for (Window window : windows) {
+          leaveCurrent(b - window.numBuckets, window);
+          shift(b - 2L * window.numBuckets, window.previous, window.prior);
+          shift(b - 3L * window.numBuckets, window.prior, null);
+          if (b % window.numBuckets == 0) {
+            // Hashtags that left the window were removed from these as their counts reached zero,
+            // but the tables keep their peak capacity; shrink them once per window
+            window.previous.trim();
+            window.prior.trim();
+          }
+        }
+        // the slot of the oldest bucket in the ring is reused for bucket b, starting small again
+        buckets[slotOf(b)].clear();
+        buckets[slotOf(b)].trim();
+      }
+      currentBucket = Math.max(currentBucket, bucket);
+    }
+
+    /**
+     * Moves the counts of a bucket out of a window's current counts and into its previous counts.
+     */
+    private void leaveCurrent(long bucket, Window window) {
+      if (bucket < 0) {
+        return;
+      }
+      for (Int2IntMap.Entry entry : buckets[slotOf(bucket)].int2IntEntrySet()) {
+        window.current.decrement(entry.getIntKey(), entry.getIntValue());
+        window.previous.addTo(entry.getIntKey(), entry.getIntValue());
+      }
+    }
+
+    /**
+     * Moves the counts of a bucket from one set of counts to another, or drops them if {@code to}
+     * is {@code null}.
+     */
+    private void shift(long bucket, Int2IntOpenHashMap from, Int2IntOpenHashMap to) {
+      if (bucket < 0) {
+        return;
+      }
+      for (Int2IntMap.Entry entry : buckets[slotOf(bucket)].int2IntEntrySet()) {
+        subtract(from, entry.getIntKey(), entry.getIntValue());
+        if (to != null) {
+          to.addTo(entry.getIntKey(), entry.getIntValue());
+        }
+      }
+    }
+
+    private int slotOf(long bucket) {
+      return (int) (bucket % buckets.length);
+    }
+  }
+
+  private static void subtract(Int2IntOpenHashMap counts, int id, int count) {
+    // drop Hashtags that no longer count, so the map does not grow with every Hashtag ever seen
+    if (counts.addTo(id, -count) <= count) {
+      counts.remove(id);
+    }
+  }
+
+  static class TrendImpl implements Trend {
+    private final String hashtag;
+    private final int count;
+    private final int velocity;
+    private final int acceleration;
+
+    TrendImpl(String hashtag, int count, int velocity, int acceleration) {
+      this.hashtag = hashtag;
+      this.count = count;
+      this.velocity = velocity;
+      this.acceleration = acceleration;
+    }
+
+    @Override
+    public String getHashtag() {
+      return hashtag;
+    }
+
+    @Override
+    public int getCount() {
+      return count;
+    }
+
+    @Override
+    public int getVelocity() {
+      return velocity;
+    }
+
+    @Override
+    public int getAcceleration() {
+      return acceleration;
+    }
+  }
+}
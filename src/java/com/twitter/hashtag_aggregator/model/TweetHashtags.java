@@ -0,0 +1,77 @@
+package com.twitter.hashtag_aggregator.model;
+
+import com.google.common.base.Preconditions;
+
+import com.twitter.hashtag_aggregator.text.Extractor;
+
+/**
+ * Reusable accumulator of the Hashtags in one tweet, packed as (Hashtag id, count) pairs in an
+ * int array in the format expected by {@link Model#report(int[], int)}.
+ *
+ * <p>Instances are not thread-safe; each ingest thread should {@link #clear()} and reuse its own.
+ */
+class TweetHashtags implements Extractor.Handler {
+  private static final int INITIAL_HASHTAGS = 8;
+
+  private final HashtagDictionary dictionary;
+  private int[] hashtagCounts = new int[INITIAL_HASHTAGS * 2];
+  private int length = 0;
+
+  TweetHashtags(HashtagDictionary dictionary) {
+    this.dictionary = Preconditions.checkNotNull(dictionary);
+  }
+
+  @Override
+  public void onHashtag(CharSequence text, int offset, int hashtagLength) {
+    add(dictionary.getId(text, offset, hashtagLength), 1);
+  }
+
+  /**
+   * Adds {@code count} occurrences of the Hashtag with the given id.
+   *
+   * @param id Hashtag id.
+   * @param count number of occurrences.
+   */
+  void add(int id, int count) {
+    // tweets carry a handful of Hashtags at most, so a linear scan beats hashing
+    for (int i = 0; i < length; i += 2) {
+      if (hashtagCounts[i] == id) {
+        hashtagCounts[i + 1] += count;
+        return;
+      }
+    }
+
+    if (length == hashtagCounts.length) {
+      int[] grown = new int[hashtagCounts.length * 2];
+      System.arraycopy(hashtagCounts, 0, grown, 0, length);
+      hashtagCounts = grown;
+    }
+    hashtagCounts[length++] = id;
+    hashtagCounts[length++] = count;
+  }
+
+  /**
+   * Discards all accumulated Hashtags.
+   */
+  void clear() {
+    length = 0;
+  }
+
+  /**
+   * Returns the packed (Hashtag id, count) pairs; only the first {@link #length()} ints are valid.
+   *
+   * @return the backing array, which is reused after {@link #clear()}.
+   */
+  int[] hashtagCounts() {
+    return hashtagCounts;
+  }
+
+  /**
+   * Returns the number of valid ints in {@link #hashtagCounts()}, twice the number of Hashtags.
+   *
+   * @return number of valid ints.
+   */
+  int length() {
+    return length;
+  }
+}
@@ -0,0 +1,124 @@
+package com.twitter.hashtag_aggregator.model;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Fixed-capacity FIFO of Tweets, each stored as packed (Hashtag id, count) pairs tagged with the
+ * sequence number it was reported with.  The int arrays backing each slot are reused as Tweets
+ * cycle through the ring, so adding a Tweet does not allocate once every slot has held a Tweet at
+ * least as large.
+ *
+ * <p>Not thread-safe; callers must synchronize all access.
+ */
+class TweetRing {
+  private static final int INITIAL_TWEET_CAPACITY = 4;
+
+  /**
+   * Each Tweet is stored as the first {@code lengths[i]} ints of {@code tweets[i]}.
+   * {@code first} points to the index of the oldest Tweet.
+   */
+  private final int[][] tweets;
+  private final int[] lengths;
+  private final long[] sequences;
+  private int first = 0;
+  private int size = 0;
+
+  TweetRing(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive!");
+    tweets = new int[capacity][];
+    lengths = new int[capacity];
+    sequences = new long[capacity];
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  boolean isFull() {
+    return size == tweets.length;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int capacity() {
+    return tweets.length;
+  }
+
+  /**
+   * Appends a Tweet to the ring, which must not be full.
+   *
+   * @param sequence sequence number of the Tweet.
+   * @param hashtagCounts packed (Hashtag id, count) pairs; copied into the ring.
+   * @param length number of ints of {@code hashtagCounts} in use.
+   */
+  void add(long sequence, int[] hashtagCounts, int length) {
+    Preconditions.checkState(!isFull(), "ring is full");
+
+    int slot = slot(size);
+    if (tweets[slot] == null || tweets[slot].length < length) {
+      tweets[slot] = new int[Math.max(length, INITIAL_TWEET_CAPACITY)];
+    }
+    System.arraycopy(hashtagCounts, 0, tweets[slot], 0, length);
+    lengths[slot] = length;
+    sequences[slot] = sequence;
+    size++;
+  }
+
+  /**
+   * Returns the sequence number of the {@code i}th oldest Tweet in the ring.
+   */
+  long sequence(int i) {
+    return sequences[slot(i)];
+  }
+
+  /**
+   * Returns the packed (Hashtag id, count) pairs of the {@code i}th oldest Tweet in the ring; only
+   * the first {@link #length(int)} ints are valid, and the array is reused once the Tweet is
+   * removed.
+   */
+  int[] hashtagCounts(int i) {
+    return tweets[slot(i)];
+  }
+
+  /**
+   * Returns the number of valid ints in {@link #hashtagCounts(int)} for the {@code i}th oldest
+   * Tweet in the ring.
+   */
+  int length(int i) {
+    return lengths[slot(i)];
+  }
+
+  /**
+   * Removes the oldest Tweet from the ring, which must not be empty.
+   */
+  void removeOldest() {
+    Preconditions.checkState(!isEmpty(), "ring is empty");
+
+    /**
+     * Increment {@code first} circularly.
+     */
+    first++;
+    if (first == tweets.length) {
+      first = 0;
+    }
+    size--;
+  }
+
+  /**
+   * Returns a copy of this ring with the same capacity.
+   */
+  TweetRing copy() {
+    TweetRing copy = new TweetRing(tweets.length);
+    for (int i = 0; i < size; i++) {
+      copy.add(sequence(i), hashtagCounts(i), length(i));
+    }
+    return copy;
+  }
+
+  private int slot(int i) {
+    int slot = first + i;
+    return slot >= tweets.length ? slot - tweets.length : slot;
+  }
+}
@@ -14,4 +14,30 @@ public interface Extractor {
    * @return List of hashtags extracted from the text; possibly empty.
    */
   List<String> extractHashtags(String text);
+
+  /**
+   * Extracts hashtags from the provided text, passing each one to {@code handler} in place rather
+   * than copying it out.
+   *
+   * @param text text from which to extract hashtags.
+   * @param handler handler to notify of each hashtag, in the order they occur in the text.
+   */
+  void extractHashtags(String text, Handler handler);
+
+  /**
+   * Receives hashtags as they are extracted.
+   */
+  interface Handler {
+
+    /**
+     * Called for each hashtag extracted.  The hashtag is the span of {@code length} characters
+     * of {@code text} starting at {@code offset}; {@code text} must not be retained after the
+     * call returns.
+     *
+     * @param text character sequence containing the hashtag.
+     * @param offset index of the first character of the hashtag.
+     * @param length number of characters in the hashtag.
+     */
+    void onHashtag(CharSequence text, int offset, int length);
+  }
 }
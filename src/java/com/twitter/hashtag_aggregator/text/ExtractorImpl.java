@@ -17,6 +17,8 @@ import com.twitter.common.text.token.attribute.TokenTypeAttribute;
  */
 class ExtractorImpl implements Extractor {
   private final TokenStream tokenStream;
+  private final TokenTypeAttribute typeAttribute;
+  private final CharSequenceTermAttribute termAttribute;
 
   ExtractorImpl() {
     TextTokenizer tokenizer = new DefaultTextTokenizer.Builder().setKeepPunctuation(true).build();
@@ -24,25 +26,33 @@ class ExtractorImpl implements Extractor {
         .setMode(TokenTypeFilter.Mode.ACCEPT)
         .setTypesToFilter(TokenType.HASHTAG)
         .build();
+
+    // attribute instances are fixed for the life of the stream, so look them up once
+    typeAttribute = tokenStream.getAttribute(TokenTypeAttribute.class);
+    termAttribute = tokenStream.getAttribute(CharSequenceTermAttribute.class);
   }
 
   @Override
   public List<String> extractHashtags(String text) {
-    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    final ImmutableList.Builder<String> builder = ImmutableList.builder();
+    extractHashtags(text, new Handler() {
+      @Override public void onHashtag(CharSequence seq, int offset, int length) {
+        // copy the token
+        builder.add(seq.subSequence(offset, offset + length).toString());
+      }
+    });
+    return builder.build();
+  }
+
+  @Override
+  public void extractHashtags(String text, Handler handler) {
     tokenStream.reset(text);
 
     while (tokenStream.incrementToken()) {
-      TokenTypeAttribute typeAttribute = tokenStream.getAttribute(TokenTypeAttribute.class);
       if (typeAttribute.getType() == TokenType.HASHTAG) {
-
-        CharSequenceTermAttribute termAttribute = tokenStream
-            .getAttribute(CharSequenceTermAttribute.class);
-
-        // copy the token
-        builder.add(new StringBuilder(termAttribute.getTermCharSequence()).toString());
+        handler.onHashtag(termAttribute.getCharSequence(), termAttribute.getOffset(),
+            termAttribute.getLength());
       }
     }
-
-    return builder.build();
   }
 }
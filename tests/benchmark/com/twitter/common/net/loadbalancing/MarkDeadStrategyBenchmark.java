@@ -0,0 +1,83 @@
+package com.twitter.common.net.loadbalancing;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import com.twitter.common.base.Closures;
+import com.twitter.common.net.loadbalancing.RequestTracker.RequestResult;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.Stats;
+import com.twitter.common.util.BackoffDecider;
+import com.twitter.common.util.TruncatedBinaryBackoff;
+
+/**
+ * Measures the cost of reporting a request result to {@link MarkDeadStrategy} as the number of
+ * backends, and the share of them marked dead, grows.  Each rep is one successful request result
+ * for a live backend.
+ */
+public class MarkDeadStrategyBenchmark extends SimpleBenchmark {
+
+  // Long enough that no dead backend revives during a run.
+  private static final Amount<Long, Time> BACKOFF = Amount.of(1L, Time.HOURS);
+
+  @Param({"10", "100", "500"}) private int backends;
+  @Param({"0", "20"}) private int deadPercent;
+
+  private MarkDeadStrategy<Integer> strategy;
+  private List<Integer> liveBackends;
+
+  @Override protected void setUp() {
+    strategy = new MarkDeadStrategy<Integer>(new RoundRobinStrategy<Integer>(),
+        new Function<Integer, BackoffDecider>() {
+          @Override public BackoffDecider apply(Integer backend) {
+            return BackoffDecider.builder("backend_" + backend)
+                .withSeedSize(1)
+                .withTolerateFailureRate(0.5)
+                .withStrategy(new TruncatedBinaryBackoff(BACKOFF, BACKOFF))
+                .withRecoveryType(BackoffDecider.RecoveryType.FULL_CAPACITY)
+                .build();
+          }
+        });
+
+    Set<Integer> offered = Sets.newHashSet();
+    for (int i = 0; i < backends; i++) {
+      offered.add(i);
+    }
+    strategy.offerBackends(offered, Closures.<Collection<Integer>>noop());
+
+    int dead = backends * deadPercent / 100;
+    liveBackends = Lists.newArrayList();
+    for (int i = 0; i < backends; i++) {
+      if (i < dead) {
+        strategy.addRequestResult(i, RequestResult.FAILED, 0L);
+      } else {
+        liveBackends.add(i);
+      }
+    }
+  }
+
+  @Override protected void tearDown() {
+    Stats.flush();
+  }
+
+  public int timeAddRequestResult(int reps) {
+    int size = liveBackends.size();
+    for (int i = 0; i < reps; i++) {
+      strategy.addRequestResult(liveBackends.get(i % size), RequestResult.SUCCESS, 0L);
+    }
+    return size;
+  }
+
+  public static void main(String[] args) {
+    Runner.main(MarkDeadStrategyBenchmark.class, args);
+  }
+}
@@ -0,0 +1,157 @@
+package com.twitter.common.net.pool;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.Stats;
+
+/**
+ * Compares the throughput of leasing and releasing connections from {@link ConnectionPool} and
+ * {@link LockFreeConnectionPool} when several threads share a pool.  Each rep is one lease and
+ * release, split evenly among the threads.  The pools are built, and their stats exported, before
+ * timing starts.
+ */
+public class ObjectPoolBenchmark extends SimpleBenchmark {
+
+  @Param({"1", "4", "16"}) private int threads;
+  @Param({"1", "4", "16"}) private int connections;
+
+  private ExecutorService executor;
+  private ObjectPool<BenchmarkConnection> connectionPool;
+  private ObjectPool<BenchmarkConnection> lockFreePool;
+  private ObjectPool<BenchmarkConnection> affinityPool;
+
+  @Override protected void setUp() {
+    executor = Executors.newFixedThreadPool(threads);
+    connectionPool = new ConnectionPool<BenchmarkConnection>(
+        new BenchmarkConnectionFactory("locking", connections));
+    lockFreePool = new LockFreeConnectionPool<BenchmarkConnection>(
+        new BenchmarkConnectionFactory("lock_free", connections), Stats.STATS_PROVIDER, false);
+    affinityPool = new LockFreeConnectionPool<BenchmarkConnection>(
+        new BenchmarkConnectionFactory("affinity", connections), Stats.STATS_PROVIDER, true);
+  }
+
+  @Override protected void tearDown() {
+    connectionPool.close();
+    lockFreePool.close();
+    affinityPool.close();
+    executor.shutdownNow();
+    Stats.flush();
+  }
+
+  public int timeConnectionPool(int reps) throws Exception {
+    return run(connectionPool, reps);
+  }
+
+  public int timeLockFreeConnectionPool(int reps) throws Exception {
+    return run(lockFreePool, reps);
+  }
+
+  public int timeLockFreeConnectionPoolWithAffinity(int reps) throws Exception {
+    return run(affinityPool, reps);
+  }
+
+  private int run(final ObjectPool<BenchmarkConnection> pool, int reps) throws Exception {
+    final int leasesPerThread = Math.max(1, reps / threads);
+    final AtomicInteger dummy = new AtomicInteger();
+    final CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+    for (int i = 0; i < threads; i++) {
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          try {
+            barrier.await();
+            int sum = 0;
+            for (int j = 0; j < leasesPerThread; j++) {
+              BenchmarkConnection connection = pool.get();
+              sum += connection.id;
+              pool.release(connection);
+            }
+            dummy.addAndGet(sum);
+            barrier.await();
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+    }
+    try {
+      barrier.await();
+      barrier.await();
+    } catch (BrokenBarrierException e) {
+      throw new IllegalStateException("A benchmark thread failed.", e);
+    }
+    return dummy.get();
+  }
+
+  private static class BenchmarkConnection implements Connection<Integer, Integer> {
+    private final int id;
+
+    BenchmarkConnection(int id) {
+      this.id = id;
+    }
+
+    @Override public Integer get() {
+      return id;
+    }
+
+    @Override public boolean isValid() {
+      return true;
+    }
+
+    @Override public void close() {
+      // noop
+    }
+
+    @Override public Integer getEndpoint() {
+      return id;
+    }
+  }
+
+  private static class BenchmarkConnectionFactory
+      implements ConnectionFactory<BenchmarkConnection> {
+
+    private final String name;
+    private final int maxSize;
+    private final AtomicInteger size = new AtomicInteger();
+
+    BenchmarkConnectionFactory(String name, int maxSize) {
+      this.name = name;
+      this.maxSize = maxSize;
+    }
+
+    @Override public boolean mightCreate() {
+      return size.get() < maxSize;
+    }
+
+    @Override public BenchmarkConnection create(Amount<Long, Time> timeout) {
+      int id = size.incrementAndGet();
+      if (id > maxSize) {
+        size.decrementAndGet();
+        return null;
+      }
+      return new BenchmarkConnection(id);
+    }
+
+    @Override public void destroy(BenchmarkConnection connection) {
+      size.decrementAndGet();
+    }
+
+    @Override public String toString() {
+      // the pools name their stats after the factory
+      return "benchmark_" + name;
+    }
+  }
+
+  public static void main(String[] args) {
+    Runner.main(ObjectPoolBenchmark.class, args);
+  }
+}
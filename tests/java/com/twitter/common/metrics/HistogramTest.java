@@ -7,6 +7,7 @@ import org.junit.Test;
 
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
+import com.twitter.common.stats.LogLinearHistogram;
 import com.twitter.common.stats.Precision;
 
 import static org.junit.Assert.assertEquals;
@@ -89,6 +90,36 @@ public class HistogramTest {
     assertTrue(errorInPercent / Histogram.DEFAULT_QUANTILES.length < 0.01);
   }
 
+  @Test
+  public void testLockFreeHistogram() {
+    int n = 10000;
+    Histogram hist = new Histogram(name, new LogLinearHistogram(0.001), metrics);
+
+    Map<String, Number> sample = metrics.sample();
+    assertEquals(0L, sample.get(name + ScopedMetrics.SCOPE_DELIMITER + "min"));
+    assertEquals(0L, sample.get(name + ScopedMetrics.SCOPE_DELIMITER + "avg"));
+
+    for (int i = 1; i <= n; ++i) {
+      hist.add(i);
+    }
+
+    sample = metrics.sample();
+    assertEquals(1L, sample.get(name + ScopedMetrics.SCOPE_DELIMITER + "min"));
+    assertEquals((long) n, sample.get(name + ScopedMetrics.SCOPE_DELIMITER + "max"));
+    assertEquals((long) n, sample.get(name + ScopedMetrics.SCOPE_DELIMITER + "count"));
+    assertEquals((long) (n * (n + 1) / 2),
+      sample.get(name + ScopedMetrics.SCOPE_DELIMITER + "sum"));
+    assertEquals((long) n / 2, sample.get(name + ScopedMetrics.SCOPE_DELIMITER + "avg"));
+    for (double q : Histogram.DEFAULT_QUANTILES) {
+      String gName = name + ScopedMetrics.SCOPE_DELIMITER + Histogram.gaugeName(q);
+      assertTrue(Math.abs(q * n - sample.get(gName).doubleValue()) / (q * n) <= 0.001);
+    }
+
+    hist.clear();
+    sample = metrics.sample();
+    assertEquals(0L, sample.get(name + ScopedMetrics.SCOPE_DELIMITER + "count"));
+  }
+
   @Test
   public void testavgPrecision() {
     int n =  1000 * 1000;
@@ -11,9 +11,11 @@ import org.junit.Test;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests metric registry scoping.
@@ -54,6 +56,39 @@ public class MetricsTest {
     checkSamples(ImmutableMap.<String, Number>of("foo", 10L, "bar.foo", 2L, "bar.baz.foo", 3L));
   }
 
+  @Test
+  public void testDeepScopeRegistersWithRoot() {
+    final AtomicLong value = new AtomicLong(7);
+    Gauge<Long> gauge = new AbstractGauge<Long>("gauge") {
+      @Override public Long read() {
+        return value.get();
+      }
+    };
+    metrics.scope("a").scope("b").scope("c").register(gauge);
+
+    checkSamples(ImmutableMap.<String, Number>of("a.b.c.gauge", 7L));
+  }
+
+  @Test
+  public void testSampleLookups() {
+    metrics.registerLong("foo").set(1);
+    metrics.scope("bar").registerLong("foo").set(2);
+
+    Map<String, Number> samples = metrics.sample();
+    assertEquals(2, samples.size());
+    assertEquals(1L, samples.get("foo"));
+    assertEquals(2L, samples.get("bar.foo"));
+    assertTrue(samples.containsKey("bar.foo"));
+    assertFalse(samples.containsKey("baz"));
+    assertNull(samples.get("baz"));
+    assertEquals(ImmutableMap.<String, Number>of("foo", 1L, "bar.foo", 2L), samples);
+
+    // Registering another metric does not change samples already taken.
+    metrics.registerLong("baz");
+    assertEquals(2, samples.size());
+    assertEquals(3, metrics.sample().size());
+  }
+
   @Test
   public void testDetachedRoot() {
     String name = "foo";
@@ -0,0 +1,134 @@
+package com.twitter.common.net.http.handlers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.stats.StatChangeTracker;
+import com.twitter.common.stats.StatChangeTracker.Delta;
+
+import static org.junit.Assert.assertEquals;
+
+public class VarsDeltaHandlerTest extends StatSupplierTestBase {
+
+  private VarsDeltaHandler varsDelta;
+
+  @Before
+  public void setUp() {
+    varsDelta = new VarsDeltaHandler(statSupplier, new StatChangeTracker());
+  }
+
+  @Test
+  public void testJson() throws IOException {
+    expectVarScrape(ImmutableMap.<String, Object>of("float", 4.5, "int", 5, "str", "foobar"));
+    expectVarScrape(ImmutableMap.<String, Object>of("float", 4.5, "int", 6, "str", "foobar"));
+    expectVarScrape(ImmutableMap.<String, Object>of("float", 4.5, "int", 6));
+
+    control.replay();
+
+    Delta full = varsDelta.poll(null, null);
+    assertEquals(
+        "{\"token\":\"" + full.getToken() + "\",\"full\":true,"
+            + "\"vars\":{\"float\":4.5,\"int\":5,\"str\":\"foobar\"},\"removed\":[]}",
+        json(full));
+
+    Delta delta = varsDelta.poll(null, full.getToken());
+    assertEquals(
+        "{\"token\":\"" + delta.getToken() + "\",\"full\":false,\"vars\":{\"int\":6},"
+            + "\"removed\":[]}",
+        json(delta));
+
+    delta = varsDelta.poll(null, delta.getToken());
+    assertEquals(
+        "{\"token\":\"" + delta.getToken() + "\",\"full\":false,\"vars\":{},"
+            + "\"removed\":[\"str\"]}",
+        json(delta));
+  }
+
+  @Test
+  public void testBinary() throws IOException {
+    expectVarScrape(ImmutableMap.<String, Object>of(
+        "float", 4.5, "int", -300, "str", "foobar"));
+
+    control.replay();
+
+    Delta delta = varsDelta.poll(new String[] {"float", "int", "s"}, null);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    VarsDeltaHandler.writeBinary(bytes, delta);
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(VarsDeltaHandler.BINARY_VERSION, in.readByte());
+    assertEquals(delta.getToken(), readString(in));
+    assertEquals(1, in.readByte());
+    assertEquals(3, readVarint(in));
+
+    assertEquals("float", readString(in));
+    assertEquals(VarsDeltaHandler.TYPE_FLOATING, in.readByte());
+    assertEquals(4.5, in.readDouble(), 0);
+
+    assertEquals("int", readString(in));
+    assertEquals(VarsDeltaHandler.TYPE_INTEGRAL, in.readByte());
+    long zigzag = readVarint(in);
+    assertEquals(-300, (zigzag >>> 1) ^ -(zigzag & 1));
+
+    assertEquals("str", readString(in));
+    assertEquals(VarsDeltaHandler.TYPE_STRING, in.readByte());
+    assertEquals("foobar", readString(in));
+
+    assertEquals(0, readVarint(in));
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void testBinaryRemoved() throws IOException {
+    expectVarScrape(ImmutableMap.<String, Object>of("int", 1, "str", "foobar"));
+    expectVarScrape(ImmutableMap.<String, Object>of("int", 1));
+
+    control.replay();
+
+    String token = varsDelta.poll(null, null).getToken();
+    Delta delta = varsDelta.poll(null, token);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    VarsDeltaHandler.writeBinary(bytes, delta);
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(VarsDeltaHandler.BINARY_VERSION, in.readByte());
+    assertEquals(delta.getToken(), readString(in));
+    assertEquals(0, in.readByte());
+    assertEquals(0, readVarint(in));
+    assertEquals(1, readVarint(in));
+    assertEquals("str", readString(in));
+    assertEquals(-1, in.read());
+  }
+
+  private static String json(Delta delta) throws IOException {
+    StringWriter out = new StringWriter();
+    VarsDeltaHandler.writeJson(out, delta);
+    return out.toString();
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[(int) readVarint(in)];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  private static long readVarint(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+}
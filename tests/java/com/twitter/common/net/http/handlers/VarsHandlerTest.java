@@ -1,20 +1,30 @@
 package com.twitter.common.net.http.handlers;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.CharStreams;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import com.twitter.common.stats.Stat;
 
+import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -35,6 +45,7 @@ public class VarsHandlerTest extends StatSupplierTestBase {
   @Test
   public void testGetEmpty() {
     expectVarScrape(ImmutableMap.<String, Object>of());
+    expectPrefixes((String[]) null);
 
     control.replay();
 
@@ -48,6 +59,7 @@ public class VarsHandlerTest extends StatSupplierTestBase {
         "int", 5,
         "float", 4.16126
     ));
+    expectPrefixes((String[]) null);
 
     control.replay();
 
@@ -58,6 +70,64 @@ public class VarsHandlerTest extends StatSupplierTestBase {
         "str foobar"));
   }
 
+  @Test
+  public void testGetPrefixes() {
+    Stat<?> excluded = createMock(Stat.class);
+    expect(excluded.getName()).andReturn("str");
+    Iterable<Stat<?>> stats = ImmutableList.<Stat<?>>of(
+        readStat("jvm_uptime", 10),
+        excluded,
+        readStat("int", 5),
+        readStat("jvm_threads", 4));
+    expect(statSupplier.get()).andReturn(stats);
+    expectPrefixes("jvm_", "i");
+
+    control.replay();
+
+    checkOutput(Arrays.asList(
+        "int 5",
+        "jvm_threads 4",
+        "jvm_uptime 10"));
+  }
+
+  @Test
+  public void testGetGzip() throws Exception {
+    expectVarScrape(ImmutableMap.<String, Object>of(
+        "str", "foobar",
+        "int", 5
+    ));
+    expectPrefixes((String[]) null);
+    expect(request.getHeader("Accept-Encoding")).andReturn("deflate, gzip");
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    response.setContentType("text/plain");
+    response.setCharacterEncoding("UTF-8");
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setHeader("Content-Encoding", "gzip");
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+      @Override public void write(int b) throws IOException {
+        body.write(b);
+      }
+    });
+
+    control.replay();
+
+    vars.doGet(request, response);
+    assertEquals("int 5\nstr foobar\n", CharStreams.toString(new InputStreamReader(
+        new GZIPInputStream(new ByteArrayInputStream(body.toByteArray())), Charsets.UTF_8)));
+  }
+
+  private Stat<?> readStat(String name, Object value) {
+    Stat<?> stat = createMock(Stat.class);
+    expect(stat.getName()).andReturn(name);
+    expect(stat.read()).andReturn(value);
+    return stat;
+  }
+
+  private void expectPrefixes(String... prefixes) {
+    expect(request.getParameterValues(SortedVars.PREFIX_PARAM)).andReturn(prefixes);
+  }
+
   private void checkOutput(List<String> expectedLines) {
     assertEquals(expectedLines,
         ImmutableList.copyOf(vars.getLines(request)));
@@ -1,5 +1,6 @@
 package com.twitter.common.net.http.handlers;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 import org.junit.Before;
@@ -38,7 +39,8 @@ public class VarsJsonHandlerTest extends StatSupplierTestBase {
 
     control.replay();
 
-    assertEquals("{\"str\":\"foobar\",\"int\":5,\"float\":4.16126}", varsJson.getBody(false));
+    // expect the output to be sorted
+    assertEquals("{\"float\":4.16126,\"int\":5,\"str\":\"foobar\"}", varsJson.getBody(false));
   }
 
   @Test
@@ -52,9 +54,35 @@ public class VarsJsonHandlerTest extends StatSupplierTestBase {
     control.replay();
 
     assertEquals("{\n" +
-        "  \"str\": \"foobar\",\n" +
+        "  \"float\": 4.16126,\n" +
         "  \"int\": 5,\n" +
-        "  \"float\": 4.16126\n" +
+        "  \"str\": \"foobar\"\n" +
         "}", varsJson.getBody(true));
   }
+
+  @Test
+  public void testGetNonFinite() {
+    expectVarScrape(ImmutableMap.<String, Object>of(
+        "inf", Double.POSITIVE_INFINITY,
+        "nan", Double.NaN,
+        "neg_inf", Float.NEGATIVE_INFINITY
+    ));
+
+    control.replay();
+
+    assertEquals("{\"inf\":\"Infinity\",\"nan\":\"NaN\",\"neg_inf\":\"-Infinity\"}",
+        varsJson.getBody(false));
+  }
+
+  @Test
+  public void testGetObject() {
+    expectVarScrape(ImmutableMap.<String, Object>of(
+        "list", ImmutableList.of(1, 2),
+        "map", ImmutableMap.of("a", "b")
+    ));
+
+    control.replay();
+
+    assertEquals("{\"list\":[1,2],\"map\":{\"a\":\"b\"}}", varsJson.getBody(false));
+  }
 }
@@ -17,8 +17,21 @@
 package com.twitter.common.net.loadbalancing;
 
 import java.util.Collection;
-
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Multisets;
 
 import org.easymock.Capture;
 import org.junit.Before;
@@ -32,6 +45,7 @@ import com.twitter.common.testing.EasyMockTest;
 import static org.easymock.EasyMock.capture;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -53,7 +67,8 @@ public class LeastConnectedStrategyTest extends EasyMockTest {
   public void setUp() {
     onBackendsChosen = createMock(new Clazz<Closure<Collection<String>>>() {});
 
-    leastCon = new LeastConnectedStrategy<String>();
+    // A fixed seed keeps the random choices of the strategy the same from run to run.
+    leastCon = new LeastConnectedStrategy<String>(new Random(1));
   }
 
   @Test(expected = ResourceExhaustedException.class)
@@ -83,10 +98,37 @@ public class LeastConnectedStrategyTest extends EasyMockTest {
     connect(BACKEND_1, 1);
     connect(BACKEND_2, 2);
     connect(BACKEND_3, 3);
-    assertThat(leastCon.nextBackend(), is(BACKEND_1));
+    assertThat(mostChosen(), is(BACKEND_1));
 
     connect(BACKEND_1, 2);
-    assertThat(leastCon.nextBackend(), is(BACKEND_2));
+    assertThat(mostChosen(), is(BACKEND_2));
+  }
+
+  @Test
+  public void testNeverPicksMostConnected() throws ResourceExhaustedException {
+    BackendOfferExpectation backendOfferExpectation = new BackendOfferExpectation();
+    control.replay();
+
+    backendOfferExpectation.offerBackends(BACKEND_1, BACKEND_2, BACKEND_3, BACKEND_4);
+    connect(BACKEND_1, 1);
+    connect(BACKEND_2, 2);
+    connect(BACKEND_3, 3);
+    connect(BACKEND_4, 4);
+
+    Multiset<String> choices = choose();
+    assertFalse(choices.contains(BACKEND_4));
+    assertEquals(ImmutableSet.of(BACKEND_1, BACKEND_2, BACKEND_3), choices.elementSet());
+  }
+
+  @Test
+  public void testTwoBackendsExact() throws ResourceExhaustedException {
+    BackendOfferExpectation backendOfferExpectation = new BackendOfferExpectation();
+    control.replay();
+
+    backendOfferExpectation.offerBackends(BACKEND_1, BACKEND_2);
+    connect(BACKEND_1, 1);
+
+    assertEquals(ImmutableSet.of(BACKEND_2), choose().elementSet());
   }
 
   @Test
@@ -98,7 +140,7 @@ public class LeastConnectedStrategyTest extends EasyMockTest {
     connect(BACKEND_1, 1);
     connect(BACKEND_2, 2);
 
-    assertThat(leastCon.nextBackend(), is(BACKEND_3));
+    assertThat(mostChosen(), is(BACKEND_3));
   }
 
   @Test
@@ -127,7 +169,7 @@ public class LeastConnectedStrategyTest extends EasyMockTest {
 
     disconnect(BACKEND_1, 6);
 
-    assertThat(leastCon.nextBackend(), is(BACKEND_1));
+    assertThat(mostChosen(), is(BACKEND_1));
   }
 
   @Test
@@ -138,8 +180,9 @@ public class LeastConnectedStrategyTest extends EasyMockTest {
     ImmutableSet<String> allBackends = ImmutableSet.of(BACKEND_1, BACKEND_2, BACKEND_3);
     backendOfferExpectation.offerBackends(allBackends);
 
+    // Two backends that tie may each be chosen, so allow a few rounds to reach the third.
     ImmutableSet.Builder<String> usedBackends = ImmutableSet.builder();
-    for (int i = 0; i < allBackends.size(); i++) {
+    for (int i = 0; i < allBackends.size() * 3; i++) {
       String backend = leastCon.nextBackend();
       usedBackends.add(backend);
       connect(backend, 1);
@@ -157,18 +200,18 @@ public class LeastConnectedStrategyTest extends EasyMockTest {
     backendOfferExpectation.offerBackends(BACKEND_1, BACKEND_2, BACKEND_3, BACKEND_4);
 
     connect(BACKEND_1, ConnectionResult.FAILED, 1);
-    assertThat(leastCon.nextBackend(), is(BACKEND_2));
+    assertEquals(ImmutableSet.of(BACKEND_2, BACKEND_3, BACKEND_4), choose().elementSet());
 
     connect(BACKEND_2, ConnectionResult.FAILED, 1);
-    assertThat(leastCon.nextBackend(), is(BACKEND_3));
+    assertTrue(ImmutableSet.of(BACKEND_3, BACKEND_4).contains(mostChosen()));
 
     connect(BACKEND_3, 1);
-    assertThat(leastCon.nextBackend(), is(BACKEND_4));
+    assertThat(mostChosen(), is(BACKEND_4));
 
     connect(BACKEND_4, 1);
 
-    // Now we should rotate around to the front and give the connection failure another try.
-    assertThat(leastCon.nextBackend(), is(BACKEND_1));
+    // Now the connection failures should be given another try.
+    assertTrue(ImmutableSet.of(BACKEND_1, BACKEND_2).contains(mostChosen()));
   }
 
   @Test
@@ -180,7 +223,7 @@ public class LeastConnectedStrategyTest extends EasyMockTest {
     backendOfferExpectation.offerBackends(allBackends);
 
     ImmutableSet.Builder<String> usedBackends = ImmutableSet.builder();
-    for (int i = 0; i < allBackends.size(); i++) {
+    for (int i = 0; i < allBackends.size() * 3; i++) {
       String backend = leastCon.nextBackend();
       usedBackends.add(backend);
       connect(backend, ConnectionResult.FAILED, 1);
@@ -200,7 +243,7 @@ public class LeastConnectedStrategyTest extends EasyMockTest {
     connect(BACKEND_3, 5);
     disconnect(BACKEND_3, 5);
 
-    assertThat(leastCon.nextBackend(), is(BACKEND_2));
+    assertThat(mostChosen(), is(BACKEND_2));
   }
 
   @Test
@@ -245,12 +288,78 @@ public class LeastConnectedStrategyTest extends EasyMockTest {
     connect(BACKEND_1, 10);
     connect(BACKEND_2, 8);
     connect(BACKEND_3, 9);
-    assertThat(leastCon.nextBackend(), is(BACKEND_4));
+    assertThat(mostChosen(), is(BACKEND_4));
 
     offer2.offerBackends(BACKEND_1, BACKEND_2, BACKEND_3);
+    assertThat(mostChosen(), is(BACKEND_2));
+  }
+
+  @Test
+  public void testIgnoresUnknownBackends() throws ResourceExhaustedException {
+    BackendOfferExpectation backendOfferExpectation = new BackendOfferExpectation();
+    control.replay();
+
+    backendOfferExpectation.offerBackends(BACKEND_1, BACKEND_2);
+    connect(BACKEND_1, 1);
+    connect(BACKEND_3, 2);
+    disconnect(BACKEND_4, 1);
+
     assertThat(leastCon.nextBackend(), is(BACKEND_2));
   }
 
+  @Test
+  public void testConcurrentAccounting() throws Exception {
+    BackendOfferExpectation backendOfferExpectation = new BackendOfferExpectation();
+    control.replay();
+
+    backendOfferExpectation.offerBackends(BACKEND_1, BACKEND_2, BACKEND_3);
+    connect(BACKEND_1, 1);
+
+    final int threads = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> results = Lists.newArrayList();
+      for (int i = 0; i < threads; i++) {
+        results.add(executor.submit(new Callable<Void>() {
+          @Override public Void call() throws Exception {
+            start.await();
+            for (int j = 0; j < 10000; j++) {
+              String backend = leastCon.nextBackend();
+              connect(backend, 1);
+              disconnect(backend, 1);
+            }
+            return null;
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<Void> result : results) {
+        result.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Every connection made concurrently was returned, so BACKEND_1 is left with none.
+    disconnect(BACKEND_1, 1);
+    connect(BACKEND_2, 1);
+    connect(BACKEND_3, 1);
+    assertThat(mostChosen(), is(BACKEND_1));
+  }
+
+  private Multiset<String> choose() throws ResourceExhaustedException {
+    Multiset<String> choices = HashMultiset.create();
+    for (int i = 0; i < 300; i++) {
+      choices.add(leastCon.nextBackend());
+    }
+    return choices;
+  }
+
+  private String mostChosen() throws ResourceExhaustedException {
+    return Iterables.getFirst(Multisets.copyHighestCountFirst(choose()).elementSet(), null);
+  }
+
   private void connect(String backend, int count) {
     connect(backend, ConnectionResult.SUCCESS, count);
   }
@@ -16,8 +16,10 @@
 
 package com.twitter.common.net.loadbalancing;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.twitter.common.base.Closure;
+import com.twitter.common.base.Closures;
 import com.twitter.common.testing.EasyMockTest;
 import com.twitter.common.net.pool.ResourceExhaustedException;
 import com.twitter.common.net.loadbalancing.LoadBalancingStrategy.ConnectionResult;
@@ -28,6 +30,10 @@ import org.junit.Test;
 
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.eq;
@@ -121,6 +127,30 @@ public class LoadBalancerImplTest extends EasyMockTest {
     loadBalancer.released(BACKEND_2);
   }
 
+  @Test
+  public void testConcurrentStrategyNotSerialized() throws Exception {
+    control.replay();
+
+    final LoadBalancer<String> concurrentBalancer =
+        LoadBalancerImpl.create(new RoundRobinStrategy<String>());
+    concurrentBalancer.offerBackends(ImmutableSet.of(BACKEND_1),
+        Closures.<Collection<String>>noop());
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // Backends are chosen even while another thread holds the balancer's monitor.
+      synchronized (concurrentBalancer) {
+        assertThat(executor.submit(new Callable<String>() {
+          @Override public String call() throws ResourceExhaustedException {
+            return concurrentBalancer.nextBackend();
+          }
+        }).get(10, TimeUnit.SECONDS), is(BACKEND_1));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   private class BackendOfferExpectation {
     private final Set<String> backends;
     private final Capture<Closure<Collection<String>>> onBackendsChosenCapture;
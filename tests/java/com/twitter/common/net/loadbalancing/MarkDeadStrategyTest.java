@@ -17,9 +17,12 @@
 package com.twitter.common.net.loadbalancing;
 
 import com.google.common.base.Function;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.twitter.common.base.Closure;
+import com.twitter.common.base.Closures;
 import com.twitter.common.net.pool.ResourceExhaustedException;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
@@ -35,6 +38,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.easymock.EasyMock.expect;
 import static org.hamcrest.CoreMatchers.is;
@@ -58,6 +67,7 @@ public class MarkDeadStrategyTest extends EasyMockTest {
   private LoadBalancingStrategy<String> markDead;
   private Random random;
   private FakeClock clock;
+  private Function<String, BackoffDecider> backoffFactory;
 
   @Before
   public void setUp() {
@@ -68,24 +78,24 @@ public class MarkDeadStrategyTest extends EasyMockTest {
     random = createMock(Random.class);
     clock = new FakeClock();
 
-    Function<String, BackoffDecider> backoffFactory =
-        new Function<String, BackoffDecider>() {
-          @Override public BackoffDecider apply(String s) {
-            return BackoffDecider.builder(s)
-                .withSeedSize(1)
-                .withClock(clock)
-                .withRandom(random)
-                .withTolerateFailureRate(0.5)
-                .withStrategy(new TruncatedBinaryBackoff(INITIAL_BACKOFF, MAX_BACKOFF))
-                // This recovery type is suggested for load balancer strategies to prevent
-                // connection pool churn that would occur from the random linear recovery type.
-                .withRecoveryType(BackoffDecider.RecoveryType.FULL_CAPACITY)
-                .withRequestWindow(MAX_BACKOFF)
-                .build();
-          }
-        };
-
-    markDead = new MarkDeadStrategy<String>(wrappedStrategy, backoffFactory, mockHostChecker);
+    backoffFactory = new Function<String, BackoffDecider>() {
+      @Override public BackoffDecider apply(String s) {
+        return BackoffDecider.builder(s)
+            .withSeedSize(1)
+            .withClock(clock)
+            .withRandom(random)
+            .withTolerateFailureRate(0.5)
+            .withStrategy(new TruncatedBinaryBackoff(INITIAL_BACKOFF, MAX_BACKOFF))
+            // This recovery type is suggested for load balancer strategies to prevent
+            // connection pool churn that would occur from the random linear recovery type.
+            .withRecoveryType(BackoffDecider.RecoveryType.FULL_CAPACITY)
+            .withRequestWindow(MAX_BACKOFF)
+            .build();
+      }
+    };
+
+    markDead = new MarkDeadStrategy<String>(wrappedStrategy, backoffFactory, mockHostChecker,
+        clock);
 
   }
 
@@ -308,6 +318,60 @@ public class MarkDeadStrategyTest extends EasyMockTest {
     connect(BACKEND_2, ConnectionResult.FAILED, 5);  // BACKEND_2 marked as dead.
   }
 
+  @Test
+  public void testIgnoresUnofferedBackends() {
+    wrappedStrategy.offerBackends(Sets.newHashSet(BACKEND_1, BACKEND_2), onBackendsChosen);
+    wrappedStrategy.offerBackends(Sets.newHashSet(BACKEND_1), onBackendsChosen);
+    expectConnected(BACKEND_1, ConnectionResult.SUCCESS, 1);
+
+    control.replay();
+
+    markDead.offerBackends(Sets.newHashSet(BACKEND_1, BACKEND_2), onBackendsChosen);
+    markDead.offerBackends(Sets.newHashSet(BACKEND_1), onBackendsChosen);
+    connect(BACKEND_2, ConnectionResult.FAILED, 5);
+    request(BACKEND_2, RequestResult.SUCCESS, 5);
+    markDead.connectionReturned(BACKEND_2);
+    connect(BACKEND_1, ConnectionResult.SUCCESS, 1);
+  }
+
+  @Test
+  public void testConcurrentResults() throws Exception {
+    control.replay();
+
+    final MarkDeadStrategy<String> strategy = new MarkDeadStrategy<String>(
+        new RoundRobinStrategy<String>(), backoffFactory, Predicates.<String>alwaysTrue());
+    strategy.offerBackends(Sets.newHashSet(BACKEND_1, BACKEND_2),
+        Closures.<Collection<String>>noop());
+
+    int threads = 4;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> results = Lists.newArrayList();
+    for (int i = 0; i < threads; i++) {
+      results.add(executor.submit(new Callable<Void>() {
+        @Override public Void call() throws Exception {
+          start.await();
+          for (int j = 0; j < 1000; j++) {
+            strategy.addRequestResult(BACKEND_1, RequestResult.SUCCESS, 0L);
+            strategy.addRequestResult(BACKEND_2, RequestResult.FAILED, 0L);
+            strategy.nextBackend();
+          }
+          return null;
+        }
+      }));
+    }
+    start.countDown();
+    for (Future<?> result : results) {
+      result.get();
+    }
+    executor.shutdown();
+
+    // Only the failing backend is marked dead.
+    for (int i = 0; i < 10; i++) {
+      assertThat(strategy.nextBackend(), is(BACKEND_1));
+    }
+  }
+
   private int connect(String backend, ConnectionResult result, int count) {
     for (int i = 0; i < count; i++) {
       markDead.addConnectResult(backend, result, 0L);
@@ -0,0 +1,166 @@
+package com.twitter.common.net.loadbalancing;
+
+import java.util.Collection;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.base.Closures;
+import com.twitter.common.net.loadbalancing.LoadBalancingStrategy.ConnectionResult;
+import com.twitter.common.net.loadbalancing.RequestTracker.RequestResult;
+import com.twitter.common.net.pool.ResourceExhaustedException;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.testing.FakeTicker;
+
+import static org.junit.Assert.assertEquals;
+
+public class PeakEwmaStrategyTest {
+
+  private static final String BACKEND_1 = "backend1";
+  private static final String BACKEND_2 = "backend2";
+  private static final String BACKEND_3 = "backend3";
+
+  private static final long MILLIS = Amount.of(1L, Time.MILLISECONDS).as(Time.NANOSECONDS);
+
+  private FakeTicker ticker;
+  private PeakEwmaStrategy<String> strategy;
+
+  @Before
+  public void setUp() {
+    ticker = new FakeTicker();
+    // Always compares the first two offered backends.
+    Random random = new Random() {
+      @Override public int nextInt(int n) {
+        return 0;
+      }
+    };
+    strategy = new PeakEwmaStrategy<String>(Amount.of(10L, Time.SECONDS),
+        Amount.of(1L, Time.SECONDS), random, ticker);
+  }
+
+  @Test(expected = ResourceExhaustedException.class)
+  public void testNoBackends() throws ResourceExhaustedException {
+    strategy.nextBackend();
+  }
+
+  @Test
+  public void testSingleBackend() throws ResourceExhaustedException {
+    offer(BACKEND_1);
+    assertEquals(BACKEND_1, strategy.nextBackend());
+  }
+
+  @Test
+  public void testPrefersLowerLatency() throws ResourceExhaustedException {
+    offer(BACKEND_1, BACKEND_2);
+    request(BACKEND_1, RequestResult.SUCCESS, 100);
+    request(BACKEND_2, RequestResult.SUCCESS, 10);
+    assertEquals(BACKEND_2, strategy.nextBackend());
+
+    request(BACKEND_1, RequestResult.SUCCESS, 1);
+    request(BACKEND_2, RequestResult.SUCCESS, 1);
+    ticker.advance(Amount.of(1L, Time.MINUTES));
+    request(BACKEND_1, RequestResult.SUCCESS, 1);
+    request(BACKEND_2, RequestResult.SUCCESS, 50);
+    assertEquals(BACKEND_1, strategy.nextBackend());
+  }
+
+  @Test
+  public void testWeighsOutstandingConnections() throws ResourceExhaustedException {
+    offer(BACKEND_1, BACKEND_2);
+    request(BACKEND_1, RequestResult.SUCCESS, 10);
+    request(BACKEND_2, RequestResult.SUCCESS, 20);
+    assertEquals(BACKEND_1, strategy.nextBackend());
+
+    connect(BACKEND_1, 2);
+    assertEquals(BACKEND_2, strategy.nextBackend());
+
+    strategy.connectionReturned(BACKEND_1);
+    strategy.connectionReturned(BACKEND_1);
+    assertEquals(BACKEND_1, strategy.nextBackend());
+  }
+
+  @Test
+  public void testPeakRespondsImmediately() throws ResourceExhaustedException {
+    offer(BACKEND_1, BACKEND_2);
+    request(BACKEND_1, RequestResult.SUCCESS, 10);
+    request(BACKEND_2, RequestResult.SUCCESS, 20);
+    for (int i = 0; i < 100; i++) {
+      ticker.advance(Amount.of(100L, Time.MILLISECONDS));
+      request(BACKEND_1, RequestResult.SUCCESS, 10);
+      request(BACKEND_2, RequestResult.SUCCESS, 20);
+    }
+    assertEquals(BACKEND_1, strategy.nextBackend());
+
+    // A single slow request makes the backend look slow at once.
+    request(BACKEND_1, RequestResult.SUCCESS, 500);
+    assertEquals(BACKEND_2, strategy.nextBackend());
+
+    // It recovers as fast requests are observed.
+    for (int i = 0; i < 100; i++) {
+      ticker.advance(Amount.of(1L, Time.SECONDS));
+      request(BACKEND_1, RequestResult.SUCCESS, 10);
+      request(BACKEND_2, RequestResult.SUCCESS, 20);
+    }
+    assertEquals(BACKEND_1, strategy.nextBackend());
+  }
+
+  @Test
+  public void testFailuresPenalized() throws ResourceExhaustedException {
+    offer(BACKEND_1, BACKEND_2);
+    request(BACKEND_1, RequestResult.SUCCESS, 100);
+    request(BACKEND_2, RequestResult.FAILED, 1);
+    assertEquals(BACKEND_1, strategy.nextBackend());
+  }
+
+  @Test
+  public void testProbesUnmeasuredBackends() throws ResourceExhaustedException {
+    offer(BACKEND_1, BACKEND_2);
+    request(BACKEND_1, RequestResult.SUCCESS, 1);
+    assertEquals(BACKEND_2, strategy.nextBackend());
+
+    // Once a probe is outstanding, the unmeasured backend is avoided.
+    connect(BACKEND_2, 1);
+    assertEquals(BACKEND_1, strategy.nextBackend());
+  }
+
+  @Test
+  public void testRetainsLoadAcrossOffers() throws ResourceExhaustedException {
+    offer(BACKEND_1, BACKEND_2);
+    request(BACKEND_1, RequestResult.SUCCESS, 100);
+    request(BACKEND_2, RequestResult.SUCCESS, 10);
+
+    offer(BACKEND_2, BACKEND_1, BACKEND_3);
+    request(BACKEND_3, RequestResult.SUCCESS, 50);
+    // Now compares BACKEND_2 and BACKEND_1.
+    assertEquals(BACKEND_2, strategy.nextBackend());
+  }
+
+  @Test
+  public void testIgnoresUnknownBackends() throws ResourceExhaustedException {
+    offer(BACKEND_1, BACKEND_2);
+    request(BACKEND_1, RequestResult.SUCCESS, 10);
+    request(BACKEND_2, RequestResult.SUCCESS, 20);
+    connect(BACKEND_3, 1);
+    request(BACKEND_3, RequestResult.SUCCESS, 1);
+    strategy.connectionReturned(BACKEND_3);
+    assertEquals(BACKEND_1, strategy.nextBackend());
+  }
+
+  private void offer(String... backends) {
+    strategy.offerBackends(ImmutableSet.copyOf(backends), Closures.<Collection<String>>noop());
+  }
+
+  private void connect(String backend, int count) {
+    for (int i = 0; i < count; i++) {
+      strategy.addConnectResult(backend, ConnectionResult.SUCCESS, 0L);
+    }
+  }
+
+  private void request(String backend, RequestResult result, long latencyMillis) {
+    strategy.addRequestResult(backend, result, latencyMillis * MILLIS);
+  }
+}
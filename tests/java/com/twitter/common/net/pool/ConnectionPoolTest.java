@@ -16,17 +16,25 @@
 
 package com.twitter.common.net.pool;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.Stats;
+import com.twitter.common.util.testing.FakeClock;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -247,6 +255,215 @@ public class ConnectionPoolTest {
     control.verify();
   }
 
+  @Test
+  public void testMaintenanceCreatesMinIdle() throws Exception {
+    MaintenancePolicy policy = MaintenancePolicy.builder()
+        .withMinIdle(2)
+        .withInterval(Amount.of(1L, Time.SECONDS))
+        .build();
+
+    @SuppressWarnings("unchecked")
+    Connection<String, Integer> connection1 = control.createMock(Connection.class);
+    @SuppressWarnings("unchecked")
+    Connection<String, Integer> connection2 = control.createMock(Connection.class);
+    expect(connectionFactory.mightCreate()).andReturn(true).times(2);
+    expect(connectionFactory.create(policy.interval)).andReturn(connection1);
+    expect(connectionFactory.create(policy.interval)).andReturn(connection2);
+    expect(connection1.isValid()).andReturn(true).times(2);
+    expect(connection2.isValid()).andReturn(true).times(2);
+
+    control.replay();
+
+    ConnectionPool<Connection<String, Integer>> connectionPool =
+        createMaintainedConnectionPool(policy, new FakeClock());
+    connectionPool.maintain();
+
+    // Connections are leased from the pool without creating more, and the minimum is kept.
+    assertSame(connection2, connectionPool.get());
+    assertSame(connection1, connectionPool.get());
+    connectionPool.release(connection1);
+    connectionPool.release(connection2);
+    connectionPool.maintain();
+
+    control.verify();
+  }
+
+  @Test
+  public void testCloseCancelsSharedMaintenance() throws Exception {
+    MaintenancePolicy policy = MaintenancePolicy.builder()
+        .withInterval(Amount.of(1L, Time.SECONDS))
+        .build();
+    ScheduledExecutorService maintenanceExecutor =
+        control.createMock(ScheduledExecutorService.class);
+    ScheduledFuture<?> maintenanceTask = control.createMock(ScheduledFuture.class);
+    long intervalNs = policy.interval.as(Time.NANOSECONDS);
+    EasyMock.<ScheduledFuture<?>>expect(maintenanceExecutor.scheduleWithFixedDelay(
+        EasyMock.<Runnable>anyObject(), eq(0L), eq(intervalNs), eq(TimeUnit.NANOSECONDS)))
+        .andReturn(maintenanceTask);
+    // The executor is shared with other pools, so only this pool's task is cancelled.
+    expect(maintenanceTask.cancel(false)).andReturn(true);
+
+    control.replay();
+
+    new ConnectionPool<Connection<String, Integer>>(MoreExecutors.sameThreadExecutor(),
+        poolLock, connectionFactory, Stats.STATS_PROVIDER, policy,
+        new Predicate<Connection<String, Integer>>() {
+          @Override public boolean apply(Connection<String, Integer> connection) {
+            return connection.isValid();
+          }
+        }, maintenanceExecutor, new FakeClock()).close();
+
+    control.verify();
+  }
+
+  @Test
+  public void testMaintenanceEvictsIdle() throws Exception {
+    MaintenancePolicy policy = MaintenancePolicy.builder()
+        .withMinIdle(1)
+        .withMaxIdleTime(Amount.of(1L, Time.MINUTES))
+        .build();
+    FakeClock clock = new FakeClock();
+
+    @SuppressWarnings("unchecked")
+    Connection<String, Integer> connection1 = control.createMock(Connection.class);
+    @SuppressWarnings("unchecked")
+    Connection<String, Integer> connection2 = control.createMock(Connection.class);
+    expect(connectionFactory.create(ObjectPool.NO_TIMEOUT)).andReturn(connection1);
+    expect(connectionFactory.mightCreate()).andReturn(true);
+    expect(connectionFactory.create(ObjectPool.NO_TIMEOUT)).andReturn(connection2);
+    expect(connection1.isValid()).andReturn(true).times(3);
+    expect(connection2.isValid()).andReturn(true).times(2);
+    connectionFactory.destroy(connection2);
+
+    control.replay();
+
+    ConnectionPool<Connection<String, Integer>> connectionPool =
+        createMaintainedConnectionPool(policy, clock);
+    assertSame(connection1, connectionPool.get());
+    assertSame(connection2, connectionPool.get());
+    connectionPool.release(connection2);
+    connectionPool.release(connection1);
+
+    // The most recently released connection is leased first, leaving connection2 idle.
+    clock.advance(Amount.of(30L, Time.SECONDS));
+    assertSame(connection1, connectionPool.get());
+
+    // connection2 has been idle too long, but is kept as the minimum idle connection.
+    clock.advance(Amount.of(1L, Time.MINUTES));
+    connectionPool.maintain();
+
+    connectionPool.release(connection1);
+    clock.advance(Amount.of(2L, Time.MINUTES));
+    connectionPool.maintain();
+
+    control.verify();
+  }
+
+  @Test
+  public void testMaintenanceEvictsInvalid() throws Exception {
+    MaintenancePolicy policy = MaintenancePolicy.builder().build();
+
+    @SuppressWarnings("unchecked")
+    Connection<String, Integer> connection = control.createMock(Connection.class);
+    expect(connectionFactory.create(ObjectPool.NO_TIMEOUT)).andReturn(connection);
+    expect(connection.isValid()).andReturn(true);
+    expect(connection.isValid()).andReturn(false);
+    connectionFactory.destroy(connection);
+
+    control.replay();
+
+    ConnectionPool<Connection<String, Integer>> connectionPool =
+        createMaintainedConnectionPool(policy, new FakeClock());
+    connectionPool.release(connectionPool.get());
+    connectionPool.maintain();
+
+    control.verify();
+  }
+
+  @Test
+  public void testMaintenanceValidatesOutsidePoolLock() throws Exception {
+    MaintenancePolicy policy = MaintenancePolicy.builder().build();
+
+    @SuppressWarnings("unchecked")
+    final Connection<String, Integer> connection1 = control.createMock(Connection.class);
+    @SuppressWarnings("unchecked")
+    Connection<String, Integer> connection2 = control.createMock(Connection.class);
+    expect(connectionFactory.create(ObjectPool.NO_TIMEOUT)).andReturn(connection1);
+    expect(connectionFactory.mightCreate()).andReturn(true);
+    expect(connectionFactory.create(ObjectPool.NO_TIMEOUT)).andReturn(connection2);
+    expect(connection1.isValid()).andReturn(true);
+    expect(connection2.isValid()).andReturn(true);
+    connectionFactory.destroy(connection1);
+
+    control.replay();
+
+    final List<Connection<String, Integer>> validated = Lists.newArrayList();
+    ConnectionPool<Connection<String, Integer>> connectionPool =
+        createMaintainedConnectionPool(policy, new FakeClock(),
+            new Predicate<Connection<String, Integer>>() {
+              @Override public boolean apply(Connection<String, Integer> connection) {
+                assertFalse(poolLock.isHeldByCurrentThread());
+                validated.add(connection);
+                return connection != connection1;
+              }
+            });
+    Connection<String, Integer> leased1 = connectionPool.get();
+    Connection<String, Integer> leased2 = connectionPool.get();
+    connectionPool.release(leased1);
+    connectionPool.release(leased2);
+    connectionPool.maintain();
+
+    // The longest idle connection is validated first.
+    assertEquals(ImmutableList.of(connection1, connection2), validated);
+    assertSame(connection2, connectionPool.get());
+
+    control.verify();
+  }
+
+  @Test
+  public void testMaxLifetime() throws Exception {
+    MaintenancePolicy policy = MaintenancePolicy.builder()
+        .withMaxLifetime(Amount.of(1L, Time.HOURS))
+        .build();
+    FakeClock clock = new FakeClock();
+
+    @SuppressWarnings("unchecked")
+    Connection<String, Integer> connection = control.createMock(Connection.class);
+    expect(connectionFactory.create(ObjectPool.NO_TIMEOUT)).andReturn(connection);
+    expect(connection.isValid()).andReturn(true).times(2);
+    connectionFactory.destroy(connection);
+
+    control.replay();
+
+    ConnectionPool<Connection<String, Integer>> connectionPool =
+        createMaintainedConnectionPool(policy, clock);
+    connectionPool.release(connectionPool.get());
+    Connection<String, Integer> leased = connectionPool.get();
+
+    // Expired while leased, so destroyed on release.
+    clock.advance(Amount.of(2L, Time.HOURS));
+    connectionPool.release(leased);
+
+    control.verify();
+  }
+
+  private ConnectionPool<Connection<String, Integer>> createMaintainedConnectionPool(
+      MaintenancePolicy policy, FakeClock clock) {
+    return createMaintainedConnectionPool(policy, clock,
+        new Predicate<Connection<String, Integer>>() {
+          @Override public boolean apply(Connection<String, Integer> connection) {
+            return connection.isValid();
+          }
+        });
+  }
+
+  private ConnectionPool<Connection<String, Integer>> createMaintainedConnectionPool(
+      MaintenancePolicy policy, FakeClock clock,
+      Predicate<Connection<String, Integer>> validator) {
+    return new ConnectionPool<Connection<String, Integer>>(MoreExecutors.sameThreadExecutor(),
+        poolLock, connectionFactory, Stats.STATS_PROVIDER, policy, validator, null, clock);
+  }
+
   private Executor createMockExecutor() {
     return control.createMock(Executor.class);
   }
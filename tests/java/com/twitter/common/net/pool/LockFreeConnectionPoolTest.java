@@ -0,0 +1,362 @@
+package com.twitter.common.net.pool;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.Stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LockFreeConnectionPoolTest {
+
+  private TestConnectionFactory connectionFactory;
+
+  @Before
+  public void setUp() {
+    connectionFactory = new TestConnectionFactory(2);
+  }
+
+  @After
+  public void tearDown() {
+    Stats.flush();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReleaseUnmanaged() {
+    createPool(true).release(new TestConnection(1));
+  }
+
+  @Test
+  public void testReleaseUnmanagedIdentity() throws Exception {
+    LockFreeConnectionPool<TestConnection> pool = createPool(false);
+    TestConnection connection = pool.get();
+
+    try {
+      pool.release(new TestConnection(connection.getEndpoint()));
+      fail("An equal connection should not be accepted.");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    pool.release(connection);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDoubleRelease() throws Exception {
+    LockFreeConnectionPool<TestConnection> pool = createPool(true);
+    TestConnection connection = pool.get();
+    pool.release(connection);
+    pool.release(connection);
+  }
+
+  @Test(expected = ResourceExhaustedException.class)
+  public void testExhaustedWillNotCreate() throws Exception {
+    createPool(true, new TestConnectionFactory(0)).get();
+  }
+
+  @Test
+  public void testExhaustedCreateFailure() throws Exception {
+    connectionFactory.failure = new IllegalStateException("Connection refused.");
+    try {
+      createPool(true).get();
+      fail("A failed creation should exhaust an empty pool.");
+    } catch (ResourceExhaustedException e) {
+      assertSame(connectionFactory.failure, e.getCause());
+    }
+  }
+
+  @Test
+  public void testAffinity() throws Exception {
+    final LockFreeConnectionPool<TestConnection> pool = createPool(true);
+    Callable<TestConnection> lease = new Callable<TestConnection>() {
+      @Override public TestConnection call() throws Exception {
+        return pool.get();
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final TestConnection first = executor.submit(lease).get();
+      executor.submit(new Runnable() {
+        @Override public void run() {
+          pool.release(first);
+        }
+      }).get();
+
+      assertSame(first, pool.get());
+      TestConnection second = pool.get();
+      pool.release(first);
+      pool.release(second);
+
+      // The stack would lease the second connection, but the other thread last used the first.
+      assertSame(first, executor.submit(lease).get());
+      assertSame(second, pool.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testLastReleasedLeasedFirst() throws Exception {
+    LockFreeConnectionPool<TestConnection> pool = createPool(false);
+    TestConnection first = pool.get();
+    TestConnection second = pool.get();
+    assertNotSame(first, second);
+    pool.release(first);
+    pool.release(second);
+
+    assertSame(second, pool.get());
+    assertSame(first, pool.get());
+    assertEquals(2, connectionFactory.created.get());
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    LockFreeConnectionPool<TestConnection> pool = createPool(true);
+    TestConnection connection = pool.get();
+    pool.remove(connection);
+    assertEquals(1, connectionFactory.destroyed.get());
+
+    TestConnection invalid = pool.get();
+    assertNotSame(connection, invalid);
+    invalid.valid = false;
+    pool.release(invalid);
+    assertEquals(2, connectionFactory.destroyed.get());
+
+    assertNotSame(invalid, pool.get());
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void testTimeout() throws Exception {
+    LockFreeConnectionPool<TestConnection> pool = createPool(true, new TestConnectionFactory(1));
+    pool.get();
+    pool.get(Amount.of(10L, Time.MILLISECONDS));
+  }
+
+  @Test
+  public void testFailedLeaseStats() throws Exception {
+    LockFreeConnectionPool<TestConnection> pool = createPool(true, new TestConnectionFactory(1));
+    pool.get();
+    try {
+      pool.get(Amount.of(10L, Time.MILLISECONDS));
+      fail("The only connection is leased.");
+    } catch (TimeoutException e) {
+      // Expected.
+    }
+    assertEquals(1L, readStat("cp_lease_wait_test_factory_timeouts"));
+    assertEquals(0L, readStat("cp_lease_wait_test_factory_errors"));
+
+    Stats.flush();
+    connectionFactory = new TestConnectionFactory(1);
+    connectionFactory.failure = new IllegalStateException("Connection refused.");
+    try {
+      createPool(true, connectionFactory).get();
+      fail("A failed creation should exhaust an empty pool.");
+    } catch (ResourceExhaustedException e) {
+      // Expected.
+    }
+    assertEquals(0L, readStat("cp_lease_wait_test_factory_timeouts"));
+    assertEquals(1L, readStat("cp_lease_wait_test_factory_errors"));
+  }
+
+  @Test
+  public void testCounters() throws Exception {
+    LockFreeConnectionPool<TestConnection> pool = createPool(true);
+    TestConnection connection = pool.get();
+    pool.release(connection);
+    assertSame(connection, pool.get());
+    pool.release(connection);
+    assertEquals(2L, readStat("cp_returned_connections_test_factory"));
+    assertEquals(1L, readStat("cp_affinity_hits_test_factory"));
+    // The first lease waited for the connection to be created.
+    assertEquals(1L, readStat("cp_immediate_leases_test_factory"));
+  }
+
+  @Test
+  public void testWaiterLeasesReleased() throws Exception {
+    final LockFreeConnectionPool<TestConnection> pool =
+        createPool(true, new TestConnectionFactory(1));
+    TestConnection connection = pool.get();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<TestConnection> waiter = executor.submit(new Callable<TestConnection>() {
+        @Override public TestConnection call() throws Exception {
+          return pool.get();
+        }
+      });
+      try {
+        waiter.get(10, TimeUnit.MILLISECONDS);
+        fail("No connection should be available.");
+      } catch (TimeoutException e) {
+        // Expected.
+      }
+
+      pool.release(connection);
+      assertSame(connection, waiter.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    LockFreeConnectionPool<TestConnection> pool = createPool(true);
+    TestConnection available = pool.get();
+    TestConnection leased = pool.get();
+    pool.release(available);
+
+    pool.close();
+    assertEquals(1, connectionFactory.destroyed.get());
+    pool.release(leased);
+    assertEquals(2, connectionFactory.destroyed.get());
+  }
+
+  @Test
+  public void testConcurrentLeases() throws Exception {
+    final int threads = 8;
+    final int leases = 10000;
+    final LockFreeConnectionPool<TestConnection> pool = new LockFreeConnectionPool<TestConnection>(
+        connectionFactory, Stats.STATS_PROVIDER, true);
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicBoolean shared = new AtomicBoolean();
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> results = Lists.newArrayList();
+      for (int i = 0; i < threads; i++) {
+        results.add(executor.submit(new Callable<Void>() {
+          @Override public Void call() throws Exception {
+            start.await();
+            for (int j = 0; j < leases; j++) {
+              TestConnection connection = pool.get();
+              if (connection.leases.incrementAndGet() != 1) {
+                shared.set(true);
+              }
+              connection.leases.decrementAndGet();
+              pool.release(connection);
+            }
+            return null;
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<?> result : results) {
+        result.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertFalse(shared.get());
+    assertTrue(connectionFactory.created.get() <= 2);
+    assertEquals(0, connectionFactory.destroyed.get());
+  }
+
+  private LockFreeConnectionPool<TestConnection> createPool(boolean threadAffinity) {
+    return createPool(threadAffinity, connectionFactory);
+  }
+
+  private LockFreeConnectionPool<TestConnection> createPool(boolean threadAffinity,
+      TestConnectionFactory factory) {
+    connectionFactory = factory;
+    return new LockFreeConnectionPool<TestConnection>(MoreExecutors.sameThreadExecutor(),
+        factory, Stats.STATS_PROVIDER, threadAffinity);
+  }
+
+  private static long readStat(String name) {
+    return Stats.<Number>getVariable(name).read().longValue();
+  }
+
+  private static class TestConnection implements Connection<String, Integer> {
+    private final int id;
+    private final AtomicInteger leases = new AtomicInteger();
+    private volatile boolean valid = true;
+
+    TestConnection(int id) {
+      this.id = id;
+    }
+
+    @Override public String get() {
+      return "test";
+    }
+
+    @Override public boolean isValid() {
+      return valid;
+    }
+
+    @Override public void close() {
+      // noop
+    }
+
+    @Override public Integer getEndpoint() {
+      return id;
+    }
+
+    @Override public boolean equals(Object obj) {
+      return obj instanceof TestConnection && ((TestConnection) obj).id == id;
+    }
+
+    @Override public int hashCode() {
+      return id;
+    }
+  }
+
+  private static class TestConnectionFactory implements ConnectionFactory<TestConnection> {
+    private final int maxSize;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger destroyed = new AtomicInteger();
+    private volatile RuntimeException failure;
+
+    TestConnectionFactory(int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    @Override public boolean mightCreate() {
+      return size.get() < maxSize;
+    }
+
+    @Override public TestConnection create(Amount<Long, Time> timeout) {
+      if (failure != null) {
+        throw failure;
+      }
+      int id = size.incrementAndGet();
+      if (id > maxSize) {
+        size.decrementAndGet();
+        return null;
+      }
+      created.incrementAndGet();
+      return new TestConnection(id);
+    }
+
+    @Override public void destroy(TestConnection connection) {
+      size.decrementAndGet();
+      destroyed.incrementAndGet();
+    }
+
+    @Override public String toString() {
+      return "test_factory";
+    }
+  }
+}
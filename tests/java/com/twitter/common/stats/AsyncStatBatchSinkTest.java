@@ -0,0 +1,168 @@
+package com.twitter.common.stats;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.application.ShutdownRegistry.ShutdownRegistryImpl;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.AsyncStatBatchSink.DropPolicy;
+import com.twitter.common.util.testing.FakeClock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class AsyncStatBatchSinkTest {
+
+  private static final String PREFIX = "async_sink_test";
+
+  private FakeClock clock;
+  private RecordingSink delegate;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    delegate = new RecordingSink();
+  }
+
+  @After
+  public void tearDown() {
+    Stats.flush();
+  }
+
+  @Test
+  public void testWritesCopies() throws Exception {
+    AsyncStatBatchSink sink = createSink(3, DropPolicy.DROP_OLDEST, 1);
+    StatBatch batch = new StatBatch(1);
+    batch.reset(1000);
+    batch.add("a", 1);
+    sink.write(batch);
+    batch.reset(2000);
+    batch.add("a", 2.5);
+    sink.write(batch);
+
+    assertEquals(2L, readStat("queue_size"));
+    clock.setNowMillis(3500);
+    assertEquals(2500L, readStat("queue_lag_ms"));
+
+    sink.drain();
+    assertEquals(ImmutableList.of("1000 a=1", "2000 a=2.5"), delegate.written);
+    assertEquals(2L, readStat("batches_written"));
+    assertEquals(0L, readStat("queue_size"));
+    assertEquals(0L, readStat("queue_lag_ms"));
+  }
+
+  @Test
+  public void testDropOldest() throws Exception {
+    AsyncStatBatchSink sink = createSink(2, DropPolicy.DROP_OLDEST, 1);
+    writeBatches(sink, 4);
+    sink.drain();
+    assertEquals(ImmutableList.of("3 a=3", "4 a=4"), delegate.written);
+    assertEquals(2L, readStat("batches_dropped"));
+  }
+
+  @Test
+  public void testDropNewest() throws Exception {
+    AsyncStatBatchSink sink = createSink(2, DropPolicy.DROP_NEWEST, 1);
+    writeBatches(sink, 4);
+    sink.drain();
+    assertEquals(ImmutableList.of("1 a=1", "2 a=2"), delegate.written);
+    assertEquals(2L, readStat("batches_dropped"));
+  }
+
+  @Test
+  public void testRetries() throws Exception {
+    AsyncStatBatchSink sink = createSink(2, DropPolicy.DROP_OLDEST, 3);
+
+    // The first batch succeeds on its last attempt, the second fails every attempt.
+    writeBatches(sink, 1);
+    delegate.failures = 2;
+    sink.drain();
+    assertEquals(ImmutableList.of("1 a=1"), delegate.written);
+    assertEquals(2L, readStat("write_retries"));
+    assertEquals(0L, readStat("batches_failed"));
+    assertEquals(300L, clock.nowMillis());
+
+    delegate.failures = 3;
+    writeBatches(sink, 1);
+    sink.drain();
+    assertEquals(ImmutableList.of("1 a=1"), delegate.written);
+    assertEquals(4L, readStat("write_retries"));
+    assertEquals(1L, readStat("batches_failed"));
+  }
+
+  @Test
+  public void testStopDrainsOnWriterThread() throws Exception {
+    final CountDownLatch writing = new CountDownLatch(1);
+    final List<Thread> writers = Collections.synchronizedList(Lists.<Thread>newArrayList());
+    delegate = new RecordingSink() {
+      @Override public void write(StatBatch batch) throws IOException {
+        writers.add(Thread.currentThread());
+        if (writing.getCount() > 0) {
+          writing.countDown();
+          // Hold the first write until stop() has interrupted the writer.
+          while (!Thread.currentThread().isInterrupted()) {
+            Thread.yield();
+          }
+        }
+        super.write(batch);
+      }
+    };
+    AsyncStatBatchSink sink = createSink(3, DropPolicy.DROP_OLDEST, 1);
+    sink.start(new ShutdownRegistryImpl());
+    writeBatches(sink, 1);
+    writing.await();
+    writeBatches(sink, 3);
+
+    sink.stop();
+    assertEquals(ImmutableList.of("1 a=1", "1 a=1", "2 a=2", "3 a=3"), delegate.written);
+    assertEquals(4, writers.size());
+    assertEquals(1, ImmutableSet.copyOf(writers).size());
+    assertNotSame(Thread.currentThread(), writers.get(0));
+  }
+
+  private AsyncStatBatchSink createSink(int capacity, DropPolicy dropPolicy, int maxAttempts) {
+    return new AsyncStatBatchSink(PREFIX, delegate, capacity, dropPolicy, maxAttempts,
+        Amount.of(100L, Time.MILLISECONDS), clock);
+  }
+
+  private static void writeBatches(AsyncStatBatchSink sink, int count) {
+    StatBatch batch = new StatBatch(1);
+    for (int i = 1; i <= count; i++) {
+      batch.reset(i);
+      batch.add("a", i);
+      sink.write(batch);
+    }
+  }
+
+  private static long readStat(String name) {
+    return Stats.<Number>getVariable(PREFIX + "_" + name).read().longValue();
+  }
+
+  private static class RecordingSink implements StatBatchSink {
+    private final List<String> written = Lists.newArrayList();
+    private int failures;
+
+    @Override public void write(StatBatch batch) throws IOException {
+      if (failures > 0) {
+        failures--;
+        throw new IOException("Injected failure");
+      }
+      StringBuilder description = new StringBuilder().append(batch.getTimestampMillis());
+      for (int i = 0; i < batch.size(); i++) {
+        description.append(' ').append(batch.getName(i)).append('=').append(batch.getNumber(i));
+      }
+      written.add(description.toString());
+    }
+  }
+}
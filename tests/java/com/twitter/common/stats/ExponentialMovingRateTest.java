@@ -0,0 +1,107 @@
+package com.twitter.common.stats;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.testing.FakeTicker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ExponentialMovingRateTest {
+
+  private static final long ONE_SEC = 1000000000L;
+  private static final double EPSILON = 1E-6;
+
+  private FakeTicker ticker;
+  private AtomicLong value;
+  private ExponentialMovingRate<AtomicLong> rate;
+
+  @Before
+  public void setUp() {
+    ticker = new FakeTicker();
+    value = new AtomicLong();
+    rate = ExponentialMovingRate.of("test", value)
+        .withWindow(Amount.of(10L, Time.SECONDS))
+        .withTicker(ticker)
+        .build();
+  }
+
+  @After
+  public void tearDown() {
+    Stats.flush();
+  }
+
+  @Test
+  public void testFirstRates() {
+    assertEquals(0d, rate.sample(), EPSILON);
+    advance(ONE_SEC, 10);
+    assertEquals(10d, rate.sample(), EPSILON);
+  }
+
+  @Test
+  public void testConstantRate() {
+    rate.sample();
+    for (int i = 0; i < 100; i++) {
+      advance(ONE_SEC, 5);
+      assertEquals(5d, rate.sample(), EPSILON);
+    }
+  }
+
+  @Test
+  public void testDecay() {
+    rate.sample();
+    advance(ONE_SEC, 100);
+    assertEquals(100d, rate.sample(), EPSILON);
+
+    // After one window at a rate of zero, the average has decayed to 1/e.
+    advance(10 * ONE_SEC, 0);
+    assertEquals(100d / Math.E, rate.sample(), EPSILON);
+
+    // Decay is the same whether sampled at once or in steps.
+    for (int i = 0; i < 10; i++) {
+      advance(ONE_SEC, 0);
+      rate.sample();
+    }
+    assertEquals(100d / (Math.E * Math.E), rate.read(), EPSILON);
+  }
+
+  @Test
+  public void testNoTimeElapsed() {
+    rate.sample();
+    advance(ONE_SEC, 10);
+    rate.sample();
+    advance(0, 10);
+    assertEquals(10d, rate.sample(), EPSILON);
+
+    // The increment seen with no time elapsed is counted in the next rate.
+    advance(ONE_SEC, 0);
+    assertEquals(10d, rate.sample(), EPSILON);
+  }
+
+  @Test
+  public void testStandardWindows() {
+    Stat<Long> input = new StatImpl<Long>("events") {
+      @Override public Long read() {
+        return value.get();
+      }
+    };
+    List<ExponentialMovingRate<Long>> rates = ExponentialMovingRate.ofStandardWindows(input);
+    assertEquals(3, rates.size());
+    assertEquals("events_per_sec_1mins", rates.get(0).getName());
+    assertEquals("events_per_sec_5mins", rates.get(1).getName());
+    assertEquals("events_per_sec_15mins", rates.get(2).getName());
+    assertNotNull(Stats.getVariable("events"));
+  }
+
+  private void advance(long nanos, long delta) {
+    ticker.waitNanos(nanos);
+    value.addAndGet(delta);
+  }
+}
@@ -0,0 +1,136 @@
+package com.twitter.common.stats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogLinearHistogramTest {
+  private static final double[] QUANTILES = {0.0, 0.25, 0.5, 0.9, 0.99, 0.999, 1.0};
+
+  @Test
+  public void testEmpty() {
+    LogLinearHistogram hist = new LogLinearHistogram();
+    assertArrayEquals(new long[QUANTILES.length], hist.getQuantiles(QUANTILES));
+    assertEquals(0L, hist.getCount());
+    assertEquals(0L, hist.getMin());
+    assertEquals(0L, hist.getMax());
+  }
+
+  @Test
+  public void testExactSmallValues() {
+    LogLinearHistogram hist = new LogLinearHistogram();
+    for (int i = 1; i <= 100; i++) {
+      hist.add(i);
+    }
+    assertArrayEquals(new long[] {1, 25, 50, 90, 99, 100, 100}, hist.getQuantiles(QUANTILES));
+    assertEquals(100L, hist.getCount());
+    assertEquals(5050L, hist.getSum());
+  }
+
+  @Test
+  public void testRelativeError() {
+    for (double error : new double[] {0.1, 0.01, 0.001}) {
+      LogLinearHistogram hist = new LogLinearHistogram(error);
+      int n = 100000;
+      for (int i = 1; i <= n; i++) {
+        hist.add(i * 1000L);
+      }
+      long[] actual = hist.getQuantiles(QUANTILES);
+      for (int i = 0; i < QUANTILES.length; i++) {
+        double expected = Math.max(1, Math.ceil(QUANTILES[i] * n)) * 1000;
+        assertTrue(Math.abs(actual[i] - expected) / expected <= error);
+      }
+      assertEquals(1000L, hist.getMin());
+      assertEquals(n * 1000L, hist.getMax());
+    }
+  }
+
+  @Test
+  public void testNegativeAndExtremeValues() {
+    LogLinearHistogram hist = new LogLinearHistogram();
+    for (int i = -100; i <= 100; ++i) {
+      hist.add(i);
+    }
+    assertArrayEquals(new long[] {-50L, 0L, 50L, 80L, 90L, 98L, 100L},
+        hist.getQuantiles(new double[] {.25, .50, .75, .90, .95, .99, .999}));
+
+    hist.clear();
+    hist.add(Long.MIN_VALUE);
+    hist.add(Long.MAX_VALUE);
+    assertArrayEquals(new long[] {Long.MIN_VALUE, Long.MAX_VALUE},
+        hist.getQuantiles(new double[] {0.0, 1.0}));
+  }
+
+  @Test
+  public void testMergeAndSerialize() throws Exception {
+    LogLinearHistogram hist1 = new LogLinearHistogram();
+    LogLinearHistogram hist2 = new LogLinearHistogram();
+    LogLinearHistogram both = new LogLinearHistogram();
+    for (int i = 0; i < 10000; i++) {
+      long x = (i * 7919L) % 100003;
+      (i % 2 == 0 ? hist1 : hist2).add(x);
+      both.add(x);
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    hist2.snapshot().writeTo(new DataOutputStream(bytes));
+    LogLinearHistogram.Snapshot remote = LogLinearHistogram.Snapshot.readFrom(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    LogLinearHistogram.Snapshot merged = hist1.snapshot().merge(remote);
+    assertArrayEquals(both.getQuantiles(QUANTILES), merged.getQuantiles(QUANTILES));
+    assertEquals(both.getCount(), merged.getCount());
+    assertEquals(both.getSum(), merged.getSum());
+    assertEquals(both.getMin(), merged.getMin());
+    assertEquals(both.getMax(), merged.getMax());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeDifferentPrecision() {
+    new LogLinearHistogram(0.1).snapshot().merge(new LogLinearHistogram(0.001).snapshot());
+  }
+
+  @Test
+  public void testConcurrentAdds() throws Exception {
+    final LogLinearHistogram hist = new LogLinearHistogram();
+    final int numThreads = 8;
+    final int perThread = 100000;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    for (int t = 0; t < numThreads; t++) {
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+          for (int i = 1; i <= perThread; i++) {
+            hist.add(i);
+          }
+        }
+      });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+    assertEquals((long) numThreads * perThread, hist.getCount());
+    assertEquals((long) numThreads * perThread * (perThread + 1) / 2, hist.getSum());
+    assertEquals((long) numThreads * perThread, hist.snapshot().getCount());
+    long median = hist.getQuantiles(new double[] {0.5})[0];
+    assertTrue(Math.abs(median - perThread / 2) <= perThread / 2 / 100);
+  }
+}
@@ -0,0 +1,121 @@
+package com.twitter.common.stats;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.metrics.MetricListener;
+import com.twitter.common.metrics.MetricSampler;
+import com.twitter.common.metrics.Metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MetricsStatRegistryTest {
+
+  private Metrics metrics;
+  private List<RecordingStat<? extends Number>> legacyStats;
+  private MetricsStatRegistry registry;
+
+  @Before
+  public void setUp() {
+    metrics = Metrics.createDetached();
+    legacyStats = ImmutableList.<RecordingStat<? extends Number>>of(
+        new ConstantStat("legacy"));
+    registry = new MetricsStatRegistry(new StatRegistry() {
+      @Override public Iterable<RecordingStat<? extends Number>> getStats() {
+        return legacyStats;
+      }
+    });
+  }
+
+  @Test
+  public void testCombinesSamples() {
+    assertEquals(ImmutableList.of("legacy"), names(registry.getStats()));
+
+    AtomicLong foo = metrics.registerLong("foo");
+    metrics.scope("bar").registerLong("baz");
+    foo.set(5);
+    registry.updateStats(metrics.sample());
+
+    Iterable<RecordingStat<? extends Number>> stats = registry.getStats();
+    assertEquals(ImmutableList.of("legacy", "foo", "bar.baz"), names(stats));
+    assertEquals(5L, get(stats, "foo").sample());
+
+    // Reading the metric stats does not read the gauges.
+    foo.set(6);
+    assertEquals(5L, get(stats, "foo").read());
+
+    // The same metrics keep the same stats.
+    registry.updateStats(metrics.sample());
+    assertSame(stats, registry.getStats());
+    assertEquals(6L, get(stats, "foo").sample());
+  }
+
+  @Test
+  public void testChangedStats() {
+    metrics.registerLong("foo");
+    registry.updateStats(metrics.sample());
+    Iterable<RecordingStat<? extends Number>> stats = registry.getStats();
+
+    metrics.registerLong("qux");
+    registry.updateStats(metrics.sample());
+    Iterable<RecordingStat<? extends Number>> withNewMetric = registry.getStats();
+    assertNotSame(stats, withNewMetric);
+    assertEquals(ImmutableList.of("legacy", "foo", "qux"), names(withNewMetric));
+
+    legacyStats = ImmutableList.of();
+    assertEquals(ImmutableList.of("foo", "qux"), names(registry.getStats()));
+  }
+
+  @Test
+  public void testAttach() {
+    MetricSampler sampler =
+        new MetricSampler(metrics, ImmutableList.<MetricListener>of(), Metrics.createDetached());
+    MetricsStatRegistry attached = MetricsStatRegistry.attach(new StatRegistry() {
+      @Override public Iterable<RecordingStat<? extends Number>> getStats() {
+        return legacyStats;
+      }
+    }, sampler);
+    metrics.registerLong("foo").set(3);
+    assertEquals(ImmutableList.of("legacy"), names(attached.getStats()));
+
+    sampler.run();
+    assertEquals(ImmutableList.of("legacy", "foo"), names(attached.getStats()));
+    assertEquals(3L, get(attached.getStats(), "foo").read());
+  }
+
+  private static List<String> names(Iterable<RecordingStat<? extends Number>> stats) {
+    List<String> names = Lists.newArrayList();
+    for (RecordingStat<? extends Number> stat : stats) {
+      names.add(stat.getName());
+    }
+    return names;
+  }
+
+  private static RecordingStat<? extends Number> get(
+      Iterable<RecordingStat<? extends Number>> stats, String name) {
+    for (RecordingStat<? extends Number> stat : stats) {
+      if (stat.getName().equals(name)) {
+        return stat;
+      }
+    }
+    throw new IllegalArgumentException("No stat named " + name);
+  }
+
+  private static class ConstantStat extends SampledStat<Long> {
+    ConstantStat(String name) {
+      super(name, 0L);
+    }
+
+    @Override public Long doSample() {
+      return 0L;
+    }
+  }
+}
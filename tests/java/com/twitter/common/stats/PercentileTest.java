@@ -22,6 +22,9 @@ import org.junit.Test;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
@@ -184,6 +187,27 @@ public class PercentileTest {
     checkValuesAreFlushed(percentiles);
   }
 
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    for (int t = 0; t < 4; t++) {
+      final int offset = t;
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          for (int i = offset; i < 10000; i += 4) {
+            percentiles.record(i);
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+    assertThat(percentiles.samples.size(), is(10000));
+    checkPercentiles(percentiles, 0, 999.9, 4999.5, 8999.1, 9899.01, 9989.001, 9998.0001, 9999);
+    checkValuesAreFlushed(percentiles);
+  }
+
   private void checkPercentiles(Percentile<Integer> input_percentiles, double... values) {
     assertThat(values.length, is(PERCENTILES.length));
 
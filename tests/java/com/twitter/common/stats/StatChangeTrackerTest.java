@@ -0,0 +1,205 @@
+package com.twitter.common.stats;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.stats.StatChangeTracker.Delta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StatChangeTrackerTest {
+
+  private StatChangeTracker tracker;
+  private AtomicLong a;
+  private AtomicLong b;
+  private List<Stat<?>> stats;
+
+  @Before
+  public void setUp() {
+    tracker = new StatChangeTracker(1);
+    a = new AtomicLong();
+    b = new AtomicLong();
+    stats = ImmutableList.<Stat<?>>of(exportAtomic("a", a), exportAtomic("b", b));
+  }
+
+  @Test
+  public void testFullWithoutToken() {
+    Delta delta = tracker.poll(stats, null);
+    assertTrue(delta.isFull());
+    assertEquals(ImmutableMap.of("a", 0L, "b", 0L), asMap(delta));
+
+    delta = tracker.poll(stats, null);
+    assertTrue(delta.isFull());
+    assertEquals(ImmutableMap.of("a", 0L, "b", 0L), asMap(delta));
+  }
+
+  @Test
+  public void testDelta() {
+    String token = tracker.poll(stats, null).getToken();
+
+    Delta delta = tracker.poll(stats, token);
+    assertFalse(delta.isFull());
+    assertEquals(ImmutableMap.<String, Object>of(), asMap(delta));
+
+    a.set(5);
+    delta = tracker.poll(stats, delta.getToken());
+    assertFalse(delta.isFull());
+    assertEquals(ImmutableMap.of("a", 5L), asMap(delta));
+
+    // An older token also sees the changes made since it was issued.
+    b.set(2);
+    assertEquals(ImmutableMap.of("a", 5L, "b", 2L), asMap(tracker.poll(stats, token)));
+  }
+
+  @Test
+  public void testNewStat() {
+    String token = tracker.poll(stats, null).getToken();
+
+    List<Stat<?>> moreStats = ImmutableList.<Stat<?>>builder()
+        .addAll(stats)
+        .add(exportAtomic("c", new AtomicLong(3)))
+        .build();
+    assertEquals(ImmutableMap.of("c", 3L), asMap(tracker.poll(moreStats, token)));
+  }
+
+  @Test
+  public void testRemovedStat() {
+    String token = tracker.poll(stats, null).getToken();
+
+    List<Stat<?>> onlyA = ImmutableList.<Stat<?>>of(stats.get(0));
+    Delta delta = tracker.poll(onlyA, token);
+    assertEquals(ImmutableMap.<String, Object>of(), asMap(delta));
+    assertEquals(ImmutableList.of("b"), delta.getRemoved());
+
+    // The removal is reported once per token, and never in a full snapshot.
+    assertEquals(ImmutableList.<String>of(), tracker.poll(onlyA, delta.getToken()).getRemoved());
+    assertEquals(ImmutableList.of("b"), tracker.poll(onlyA, token).getRemoved());
+    assertEquals(ImmutableList.<String>of(), tracker.poll(onlyA, null).getRemoved());
+    assertEquals(ImmutableList.<String>of(), delta.filter("a").getRemoved());
+
+    // A stat that comes back is reported as changed rather than removed.
+    delta = tracker.poll(stats, token);
+    assertEquals(ImmutableMap.of("b", 0L), asMap(delta));
+    assertEquals(ImmutableList.<String>of(), delta.getRemoved());
+  }
+
+  @Test
+  public void testRemovedStatForgotten() {
+    String token = tracker.poll(stats, null).getToken();
+
+    List<Stat<?>> onlyA = ImmutableList.<Stat<?>>of(stats.get(0));
+    String removedToken = tracker.poll(onlyA, token).getToken();
+    for (int i = 0; i < StatChangeTracker.REMOVAL_GENERATIONS - 2; i++) {
+      tracker.poll(onlyA, null);
+    }
+    assertEquals(ImmutableList.of("b"), tracker.poll(onlyA, token).getRemoved());
+
+    // Once the marker is dropped, tokens that may not have seen it start over.
+    Delta delta = tracker.poll(onlyA, token);
+    assertTrue(delta.isFull());
+    assertEquals(ImmutableMap.of("a", 0L), asMap(delta));
+    assertFalse(tracker.poll(onlyA, removedToken).isFull());
+  }
+
+  @Test
+  public void testMutableValue() {
+    final AtomicLong value = new AtomicLong();
+    List<Stat<?>> mutable = ImmutableList.<Stat<?>>of(new StatImpl<AtomicLong>("mutable") {
+      @Override public AtomicLong read() {
+        return value;
+      }
+    });
+    String token = tracker.poll(mutable, null).getToken();
+    value.set(4);
+    assertEquals(ImmutableMap.of("mutable", 4L), asMap(tracker.poll(mutable, token)));
+  }
+
+  @Test
+  public void testForeignToken() {
+    String token = new StatChangeTracker(2).poll(stats, null).getToken();
+    tracker.poll(stats, null);
+    assertTrue(tracker.poll(stats, token).isFull());
+    assertTrue(tracker.poll(stats, "garbage").isFull());
+    assertTrue(tracker.poll(stats, "1-x").isFull());
+    assertTrue(tracker.poll(stats, "1-1000").isFull());
+  }
+
+  @Test
+  public void testFilter() {
+    Delta delta = tracker.poll(stats, null).filter("b", "c");
+    assertTrue(delta.isFull());
+    assertEquals(ImmutableMap.of("b", 0L), asMap(delta));
+  }
+
+  @Test
+  public void testConcurrentPolls() throws Exception {
+    final int numThreads = 4;
+    final int numPolls = 2000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final String[] tokens = new String[numThreads];
+    final List<Map<String, Object>> views = Lists.newArrayList();
+    List<Future<?>> readers = Lists.newArrayList();
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      final int reader = i;
+      // each reader applies its deltas to its own view
+      views.add(Maps.<String, Object>newHashMap());
+      readers.add(executor.submit(new Callable<Void>() {
+        @Override public Void call() throws InterruptedException {
+          start.await();
+          for (int j = 0; j < numPolls; j++) {
+            a.incrementAndGet();
+            Delta delta = tracker.poll(stats, tokens[reader]);
+            views.get(reader).putAll(asMap(delta));
+            tokens[reader] = delta.getToken();
+          }
+          return null;
+        }
+      }));
+    }
+    start.countDown();
+    for (Future<?> future : readers) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    // one more poll with its last token brings every view up to date
+    for (int i = 0; i < numThreads; i++) {
+      views.get(i).putAll(asMap(tracker.poll(stats, tokens[i])));
+      assertEquals((long) numThreads * numPolls, views.get(i).get("a"));
+    }
+  }
+
+  private static Stat<Long> exportAtomic(String name, final AtomicLong value) {
+    return new StatImpl<Long>(name) {
+      @Override public Long read() {
+        return value.get();
+      }
+    };
+  }
+
+  private static Map<String, Object> asMap(Delta delta) {
+    Map<String, Object> map = Maps.newLinkedHashMap();
+    for (int i = 0; i < delta.size(); i++) {
+      map.put(delta.getName(i), delta.getValue(i));
+    }
+    return map;
+  }
+}
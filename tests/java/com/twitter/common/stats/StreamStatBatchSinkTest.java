@@ -0,0 +1,143 @@
+package com.twitter.common.stats;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.StreamStatBatchSink.Format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class StreamStatBatchSinkTest {
+
+  private StatBatch batch;
+
+  @Before
+  public void setUp() {
+    batch = new StatBatch(1);
+    batch.reset(12345);
+    batch.add("ints", 5);
+    batch.add("doubles", 2.5);
+  }
+
+  @Test
+  public void testFileLines() throws Exception {
+    File file = File.createTempFile("stats", ".txt");
+    file.deleteOnExit();
+
+    StreamStatBatchSink sink = StreamStatBatchSink.toFile(file, Format.LINES);
+    sink.write(batch);
+    batch.reset(67890);
+    batch.add("ints", 6);
+    sink.write(batch);
+    sink.close();
+
+    assertEquals(
+        ImmutableList.of("ints 5 12", "doubles 2.5 12", "ints 6 67"),
+        Files.readLines(file, Charsets.UTF_8));
+  }
+
+  @Test
+  public void testFileBinary() throws Exception {
+    File file = File.createTempFile("stats", ".bin");
+    file.deleteOnExit();
+
+    StreamStatBatchSink sink = StreamStatBatchSink.toFile(file, Format.BINARY);
+    sink.write(batch);
+    sink.close();
+
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      assertEquals(StatBatch.BINARY_VERSION, in.readByte());
+      assertEquals(12345, in.readLong());
+      assertEquals(2, in.readInt());
+      assertEquals("ints", in.readUTF());
+      assertEquals(0, in.readByte());
+      assertEquals(5, in.readLong());
+      assertEquals("doubles", in.readUTF());
+      assertEquals(1, in.readByte());
+      assertEquals(2.5, in.readDouble(), 0);
+      assertEquals(-1, in.read());
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testSocketLines() throws Exception {
+    ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName(null));
+    try {
+      StreamStatBatchSink sink = StreamStatBatchSink.toSocket(
+          new InetSocketAddress(server.getInetAddress(), server.getLocalPort()), Format.LINES);
+      sink.write(batch);
+
+      Socket connection = server.accept();
+      try {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(connection.getInputStream(), Charsets.UTF_8));
+        assertEquals("ints 5 12", reader.readLine());
+        assertEquals("doubles 2.5 12", reader.readLine());
+        sink.close();
+        assertEquals(null, reader.readLine());
+      } finally {
+        connection.close();
+      }
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testSocketWriteTimeout() throws Exception {
+    ServerSocket server = new ServerSocket();
+    server.setReceiveBufferSize(1024);
+    server.bind(new InetSocketAddress(InetAddress.getByName(null), 0), 1);
+    try {
+      StreamStatBatchSink sink = StreamStatBatchSink.toSocket(
+          new InetSocketAddress(server.getInetAddress(), server.getLocalPort()), Format.LINES,
+          Amount.of(1L, Time.SECONDS), Amount.of(100L, Time.MILLISECONDS));
+      StatBatch large = new StatBatch(10000);
+      large.reset(12345);
+      for (int i = 0; i < 10000; i++) {
+        large.add("a_long_stat_name_to_fill_the_socket_buffers_" + i, i);
+      }
+
+      // The server never reads, so the socket buffers fill and a write eventually blocks.
+      Socket connection = null;
+      try {
+        for (int i = 0; i < 1000; i++) {
+          sink.write(large);
+          if (connection == null) {
+            connection = server.accept();
+          }
+        }
+        fail("Writes to a receiver that does not read should time out.");
+      } catch (SocketTimeoutException e) {
+        // Expected.
+      } finally {
+        if (connection != null) {
+          connection.close();
+        }
+      }
+    } finally {
+      server.close();
+    }
+  }
+}
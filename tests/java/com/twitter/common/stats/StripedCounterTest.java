@@ -0,0 +1,106 @@
+package com.twitter.common.stats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StripedCounterTest {
+
+  @Test
+  public void testSingleThreaded() {
+    StripedCounter counter = new StripedCounter(5);
+    assertEquals(5, counter.get());
+    counter.increment();
+    counter.add(10);
+    assertEquals(16, counter.get());
+    counter.decrement();
+    assertEquals(15, counter.get());
+    counter.set(2);
+    assertEquals(2, counter.get());
+    assertEquals(2.0, counter.doubleValue(), 0);
+    assertEquals("2", counter.toString());
+  }
+
+  @Test
+  public void testAsAtomicLong() {
+    StripedCounter counter = new StripedCounter(5);
+    counter.add(10);
+    AtomicLong atomic = counter.asAtomicLong();
+    assertEquals(15, atomic.get());
+
+    counter.increment();
+    assertEquals(16, atomic.get());
+    atomic.addAndGet(4);
+    assertEquals(20, counter.get());
+    assertSame(atomic, counter.asAtomicLong());
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    StripedCounter counter = new StripedCounter(5);
+    counter.add(10);
+    StripedCounter copy = roundTrip(counter);
+    assertEquals(15, copy.get());
+    copy.increment();
+    assertEquals(16, copy.get());
+  }
+
+  @Test
+  public void testConcurrentAdds() throws Exception {
+    final int numThreads = 8;
+    final int numAdds = 100000;
+    final StripedCounter counter = new StripedCounter();
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(numThreads);
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < numAdds; j++) {
+              counter.increment();
+              counter.add(2);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      });
+    }
+    start.countDown();
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+    executor.shutdown();
+
+    assertEquals(3L * numThreads * numAdds, counter.get());
+    assertEquals(3L * numThreads * numAdds, counter.longValue());
+    assertEquals(3L * numThreads * numAdds, roundTrip(counter).get());
+
+    counter.set(7);
+    assertEquals(7, counter.get());
+  }
+
+  private static StripedCounter roundTrip(StripedCounter counter) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(counter);
+    out.close();
+    return (StripedCounter) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))
+        .readObject();
+  }
+}
@@ -16,7 +16,12 @@
 
 package com.twitter.common.stats;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.EasyMockTest;
@@ -28,6 +33,8 @@ import org.junit.Test;
 import static org.easymock.EasyMock.createStrictControl;
 import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author William Farner
@@ -109,19 +116,153 @@ public class TimeSeriesRepositoryImplTest extends EasyMockTest {
     }
 
     expectTimestamps(1000L, 2000L, 3000L, 4000L);
-    expectSeriesData("early", 2, 4, 6, 8);
+    expectSeriesData("early", 2L, 4L, 6L, 8L);
 
     repo.runSampler(clock);
 
     expectTimestamps(1000L, 2000L, 3000L, 4000L, 5000L);
-    expectSeriesData("early", 2, 4, 6, 8, 10);
-    expectSeriesData("delayed", 0L, 0L, 0L, 0L, 100);
+    expectSeriesData("early", 2L, 4L, 6L, 8L, 10L);
+    expectSeriesData("delayed", 0L, 0L, 0L, 0L, 100L);
+  }
+
+  @Test
+  public void testRetention() {
+    repo = new TimeSeriesRepositoryImpl(statRegistry, SAMPLE_PERIOD,
+        Amount.of(3L, Time.SECONDS), ImmutableMap.<Amount<Long, Time>, Amount<Long, Time>>of());
+
+    RecordingStat<Number> statA = mockedNumberStat();
+    RecordingStat<Number> statB = mockedNumberStat();
+    Number[] valuesA = {1, 2, 3, 4, 5.5};
+    for (int i = 0; i < valuesA.length; i++) {
+      if (i == 0 || i == valuesA.length - 1) {
+        expect(statRegistry.getStats())
+            .andReturn(ImmutableList.<RecordingStat<? extends Number>>of(statA, statB));
+      } else {
+        expect(statRegistry.getStats())
+            .andReturn(ImmutableList.<RecordingStat<? extends Number>>of(statA));
+      }
+      expect(statA.getName()).andReturn("a");
+      expect(statA.sample()).andReturn(valuesA[i]);
+      if (i == 0 || i == valuesA.length - 1) {
+        expect(statB.getName()).andReturn("b");
+        expect(statB.sample()).andReturn(i + 7L);
+      }
+    }
+
+    control.replay();
+
+    for (int i = 0; i < valuesA.length; i++) {
+      clock.setNowMillis((i + 1) * 1000);
+      repo.runSampler(clock);
+    }
+
+    expectTimestamps(3000L, 4000L, 5000L);
+    expectSeriesData("a", 3.0, 4.0, 5.5);
+    // Sampled at the first and last timestamps only; the first has since been overwritten.
+    expectSeriesData("b", 0L, 0L, 11L);
+  }
+
+  @Test
+  public void testDownsampled() {
+    repo = new TimeSeriesRepositoryImpl(statRegistry, SAMPLE_PERIOD, RETENTION_PERIOD,
+        ImmutableMap.of(
+            Amount.of(1L, Time.SECONDS), Amount.of(1L, Time.MINUTES),
+            Amount.of(2L, Time.SECONDS), Amount.of(4L, Time.SECONDS)));
+
+    RecordingStat<Integer> stat = mockedStat();
+    for (int i = 1; i <= 6; i++) {
+      expect(statRegistry.getStats())
+          .andReturn(ImmutableList.<RecordingStat<? extends Number>>of(stat));
+      expect(stat.getName()).andReturn("a");
+      expect(stat.sample()).andReturn(i);
+    }
+
+    control.replay();
+
+    for (int i = 1; i <= 6; i++) {
+      clock.setNowMillis(i * 1000);
+      repo.runSampler(clock);
+    }
+
+    // A tier at the sample period would not be downsampled, so it is dropped.
+    assertNull(repo.getDownsampled(Amount.of(1L, Time.SECONDS)));
+    assertEquals(ImmutableList.of(Amount.of(2L, Time.SECONDS)), repo.getDownsampledResolutions());
+
+    TimeSeriesRepository tier = repo.getDownsampled(Amount.of(2000L, Time.MILLISECONDS));
+    assertEquals(ImmutableSet.of("a"), tier.getAvailableSeries());
+    assertEquals(ImmutableList.<Number>of(4000L, 6000L),
+        ImmutableList.copyOf(tier.getTimestamps()));
+    assertEquals(ImmutableList.<Number>of(3.5, 5.5),
+        ImmutableList.copyOf(tier.get("a").getSamples()));
+  }
+
+  @Test
+  public void testSlowStats() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final AtomicBoolean block = new AtomicBoolean(false);
+    RecordingStat<Long> slow = new RecordingStatImpl<Long>(new StatImpl<Long>("slow") {
+      private long value = 0;
+
+      @Override public Long read() {
+        if (value == 0) {
+          clock.advance(Amount.of(2 * TimeSeriesRepositoryImpl.SLOW_STAT_THRESHOLD.getValue(),
+              TimeSeriesRepositoryImpl.SLOW_STAT_THRESHOLD.getUnit()));
+        }
+        if (block.getAndSet(false)) {
+          try {
+            blocked.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        return ++value;
+      }
+    });
+    RecordingStat<Long> fast = new RecordingStatImpl<Long>(new StatImpl<Long>("fast") {
+      @Override public Long read() {
+        return 5L;
+      }
+    });
+    expect(statRegistry.getStats())
+        .andReturn(ImmutableList.<RecordingStat<? extends Number>>of(slow, fast)).times(5);
+
+    control.replay();
+
+    repo.runSampler(clock);
+    assertEquals(ImmutableSet.of("slow"), repo.getSlowStats());
+
+    // Times out, so the previous value is recorded again.
+    block.set(true);
+    repo.runSampler(clock);
+    assertTrue(repo.isHung("slow"));
+
+    // Still hung, so the previous value is recorded again without waiting for it.
+    long startMillis = System.currentTimeMillis();
+    repo.runSampler(clock);
+    assertTrue(System.currentTimeMillis() - startMillis < SAMPLE_PERIOD.as(Time.MILLISECONDS) / 2);
+
+    // Picks up the sample that timed out, which was fast to finish.
+    blocked.countDown();
+    while (repo.isHung("slow")) {
+      Thread.sleep(1);
+    }
+    repo.runSampler(clock);
+    assertEquals(ImmutableSet.<String>of(), repo.getSlowStats());
+
+    repo.runSampler(clock);
+
+    expectSeriesData("slow", 1L, 1L, 1L, 2L, 3L);
+    expectSeriesData("fast", 5L, 5L, 5L, 5L, 5L);
   }
 
   private RecordingStat<Integer> mockedStat() {
     return createMock(new Clazz<RecordingStat<Integer>>() { });
   }
 
+  private RecordingStat<Number> mockedNumberStat() {
+    return createMock(new Clazz<RecordingStat<Number>>() { });
+  }
+
   private void expectTimestamps(Number... timestamps) {
     assertEquals(ImmutableList.copyOf(timestamps), ImmutableList.copyOf(repo.getTimestamps()));
   }
@@ -28,7 +28,10 @@ import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 
+import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.hamcrest.Matcher;
@@ -115,6 +118,42 @@ public class ThriftConnectionFactoryTest {
         InetSocketAddress.createUnresolved(MockTSocket.HOST, MockTSocket.PORT)));
   }
 
+  @Test
+  public void testIsAlive() throws Exception {
+    ServerSocket server = new ServerSocket(0);
+    try {
+      TSocket transport = new TSocket("localhost", server.getLocalPort());
+      transport.open();
+      Socket accepted = server.accept();
+      TTransportConnection connection = new TTransportConnection(transport,
+          InetSocketAddress.createUnresolved("localhost", server.getLocalPort()),
+          transport.getSocket());
+      assertTrue(connection.isAlive());
+      assertTrue(TTransportConnection.IS_ALIVE.apply(connection));
+
+      // The endpoint hanging up is only visible to a read.
+      accepted.close();
+      assertFalse(connection.isAlive());
+      assertTrue(connection.isValid());
+      transport.close();
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testIsAliveWithoutSocket() throws TTransportException {
+    TTransport transport = new MockTSocket();
+    TTransportConnection connection = new TTransportConnection(transport,
+        InetSocketAddress.createUnresolved(MockTSocket.HOST, MockTSocket.PORT));
+    assertFalse(connection.isAlive());
+
+    // Without a socket to probe, an open transport is assumed alive.
+    transport.open();
+    assertTrue(connection.isAlive());
+    assertTrue(TTransportConnection.IS_ALIVE.apply(connection));
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void testNullConnectionReturn() {
     createConnectionFactory(1).destroy(null);
@@ -140,6 +140,27 @@ public class BackoffDeciderTest {
     assertThat(decider.shouldBackOff(), is(false));
   }
 
+  @Test
+  public void testBackoffRemaining() {
+    control.replay();
+
+    BackoffDecider decider = builder(NAME)
+        .withRecoveryType(BackoffDecider.RecoveryType.FULL_CAPACITY)
+        .build();
+    assertThat(decider.getBackoffRemainingNs(), is(0L));
+
+    decider.addFailure(); // Moves into backoff state.
+    clock.waitFor(40);
+    assertThat(decider.getBackoffRemainingNs(),
+        is(Amount.of(60L, Time.MILLISECONDS).as(Time.NANOSECONDS)));
+
+    // The backoff period expires, but the decider has not yet been asked to leave it.
+    clock.waitFor(61);
+    assertThat(decider.getBackoffRemainingNs(), is(0L));
+    assertThat(decider.shouldBackOff(), is(false));
+    assertThat(decider.getBackoffRemainingNs(), is(0L));
+  }
+
   @Test
   public void testLinearRecovery() {
     for (int i = 0; i < 10; i++) {
@@ -0,0 +1,70 @@
+package com.twitter.hashtag_aggregator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReplaySnapshotClientTest {
+
+  @Test
+  public void testReplaysEveryLine() throws Exception {
+    List<String> lines = Lists.newArrayList();
+    for (int i = 0; i < 10000; i++) {
+      lines.add("{\"text\": \"tweet " + i + " #été\"}");
+    }
+    assertEquals(lines, replay(Joiner.on('\n').join(lines) + "\n", 0, 7));
+  }
+
+  @Test
+  public void testLineEndings() throws Exception {
+    assertEquals(ImmutableList.of("a", "", "b", "c"), replay("a\r\n\nb\nc", 0, 3));
+  }
+
+  @Test
+  public void testPacedReplay() throws Exception {
+    assertEquals(ImmutableList.of("a", "b", "c"), replay("a\nb\nc\n", 100000, 2));
+  }
+
+  private List<String> replay(String snapshot, int replayTPS, int batchSize)
+      throws IOException, InterruptedException {
+
+    File snapshotFile = File.createTempFile("snapshot", ".gz");
+    snapshotFile.deleteOnExit();
+    OutputStream out = new GZIPOutputStream(new FileOutputStream(snapshotFile));
+    try {
+      out.write(snapshot.getBytes(Charsets.UTF_8));
+    } finally {
+      out.close();
+    }
+
+    BlockingQueue<String> msgQueue = new LinkedBlockingQueue<String>(100);
+    ReplaySnapshotClient client =
+        new ReplaySnapshotClient(snapshotFile, replayTPS, batchSize, msgQueue);
+    client.connect();
+
+    List<String> replayed = Lists.newArrayList();
+    while (!client.isDone()) {
+      String line = msgQueue.poll(10, TimeUnit.MILLISECONDS);
+      if (line != null) {
+        replayed.add(line);
+      }
+    }
+    client.stop();
+    return replayed;
+  }
+}
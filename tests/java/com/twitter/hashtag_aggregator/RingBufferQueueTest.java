@@ -0,0 +1,115 @@
+package com.twitter.hashtag_aggregator;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferQueueTest {
+
+  @Test
+  public void testCapacity() {
+    assertEquals(2, new RingBufferQueue<Integer>(1).remainingCapacity());
+    assertEquals(8, new RingBufferQueue<Integer>(5).remainingCapacity());
+    assertEquals(8, new RingBufferQueue<Integer>(8).remainingCapacity());
+  }
+
+  @Test
+  public void testFifo() throws Exception {
+    RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(4);
+    assertNull(queue.poll());
+
+    for (int lap = 0; lap < 3; lap++) {
+      for (int i = 0; i < 4; i++) {
+        assertTrue(queue.offer(i));
+      }
+      assertFalse(queue.offer(4));
+      assertFalse(queue.offer(4, 1, TimeUnit.MILLISECONDS));
+      assertEquals(4, queue.size());
+      assertEquals(ImmutableList.of(0, 1, 2, 3), ImmutableList.copyOf(queue));
+
+      assertEquals(Integer.valueOf(0), queue.peek());
+      assertEquals(Integer.valueOf(0), queue.poll());
+      assertEquals(Integer.valueOf(1), queue.take());
+      assertEquals(Integer.valueOf(2), queue.poll(1, TimeUnit.MILLISECONDS));
+      assertEquals(Integer.valueOf(3), queue.poll());
+      assertNull(queue.poll());
+      assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+      assertEquals(0, queue.size());
+    }
+  }
+
+  @Test
+  public void testDrainTo() {
+    RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(8);
+    for (int i = 0; i < 5; i++) {
+      queue.offer(i);
+    }
+
+    List<Integer> drained = Lists.newArrayList();
+    assertEquals(3, queue.drainTo(drained, 3));
+    assertEquals(ImmutableList.of(0, 1, 2), drained);
+
+    drained.clear();
+    assertEquals(2, queue.drainTo(drained));
+    assertEquals(ImmutableList.of(3, 4), drained);
+    assertEquals(0, queue.drainTo(drained));
+  }
+
+  @Test
+  public void testConcurrentConsumers() throws Exception {
+    final int numElements = 200000;
+    final int numConsumers = 4;
+    final RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(16);
+    final AtomicIntegerArray seen = new AtomicIntegerArray(numElements);
+    final CountDownLatch done = new CountDownLatch(numElements);
+
+    ExecutorService consumers = Executors.newFixedThreadPool(numConsumers);
+    for (int i = 0; i < numConsumers; i++) {
+      final boolean batch = i % 2 == 0;
+      consumers.execute(new Runnable() {
+        @Override public void run() {
+          List<Integer> drained = Lists.newArrayList();
+          try {
+            while (true) {
+              drained.clear();
+              if (batch && queue.drainTo(drained, 5) == 0) {
+                drained.add(queue.take());
+              } else if (!batch) {
+                drained.add(queue.take());
+              }
+              for (int element : drained) {
+                seen.incrementAndGet(element);
+                done.countDown();
+              }
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    }
+
+    for (int i = 0; i < numElements; i++) {
+      queue.put(i);
+    }
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+    consumers.shutdownNow();
+
+    for (int i = 0; i < numElements; i++) {
+      assertEquals(1, seen.get(i));
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.twitter.hashtag_aggregator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.testing.FakeClock;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenBucketTest {
+  private FakeClock clock;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+  }
+
+  @Test
+  public void testPacesSubMillisecondIntervals() {
+    TokenBucket tokenBucket = new TokenBucket(1000000, 0, clock);
+
+    assertEquals(0, tokenBucket.acquire(1));
+    assertEquals(1000, tokenBucket.acquire(1));
+    assertEquals(2000, tokenBucket.acquire(10));
+    assertEquals(12000, tokenBucket.acquire(1));
+  }
+
+  @Test
+  public void testCatchesUpAfterOversleeping() {
+    TokenBucket tokenBucket = new TokenBucket(1000, 10, clock);
+
+    assertEquals(0, tokenBucket.acquire(1));
+    assertEquals(Amount.of(1L, Time.MILLISECONDS).as(Time.NANOSECONDS).longValue(),
+        tokenBucket.acquire(1));
+
+    // slept 5ms instead of 1ms, so the next 4 tokens are already due
+    clock.advance(Amount.of(5L, Time.MILLISECONDS));
+    for (int i = 0; i < 4; i++) {
+      assertEquals(0, tokenBucket.acquire(1));
+    }
+    assertEquals(Amount.of(1L, Time.MILLISECONDS).as(Time.NANOSECONDS).longValue(),
+        tokenBucket.acquire(1));
+  }
+
+  @Test
+  public void testBurstIsBounded() {
+    TokenBucket tokenBucket = new TokenBucket(1000, 3, clock);
+
+    clock.advance(Amount.of(1L, Time.SECONDS));
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, tokenBucket.acquire(1));
+    }
+    assertEquals(0, tokenBucket.acquire(1));
+    assertEquals(Amount.of(1L, Time.MILLISECONDS).as(Time.NANOSECONDS).longValue(),
+        tokenBucket.acquire(1));
+  }
+}
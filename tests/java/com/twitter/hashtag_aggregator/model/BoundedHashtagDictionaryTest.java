@@ -0,0 +1,49 @@
+package com.twitter.hashtag_aggregator.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedHashtagDictionaryTest {
+
+  @Test
+  public void testIdsAreStable() {
+    BoundedHashtagDictionary dictionary = new BoundedHashtagDictionary(16);
+    int a = dictionary.getId("#a");
+    int b = dictionary.getId("#b");
+    assertTrue(a != b);
+    assertTrue(a >= 0 && b >= 0);
+    assertEquals(a, dictionary.getId("hello #a world", 6, 2));
+    assertEquals(b, dictionary.getId("#b"));
+    assertEquals(a, new BoundedHashtagDictionary(1).getId("#a"));
+  }
+
+  @Test
+  public void testBounded() {
+    BoundedHashtagDictionary dictionary = new BoundedHashtagDictionary(1000);
+    int numHashtags = 100000;
+    int[] ids = new int[numHashtags];
+    for (int i = 0; i < numHashtags; i++) {
+      ids[i] = dictionary.getId("#" + i);
+    }
+    assertTrue(dictionary.size() <= 1024);
+
+    int forgotten = 0;
+    for (int i = 0; i < numHashtags; i++) {
+      String hashtag = dictionary.getHashtag(ids[i]);
+      if (hashtag == null) {
+        forgotten++;
+      } else {
+        assertEquals("#" + i, hashtag);
+      }
+    }
+    assertTrue(forgotten >= numHashtags - 1024);
+
+    // seeing a forgotten Hashtag again records its text
+    assertNull(dictionary.getHashtag(ids[0]));
+    assertEquals(ids[0], dictionary.getId("#0"));
+    assertEquals("#0", dictionary.getHashtag(ids[0]));
+  }
+}
@@ -0,0 +1,47 @@
+package com.twitter.hashtag_aggregator.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashtagDictionaryTest {
+  private HashtagDictionary dictionary;
+
+  @Before
+  public void setUp() {
+    dictionary = new HashtagDictionary();
+  }
+
+  @Test
+  public void testIdsAreStable() {
+    int a = dictionary.getId("#a");
+    int b = dictionary.getId("#b");
+    assertTrue(a != b);
+    assertEquals(a, dictionary.getId("#a"));
+    assertEquals(b, dictionary.getId("#b"));
+    assertEquals("#a", dictionary.getHashtag(a));
+    assertEquals("#b", dictionary.getHashtag(b));
+    assertEquals(2, dictionary.size());
+  }
+
+  @Test
+  public void testSpanLookup() {
+    int id = dictionary.getId("#foo");
+    assertEquals(id, dictionary.getId("hello #foo world", 6, 4));
+    assertEquals(1, dictionary.size());
+  }
+
+  @Test
+  public void testGrowth() {
+    int numHashtags = 100000;
+    for (int i = 0; i < numHashtags; i++) {
+      assertEquals(i, dictionary.getId("#" + i));
+    }
+    for (int i = 0; i < numHashtags; i++) {
+      assertEquals(i, dictionary.getId("#" + i));
+      assertEquals("#" + i, dictionary.getHashtag(i));
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeavyHittersModelImplTest {
+  private static final String A = "#a";
+  private static final String B = "#b";
+  private static final String C = "#c";
+
+  private HashtagDictionary dictionary;
+
+  @Before
+  public void setUp() {
+    dictionary = new HashtagDictionary();
+  }
+
+  @Test
+  public void testWindow() {
+    // wide enough that a handful of Hashtags never collide in every row
+    Model model = newModel(3, 4, 1 << 16);
+
+    report(model, A);
+    report(model, A, B);
+    report(model, C);
+    assertModel(model, 3, A, A, B, C);
+
+    report(model, B);
+    report(model, B);
+    assertModel(model, 3, A, B, B, B, C);
+  }
+
+  @Test
+  public void testLongTailDoesNotDisplaceCandidates() {
+    Model model = newModel(2, 100, 1 << 16);
+
+    report(model, A, A, A);
+    report(model, B, B);
+    for (int i = 0; i < 50; i++) {
+      report(model, "#tail" + i);
+    }
+    assertModel(model, 2, A, A, A, B, B);
+  }
+
+  @Test
+  public void testNeverUnderestimates() {
+    int windowSize = 50;
+    // narrow enough that Hashtags collide
+    Model model = newModel(10, windowSize, 8);
+
+    Random random = new Random(7);
+    LinkedList<Map<String, Integer>> window = new LinkedList<Map<String, Integer>>();
+    for (int i = 0; i < 1000; i++) {
+      Map<String, Integer> tweet =
+          ImmutableMap.of("#" + random.nextInt(30), 1 + random.nextInt(3));
+      model.report(tweet);
+      window.add(tweet);
+      if (window.size() > windowSize) {
+        window.removeFirst();
+      }
+
+      Map<String, Integer> counts = Maps.newHashMap();
+      for (Map<String, Integer> windowTweet : window) {
+        for (Map.Entry<String, Integer> entry : windowTweet.entrySet()) {
+          Integer count = counts.get(entry.getKey());
+          counts.put(entry.getKey(), (count == null ? 0 : count) + entry.getValue());
+        }
+      }
+      for (Model.Hashtag hashtag : model.query(10)) {
+        Integer count = counts.get(hashtag.getHashtag());
+        assertTrue(hashtag.getCount() >= (count == null ? 0 : count));
+      }
+    }
+  }
+
+  @Test
+  public void testForgottenHashtagsAdmittedWhenSeenAgain() {
+    // remembers the text of a single Hashtag
+    dictionary = new BoundedHashtagDictionary(1);
+    Model model = newModel(3, 10, 1 << 16);
+
+    report(model, A);
+    int b = dictionary.getId(B);
+    dictionary.getId(C);
+    model.report(new int[] {b, 1}, 2);
+    assertModel(model, 3, A);
+
+    report(model, B);
+    assertModel(model, 3, A, B, B);
+  }
+
+  private Model newModel(int maxHashtags, int windowSize, int sketchWidth) {
+    return new HeavyHittersModelImpl(dictionary, maxHashtags, windowSize,
+        new CountMinSketch(sketchWidth, 4, new Random(1)));
+  }
+
+  private void report(Model model, String... hashtags) {
+    model.report(toMap(hashtags));
+  }
+
+  private void assertModel(Model model, int n, String... hashtags) {
+    Map<String, Integer> observed = Maps.newHashMap();
+    for (Model.Hashtag hashtag : model.query(n)) {
+      observed.put(hashtag.getHashtag(), hashtag.getCount());
+    }
+    assertEquals(toMap(hashtags), observed);
+  }
+
+  private Map<String, Integer> toMap(String... hashtags) {
+    Map<String, Integer> map = Maps.newHashMap();
+    for (String hashtag : hashtags) {
+      if (map.containsKey(hashtag)) {
+        map.put(hashtag, map.get(hashtag) + 1);
+      } else {
+        map.put(hashtag, 1);
+      }
+    }
+    return map;
+  }
+}
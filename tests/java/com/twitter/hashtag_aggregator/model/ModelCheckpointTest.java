@@ -0,0 +1,189 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ModelCheckpointTest {
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("model", ".checkpoint");
+    assertTrue(file.delete());
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    new File(file.getPath() + ".tmp").delete();
+  }
+
+  @Test
+  public void testNoCheckpoint() throws IOException {
+    HashtagDictionary dictionary = new HashtagDictionary();
+    assertFalse(new ModelCheckpoint(file, dictionary, new SlidingWindowModelImpl(dictionary, 10, 5))
+        .restore());
+  }
+
+  @Test
+  public void testSlidingWindow() throws IOException {
+    HashtagDictionary dictionary = new HashtagDictionary();
+    CheckpointableModel model = new SlidingWindowModelImpl(dictionary, 10, 5);
+    reportTweets(dictionary, model);
+    new ModelCheckpoint(file, dictionary, model).save();
+
+    HashtagDictionary restoredDictionary = new HashtagDictionary();
+    CheckpointableModel restored = new SlidingWindowModelImpl(restoredDictionary, 10, 5);
+    assertTrue(new ModelCheckpoint(file, restoredDictionary, restored).restore());
+    assertSameTop(model.query(10), restored.query(10));
+
+    // the restored window expires the same Tweets as the original
+    report(dictionary, model, "#d");
+    report(restoredDictionary, restored, "#d");
+    assertSameTop(model.query(10), restored.query(10));
+  }
+
+  @Test
+  public void testSharded() throws IOException {
+    HashtagDictionary dictionary = new HashtagDictionary();
+    CheckpointableModel model = new ShardedModelImpl(dictionary, 10, 5, 3);
+    reportTweets(dictionary, model);
+    new ModelCheckpoint(file, dictionary, model).save();
+
+    HashtagDictionary restoredDictionary = new HashtagDictionary();
+    CheckpointableModel restored = new ShardedModelImpl(restoredDictionary, 10, 5, 2);
+    assertTrue(new ModelCheckpoint(file, restoredDictionary, restored).restore());
+    assertSameTop(model.query(10), restored.query(10));
+
+    report(dictionary, model, "#d");
+    report(restoredDictionary, restored, "#d");
+    assertSameTop(model.query(10), restored.query(10));
+  }
+
+  @Test
+  public void testSavesOnlyHashtagsInWindow() throws IOException {
+    HashtagDictionary dictionary = new HashtagDictionary();
+    CheckpointableModel model = new SlidingWindowModelImpl(dictionary, 10, 5);
+    reportTweets(dictionary, model);
+    new ModelCheckpoint(file, dictionary, model).save();
+
+    // #z has left the window, and ids are looked up again in a dictionary that is not empty
+    HashtagDictionary restoredDictionary = new HashtagDictionary();
+    restoredDictionary.getId("#x");
+    CheckpointableModel restored = new SlidingWindowModelImpl(restoredDictionary, 10, 5);
+    assertTrue(new ModelCheckpoint(file, restoredDictionary, restored).restore());
+    assertSameTop(model.query(10), restored.query(10));
+    assertEquals(4, restoredDictionary.size());
+  }
+
+  @Test
+  public void testHeavyHitters() throws IOException {
+    HashtagDictionary dictionary = new BoundedHashtagDictionary(64);
+    CheckpointableModel model = new HeavyHittersModelImpl(dictionary, 10, 5, 0.01, 0.01);
+    reportTweets(dictionary, model);
+    new ModelCheckpoint(file, dictionary, model).save();
+
+    HashtagDictionary restoredDictionary = new BoundedHashtagDictionary(64);
+    CheckpointableModel restored =
+        new HeavyHittersModelImpl(restoredDictionary, 10, 5, 0.01, 0.01);
+    assertTrue(new ModelCheckpoint(file, restoredDictionary, restored).restore());
+    assertSameTop(model.query(10), restored.query(10));
+  }
+
+  @Test
+  public void testTruncatedCheckpoint() throws IOException {
+    HashtagDictionary dictionary = new HashtagDictionary();
+    CheckpointableModel model = new SlidingWindowModelImpl(dictionary, 10, 5);
+    reportTweets(dictionary, model);
+    new ModelCheckpoint(file, dictionary, model).save();
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      out.setLength(out.length() - 4);
+    } finally {
+      out.close();
+    }
+
+    HashtagDictionary restoredDictionary = new HashtagDictionary();
+    CheckpointableModel restored = new SlidingWindowModelImpl(restoredDictionary, 10, 5);
+    try {
+      new ModelCheckpoint(file, restoredDictionary, restored).restore();
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+
+    // nothing was restored before the checkpoint was found to be truncated
+    assertEquals(0, restoredDictionary.size());
+    assertEquals(0, restored.query(10).size());
+  }
+
+  @Test
+  public void testCorruptCheckpoint() throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(new byte[] {1, 2, 3, 4, 5, 6});
+    } finally {
+      out.close();
+    }
+
+    HashtagDictionary dictionary = new HashtagDictionary();
+    try {
+      new ModelCheckpoint(file, dictionary, new SlidingWindowModelImpl(dictionary, 10, 5))
+          .restore();
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private static void reportTweets(HashtagDictionary dictionary, CheckpointableModel model) {
+    report(dictionary, model, "#a", "#b");
+    report(dictionary, model, "#z");
+    report(dictionary, model, "#a", "#b", "#c");
+    report(dictionary, model);
+    report(dictionary, model, "#b");
+    report(dictionary, model, "#c", "#a");
+    report(dictionary, model, "#b", "#c");
+  }
+
+  private static void report(HashtagDictionary dictionary, Model model, String... hashtags) {
+    int[] hashtagCounts = new int[hashtags.length * 2];
+    for (int i = 0; i < hashtags.length; i++) {
+      hashtagCounts[i * 2] = dictionary.getId(hashtags[i]);
+      hashtagCounts[i * 2 + 1] = 1;
+    }
+    model.report(hashtagCounts, hashtagCounts.length);
+  }
+
+  /**
+   * Hashtags that have dropped to a count of zero are still tracked by the original model but are
+   * not part of the checkpoint, so only Hashtags that still count are compared.
+   */
+  private static void assertSameTop(List<Model.Hashtag> expected, List<Model.Hashtag> actual) {
+    List<Model.Hashtag> counted = Lists.newArrayList();
+    for (Model.Hashtag hashtag : expected) {
+      if (hashtag.getCount() > 0) {
+        counted.add(hashtag);
+      }
+    }
+    assertEquals(counted.size(), actual.size());
+    for (int i = 0; i < counted.size(); i++) {
+      assertEquals(counted.get(i).getHashtag(), actual.get(i).getHashtag());
+      assertEquals(counted.get(i).getCount(), actual.get(i).getCount());
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.Maps;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShardedModelImplTest {
+  private static final int MAX_HASHTAGS = 1000;
+  private static final int WINDOW_SIZE = 50;
+
+  @Test
+  public void testMatchesSingleLockModel() {
+    Random random = new Random(1234);
+    Model expected = new SlidingWindowModelImpl(MAX_HASHTAGS, WINDOW_SIZE);
+    Model sharded = new ShardedModelImpl(MAX_HASHTAGS, WINDOW_SIZE, 4);
+
+    for (int i = 0; i < 2000; i++) {
+      Map<String, Integer> tweet = Maps.newHashMap();
+      int numHashtags = random.nextInt(4);
+      for (int j = 0; j < numHashtags; j++) {
+        String hashtag = "#" + random.nextInt(100);
+        Integer count = tweet.get(hashtag);
+        tweet.put(hashtag, count == null ? 1 : count + 1);
+      }
+      expected.report(tweet);
+      sharded.report(tweet);
+
+      if (i % 10 == 0) {
+        assertSameCounts(expected.query(20), sharded.query(20));
+      }
+    }
+  }
+
+  @Test
+  public void testSkewedShardDoesNotEvict() {
+    HashtagDictionary dictionary = new HashtagDictionary();
+    Model sharded = new ShardedModelImpl(dictionary, 4, WINDOW_SIZE, 4);
+
+    // ids 0, 4, 8 and 12 all hash to the first shard
+    int[] hashtagCounts = new int[2];
+    for (int i = 0; i < 16; i++) {
+      dictionary.getId("#" + i);
+    }
+    for (int i = 0; i < 16; i += 4) {
+      hashtagCounts[0] = i;
+      hashtagCounts[1] = i + 1;
+      sharded.report(hashtagCounts, 2);
+    }
+
+    List<Model.Hashtag> top = sharded.query(10);
+    assertEquals(4, top.size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals("#" + (12 - 4 * i), top.get(i).getHashtag());
+      assertEquals(13 - 4 * i, top.get(i).getCount());
+    }
+  }
+
+  @Test
+  public void testWindowAdvancesWithoutShardTraffic() {
+    Model sharded = new ShardedModelImpl(MAX_HASHTAGS, 2, 2);
+    sharded.report(toMap("#a"));
+    assertEquals(1, sharded.query(1).get(0).getCount());
+
+    // tweets without hashtags still push #a out of the window
+    sharded.report(toMap());
+    sharded.report(toMap());
+    assertEquals(0, sharded.query(1).get(0).getCount());
+  }
+
+  private void assertSameCounts(List<Model.Hashtag> expected, List<Model.Hashtag> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getHashtag(), actual.get(i).getHashtag());
+      assertEquals(expected.get(i).getCount(), actual.get(i).getCount());
+    }
+  }
+
+  private Map<String, Integer> toMap(String... hashtags) {
+    Map<String, Integer> map = Maps.newHashMap();
+    for (String hashtag : hashtags) {
+      map.put(hashtag, 1);
+    }
+    return map;
+  }
+}
@@ -48,6 +48,28 @@ public class SlidingWindowModelImplTest {
     assertModel(4, B, B, D, D, E, F);
   }
 
+  @Test
+  public void testBatches() {
+    HashtagDictionary dictionary = new HashtagDictionary();
+    int a = dictionary.getId(A);
+    int b = dictionary.getId(B);
+    model = new SlidingWindowModelImpl(dictionary, 4, 5);
+
+    // a batch of 3 Tweets: #a twice and #b once
+    model.report(new int[] {a, 2, b, 1}, 4, 3);
+    assertModel(2, A, A, B);
+
+    // the batch stays until its last Tweet leaves the window
+    report(C);
+    report(C);
+    report(C);
+    report(C);
+    assertModel(3, A, A, B, C, C, C, C);
+
+    report(D);
+    assertModel(2, C, C, C, C, D);
+  }
+
   private void report(String... hashtags) {
     model.report(toMap(hashtags));
   }
@@ -0,0 +1,113 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.testing.FakeClock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SnapshotModelTest {
+  private FakeClock clock;
+  private Model delegate;
+  private SnapshotModel model;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    delegate = new SlidingWindowModelImpl(10, 100);
+    model = new SnapshotModel(delegate, 2, 3, Amount.of(1L, Time.SECONDS), clock);
+  }
+
+  @Test
+  public void testPublishesEveryNUpdates() {
+    report("#a");
+    report("#a");
+    assertEquals(0, model.query(2).size());
+
+    report("#b");
+    assertTop(model.query(2), "#a", 2, "#b", 1);
+
+    report("#b");
+    report("#b");
+    assertTop(model.query(2), "#a", 2, "#b", 1);
+
+    report("#c");
+    assertTop(model.query(2), "#b", 3, "#a", 2);
+  }
+
+  @Test
+  public void testPublishesWhenBatchStepsOverN() {
+    report("#a");
+    assertEquals(0, model.query(2).size());
+
+    // a batch of 3 more Tweets, each with #a, takes the count of updates from 1 past 3 to 4
+    model.report(new int[] {0, 3}, 2, 3);
+    assertTop(model.query(2), "#a", 4);
+  }
+
+  @Test
+  public void testPublishesWhenStale() {
+    report("#a");
+    assertEquals(0, model.query(2).size());
+
+    // queries do not republish a stale snapshot
+    clock.advance(Amount.of(1L, Time.SECONDS));
+    assertEquals(0, model.query(2).size());
+
+    model.publishIfStale();
+    assertTop(model.query(2), "#a", 1);
+  }
+
+  @Test
+  public void testReportPublishesWhenStale() {
+    report("#a");
+    assertEquals(0, model.query(2).size());
+
+    clock.advance(Amount.of(1L, Time.SECONDS));
+    report("#b");
+    assertTop(model.query(2), "#a", 1, "#b", 1);
+  }
+
+  @Test
+  public void testPublishIfStaleKeepsFreshSnapshot() {
+    report("#a");
+    model.publishIfStale();
+    assertEquals(0, model.query(2).size());
+  }
+
+  @Test
+  public void testQueries() {
+    report("#a");
+    report("#b");
+    report("#c");
+    report("#c");
+
+    // served from the snapshot without touching the delegate
+    List<Model.Hashtag> top = model.query(2);
+    assertSame(top, model.query(2));
+    assertTop(model.query(1), "#a", 1);
+
+    // more than the snapshot holds
+    assertEquals(3, model.query(3).size());
+  }
+
+  private void report(String hashtag) {
+    model.report(ImmutableMap.of(hashtag, 1));
+  }
+
+  private void assertTop(List<Model.Hashtag> top, Object... expected) {
+    assertEquals(expected.length / 2, top.size());
+    for (int i = 0; i < top.size(); i++) {
+      assertEquals(expected[i * 2], top.get(i).getHashtag());
+      assertEquals(expected[i * 2 + 1], top.get(i).getCount());
+    }
+  }
+}
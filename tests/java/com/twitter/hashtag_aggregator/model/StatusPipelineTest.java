@@ -0,0 +1,113 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.hashtag_aggregator.text.Extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StatusPipelineTest {
+  private BlockingQueue<String> msgQueue;
+  private Model model;
+  private StatusPipeline pipeline;
+
+  @Before
+  public void setUp() {
+    msgQueue = new LinkedBlockingQueue<String>();
+    HashtagDictionary dictionary = new HashtagDictionary();
+    model = new SlidingWindowModelImpl(dictionary, 10, 1000);
+    pipeline = new StatusPipeline(msgQueue, model, dictionary,
+        new Provider<Extractor>() {
+          @Override public Extractor get() {
+            return new WhitespaceExtractor();
+          }
+        },
+        2, 3, 1, 4, 2);
+  }
+
+  @After
+  public void tearDown() {
+    pipeline.stop();
+  }
+
+  @Test
+  public void testParseText() throws Exception {
+    assertEquals("#a b", pipeline.parseText(
+        "{\"id\": 1, \"user\": {\"text\": \"bio\"}, \"text\": \"#a b\", \"lang\": \"en\"}"));
+    assertEquals("#b", pipeline.parseText(
+        "{\"retweeted_status\": {\"text\": \"#a\"}, \"text\": \"#b\"}"));
+    assertNull(pipeline.parseText("{\"delete\": {\"status\": {\"id\": 1}}}"));
+    assertNull(pipeline.parseText(""));
+  }
+
+  @Test
+  public void testPipeline() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      msgQueue.put("{\"text\": \"#a " + (i % 2 == 0 ? "#b" : "") + "\"}");
+      msgQueue.put("{\"delete\": {\"status\": {\"id\": 1}}}");
+    }
+    msgQueue.put("not json");
+    msgQueue.put("{\"text\": \"#c\"}");
+    pipeline.start();
+
+    // batches complete out of order, so wait for every hashtag to be counted
+    List<Model.Hashtag> top = model.query(3);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (total(top) < 151 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      top = model.query(3);
+    }
+
+    assertEquals(3, top.size());
+    assertEquals("#a", top.get(0).getHashtag());
+    assertEquals(100, top.get(0).getCount());
+    assertEquals("#b", top.get(1).getHashtag());
+    assertEquals(50, top.get(1).getCount());
+    assertEquals("#c", top.get(2).getHashtag());
+    assertEquals(1, top.get(2).getCount());
+  }
+
+  private static int total(List<Model.Hashtag> hashtags) {
+    int total = 0;
+    for (Model.Hashtag hashtag : hashtags) {
+      total += hashtag.getCount();
+    }
+    return total;
+  }
+
+  private static class WhitespaceExtractor implements Extractor {
+    @Override
+    public List<String> extractHashtags(String text) {
+      final List<String> hashtags = Lists.newArrayList();
+      extractHashtags(text, new Handler() {
+        @Override public void onHashtag(CharSequence seq, int offset, int length) {
+          hashtags.add(seq.subSequence(offset, offset + length).toString());
+        }
+      });
+      return hashtags;
+    }
+
+    @Override
+    public void extractHashtags(String text, Handler handler) {
+      int start = 0;
+      for (int i = 0; i <= text.length(); i++) {
+        if (i == text.length() || text.charAt(i) == ' ') {
+          if (i > start && text.charAt(start) == '#') {
+            handler.onHashtag(text, start, i - start);
+          }
+          start = i + 1;
+        }
+      }
+    }
+  }
+}
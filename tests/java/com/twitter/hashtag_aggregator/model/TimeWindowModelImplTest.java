@@ -0,0 +1,95 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.testing.FakeClock;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimeWindowModelImplTest {
+  private static final String A = "#a";
+  private static final String B = "#b";
+  private static final String C = "#c";
+
+  private FakeClock clock;
+  private Model model;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    model = new TimeWindowModelImpl(new HashtagDictionary(), 10,
+        Amount.of(3L, Time.SECONDS), Amount.of(1L, Time.SECONDS), clock);
+  }
+
+  @Test
+  public void testBucketsExpire() {
+    report(A, A, B);
+    assertModel(2, A, A, B);
+
+    advance(1000);
+    report(B, C);
+    assertModel(3, A, A, B, B, C);
+
+    advance(1000);
+    report(C);
+    assertModel(3, A, A, B, B, C, C);
+
+    // the first bucket leaves the window
+    advance(1000);
+    assertModel(2, B, C, C);
+
+    advance(1000);
+    assertModel(1, C);
+
+    advance(1000);
+    report(A);
+    assertModel(1, A);
+  }
+
+  @Test
+  public void testIdleLongerThanWindow() {
+    report(A, B);
+    advance(60 * 1000);
+    assertModel(0);
+
+    report(C);
+    assertModel(1, C);
+  }
+
+  private void advance(long millis) {
+    clock.advance(Amount.of(millis, Time.MILLISECONDS));
+  }
+
+  private void report(String... hashtags) {
+    model.report(toMap(hashtags));
+  }
+
+  private void assertModel(int n, String... hashtags) {
+    Map<String, Integer> observed = Maps.newHashMap();
+    for (Model.Hashtag hashtag : model.query(n)) {
+      if (hashtag.getCount() > 0) {
+        observed.put(hashtag.getHashtag(), hashtag.getCount());
+      }
+    }
+    assertEquals(toMap(hashtags), observed);
+  }
+
+  private Map<String, Integer> toMap(String... hashtags) {
+    Map<String, Integer> map = Maps.newHashMap();
+    for (String hashtag : hashtags) {
+      if (map.containsKey(hashtag)) {
+        map.put(hashtag, map.get(hashtag) + 1);
+      } else {
+        map.put(hashtag, 1);
+      }
+    }
+    return map;
+  }
+}
@@ -0,0 +1,114 @@
+package com.twitter.hashtag_aggregator.model;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.testing.FakeClock;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrendingModelTest {
+  private FakeClock clock;
+  private HashtagDictionary dictionary;
+  private Model delegate;
+  private TrendingModel model;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    dictionary = new HashtagDictionary();
+    delegate = new SlidingWindowModelImpl(dictionary, 10, 100);
+    model = new TrendingModel(delegate, dictionary, 10,
+        ImmutableList.of(Amount.of(10L, Time.SECONDS), Amount.of(20L, Time.SECONDS)),
+        Amount.of(10L, Time.SECONDS), clock);
+  }
+
+  @Test
+  public void testWindows() {
+    assertEquals(ImmutableList.of("10s", "20s"), model.windows());
+
+    model = new TrendingModel(delegate, dictionary, 10,
+        ImmutableList.of(Amount.of(1L, Time.MINUTES), Amount.of(15L, Time.MINUTES),
+            Amount.of(1L, Time.HOURS)),
+        Amount.of(5L, Time.SECONDS), clock);
+    assertEquals(ImmutableList.of("1m", "15m", "1h"), model.windows());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownWindow() {
+    model.query("1h", 10);
+  }
+
+  @Test
+  public void testTrends() {
+    assertTrendsOverTime();
+  }
+
+  @Test
+  public void testSharded() {
+    model = new TrendingModel(delegate, dictionary, 10,
+        ImmutableList.of(Amount.of(10L, Time.SECONDS), Amount.of(20L, Time.SECONDS)),
+        Amount.of(10L, Time.SECONDS), clock, 3);
+    assertTrendsOverTime();
+  }
+
+  private void assertTrendsOverTime() {
+    report("#a", 2, "#b", 1);
+    assertTrends(model.query("10s", 10), "#a", 2, 2, 2, "#b", 1, 1, 1);
+    assertEquals("#a", model.query(1).get(0).getHashtag());
+
+    clock.advance(Amount.of(10L, Time.SECONDS));
+    report("#a", 1);
+    assertTrends(model.query("10s", 10), "#a", 1, -1, -3, "#b", 0, -1, -2);
+    assertTrends(model.query("20s", 10), "#a", 3, 3, 3, "#b", 1, 1, 1);
+
+    clock.advance(Amount.of(30L, Time.SECONDS));
+    assertTrends(model.query("10s", 10), "#a", 0, 0, 0, "#b", 0, 0, 0);
+    assertTrends(model.query("20s", 10), "#a", 0, -1, 0, "#b", 0, 0, 1);
+
+    // long idle periods expire everything
+    clock.advance(Amount.of(1L, Time.HOURS));
+    assertTrends(model.query("20s", 10), "#a", 0, 0, 0, "#b", 0, 0, 0);
+
+    // the decorated model sees every Tweet
+    assertEquals(3, delegate.query(1).get(0).getCount());
+  }
+
+  @Test
+  public void testNoWindows() {
+    model = new TrendingModel(delegate, dictionary, 10, ImmutableList.<Amount<Long, Time>>of(),
+        Amount.of(10L, Time.SECONDS), clock);
+    report("#a", 1);
+    assertEquals(ImmutableList.<String>of(), model.windows());
+    assertEquals("#a", model.query(1).get(0).getHashtag());
+  }
+
+  private void report(Object... hashtagCounts) {
+    int[] packed = new int[hashtagCounts.length];
+    for (int i = 0; i < hashtagCounts.length; i += 2) {
+      packed[i] = dictionary.getId((String) hashtagCounts[i]);
+      packed[i + 1] = (Integer) hashtagCounts[i + 1];
+    }
+    model.report(packed, packed.length);
+  }
+
+  /**
+   * Asserts (hashtag, count, velocity, acceleration) tuples.
+   */
+  private static void assertTrends(List<TrendModel.Trend> trends, Object... expected) {
+    assertEquals(expected.length / 4, trends.size());
+    for (int i = 0; i < trends.size(); i++) {
+      TrendModel.Trend trend = trends.get(i);
+      assertEquals(expected[i * 4], trend.getHashtag());
+      assertEquals(expected[i * 4 + 1], trend.getCount());
+      assertEquals(expected[i * 4 + 2], trend.getVelocity());
+      assertEquals(expected[i * 4 + 3], trend.getAcceleration());
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package com.twitter.hashtag_aggregator.text;
 
+import java.util.List;
+
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
 import org.junit.Test;
 
@@ -14,4 +17,16 @@ public class ExtractorImplTest {
     assertEquals(ImmutableList.of("#foo", "#bar"),
         tokenizer.extractHashtags("hello #foo world #bar twitter"));
   }
+
+  @Test
+  public void testExtractorImplHandler() {
+    ExtractorImpl tokenizer = new ExtractorImpl();
+    final List<String> hashtags = Lists.newArrayList();
+    tokenizer.extractHashtags("hello #foo world #bar twitter", new Extractor.Handler() {
+      @Override public void onHashtag(CharSequence text, int offset, int length) {
+        hashtags.add(text.subSequence(offset, offset + length).toString());
+      }
+    });
+    assertEquals(ImmutableList.of("#foo", "#bar"), hashtags);
+  }
 }